@@ -2,169 +2,270 @@ package com.ultracast.demo;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.AssetManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
-import android.util.JsonReader;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import com.ultracast.demo.catalog.BinaryCatalog;
+import com.ultracast.demo.catalog.Catalog;
+import com.ultracast.demo.catalog.PagedCatalog;
+import com.ultracast.demo.catalog.Sample;
+import com.ultracast.demo.download.Download;
+import com.ultracast.demo.download.DownloadManager;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.memory.MemoryBudget;
+import com.ultracast.demo.metrics.StartupTrace;
+import com.ultracast.demo.playback.PlayQueue;
+import com.ultracast.demo.playback.PlayerHost;
+import com.ultracast.demo.playback.ResumeStore;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
 
-public class DemoActivity extends AppCompatActivity {
+public class DemoActivity extends AppCompatActivity implements PagedCatalog.Listener, DownloadManager.Listener {
+
+    private static final String TAG = "DemoActivity";
+    private static final String CATALOG_INDEX = "catalog.bin";
+    private static final String CATALOG_JSON = "urls.json";
+    private static final String CATALOG_SPILL_FILE = "catalog.pages";
+    // debug builds only, plays the url once the list is shown, see scripts/startup-benchmark.sh
+    private static final String AUTOPLAY_EXTRA = "autoplay_url";
+
+    private Catalog catalog;
+    private SamplesAdapter adapter;
+    private boolean listShown;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
+        StartupTrace.begin("DemoActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_demo);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
-        SampleListLoader loaderTask = new SampleListLoader();
-        loaderTask.execute("urls.json");
+        catalog = openCatalog();
+        PlayQueue.getInstance().setCatalog(catalog);
+        showData();
+        // starts loading the resume positions before a video is picked
+        ResumeStore.getInstance(this);
+        DownloadManager.getInstance(this).resumeAll();
+        StartupTrace.end("DemoActivity.onCreate");
     }
 
-    private void buildIntent(String url) {
-        Intent intent = new Intent(this, PlayerActivity.class);
-        intent.putExtra(PlayerActivity.URL_EXTRA, url);
-        startActivity(intent);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        DownloadManager.getInstance(this).addListener(this);
+        adapter.notifyDataSetChanged();
     }
 
-    private void showData(final List<Sample> samples) {
-        ListView listView = (ListView) findViewById(R.id.items);
-        listView.setAdapter(new SamplesAdapter(getApplicationContext(), samples));
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                buildIntent(samples.get(position).getUrl());
-            }
-        });
+    @Override
+    protected void onStop() {
+        super.onStop();
+        DownloadManager.getInstance(this).removeListener(this);
     }
 
-    private static class Sample {
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PlayQueue.getInstance().clear(catalog);
+        if (catalog instanceof PagedCatalog) {
+            MemoryBudget.getInstance(this).unregister((PagedCatalog) catalog);
+        }
+        catalog.close();
+    }
 
-        private String title;
-        private String url;
+    @Override
+    public void onBackPressed() {
+        // leaving the catalog, the parked player is not needed anymore
+        PlayerHost.evictParked();
+        super.onBackPressed();
+    }
 
-        Sample(String title, String url) {
-            this.title = title;
-            this.url = url;
+    /**
+     * @param position the catalog position of the sample, -1 if it is not from the catalog
+     */
+    private void buildIntent(Sample sample, int position) {
+        Intent intent = PlayerActivity.newIntent(this, sample);
+        if (BuildConfig.DEBUG) {
+            // set on the launch intent, see scripts/hls-origin.py --live and scripts/tiled-origin.py
+            intent.putExtra(PlayerActivity.LIVE_LATENCY_EXTRA,
+                    getIntent().getLongExtra(PlayerActivity.LIVE_LATENCY_EXTRA, 0));
+            intent.putExtra(PlayerActivity.TILED_LOADING_EXTRA,
+                    getIntent().getBooleanExtra(PlayerActivity.TILED_LOADING_EXTRA, false));
         }
+        PlayQueue.getInstance().setPosition(position);
+        StartupTrace.mark(StartupTrace.MARK_TAP);
+        startActivity(intent);
+    }
 
-        public String getTitle() {
-            return title;
-        }
+    /* PagedCatalog.Listener */
 
-        public void setTitle(String title) {
-            this.title = title;
-        }
+    @Override
+    public void onCatalogChanged() {
+        adapter.notifyDataSetChanged();
+        onListShown();
+    }
 
-        public String getUrl() {
-            return url;
-        }
+    /* DownloadManager.Listener */
 
-        public void setUrl(String url) {
-            this.url = url;
-        }
+    @Override
+    public void onProgress(Download download) {
+        adapter.notifyDataSetChanged();
     }
 
-    private final class SampleListLoader extends AsyncTask<String, Void, List<Sample>> {
+    @Override
+    public void onStateChanged(Download download) {
+        if (download.getError() != null) {
+            Log.w(TAG, "Download of " + download.getUrl() + " paused: " + download.getError());
+        }
+        adapter.notifyDataSetChanged();
+    }
 
-        private String TAG = "SampleListLoader";
+    /* --- */
+
+    /**
+     * Starts or pauses downloading a sample, or deletes it once downloaded.
+     */
+    private void toggleDownload(Sample sample) {
+        DownloadManager downloads = DownloadManager.getInstance(this);
+        Download download = downloads.get(sample.getUrl());
+        if (download == null || download.getState() == Download.STATE_PAUSED) {
+            downloads.start(sample.getUrl(), sample.getTitle());
+        } else if (download.getState() == Download.STATE_COMPLETED) {
+            downloads.remove(sample.getUrl());
+        } else {
+            downloads.pause(sample.getUrl());
+        }
+        adapter.notifyDataSetChanged();
+    }
 
-        @Override
-        protected List<Sample> doInBackground(String... strings) {
-            List<Sample> samples = new ArrayList<>();
-            AssetManager manager;
-            try {
-                manager = getAssets();
-                InputStream in = manager.open(strings[0]);
-                readJsonStream(in, samples);
-            } catch (IOException e) {
-                Log.e(TAG, "Error loading sample list: ", e);
-            }
+    private Catalog openCatalog() {
+        StartupTrace.begin("catalog.open");
+        try {
+            return BinaryCatalog.open(getAssets(), CATALOG_INDEX);
+        } catch (IOException e) {
+            Log.w(TAG, "No usable catalog index, parsing " + CATALOG_JSON, e);
+            PagedCatalog pagedCatalog = new PagedCatalog(new File(getCacheDir(), CATALOG_SPILL_FILE), this);
+            pagedCatalog.load(getAssets(), CATALOG_JSON);
+            MemoryBudget.getInstance(this).register("catalog pages", MemoryBudget.PRIORITY_NORMAL, pagedCatalog);
+            return pagedCatalog;
+        } finally {
+            StartupTrace.end("catalog.open");
+        }
+    }
 
-            return samples;
+    private void onListShown() {
+        if (listShown || catalog.getCount() == 0) {
+            return;
         }
+        listShown = true;
+        StartupTrace.mark(StartupTrace.MARK_LIST_SHOWN);
+        String autoplayUrl = getIntent().getStringExtra(AUTOPLAY_EXTRA);
+        if (BuildConfig.DEBUG && autoplayUrl != null) {
+            buildIntent(new Sample(autoplayUrl, autoplayUrl, null), -1);
+        }
+    }
 
-        @Override
-        protected void onPostExecute(List<Sample> samples) {
-            showData(samples);
-        }
-
-        private List<Sample> readJsonStream(InputStream in, List<Sample> samples) throws IOException {
-            JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
-            try {
-                return readSamplesArray(reader, samples);
-            } finally {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    //ignored
+    private void showData() {
+        StartupTrace.begin("showData");
+        ListView listView = (ListView) findViewById(R.id.items);
+        adapter = new SamplesAdapter(getApplicationContext(), catalog, DownloadManager.getInstance(this));
+        listView.setAdapter(adapter);
+        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+                Sample sample = catalog.get(position);
+                if (sample != null) {
+                    buildIntent(sample, position);
                 }
             }
-        }
+        });
+        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> adapterView, View view, int position, long id) {
+                Sample sample = catalog.get(position);
+                // only HLS VOD can be downloaded
+                if (sample == null || !ManifestPrefetcher.isHls(sample.getUrl())) {
+                    return false;
+                }
+                toggleDownload(sample);
+                return true;
+            }
+        });
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            private int scrollState = SCROLL_STATE_IDLE;
+            private int prefetchedFirst = -1;
+            private int prefetchedCount = -1;
 
-        private List<Sample> readSamplesArray(JsonReader reader, List<Sample> samples) throws IOException {
-            reader.beginArray();
-            while (reader.hasNext()) {
-                Sample sample = readSample(reader);
-                if (sample != null) {
-                    samples.add(sample);
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                this.scrollState = scrollState;
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    onRowsChanged(view.getFirstVisiblePosition(), view.getChildCount());
                 }
             }
-            reader.endArray();
-            return samples;
-        }
-
-        private Sample readSample(JsonReader reader) throws IOException {
-            String title = null;
-            String url = null;
-
-            reader.beginObject();
-            while (reader.hasNext()) {
-                String name = reader.nextName();
-                if ("title".equals(name)) {
-                    title = reader.nextString();
-                } else if ("url".equals(name)) {
-                    url = reader.nextString();
-                } else {
-                    reader.skipValue();
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                // rows fly past while flinging, the ones it stops at are prefetched once idle
+                if (scrollState != SCROLL_STATE_FLING) {
+                    onRowsChanged(firstVisibleItem, visibleItemCount);
                 }
             }
-            reader.endObject();
-            if (!isNullOrEmpty(title) & !isNullOrEmpty(url)) {
-                return new Sample(title, url);
-            } else {
-                return null;
+
+            // called for every pixel scrolled, the rows change far less often
+            private void onRowsChanged(int first, int count) {
+                if (first != prefetchedFirst || count != prefetchedCount) {
+                    prefetchedFirst = first;
+                    prefetchedCount = count;
+                    prefetch(first, count);
+                }
             }
-        }
+        });
+        StartupTrace.end("showData");
+        onListShown();
+    }
 
-        private boolean isNullOrEmpty(String s) {
-            return s == null || s.isEmpty();
+    private void prefetch(int first, int count) {
+        ManifestPrefetcher prefetcher = ManifestPrefetcher.getInstance(this);
+        for (int i = first; i < first + count && i < catalog.getCount(); i++) {
+            Sample sample = catalog.get(i);
+            if (sample != null) {
+                prefetcher.prefetch(sample.getUrl());
+            }
         }
     }
 
     private static class SamplesAdapter extends BaseAdapter {
 
+        private static class ViewHolder {
+            final TextView title;
+
+            ViewHolder(View view) {
+                title = (TextView) view.findViewById(R.id.title);
+            }
+        }
+
+        private Context context;
         private LayoutInflater inflater;
-        private List<Sample> samples;
+        private Catalog catalog;
+        private DownloadManager downloads;
 
-        SamplesAdapter(Context context, List<Sample> samples) {
+        SamplesAdapter(Context context, Catalog catalog, DownloadManager downloads) {
+            this.context = context;
             inflater = LayoutInflater.from(context);
-            this.samples = samples;
+            this.catalog = catalog;
+            this.downloads = downloads;
         }
 
         @Override
@@ -174,12 +275,12 @@ public class DemoActivity extends AppCompatActivity {
 
         @Override
         public int getCount() {
-            return samples != null ? samples.size() : 0;
+            return catalog.getCount();
         }
 
         @Override
         public Object getItem(int position) {
-            return samples.get(position);
+            return catalog.get(position);
         }
 
         @Override
@@ -187,23 +288,49 @@ public class DemoActivity extends AppCompatActivity {
             return position;
         }
 
-        private Sample getSample(int position) {
-            return (Sample) getItem(position);
+        @Override
+        public boolean hasStableIds() {
+            return true;
         }
 
         @Override
         public View getView(int position, View convertedView, ViewGroup parent) {
             View view = convertedView;
+            ViewHolder holder;
             if (view == null) {
                 view = inflater.inflate(R.layout.simple_list_item, parent, false);
+                holder = new ViewHolder(view);
+                view.setTag(holder);
+            } else {
+                holder = (ViewHolder) view.getTag();
             }
 
-            Sample sample = getSample(position);
-            TextView title = (TextView) view.findViewById(R.id.title);
-            title.setText(sample.getTitle());
+            // the row stays blank until its page is read back, the adapter is notified then
+            String title = catalog.getTitle(position);
+            if (title != null && downloads.hasDownloads()) {
+                title = withDownloadState(position, title);
+            }
+            holder.title.setText(title);
             return view;
         }
 
+        private String withDownloadState(int position, String title) {
+            Sample sample = catalog.get(position);
+            Download download = sample != null ? downloads.get(sample.getUrl()) : null;
+            if (download == null) {
+                return title;
+            }
+            int percent = Math.round(download.getProgress() * 100);
+            switch (download.getState()) {
+                case Download.STATE_COMPLETED:
+                    return context.getString(R.string.download_completed, title);
+                case Download.STATE_PAUSED:
+                    return context.getString(R.string.download_paused, title, percent);
+                default:
+                    return context.getString(R.string.download_running, title, percent);
+            }
+        }
+
         @Override
         public boolean isEnabled(int position) {
             return true;
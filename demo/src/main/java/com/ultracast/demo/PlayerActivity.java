@@ -1,12 +1,14 @@
 package com.ultracast.demo;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.support.v4.app.NavUtils;
+import android.os.SystemClock;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -14,36 +16,147 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 
+import com.ultracast.demo.abr.AbrController;
+import com.ultracast.demo.cache.CachingProxy;
+import com.ultracast.demo.cache.SegmentCache;
+import com.ultracast.demo.catalog.Sample;
+import com.ultracast.demo.download.DownloadManager;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.memory.MemoryBudget;
+import com.ultracast.demo.metrics.FrameMonitor;
+import com.ultracast.demo.metrics.QoeRecorder;
+import com.ultracast.demo.metrics.StartupTrace;
+import com.ultracast.demo.motion.HeadTracker;
+import com.ultracast.demo.motion.PosePipeline;
+import com.ultracast.demo.motion.Quaternions;
+import com.ultracast.demo.motion.SensorTrace;
+import com.ultracast.demo.playback.LiveEdgeController;
+import com.ultracast.demo.playback.NextItemPreloader;
+import com.ultracast.demo.playback.PlayQueue;
+import com.ultracast.demo.playback.PlaybackClock;
+import com.ultracast.demo.playback.PlaybackControls;
+import com.ultracast.demo.playback.PlayerEventHub;
+import com.ultracast.demo.playback.PlayerHost;
+import com.ultracast.demo.playback.ResumeStore;
+import com.ultracast.demo.playback.SeekHints;
+import com.ultracast.demo.playback.SeekScheduler;
+import com.ultracast.demo.thumbnail.ThumbnailLoader;
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+import com.ultracast.demo.tiles.TileManifest;
+import com.ultracast.demo.tiles.TiledStreamLoader;
+import com.ultracast.demo.widget.ThumbnailPreviewView;
+import com.ultracast.demo.work.WorkScheduler;
 import com.ultracast.demo.widget.TimeLineView;
+import com.ultracast.player.Format;
 import com.ultracast.player.UC360Player;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 
-public class PlayerActivity extends AppCompatActivity implements UC360Player.EventListener, TimeLineView.Listener {
+public class PlayerActivity extends AppCompatActivity implements PlayerEventHub.Subscriber,
+        PlaybackControls.PreviewListener, ThumbnailLoader.Callback, SeekScheduler.Listener,
+        TiledStreamLoader.ManifestCallback, SeekHints.Listener {
 
     public static final String URL_EXTRA = "url";
+    // distance to keep from the live edge in ms, 0 or missing for the default
+    public static final String LIVE_LATENCY_EXTRA = "live_latency_ms";
+    // debug builds only, fetches the tiles of a tiled source next to the stream it plays to
+    // measure them. Nothing renders tiles yet, so this only adds traffic and is off by default
+    public static final String TILED_LOADING_EXTRA = "tiled_loading";
+    // debug builds only, records the head tracker's sensor samples to a file in the app's external
+    // files directory each time it starts, to be replayed with SensorTrace
+    public static final String SENSOR_TRACE_EXTRA = "sensor_trace";
     private static final String TAG = "PlayerActivity";
+    private static final long BUFFER_HEALTH_INTERVAL_MS = 1000;
+    // segments get cached as they play, the cached ranges are looked up again this often
+    private static final long SEEK_HINTS_INTERVAL_MS = 10000;
+    private static final long STEP_DOWN_DELAY_MS = 1000;
+    private static final long MIN_REOPEN_INTERVAL_MS = 10000;
+    private static final long RESUME_SAVE_INTERVAL_MS = 5000;
+    // closer to the end than this a video counts as watched and starts over next time
+    private static final long RESUME_END_MARGIN_MS = 5000;
+    // how long before the end the next video starts loading
+    private static final long PRELOAD_LEAD_MS = 20000;
+    private static final long PRELOAD_BUDGET_BYTES = 8 * 1024 * 1024;
+    // finished QoE sessions, one JSON object per line
+    private static final String QOE_EXPORT_FILE = "qoe.jsonl";
 
     private Toolbar toolbar;
+    private PlayerHost playerHost;
     private UC360Player player;
     private ProgressBar progressBar;
     private View playerControls;
     private TimeLineView timeline;
     private ImageView playPause;
-
-    private Handler mTimeLineHandler = new Handler();
-    private Runnable mUpdateTimeLineTask = new Runnable() {
+    private PlaybackClock playbackClock;
+    private SeekScheduler seekScheduler;
+    private PlaybackControls playbackControls;
+    private ThumbnailPreviewView thumbnailPreview;
+    private ThumbnailLoader thumbnailLoader;
+    private final Rect thumbnailSrc = new Rect();
+    private int scrollingTime;
+    private long openUrlTime;
+    private boolean openedPrefetched;
+    private boolean openedWarm;
+    private boolean openedPreloaded;
+    private long playNextTime;
+    private boolean isSeeking;
+    private final PlayQueue playQueue = PlayQueue.getInstance();
+    private NextItemPreloader nextItemPreloader;
+    private LiveEdgeController liveEdgeController;
+    private final Runnable playNextTask = new Runnable() {
         @Override
         public void run() {
-            long currentTime = player.getCurrentTime();
-            timeline.setTime((int) currentTime, (int) player.getDuration());
-            mTimeLineHandler.postDelayed(mUpdateTimeLineTask, 10);
+            playNext();
+        }
+    };
+    private String currentUrl;
+    // currentUrl plays from a download, which has no live edge
+    private boolean currentDownloaded;
+    // the url of the intent, which the resume state is kept for
+    private String intentUrl;
+    private ResumeStore resumeStore;
+    private long resumePosition;
+    private long lastResumeSaveTime;
+    private QoeRecorder qoeRecorder;
+    private FrameMonitor frameMonitor;
+    private final AbrController abrController = AbrController.getInstance();
+    private final Handler handler = new Handler();
+    private final Runnable stepDownTask = new Runnable() {
+        @Override
+        public void run() {
+            Format format = player.getVideoFormat();
+            if (format != null && abrController.shouldStepDown(format.getBitrate())
+                    && SystemClock.uptimeMillis() - lastReopenTime > MIN_REOPEN_INTERVAL_MS) {
+                Log.i(TAG, "Stepping down from " + format.getBitrate() + " bps, estimate "
+                        + abrController.getBandwidthMeter().getEstimate() + " bps");
+                reopenAtCurrentPosition();
+            }
         }
     };
+    private SeekHints seekHints;
+    private long lastSeekHintsTime;
+    private long lastReopenTime;
+    private int lastBitrate;
+
+    private HeadTracker headTracker;
+    private TiledStreamLoader tiledLoader;
+    private String tileManifestUrl;
+    // bytes the proxy had fetched from origins when the tiled loader started
+    private long tiledStreamBytesBase;
+    private final double[] viewDirection = new double[2];
+    private double yawReference;
+    private boolean hasYawReference;
+
     private boolean isVREnable;
     private boolean isGyroEnable;
     private boolean isPlaying = true;
@@ -51,49 +164,119 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin("PlayerActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_player);
+        resumeStore = ResumeStore.getInstance(this);
+        qoeRecorder = new QoeRecorder(new File(getFilesDir(), QOE_EXPORT_FILE));
+        WindowManager windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
+        frameMonitor = new FrameMonitor(windowManager.getDefaultDisplay().getRefreshRate());
+        frameMonitor.setControlMode(FrameMonitor.modeOf(isVREnable, !isGyroEnable));
+        nextItemPreloader = new NextItemPreloader(ManifestPrefetcher.getInstance(this),
+                CachingProxy.getInstance(this).getCache(), abrController, PRELOAD_BUDGET_BYTES);
+        seekHints = new SeekHints(ManifestPrefetcher.getInstance(this), this);
         bindViews();
         handleIntent(getIntent());
+        StartupTrace.end("PlayerActivity.onCreate");
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        handleIntent(intent);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        mTimeLineHandler.postDelayed(mUpdateTimeLineTask, 0);
+        PlayerHost.unpark(this);
+        if (currentUrl != null && !qoeRecorder.isStarted()) {
+            // the session ended with onStop, coming back starts the next one where it left off
+            qoeRecorder.start(currentUrl);
+            qoeRecorder.onPlayerStateChanged(isPlaying, player.getPlaybackState());
+            frameMonitor.reset(SystemClock.uptimeMillis());
+        }
+        playbackClock.start();
+        frameMonitor.start();
         player.onStart();
+        updateHeadTracker();
+        if (currentUrl != null && !currentDownloaded) {
+            liveEdgeController.start(currentUrl);
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        player.addOnPlayerEventListener(this);
         player.onResume();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        player.removeOnPlayerEventListener(this);
+        saveResumeState();
         player.onPause();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        mTimeLineHandler.removeCallbacksAndMessages(null);
+        playbackClock.stop();
+        frameMonitor.stop();
+        if (headTracker.isRunning()) {
+            headTracker.stop();
+            Log.i(TAG, "Head pose " + headTracker.getStats());
+        }
+        seekScheduler.cancel();
+        nextItemPreloader.cancel();
+        seekHints.cancel();
+        if (liveEdgeController.isLive(currentUrl)) {
+            Log.i(TAG, "Live " + liveEdgeController.getStats());
+        }
+        liveEdgeController.stop();
+        handler.removeCallbacksAndMessages(null);
+        if (thumbnailLoader != null) {
+            thumbnailLoader.cancelPending();
+        }
         player.onStop();
+        Log.i(TAG, "Media cache " + CachingProxy.getInstance(this).getStats());
+        Log.i(TAG, "Background work " + WorkScheduler.getInstance().getStats());
+        logTileStats();
+        Log.i(TAG, "Play next " + nextItemPreloader.getStats());
+        Log.i(TAG, "Memory " + MemoryBudget.getInstance(this).getStats());
+        reportQoe();
+        if (!isFinishing()) {
+            PlayerHost.park(this);
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        PlayerHost.unpark(this);
+        reportQoe();
+        qoeRecorder.release();
+        MemoryBudget memoryBudget = MemoryBudget.getInstance(this);
+        if (thumbnailLoader != null) {
+            memoryBudget.unregister(thumbnailLoader);
+            thumbnailLoader.release();
+        }
+        if (tiledLoader != null) {
+            tiledLoader.release();
+        }
+        memoryBudget.unregister(playerHost);
+        playerHost.release();
         player.onDestroy();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_player, menu);
+        menu.findItem(R.id.quality_btn).setIcon(qualityIcon(abrController.getQuality()));
+        menu.findItem(R.id.vr_btn).setIcon(isVREnable ? R.drawable.novr_top_btn : R.drawable.vr_top_btn);
+        menu.findItem(R.id.gyro_btn).setIcon(isGyroEnable ? R.drawable.nogyro_top_btn : R.drawable.gyro_top_btn);
+        menu.findItem(R.id.play_next_btn).setChecked(playQueue.isPlayNext());
         return true;
     }
 
@@ -101,35 +284,47 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
     public boolean onOptionsItemSelected(MenuItem menuItem) {
         switch (menuItem.getItemId()) {
             case android.R.id.home: {
-                NavUtils.navigateUpFromSameTask(this);
+                showCatalog();
+                break;
+            }
+            case R.id.quality_btn: {
+                int quality = AbrController.nextQuality(abrController.getQuality());
+                abrController.setQuality(quality);
+                menuItem.setIcon(qualityIcon(quality));
+                if (ManifestPrefetcher.isHls(currentUrl)) {
+                    reopenAtCurrentPosition();
+                }
                 break;
             }
             case R.id.vr_btn: {
-                setRequestedOrientation(isVREnable ? ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED
-                        : ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
                 menuItem.setIcon(ContextCompat.getDrawable(getApplicationContext(),
                         isVREnable ? R.drawable.vr_top_btn : R.drawable.novr_top_btn));
-                if (isVREnable) {
-                    showUI();
-                } else {
-                    hideUI();
-                }
-                isVREnable = !isVREnable;
-                player.switchVrMode();
+                setVrEnabled(!isVREnable);
                 break;
             }
             case R.id.gyro_btn: {
                 menuItem.setIcon(ContextCompat.getDrawable(getApplicationContext(),
                         isGyroEnable ? R.drawable.gyro_top_btn : R.drawable.nogyro_top_btn));
-                player.switchControlMode(isGyroEnable
-                        ? UC360Player.MODE_MOTION_WITH_TOUCH : UC360Player.MODE_TOUCH);
-                isGyroEnable = !isGyroEnable;
+                setMotionEnabled(isGyroEnable);
+                break;
+            }
+            case R.id.play_next_btn: {
+                playQueue.setPlayNext(!playQueue.isPlayNext());
+                menuItem.setChecked(playQueue.isPlayNext());
+                if (!playQueue.isPlayNext()) {
+                    nextItemPreloader.cancel();
+                }
                 break;
             }
         }
         return super.onOptionsItemSelected(menuItem);
     }
 
+    @Override
+    public void onBackPressed() {
+        showCatalog();
+    }
+
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
@@ -143,18 +338,15 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
         switch (playbackState) {
             case UC360Player.STATE_READY:
                 cancelBusy();
-                mTimeLineHandler.postDelayed(mUpdateTimeLineTask, 0);
                 break;
             case UC360Player.STATE_IDLE:
                 Log.i(TAG, "Player status idle");
                 break;
             case UC360Player.STATE_BUFFERING:
-                mTimeLineHandler.removeCallbacksAndMessages(null);
                 showBusy();
                 Log.i(TAG, "Player status buffering");
                 break;
             case UC360Player.STATE_ENDED:
-                mTimeLineHandler.removeCallbacksAndMessages(null);
                 Log.i(TAG, "Player status ended");
                 break;
         }
@@ -176,26 +368,117 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
         toggleUIVisibility();
     }
 
-    /* TimeLineView.Listener */
+    /* PlaybackControls.PreviewListener */
 
     @Override
-    public void onScrolling(int msec) {
-        player.seek(msec);
+    public boolean onScrubPreview(int msec) {
+        if (thumbnailLoader == null) {
+            return false;
+        }
+        showThumbnail(msec);
+        return true;
     }
 
     @Override
-    public void onScrollingStop(int msec) {
+    public void onScrubStopped(int msec) {
         Log.d(TAG, "scroll " + msec);
-        player.seek(msec);
+        thumbnailPreview.setVisibility(GONE);
+    }
+
+    /* SeekScheduler.Listener */
+
+    @Override
+    public void onSeekStarted(long msec) {
+        qoeRecorder.onSeekStarted();
+        frameMonitor.onSeek(SystemClock.uptimeMillis());
+        liveEdgeController.onSeek();
+        // started again once the seek lands, if it lands close to the end
+        isSeeking = true;
+        nextItemPreloader.cancel();
+    }
+
+    @Override
+    public void onSeekCompleted(long latencyMs) {
+        qoeRecorder.onSeekCompleted(latencyMs);
+        isSeeking = false;
+    }
+
+    @Override
+    public void onSeekCancelled() {
+        qoeRecorder.onSeekCancelled();
+        isSeeking = false;
+    }
+
+    /* PlaybackClock.Listener */
+
+    @Override
+    public void onTimeChanged(int currentTime, int duration) {
+        // the timeline is kept by playbackControls
+    }
+
+    /* SeekHints.Listener */
+
+    @Override
+    public void onSeekHints(String url, int[] keyframes, int[] cachedRanges) {
+        timeline.setKeyframes(keyframes);
+        timeline.setCachedRanges(cachedRanges);
+    }
+
+    /* ThumbnailLoader.Callback */
+
+    @Override
+    public void onSheetLoaded(int sheetIndex) {
+        if (thumbnailPreview.getVisibility() == VISIBLE) {
+            showThumbnail(scrollingTime);
+        }
+    }
+
+    /* TiledStreamLoader.ManifestCallback */
+
+    @Override
+    public void onManifestLoaded(String url, TileManifest manifest) {
+        if (isDestroyed() || !url.equals(tileManifestUrl)) {
+            return;
+        }
+        Log.i(TAG, "Tiled source " + manifest.getColumns() + "x" + manifest.getRows() + " tiles, "
+                + manifest.getQualities().size() + " qualities");
+        if (BuildConfig.DEBUG && getIntent().getBooleanExtra(TILED_LOADING_EXTRA, false)) {
+            CachingProxy proxy = CachingProxy.getInstance(this);
+            tiledLoader = new TiledStreamLoader(manifest, proxy.getCache());
+            tiledStreamBytesBase = proxy.getBytesFromOrigin();
+        }
+        openSource(manifest.getMonolithicUrl(), resumePosition);
+        updateHeadTracker();
+    }
+
+    @Override
+    public void onManifestError(String url, IOException e) {
+        if (isDestroyed() || !url.equals(tileManifestUrl)) {
+            return;
+        }
+        Log.e(TAG, "Can not load tile manifest " + url, e);
+        cancelBusy();
+        qoeRecorder.onPlayerError(UC360Player.TYPE_SOURCE);
     }
 
     /* --- */
 
+    public static Intent newIntent(Context context, Sample sample) {
+        Intent intent = new Intent(context, PlayerActivity.class);
+        // reuses a parked player activity if there is one
+        intent.addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
+        intent.putExtra(URL_EXTRA, sample.getUrl());
+        if (sample.getThumbnails() != null) {
+            sample.getThumbnails().putInto(intent);
+        }
+        return intent;
+    }
+
     private void bindViews() {
         playerControls = findViewById(R.id.player_controls);
         playPause = (ImageView) findViewById(R.id.play_pause);
         timeline = (TimeLineView) findViewById(R.id.timeline);
-        timeline.setListener(this);
+        thumbnailPreview = (ThumbnailPreviewView) findViewById(R.id.thumbnail_preview);
 
         progressBar = (ProgressBar) findViewById(R.id.progressBar);
         toolbar = (Toolbar) findViewById(R.id.toolbar);
@@ -224,7 +507,45 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
             return;
         }
 
-        initPlayer(url);
+        MemoryBudget memoryBudget = MemoryBudget.getInstance(this);
+        if (thumbnailLoader != null) {
+            memoryBudget.unregister(thumbnailLoader);
+            thumbnailLoader.release();
+            thumbnailLoader = null;
+        }
+        ThumbnailTrack thumbnails = ThumbnailTrack.fromIntent(intent);
+        if (thumbnails != null) {
+            int cacheBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+            thumbnailLoader = new ThumbnailLoader(thumbnails, cacheBytes, this);
+            memoryBudget.register("thumbnails", MemoryBudget.PRIORITY_HIGH, thumbnailLoader);
+        }
+        if (playerHost == null) {
+            initPlayer();
+        }
+        if (tiledLoader != null) {
+            logTileStats();
+            tiledLoader.release();
+            tiledLoader = null;
+            updateHeadTracker();
+        }
+        nextItemPreloader.cancel();
+        reportQoe();
+        saveResumeState();
+        intentUrl = url;
+        restoreResumeState(url);
+        liveEdgeController.setTargetLatency(intent.getLongExtra(LIVE_LATENCY_EXTRA, 0));
+        // a reopen for a quality change stays in the same session
+        qoeRecorder.start(url);
+        frameMonitor.reset(SystemClock.uptimeMillis());
+        if (TileManifest.isTileManifest(url)) {
+            // the player opens the monolithic stream named by the manifest
+            tileManifestUrl = url;
+            showBusy();
+            TiledStreamLoader.loadManifest(url, this);
+        } else {
+            tileManifestUrl = null;
+            openSource(url, resumePosition);
+        }
     }
 
     private void hideUI() {
@@ -233,10 +554,386 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
         isUIVisible = false;
     }
 
-    private void initPlayer(String url) {
-        player = UC360Player.Factory.create(this);
-        player.init(R.id.player, UC360Player.MODE_MOTION_WITH_TOUCH);
-        player.openUrl(Uri.parse(url), true, false);
+    private void initPlayer() {
+        StartupTrace.begin("PlayerActivity.initPlayer");
+        playerHost = new PlayerHost(this, R.id.player, UC360Player.MODE_MOTION_WITH_TOUCH);
+        player = playerHost.getPlayer();
+        MemoryBudget.getInstance(this).register("player", MemoryBudget.PRIORITY_NORMAL, playerHost);
+        playbackClock = new PlaybackClock(player, playerHost.getEventHub());
+        seekScheduler = new SeekScheduler(player);
+        seekScheduler.setListener(this);
+        liveEdgeController = new LiveEdgeController(player, ManifestPrefetcher.getInstance(this), abrController);
+        playbackControls = new PlaybackControls(player, playbackClock, seekScheduler, liveEdgeController, timeline);
+        playbackControls.setPreviewListener(this);
+        headTracker = new HeadTracker(this, HeadTracker.DEFAULT_SAMPLING_PERIOD_US, 0);
+        headTracker.setPoseSink(new PosePipeline.PoseSink() {
+            @Override
+            public void onPose(long targetTimeNs, double[] orientation) {
+                if (tiledLoader == null) {
+                    return;
+                }
+                Quaternions.getViewDirection(orientation, viewDirection);
+                // yaw has no absolute reference, the player starts at the center of the frame
+                if (!hasYawReference) {
+                    yawReference = viewDirection[0];
+                    hasYawReference = true;
+                }
+                tiledLoader.setViewDirection(viewDirection[0] - yawReference, viewDirection[1]);
+            }
+        });
+        subscribeToPlayerEvents(playerHost.getEventHub());
+        // the session itself is kept off the main thread
+        qoeRecorder.attach(playerHost.getEventHub());
+        StartupTrace.end("PlayerActivity.initPlayer");
+    }
+
+    // one subscriber per feature. Playback state and the timeline first, the features reacting to
+    // an event see the clock, seeks, live edge and metrics updated, the rest of the UI last
+    private void subscribeToPlayerEvents(PlayerEventHub hub) {
+        playbackControls.subscribe(hub);
+        // startup and quality of experience metrics
+        hub.subscribe(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                frameMonitor.onPlayerStateChanged(playbackState);
+                if (playbackState == UC360Player.STATE_READY) {
+                    logFormatChange();
+                    logFirstFrame();
+                }
+            }
+        });
+        // bitrate: a stall soon steps down, the buffer level feeds the estimate
+        hub.subscribe(new PlayerEventHub.Adapter() {
+            private long mLastBufferHealthTime;
+
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                handler.removeCallbacks(stepDownTask);
+                if (playbackState == UC360Player.STATE_BUFFERING && ManifestPrefetcher.isHls(currentUrl)) {
+                    handler.postDelayed(stepDownTask, STEP_DOWN_DELAY_MS);
+                }
+            }
+
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                long now = SystemClock.uptimeMillis();
+                if (now - mLastBufferHealthTime >= BUFFER_HEALTH_INTERVAL_MS) {
+                    mLastBufferHealthTime = now;
+                    abrController.onBufferHealth(player.getBufferedPosition() - currentTime);
+                }
+            }
+        });
+        // seek hints, segments get cached as they play
+        hub.subscribe(new PlayerEventHub.Adapter() {
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                if (SystemClock.uptimeMillis() - lastSeekHintsTime >= SEEK_HINTS_INTERVAL_MS) {
+                    loadSeekHints(true);
+                }
+            }
+        });
+        // resume state
+        hub.subscribe(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                if (playbackState == UC360Player.STATE_ENDED) {
+                    resumeStore.remove(intentUrl);
+                }
+            }
+
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                // also saved while playing, the process may die without onPause
+                if (SystemClock.uptimeMillis() - lastResumeSaveTime >= RESUME_SAVE_INTERVAL_MS) {
+                    saveResumeState();
+                }
+            }
+        });
+        // play next
+        hub.subscribe(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                if (playbackState == UC360Player.STATE_ENDED && playQueue.isPlayNext()) {
+                    // not from within the event dispatch
+                    handler.post(playNextTask);
+                }
+            }
+
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                if (playQueue.isPlayNext() && !isSeeking && duration > 0 && duration - currentTime <= PRELOAD_LEAD_MS) {
+                    preloadNext();
+                }
+            }
+        });
+        // tiles follow the playback position
+        hub.subscribe(new PlayerEventHub.Adapter() {
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                if (tiledLoader != null) {
+                    tiledLoader.setPosition(currentTime);
+                }
+            }
+        });
+        hub.subscribe(this);
+    }
+
+    /**
+     * @param position where to start, the seek is issued right after opening so the player does
+     *                 not decode the start of the video first
+     */
+    private void openSource(String url, long position) {
+        currentUrl = url;
+        lastBitrate = 0;
+        seekScheduler.cancel();
+        isPlaying = true;
+        playPause.setImageResource(R.drawable.pause_bottom_btn);
+        showBusy();
+
+        ManifestPrefetcher prefetcher = ManifestPrefetcher.getInstance(this);
+        CachingProxy proxy = CachingProxy.getInstance(this);
+        Uri uri = DownloadManager.getInstance(this).getLocalUri(url);
+        currentDownloaded = uri != null;
+        if (uri == null) {
+            uri = proxy.isRunning() ? proxy.proxyUri(url) : Uri.parse(url);
+        }
+        openedPrefetched = prefetcher.getCache().getFromMemory(url, System.currentTimeMillis()) != null;
+        openedPreloaded = nextItemPreloader.takePreloaded(url);
+        openUrlTime = SystemClock.uptimeMillis();
+        boolean isLive = false;
+        if (currentDownloaded) {
+            liveEdgeController.stop();
+        } else {
+            isLive = liveEdgeController.isLive(url) || prefetcher.isLive(url);
+            liveEdgeController.start(url);
+        }
+        openedWarm = playerHost.open(uri, true, isLive);
+        if (position > 0) {
+            player.seek(position);
+        }
+        playbackControls.open(url);
+        loadSeekHints(false);
+        playbackClock.setPlayWhenReady(isPlaying);
+    }
+
+    /**
+     * @param refresh true to look the hints of the current source up again in the background
+     */
+    private void loadSeekHints(boolean refresh) {
+        lastSeekHintsTime = SystemClock.uptimeMillis();
+        // live playlists expire quickly, looking them up would refetch them
+        if (liveEdgeController.isLive(currentUrl) || ManifestPrefetcher.getInstance(this).isLive(currentUrl)) {
+            seekHints.cancel();
+            return;
+        }
+        CachingProxy proxy = CachingProxy.getInstance(this);
+        boolean downloaded = DownloadManager.getInstance(this).getLocalUri(currentUrl) != null;
+        SegmentCache cache = proxy.isRunning() ? proxy.getCache() : null;
+        if (refresh) {
+            seekHints.refresh(currentUrl, cache, downloaded);
+        } else {
+            seekHints.load(currentUrl, cache, downloaded);
+        }
+    }
+
+    private void reopenAtCurrentPosition() {
+        lastReopenTime = SystemClock.uptimeMillis();
+        qoeRecorder.onReopen();
+        openSource(currentUrl, player.getCurrentTime());
+    }
+
+    private void preloadNext() {
+        Sample next = playQueue.peekNext();
+        if (next == null) {
+            return;
+        }
+        ResumeStore.Entry entry = resumeStore.get(next.getUrl());
+        nextItemPreloader.preload(next.getUrl(), entry != null ? entry.getPosition() : 0);
+    }
+
+    private void playNext() {
+        Sample next = playQueue.advance();
+        if (next == null) {
+            return;
+        }
+        Log.i(TAG, "Playing next " + next.getTitle());
+        playNextTime = SystemClock.uptimeMillis();
+        Intent intent = newIntent(this, next);
+        setIntent(intent);
+        handleIntent(intent);
+    }
+
+    private void restoreResumeState(String url) {
+        ResumeStore.Entry entry = resumeStore.get(url);
+        resumePosition = entry != null ? entry.getPosition() : 0;
+        if (entry == null) {
+            return;
+        }
+        Log.i(TAG, "Resuming at " + entry.getPosition() + " ms, quality " + entry.getQuality()
+                + ", vr " + entry.isVrEnabled() + ", motion " + entry.isMotionEnabled());
+        abrController.setQuality(entry.getQuality());
+        setVrEnabled(entry.isVrEnabled());
+        setMotionEnabled(entry.isMotionEnabled());
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Takes the resume state of the current video. Only updates memory, the store writes it
+     * behind, so this is cheap enough for onPause.
+     */
+    private void saveResumeState() {
+        // until the first frame the position is not the resume position yet
+        if (intentUrl == null || openUrlTime > 0) {
+            return;
+        }
+        lastResumeSaveTime = SystemClock.uptimeMillis();
+        // a live position is stale by the next open, live streams start at the edge
+        long position = liveEdgeController.isLive(currentUrl) ? 0 : player.getCurrentTime();
+        long duration = player.getDuration();
+        if (duration > 0 && position >= duration - RESUME_END_MARGIN_MS) {
+            resumeStore.remove(intentUrl);
+            return;
+        }
+        // the player takes no view direction, it is kept for when it can
+        float yaw = hasYawReference ? (float) (viewDirection[0] - yawReference) : 0;
+        float pitch = hasYawReference ? (float) viewDirection[1] : 0;
+        resumeStore.put(new ResumeStore.Entry(intentUrl, position, Math.max(duration, 0),
+                abrController.getQuality(), lastBitrate, yaw, pitch, isVREnable, !isGyroEnable,
+                System.currentTimeMillis()));
+    }
+
+    private void logFirstFrame() {
+        if (openUrlTime <= 0) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        Log.i(TAG, "Time to first frame " + (now - openUrlTime) + " ms, prefetched " + openedPrefetched
+                + ", warm player " + openedWarm + ", preloaded " + openedPreloaded);
+        nextItemPreloader.onFirstFrame(now - openUrlTime, openedPreloaded);
+        if (playNextTime > 0) {
+            Log.i(TAG, "Switched to the next video in " + (now - playNextTime) + " ms");
+            playNextTime = 0;
+        }
+        openUrlTime = 0;
+        StartupTrace.mark(StartupTrace.MARK_FIRST_FRAME);
+        StartupTrace.report(this);
+    }
+
+    private void logFormatChange() {
+        Format format = player.getVideoFormat();
+        if (format != null) {
+            qoeRecorder.onVideoFormat(format.getBitrate(), format.getWidth(), format.getHeight());
+        }
+        if (format != null && format.getBitrate() != lastBitrate) {
+            Log.i(TAG, "Video format " + format.getWidth() + "x" + format.getHeight()
+                    + " " + format.getBitrate() + " bps" + (lastBitrate > 0 ? ", switched from " + lastBitrate : ""));
+            if (lastBitrate > 0) {
+                frameMonitor.onFormatSwitch(SystemClock.uptimeMillis());
+            }
+            lastBitrate = format.getBitrate();
+        }
+    }
+
+    // UC360Player 1.1.13 takes no external pose, the predicted pose only drives the tile viewport.
+    // Otherwise the tracker measures prediction error in VR with motion control, where latency is
+    // felt the most
+    private void updateHeadTracker() {
+        // isGyroEnable is set while the gyroscope is switched off
+        if ((isVREnable || tiledLoader != null) && !isGyroEnable) {
+            if (!headTracker.isRunning()) {
+                hasYawReference = false;
+                if (BuildConfig.DEBUG && getIntent().getBooleanExtra(SENSOR_TRACE_EXTRA, false)) {
+                    recordSensorTrace();
+                }
+                headTracker.start();
+            }
+        } else if (headTracker.isRunning()) {
+            headTracker.stop();
+            Log.i(TAG, "Head pose " + headTracker.getStats());
+        }
+    }
+
+    private void recordSensorTrace() {
+        if (!headTracker.isSupported()) {
+            return;
+        }
+        File directory = getExternalFilesDir(null);
+        File file = new File(directory != null ? directory : getFilesDir(),
+                "sensors-" + System.currentTimeMillis() + ".trace");
+        try {
+            headTracker.setRecorder(new SensorTrace.Recorder(new BufferedWriter(new FileWriter(file))));
+            Log.i(TAG, "Recording sensor trace to " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to record sensor trace", e);
+        }
+    }
+
+    private void logTileStats() {
+        if (tiledLoader != null) {
+            long streamBytes = CachingProxy.getInstance(this).getBytesFromOrigin() - tiledStreamBytesBase;
+            Log.i(TAG, "Tiles " + tiledLoader.getStats(streamBytes));
+        }
+    }
+
+    /**
+     * Ends the QoE session, which is logged and exported in the background, once per session.
+     */
+    private void reportQoe() {
+        if (!qoeRecorder.isStarted()) {
+            return;
+        }
+        qoeRecorder.finish();
+        if (frameMonitor.isStarted()) {
+            Log.i(TAG, "Frames " + frameMonitor.toJson(SystemClock.uptimeMillis()));
+        }
+    }
+
+    private static int qualityIcon(int quality) {
+        switch (quality) {
+            case AbrController.QUALITY_LOW:
+                return R.drawable.lq_white;
+            case AbrController.QUALITY_MEDIUM:
+                return R.drawable.mq_white;
+            case AbrController.QUALITY_HIGH:
+                return R.drawable.hq_white;
+            default:
+                return R.drawable.auto_white;
+        }
+    }
+
+    private void showCatalog() {
+        // keep this activity and its player alive for the next video
+        Intent intent = new Intent(this, DemoActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
+        startActivity(intent);
+    }
+
+    private void setVrEnabled(boolean enabled) {
+        if (enabled == isVREnable) {
+            return;
+        }
+        setRequestedOrientation(enabled ? ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE
+                : ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
+        if (enabled) {
+            hideUI();
+        } else {
+            showUI();
+        }
+        isVREnable = enabled;
+        player.switchVrMode();
+        frameMonitor.setControlMode(FrameMonitor.modeOf(isVREnable, !isGyroEnable));
+        updateHeadTracker();
+    }
+
+    private void setMotionEnabled(boolean enabled) {
+        // isGyroEnable is set while the gyroscope is switched off
+        if (enabled == !isGyroEnable) {
+            return;
+        }
+        player.switchControlMode(enabled ? UC360Player.MODE_MOTION_WITH_TOUCH : UC360Player.MODE_TOUCH);
+        isGyroEnable = !enabled;
+        frameMonitor.setControlMode(FrameMonitor.modeOf(isVREnable, !isGyroEnable));
+        updateHeadTracker();
     }
 
     private void showBusy() {
@@ -244,6 +941,15 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
             progressBar.setVisibility(VISIBLE);
     }
 
+    private void showThumbnail(int msec) {
+        scrollingTime = msec;
+        thumbnailPreview.setThumbnail(thumbnailLoader.getThumbnail(msec, thumbnailSrc), thumbnailSrc);
+        thumbnailLoader.prefetch(msec);
+        thumbnailPreview.setVisibility(VISIBLE);
+        thumbnailPreview.moveTo(playerControls.getLeft() + timeline.getLeft() + timeline.getSliderX(),
+                ((View) thumbnailPreview.getParent()).getWidth());
+    }
+
     private void showUI() {
         playerControls.setVisibility(VISIBLE);
         toolbar.setVisibility(VISIBLE);
@@ -260,6 +966,7 @@ public class PlayerActivity extends AppCompatActivity implements UC360Player.Eve
             player.play();
         }
         isPlaying = !isPlaying;
+        playbackClock.setPlayWhenReady(isPlaying);
     }
 
     private void toggleUIVisibility() {
@@ -0,0 +1,117 @@
+package com.ultracast.demo.abr;
+
+import com.ultracast.demo.hls.HlsVariant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses which HLS variants the player is offered.
+ * <p>
+ * The player picks its variant from the master playlist, so the controller acts on the master
+ * playlist served by the caching proxy. In auto mode variants are listed lowest bitrate first, so
+ * playback starts fast, and variants above the sustainable bitrate are dropped once a throughput
+ * estimate exists. The player ramps up within the remaining variants. A manual quality offers a
+ * single variant. When the buffer runs low on a variant the network can not sustain,
+ * {@link #shouldStepDown(int)} tells the activity to reopen the source with the tighter cap.
+ */
+public class AbrController {
+
+    public static final int QUALITY_AUTO = 0;
+    public static final int QUALITY_LOW = 1;
+    public static final int QUALITY_MEDIUM = 2;
+    public static final int QUALITY_HIGH = 3;
+
+    // fraction of the estimated throughput a variant may use
+    private static final double BANDWIDTH_FRACTION = 0.75;
+    private static final long LOW_BUFFER_MS = 5000;
+
+    private static AbrController sInstance;
+
+    private final BandwidthMeter mBandwidthMeter = new BandwidthMeter();
+    private volatile int mQuality = QUALITY_AUTO;
+    private volatile long mBufferedMs;
+
+    public static synchronized AbrController getInstance() {
+        if (sInstance == null) {
+            sInstance = new AbrController();
+        }
+        return sInstance;
+    }
+
+    public BandwidthMeter getBandwidthMeter() {
+        return mBandwidthMeter;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    public void setQuality(int quality) {
+        mQuality = quality;
+    }
+
+    public static int nextQuality(int quality) {
+        return (quality + 1) % (QUALITY_HIGH + 1);
+    }
+
+    /**
+     * Must be called periodically with the buffered duration ahead of the playback position.
+     */
+    public void onBufferHealth(long bufferedMs) {
+        mBufferedMs = bufferedMs;
+    }
+
+    /**
+     * Returns the variants to offer, in the order the player should try them.
+     */
+    public List<HlsVariant> selectVariants(List<HlsVariant> variants) {
+        List<HlsVariant> sorted = new ArrayList<>(variants);
+        Collections.sort(sorted, new Comparator<HlsVariant>() {
+            @Override
+            public int compare(HlsVariant a, HlsVariant b) {
+                return a.getBandwidth() < b.getBandwidth() ? -1 : (a.getBandwidth() == b.getBandwidth() ? 0 : 1);
+            }
+        });
+        if (sorted.isEmpty()) {
+            return sorted;
+        }
+        switch (mQuality) {
+            case QUALITY_LOW:
+                return Collections.singletonList(sorted.get(0));
+            case QUALITY_MEDIUM:
+                return Collections.singletonList(sorted.get((sorted.size() - 1) / 2));
+            case QUALITY_HIGH:
+                return Collections.singletonList(sorted.get(sorted.size() - 1));
+            default:
+                long cap = getSustainableBitrate();
+                if (cap == BandwidthMeter.NO_ESTIMATE) {
+                    return sorted;
+                }
+                int count = 1;
+                while (count < sorted.size() && sorted.get(count).getBandwidth() <= cap) {
+                    count++;
+                }
+                return sorted.subList(0, count);
+        }
+    }
+
+    /**
+     * Returns true if playback in auto mode is running out of buffer on a bitrate the network can
+     * not sustain.
+     */
+    public boolean shouldStepDown(int currentBitrate) {
+        long cap = getSustainableBitrate();
+        return mQuality == QUALITY_AUTO
+                && cap != BandwidthMeter.NO_ESTIMATE
+                && mBufferedMs < LOW_BUFFER_MS
+                && currentBitrate > cap;
+    }
+
+    private long getSustainableBitrate() {
+        long estimate = mBandwidthMeter.getEstimate();
+        return estimate == BandwidthMeter.NO_ESTIMATE ? estimate : (long) (estimate * BANDWIDTH_FRACTION);
+    }
+}
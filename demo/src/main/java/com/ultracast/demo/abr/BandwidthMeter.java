@@ -0,0 +1,62 @@
+package com.ultracast.demo.abr;
+
+/**
+ * Estimates network throughput from completed transfers.
+ * <p>
+ * Two exponentially weighted averages are kept, a fast one reacting to drops and a slow one
+ * smoothing out bursts, and the estimate is the lower of the two. Samples are weighted by
+ * their size so a small playlist fetch does not outweigh a segment. Thread safe.
+ */
+public class BandwidthMeter {
+
+    public static final long NO_ESTIMATE = -1;
+
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+    private static final long MIN_SAMPLE_MS = 5;
+    private static final double FAST_ALPHA = 0.5;
+    private static final double SLOW_ALPHA = 0.1;
+    // samples of this size and larger get the full weight
+    private static final double REFERENCE_BYTES = 512 * 1024;
+
+    private double mFast = NO_ESTIMATE;
+    private double mSlow = NO_ESTIMATE;
+    private long mTotalBytes;
+    private int mSampleCount;
+
+    /**
+     * @param bytes     bytes transferred
+     * @param elapsedMs wall time from the request to the last byte
+     */
+    public synchronized void onTransfer(long bytes, long elapsedMs) {
+        if (bytes < MIN_SAMPLE_BYTES) {
+            return;
+        }
+        double bitsPerSecond = bytes * 8000.0 / Math.max(elapsedMs, MIN_SAMPLE_MS);
+        double weight = Math.min(bytes / REFERENCE_BYTES, 1.0);
+        mFast = mix(mFast, bitsPerSecond, FAST_ALPHA * weight);
+        mSlow = mix(mSlow, bitsPerSecond, SLOW_ALPHA * weight);
+        mTotalBytes += bytes;
+        mSampleCount++;
+    }
+
+    /**
+     * @return the estimated throughput in bits per second, or {@link #NO_ESTIMATE}
+     */
+    public synchronized long getEstimate() {
+        if (mSampleCount == 0) {
+            return NO_ESTIMATE;
+        }
+        return (long) Math.min(mFast, mSlow);
+    }
+
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    private static double mix(double average, double sample, double alpha) {
+        if (average < 0) {
+            return sample;
+        }
+        return average + (sample - average) * alpha;
+    }
+}
@@ -0,0 +1,490 @@
+package com.ultracast.demo.cache;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ultracast.demo.abr.AbrController;
+import com.ultracast.demo.hls.HlsParser;
+import com.ultracast.demo.hls.ManifestCache;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.net.HttpFetcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loopback HTTP proxy which caches media on disk so replays do not hit the CDN again.
+ * <p>
+ * An origin url {@code scheme://host/path} is served as {@code http://127.0.0.1:port/scheme/host/path},
+ * so relative uris inside playlists resolve to the proxy as well. Playlists are served from the
+ * {@link ManifestCache} with absolute uris rewritten to the proxy, master playlists list the
+ * variants chosen by the {@link AbrController}. Origin transfer timings feed its bandwidth
+ * estimate. Segments and progressive files
+ * are served from the {@link SegmentCache}: a miss is downloaded once and streamed to the player
+ * while it is written to disk, cached files answer byte-range requests directly. Concurrent misses
+ * of a resource wait for the first one's download and are served from the cache. A range request
+ * for a resource which is not cached yet is passed through to the origin. Only http and https
+ * origins are proxied, other requests are answered with 400. A client which sends nothing for
+ * {@link #CLIENT_TIMEOUT_MS} is dropped, so it can not hold a connection thread.
+ */
+public class CachingProxy {
+
+    private static final String TAG = "CachingProxy";
+    private static final int MAX_CONNECTIONS = 8;
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final long MAX_CACHE_BYTES = 512L * 1024 * 1024;
+    static final int CLIENT_TIMEOUT_MS = 10000;
+    private static final int ORIGIN_CONNECT_TIMEOUT_MS = 8000;
+    private static final int ORIGIN_READ_TIMEOUT_MS = 15000;
+    // how long a miss waits for another request's download of the same resource
+    private static final long COALESCE_TIMEOUT_MS = 30000;
+    // "bytes=first-last", "bytes=first-" or the suffix "bytes=-count"
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final Pattern ABSOLUTE_URI = Pattern.compile("(https?)://([^/\\s\"]+)");
+
+    private static CachingProxy sInstance;
+
+    private final SegmentCache mCache;
+    private final ManifestPrefetcher mPrefetcher;
+    private final AbrController mAbrController;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+    // origin urls being downloaded into the cache, counted down when done
+    private final Map<String, CountDownLatch> mDownloads = new HashMap<>();
+    private int mClientTimeoutMs = CLIENT_TIMEOUT_MS;
+    private ServerSocket mServerSocket;
+    private String mBaseUrl;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mBytesFromCache = new AtomicLong();
+    private final AtomicLong mBytesFromOrigin = new AtomicLong();
+
+    public static synchronized CachingProxy getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), "segments");
+            sInstance = new CachingProxy(new SegmentCache(directory, MAX_CACHE_BYTES),
+                    ManifestPrefetcher.getInstance(context), AbrController.getInstance());
+            sInstance.start();
+        }
+        return sInstance;
+    }
+
+    public CachingProxy(SegmentCache cache, ManifestPrefetcher prefetcher, AbrController abrController) {
+        mCache = cache;
+        mPrefetcher = prefetcher;
+        mAbrController = abrController;
+    }
+
+    public synchronized void start() {
+        if (mServerSocket != null) {
+            return;
+        }
+        try {
+            mServerSocket = new ServerSocket(0, MAX_CONNECTIONS, InetAddress.getByName("127.0.0.1"));
+        } catch (IOException e) {
+            Log.e(TAG, "Can not start proxy", e);
+            return;
+        }
+        mBaseUrl = "http://127.0.0.1:" + mServerSocket.getLocalPort();
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, TAG);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized void stop() {
+        HttpFetcher.closeQuietly(mServerSocket);
+        mServerSocket = null;
+        mBaseUrl = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return mServerSocket != null;
+    }
+
+    /**
+     * Returns the proxied uri for an http(s) url, or the url itself if it can not be proxied.
+     */
+    public synchronized Uri proxyUri(String url) {
+        String proxied = toProxyUrl(url);
+        return Uri.parse(proxied != null ? proxied : url);
+    }
+
+    public SegmentCache getCache() {
+        return mCache;
+    }
+
+    void setClientTimeoutMs(int timeoutMs) {
+        mClientTimeoutMs = timeoutMs;
+    }
+
+    public double getHitRatio() {
+        long total = mHits.get() + mMisses.get();
+        return total > 0 ? (double) mHits.get() / total : 0;
+    }
+
+    public long getBytesSaved() {
+        return mBytesFromCache.get();
+    }
+
+    /**
+     * @return the media bytes fetched from origins for players, since the proxy was created
+     */
+    public long getBytesFromOrigin() {
+        return mBytesFromOrigin.get();
+    }
+
+    public String getStats() {
+        return String.format(Locale.US, "hits %d, misses %d, hit ratio %.2f, bytes saved %d, from origin %d, cached %d/%d",
+                mHits.get(), mMisses.get(), getHitRatio(), mBytesFromCache.get(), mBytesFromOrigin.get(),
+                mCache.getSize(), mCache.getMaxBytes());
+    }
+
+    private String toProxyUrl(String url) {
+        if (mBaseUrl == null) {
+            return null;
+        }
+        Matcher matcher = ABSOLUTE_URI.matcher(url);
+        if (!matcher.lookingAt()) {
+            return null;
+        }
+        return mBaseUrl + "/" + matcher.group(1) + "/" + matcher.group(2) + url.substring(matcher.end());
+    }
+
+    private static String toOriginUrl(String path) {
+        // "/scheme/host/rest" -> "scheme://host/rest"
+        int schemeEnd = path.indexOf('/', 1);
+        if (schemeEnd < 0) {
+            return null;
+        }
+        String scheme = path.substring(1, schemeEnd);
+        // anything else, e.g. file: or jar:, would open local resources for any app on the device
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            return null;
+        }
+        return scheme + "://" + path.substring(schemeEnd + 1);
+    }
+
+    private void acceptLoop() {
+        ServerSocket serverSocket;
+        synchronized (this) {
+            serverSocket = mServerSocket;
+        }
+        while (serverSocket != null && !serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.w(TAG, "Accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(mClientTimeoutMs);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            String range = null;
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                if (line.regionMatches(true, 0, "Range:", 0, 6)) {
+                    range = line.substring(6).trim();
+                }
+            }
+            String[] parts = requestLine.split(" ");
+            String origin = parts.length >= 2 ? toOriginUrl(parts[1]) : null;
+            if (origin == null || !"GET".equals(parts[0])) {
+                writeHeaders(out, "400 Bad Request", null, 0, null);
+            } else if (ManifestPrefetcher.isHls(origin)) {
+                servePlaylist(origin, out);
+            } else {
+                serveMedia(origin, range, out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the player closes connections on seeks, nothing to report
+            Log.d(TAG, "Connection closed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // a malformed request must not take the app down, the connection is just dropped
+            Log.w(TAG, "Error serving request", e);
+        } finally {
+            HttpFetcher.closeQuietly(socket);
+        }
+    }
+
+    private void servePlaylist(String origin, OutputStream out) throws IOException {
+        ManifestCache.Entry entry;
+        try {
+            entry = mPrefetcher.getOrFetch(origin);
+        } catch (IOException e) {
+            Log.w(TAG, "Error loading playlist " + origin, e);
+            writeHeaders(out, "502 Bad Gateway", null, 0, null);
+            return;
+        }
+        String text = entry.getText();
+        if (entry.getMaster() != null) {
+            text = HlsParser.writeMaster(text, mAbrController.selectVariants(entry.getMaster().getVariants()));
+        }
+        byte[] body = rewritePlaylist(text).getBytes("UTF-8");
+        writeHeaders(out, "200 OK", "application/vnd.apple.mpegurl", body.length, null);
+        out.write(body);
+    }
+
+    private String rewritePlaylist(String text) {
+        Matcher matcher = ABSOLUTE_URI.matcher(text);
+        StringBuffer buffer = new StringBuffer(text.length() + 1024);
+        while (matcher.find()) {
+            matcher.appendReplacement(buffer,
+                    Matcher.quoteReplacement(mBaseUrl + "/" + matcher.group(1) + "/" + matcher.group(2)));
+        }
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+
+    private void serveMedia(String origin, String range, OutputStream out) throws IOException {
+        // a range the proxy does not understand, e.g. several of them, goes to the origin
+        Matcher matcher = range != null ? RANGE.matcher(range) : null;
+        boolean isRange = matcher != null && matcher.matches()
+                && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty());
+        File cached = mCache.get(origin);
+        if (cached != null && (range == null || isRange)) {
+            mHits.incrementAndGet();
+            serveFile(cached, isRange ? matcher : null, out);
+        } else if (range != null && !(isRange && matcher.group(1).equals("0") && matcher.group(2).isEmpty())) {
+            mMisses.incrementAndGet();
+            passThrough(origin, range, out);
+        } else {
+            // "bytes=0-" asks for everything too
+            downloadOnceAndServe(origin, out);
+        }
+    }
+
+    /**
+     * Downloads a miss, unless another request is downloading it already. Then it waits for that
+     * and serves the cached file, or downloads it itself if that failed.
+     */
+    private void downloadOnceAndServe(String origin, OutputStream out) throws IOException {
+        CountDownLatch pending;
+        CountDownLatch own = null;
+        synchronized (mDownloads) {
+            pending = mDownloads.get(origin);
+            if (pending == null) {
+                own = new CountDownLatch(1);
+                mDownloads.put(origin, own);
+            }
+        }
+        if (own == null) {
+            try {
+                pending.await(COALESCE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            File cached = mCache.get(origin);
+            if (cached != null) {
+                mHits.incrementAndGet();
+                serveFile(cached, null, out);
+                return;
+            }
+        }
+        mMisses.incrementAndGet();
+        try {
+            downloadAndServe(origin, out);
+        } finally {
+            if (own != null) {
+                synchronized (mDownloads) {
+                    mDownloads.remove(origin);
+                }
+                own.countDown();
+            }
+        }
+    }
+
+    /**
+     * @param range a match of {@link #RANGE}, null to serve the whole file
+     */
+    private void serveFile(File file, Matcher range, OutputStream out) throws IOException {
+        long length = file.length();
+        long start = 0;
+        long end = length - 1;
+        if (range != null && range.group(1).isEmpty()) {
+            // the last bytes, all of them if the file is shorter
+            start = Math.max(0, length - Long.parseLong(range.group(2)));
+        } else if (range != null) {
+            start = Long.parseLong(range.group(1));
+            if (!range.group(2).isEmpty()) {
+                end = Math.min(end, Long.parseLong(range.group(2)));
+            }
+        }
+        if (start > end && length > 0) {
+            writeHeaders(out, "416 Range Not Satisfiable", null, 0, "bytes */" + length);
+            return;
+        }
+        long count = end - start + 1;
+        if (range != null) {
+            writeHeaders(out, "206 Partial Content", null, count, "bytes " + start + "-" + end + "/" + length);
+        } else {
+            writeHeaders(out, "200 OK", null, count, null);
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.seek(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (count > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                count -= read;
+                mBytesFromCache.addAndGet(read);
+            }
+        } finally {
+            HttpFetcher.closeQuietly(input);
+        }
+    }
+
+    private void downloadAndServe(String origin, OutputStream out) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        long transferred = 0;
+        HttpURLConnection connection = openOrigin(origin);
+        SegmentCache.Writer writer = null;
+        InputStream in = null;
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                writeHeaders(out, code + " Upstream", null, 0, null);
+                return;
+            }
+            writeHeaders(out, "200 OK", connection.getContentType(), connection.getContentLength(), null);
+            writer = mCache.openWriter(origin);
+            in = connection.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                transferred += read;
+                writer.write(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+            writer.commit();
+        } finally {
+            onOriginTransfer(transferred, startTime);
+            if (writer != null) {
+                writer.abort();
+            }
+            HttpFetcher.closeQuietly(in);
+            connection.disconnect();
+        }
+    }
+
+    private void passThrough(String origin, String range, OutputStream out) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        long transferred = 0;
+        HttpURLConnection connection = openOrigin(origin);
+        connection.setRequestProperty("Range", range);
+        InputStream in = null;
+        try {
+            int code = connection.getResponseCode();
+            String status = code == HttpURLConnection.HTTP_PARTIAL ? "206 Partial Content" : code + " Upstream";
+            writeHeaders(out, status, connection.getContentType(), connection.getContentLength(),
+                    connection.getHeaderField("Content-Range"));
+            if (code >= 300) {
+                return;
+            }
+            in = connection.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                transferred += read;
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            onOriginTransfer(transferred, startTime);
+            HttpFetcher.closeQuietly(in);
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection openOrigin(String origin) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(origin).openConnection();
+        connection.setConnectTimeout(ORIGIN_CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(ORIGIN_READ_TIMEOUT_MS);
+        return connection;
+    }
+
+    private void onOriginTransfer(long bytes, long startTime) {
+        mBytesFromOrigin.addAndGet(bytes);
+        mAbrController.getBandwidthMeter().onTransfer(bytes, SystemClock.elapsedRealtime() - startTime);
+    }
+
+    private static void writeHeaders(OutputStream out, String status, String contentType, long length,
+                                     String contentRange) throws IOException {
+        StringBuilder headers = new StringBuilder(256);
+        headers.append("HTTP/1.1 ").append(status).append("\r\n");
+        if (contentType != null) {
+            headers.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (length >= 0) {
+            headers.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (contentRange != null) {
+            headers.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        headers.append("Accept-Ranges: bytes\r\nConnection: close\r\n\r\n");
+        out.write(headers.toString().getBytes("US-ASCII"));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
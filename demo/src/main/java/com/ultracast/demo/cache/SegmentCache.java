@@ -0,0 +1,274 @@
+package com.ultracast.demo.cache;
+
+import android.util.Log;
+
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.net.UrlKeys;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU disk cache of whole resources, keyed by url.
+ * <p>
+ * Every resource is one file named by the SHA-1 of its url. The LRU order and sizes are kept in
+ * a compact binary index (20 byte key + 8 byte length per entry) which is rewritten after each
+ * change, so the cache survives process restarts without scanning file contents.
+ * Resources are written to a temporary file and become visible only after {@link Writer#commit()}.
+ */
+public class SegmentCache {
+
+    private static final String TAG = "SegmentCache";
+    private static final String INDEX_FILE = "index";
+    private static final int INDEX_VERSION = 1;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    public class Writer {
+
+        private final String mKey;
+        private final File mTempFile;
+        private final OutputStream mOut;
+        private long mLength;
+        private boolean mDone;
+
+        Writer(String key) throws IOException {
+            mKey = key;
+            mTempFile = new File(mDirectory, key + "." + Thread.currentThread().getId() + ".tmp");
+            mOut = new BufferedOutputStream(new FileOutputStream(mTempFile), 64 * 1024);
+        }
+
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOut.write(buffer, offset, count);
+            mLength += count;
+        }
+
+        public void commit() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                mTempFile.delete();
+                return;
+            }
+            onCommitted(mKey, mTempFile, mLength);
+        }
+
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            HttpFetcher.closeQuietly(mOut);
+            mTempFile.delete();
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+    private long mSize;
+
+    public SegmentCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Can not create " + mDirectory);
+        }
+        readIndex();
+    }
+
+    /**
+     * Returns the cached file for the url and marks it as recently used, or null on a miss.
+     */
+    public synchronized File get(String url) {
+        String key = UrlKeys.keyFor(url);
+        Long length = mEntries.get(key);
+        if (length == null) {
+            return null;
+        }
+        File file = new File(mDirectory, key);
+        if (file.length() != length) {
+            remove(key);
+            writeIndex();
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Returns true if the url is in the index. Unlike {@link #get(String)} it neither checks the
+     * file nor changes the eviction order, for hints that may be stale.
+     */
+    public synchronized boolean contains(String url) {
+        return mEntries.containsKey(UrlKeys.keyFor(url));
+    }
+
+    public Writer openWriter(String url) throws IOException {
+        return new Writer(UrlKeys.keyFor(url));
+    }
+
+    /**
+     * Downloads a resource into the cache unless it is cached already. Blocking.
+     *
+     * @param maxBytes resources announced larger than this are not downloaded
+     * @return the bytes downloaded, 0 if the resource was cached, -1 if it is too large
+     */
+    public long fetch(String url, long maxBytes) throws IOException {
+        if (get(url) != null) {
+            return 0;
+        }
+        URLConnection connection = HttpFetcher.open(url);
+        InputStream in = null;
+        Writer writer = null;
+        try {
+            if (connection.getContentLength() > maxBytes) {
+                return -1;
+            }
+            in = connection.getInputStream();
+            writer = openWriter(url);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+                total += read;
+            }
+            writer.commit();
+            return total;
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+            HttpFetcher.closeQuietly(in);
+            HttpFetcher.disconnect(connection);
+        }
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits into the given size.
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        if (evict(maxBytes)) {
+            writeIndex();
+        }
+    }
+
+    private boolean evict(long maxBytes) {
+        boolean changed = false;
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            changed = true;
+        }
+        return changed;
+    }
+
+    private synchronized void onCommitted(String key, File tempFile, long length) {
+        File file = new File(mDirectory, key);
+        if (length > mMaxBytes || !tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+        Long previous = mEntries.put(key, length);
+        if (previous != null) {
+            mSize -= previous;
+        }
+        mSize += length;
+        evict(mMaxBytes);
+        writeIndex();
+    }
+
+    private void remove(String key) {
+        Long length = mEntries.remove(key);
+        if (length != null) {
+            mSize -= length;
+        }
+        new File(mDirectory, key).delete();
+    }
+
+    private void readIndex() {
+        File index = new File(mDirectory, INDEX_FILE);
+        if (!index.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+            if (in.readInt() != INDEX_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            byte[] key = new byte[UrlKeys.KEY_BYTES];
+            for (int i = 0; i < count; i++) {
+                in.readFully(key);
+                long length = in.readLong();
+                String name = UrlKeys.toHex(key);
+                if (new File(mDirectory, name).length() == length) {
+                    mEntries.put(name, length);
+                    mSize += length;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache index", e);
+            mEntries.clear();
+            mSize = 0;
+        } finally {
+            HttpFetcher.closeQuietly(in);
+        }
+    }
+
+    // eldest entry first, so reading the index back restores the LRU order
+    private void writeIndex() {
+        File temp = new File(mDirectory, INDEX_FILE + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                out.write(UrlKeys.fromHex(entry.getKey()));
+                out.writeLong(entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(new File(mDirectory, INDEX_FILE))) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing cache index", e);
+            temp.delete();
+        } finally {
+            HttpFetcher.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.ultracast.demo.catalog;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A catalog precompiled at build time (see the {@code compileCatalog} task in build.gradle),
+ * read in place from a memory mapped asset. Nothing is decoded up front, an entry is decoded
+ * when a row binds it.
+ * <p>
+ * The format is big endian: a 16 byte header (magic "UCAT", version, entry count, record size),
+ * then one fixed width record per entry with the offsets of its title, url and thumbnail url
+ * pattern (-1 if there is none) and the thumbnail columns, rows and interval, then a string table
+ * of deduplicated strings, each an unsigned 16 bit length followed by UTF-8 bytes. All offsets
+ * are from the start of the file.
+ */
+public class BinaryCatalog implements Catalog {
+
+    private static final String TAG = "BinaryCatalog";
+    private static final int MAGIC = 0x55434154;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 24;
+    private static final int NO_STRING = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+
+    BinaryCatalog(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog index");
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(12) != RECORD_BYTES) {
+            throw new IOException("Unsupported catalog index version " + buffer.getInt(4));
+        }
+        mCount = buffer.getInt(8);
+        if (mCount < 0 || HEADER_BYTES + (long) mCount * RECORD_BYTES > buffer.limit()) {
+            throw new IOException("Truncated catalog index");
+        }
+    }
+
+    /**
+     * Maps the index asset. It is read into memory instead if it was packaged compressed.
+     *
+     * @throws IOException if the asset is missing or not a valid index
+     */
+    public static BinaryCatalog open(AssetManager assets, String name) throws IOException {
+        long startTime = SystemClock.uptimeMillis();
+        ByteBuffer buffer;
+        try {
+            buffer = map(assets, name);
+        } catch (FileNotFoundException e) {
+            buffer = read(assets, name);
+        }
+        BinaryCatalog catalog = new BinaryCatalog(buffer);
+        Log.i(TAG, "Opened " + catalog.getCount() + " entries in "
+                + (SystemClock.uptimeMillis() - startTime) + " ms");
+        return catalog;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public Sample get(int position) {
+        if (position < 0 || position >= mCount) {
+            return null;
+        }
+        int record = HEADER_BYTES + position * RECORD_BYTES;
+        ThumbnailTrack thumbnails = null;
+        int thumbnailsUrl = mBuffer.getInt(record + 8);
+        if (thumbnailsUrl != NO_STRING) {
+            thumbnails = new ThumbnailTrack(readString(thumbnailsUrl), mBuffer.getInt(record + 12),
+                    mBuffer.getInt(record + 16), mBuffer.getInt(record + 20));
+        }
+        return new Sample(readString(mBuffer.getInt(record)), readString(mBuffer.getInt(record + 4)),
+                thumbnails);
+    }
+
+    @Override
+    public String getTitle(int position) {
+        if (position < 0 || position >= mCount) {
+            return null;
+        }
+        return readString(mBuffer.getInt(HEADER_BYTES + position * RECORD_BYTES));
+    }
+
+    @Override
+    public void close() {
+        // the mapping is released with the buffer
+    }
+
+    private String readString(int offset) {
+        int length = mBuffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static ByteBuffer map(AssetManager assets, String name) throws IOException {
+        AssetFileDescriptor fd = assets.openFd(name);
+        FileInputStream in = null;
+        try {
+            in = fd.createInputStream();
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } finally {
+            HttpFetcher.closeQuietly(in);
+            HttpFetcher.closeQuietly(fd);
+        }
+    }
+
+    private static ByteBuffer read(AssetManager assets, String name) throws IOException {
+        InputStream in = assets.open(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HttpFetcher.copy(in, out);
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            HttpFetcher.closeQuietly(in);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.ultracast.demo.catalog;
+
+/**
+ * Random access to the catalog entries. Positions are stable and serve as list ids.
+ * All methods must be called from the main thread.
+ */
+public interface Catalog {
+
+    int getCount();
+
+    /**
+     * @return the entry at the position, or null if it is not available yet
+     */
+    Sample get(int position);
+
+    /**
+     * Returns only the title of an entry, which is all a list row needs.
+     *
+     * @return the title, or null if it is not available yet
+     */
+    String getTitle(int position);
+
+    void close();
+}
@@ -0,0 +1,134 @@
+package com.ultracast.demo.catalog;
+
+import android.util.JsonReader;
+
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams a JSON catalog, an array of {@code {"title", "url", "thumbnails"}} objects, and hands
+ * the entries out in pages while the rest of the document is still being read.
+ */
+public class CatalogParser {
+
+    public interface PageSink {
+        /**
+         * @param page the entries of the page, owned by the sink
+         * @return false to stop parsing
+         */
+        boolean onPage(List<Sample> page) throws IOException;
+    }
+
+    private final int mPageSize;
+
+    public CatalogParser(int pageSize) {
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Parses the whole stream, the last page may be shorter than the page size. Closes the stream.
+     *
+     * @return the number of entries delivered
+     */
+    public int parse(InputStream in, PageSink sink) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readSamplesArray(reader, sink);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                //ignored
+            }
+        }
+    }
+
+    private int readSamplesArray(JsonReader reader, PageSink sink) throws IOException {
+        int count = 0;
+        List<Sample> page = new ArrayList<>(mPageSize);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Sample sample = readSample(reader);
+            if (sample == null) {
+                continue;
+            }
+            page.add(sample);
+            count++;
+            if (page.size() == mPageSize) {
+                if (!sink.onPage(page)) {
+                    return count;
+                }
+                page = new ArrayList<>(mPageSize);
+            }
+        }
+        reader.endArray();
+        if (!page.isEmpty()) {
+            sink.onPage(page);
+        }
+        return count;
+    }
+
+    private Sample readSample(JsonReader reader) throws IOException {
+        String title = null;
+        String url = null;
+        ThumbnailTrack thumbnails = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("title".equals(name)) {
+                title = reader.nextString();
+            } else if ("url".equals(name)) {
+                url = reader.nextString();
+            } else if ("thumbnails".equals(name)) {
+                thumbnails = readThumbnails(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!isNullOrEmpty(title) && !isNullOrEmpty(url)) {
+            return new Sample(title, url, thumbnails);
+        } else {
+            return null;
+        }
+    }
+
+    private ThumbnailTrack readThumbnails(JsonReader reader) throws IOException {
+        String url = null;
+        int columns = 0;
+        int rows = 0;
+        int interval = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("url".equals(name)) {
+                url = reader.nextString();
+            } else if ("columns".equals(name)) {
+                columns = reader.nextInt();
+            } else if ("rows".equals(name)) {
+                rows = reader.nextInt();
+            } else if ("interval".equals(name)) {
+                interval = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!isNullOrEmpty(url) && columns > 0 && rows > 0 && interval > 0) {
+            return new ThumbnailTrack(url, columns, rows, interval);
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean isNullOrEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+}
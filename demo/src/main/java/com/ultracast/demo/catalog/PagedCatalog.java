@@ -0,0 +1,344 @@
+package com.ultracast.demo.catalog;
+
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import com.ultracast.demo.memory.MemoryBudget;
+import com.ultracast.demo.metrics.StartupTrace;
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * A JSON catalog too large to be kept in memory as objects, the fallback when there is no
+ * {@link BinaryCatalog} index.
+ * <p>
+ * The catalog is parsed on a background thread and published page by page, so the first rows
+ * can be shown long before the parse finishes. Every page is also written to a compact spill
+ * file; only a window of {@link #MAX_RESIDENT_PAGES} decoded pages around the last accessed
+ * position is kept, other pages are read back from the spill file when the list gets there.
+ * Positions never change once published, so they serve as stable ids.
+ * All public methods must be called from the main thread.
+ */
+public class PagedCatalog implements Catalog, MemoryBudget.Consumer {
+
+    public interface Listener {
+        /**
+         * Called when entries were appended or a missing page became available.
+         */
+        void onCatalogChanged();
+    }
+
+    public static final int PAGE_SIZE = 64;
+
+    private static final String TAG = "PagedCatalog";
+    private static final int MAX_RESIDENT_PAGES = 8;
+    // a decoded sample with its strings, a rough average
+    private static final int SAMPLE_BYTES = 512;
+
+    private final File mSpillFile;
+    private final Listener mListener;
+    private final LruCache<Integer, List<Sample>> mPages = new LruCache<>(MAX_RESIDENT_PAGES);
+    private final SparseArray<Future<?>> mPending = new SparseArray<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final WorkScheduler mScheduler = WorkScheduler.getInstance();
+    private final Runnable mNotifyTask = new Runnable() {
+        @Override
+        public void run() {
+            mNotifyPending = false;
+            mListener.onCatalogChanged();
+        }
+    };
+
+    // spill file location of every published page
+    private long[] mPageOffsets = new long[16];
+    private int[] mPageLengths = new int[16];
+    private int mPageCount;
+    private int mCount;
+    private volatile int mLastAccessedPage;
+    private boolean mNotifyPending;
+    private boolean mLoaded;
+    private volatile boolean mClosed;
+
+    public PagedCatalog(File spillFile, Listener listener) {
+        mSpillFile = spillFile;
+        mListener = listener;
+    }
+
+    /**
+     * Starts streaming the catalog from an asset.
+     */
+    public void load(final AssetManager assets, final String name) {
+        final long startTime = SystemClock.uptimeMillis();
+        mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, this, new Runnable() {
+            @Override
+            public void run() {
+                InputStream in;
+                try {
+                    in = assets.open(name);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error opening catalog " + name, e);
+                    postLoaded();
+                    return;
+                }
+                parse(in, name, startTime);
+            }
+        });
+    }
+
+    /**
+     * Starts streaming the catalog from a stream, which is closed once it is parsed.
+     */
+    void load(final InputStream in, final String name) {
+        final long startTime = SystemClock.uptimeMillis();
+        mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, this, new Runnable() {
+            @Override
+            public void run() {
+                parse(in, name, startTime);
+            }
+        });
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns the entry at the position, or null if its page is not resident. The page is then
+     * read in the background and {@link Listener#onCatalogChanged()} is called once it is.
+     */
+    @Override
+    public Sample get(int position) {
+        if (position < 0 || position >= mCount) {
+            return null;
+        }
+        int pageIndex = position / PAGE_SIZE;
+        mLastAccessedPage = pageIndex;
+        List<Sample> page = mPages.get(pageIndex);
+        if (page == null) {
+            requestPage(pageIndex);
+            return null;
+        }
+        // keep scrolling into the neighbour pages seamless
+        if (pageIndex > 0) {
+            requestPage(pageIndex - 1);
+        }
+        if (pageIndex + 1 < mPageCount) {
+            requestPage(pageIndex + 1);
+        }
+        return page.get(position % PAGE_SIZE);
+    }
+
+    @Override
+    public String getTitle(int position) {
+        Sample sample = get(position);
+        return sample != null ? sample.getTitle() : null;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return (long) mPages.size() * PAGE_SIZE * SAMPLE_BYTES;
+    }
+
+    /**
+     * Drops decoded pages, they are read back from the spill file when needed.
+     */
+    @Override
+    public void trimMemory(long maxBytes) {
+        mPages.trimToSize((int) (maxBytes / (PAGE_SIZE * SAMPLE_BYTES)));
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        for (int i = 0; i < mPending.size(); i++) {
+            mPending.valueAt(i).cancel(true);
+        }
+        mPending.clear();
+        mScheduler.cancelAll(this);
+        mMainHandler.removeCallbacksAndMessages(null);
+        mPages.evictAll();
+        mSpillFile.delete();
+    }
+
+    private void parse(InputStream in, String name, final long startTime) {
+        DataOutputStream out = null;
+        final long[] peakHeap = new long[1];
+        StartupTrace.begin("catalog.parse");
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mSpillFile)));
+            final DataOutputStream spill = out;
+            int count = new CatalogParser(PAGE_SIZE).parse(in, new CatalogParser.PageSink() {
+                private int pageIndex;
+
+                @Override
+                public boolean onPage(List<Sample> page) throws IOException {
+                    if (mClosed) {
+                        return false;
+                    }
+                    long offset = spill.size();
+                    writePage(spill, page);
+                    spill.flush();
+                    Runtime runtime = Runtime.getRuntime();
+                    peakHeap[0] = Math.max(peakHeap[0], runtime.totalMemory() - runtime.freeMemory());
+                    // pages far from what is on screen stay in the spill file only
+                    boolean keep = Math.abs(pageIndex - mLastAccessedPage) <= MAX_RESIDENT_PAGES / 2;
+                    postPage(pageIndex, page.size(), keep ? page : null, offset,
+                            (int) (spill.size() - offset), startTime);
+                    pageIndex++;
+                    return true;
+                }
+            });
+            Log.i(TAG, "Parsed " + count + " entries in " + (SystemClock.uptimeMillis() - startTime)
+                    + " ms, peak heap " + peakHeap[0] / 1024 + " KB");
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading catalog " + name, e);
+        } finally {
+            HttpFetcher.closeQuietly(in);
+            HttpFetcher.closeQuietly(out);
+            StartupTrace.end("catalog.parse");
+        }
+        postLoaded();
+    }
+
+    private void postLoaded() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLoaded = true;
+                notifyChanged();
+            }
+        });
+    }
+
+    private void postPage(final int pageIndex, final int size, final List<Sample> page,
+                          final long offset, final int length, final long startTime) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mClosed) {
+                    return;
+                }
+                if (pageIndex == mPageOffsets.length) {
+                    mPageOffsets = Arrays.copyOf(mPageOffsets, pageIndex * 2);
+                    mPageLengths = Arrays.copyOf(mPageLengths, pageIndex * 2);
+                }
+                mPageOffsets[pageIndex] = offset;
+                mPageLengths[pageIndex] = length;
+                mPageCount++;
+                mCount += size;
+                if (page != null) {
+                    mPages.put(pageIndex, page);
+                }
+                if (pageIndex == 0) {
+                    StartupTrace.mark("catalog.first_page");
+                    Log.i(TAG, "First page after " + (SystemClock.uptimeMillis() - startTime) + " ms");
+                }
+                notifyChanged();
+            }
+        });
+    }
+
+    private void requestPage(final int pageIndex) {
+        Future<?> pending = mPending.get(pageIndex);
+        // a cancelled read was dropped by the scheduler and never reports back
+        if ((pending != null && !pending.isCancelled()) || mPages.get(pageIndex) != null || mClosed) {
+            return;
+        }
+        final long offset = mPageOffsets[pageIndex];
+        final int length = mPageLengths[pageIndex];
+        mPending.put(pageIndex, mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, this, new Runnable() {
+            @Override
+            public void run() {
+                final List<Sample> page = readPage(offset, length);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPending.remove(pageIndex);
+                        if (page != null && !mClosed) {
+                            mPages.put(pageIndex, page);
+                            notifyChanged();
+                        }
+                    }
+                });
+            }
+        }));
+    }
+
+    private void notifyChanged() {
+        // a fast parse publishes many pages per frame, refresh the list once for all of them
+        if (!mNotifyPending) {
+            mNotifyPending = true;
+            mMainHandler.post(mNotifyTask);
+        }
+    }
+
+    private List<Sample> readPage(long offset, int length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mSpillFile, "r");
+            byte[] data = new byte[length];
+            file.seek(offset);
+            file.readFully(data);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            int count = in.readInt();
+            List<Sample> page = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String title = in.readUTF();
+                String url = in.readUTF();
+                ThumbnailTrack thumbnails = null;
+                if (in.readBoolean()) {
+                    thumbnails = new ThumbnailTrack(in.readUTF(), in.readInt(), in.readInt(), in.readInt());
+                }
+                page.add(new Sample(title, url, thumbnails));
+            }
+            return page;
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading catalog page at " + offset, e);
+            return null;
+        } finally {
+            HttpFetcher.closeQuietly(file);
+        }
+    }
+
+    private static void writePage(DataOutputStream out, List<Sample> page) throws IOException {
+        out.writeInt(page.size());
+        for (Sample sample : page) {
+            out.writeUTF(sample.getTitle());
+            out.writeUTF(sample.getUrl());
+            ThumbnailTrack thumbnails = sample.getThumbnails();
+            out.writeBoolean(thumbnails != null);
+            if (thumbnails != null) {
+                out.writeUTF(thumbnails.getUrlPattern());
+                out.writeInt(thumbnails.getColumns());
+                out.writeInt(thumbnails.getRows());
+                out.writeInt(thumbnails.getInterval());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.ultracast.demo.catalog;
+
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+
+/**
+ * One catalog entry.
+ */
+public class Sample {
+
+    private final String title;
+    private final String url;
+    private final ThumbnailTrack thumbnails;
+
+    public Sample(String title, String url, ThumbnailTrack thumbnails) {
+        this.title = title;
+        this.url = url;
+        this.thumbnails = thumbnails;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public ThumbnailTrack getThumbnails() {
+        return thumbnails;
+    }
+}
@@ -0,0 +1,136 @@
+package com.ultracast.demo.download;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State and progress of one offline download, updated by the {@link DownloadManager} threads and
+ * safe to read from any thread.
+ */
+public class Download {
+
+    public static final int STATE_QUEUED = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_COMPLETED = 2;
+    /**
+     * Stopped by the user or by an error; the files fetched so far are kept and a restart
+     * continues from them.
+     */
+    public static final int STATE_PAUSED = 3;
+
+    private final String mUrl;
+    private final String mTitle;
+    private final File mDirectory;
+
+    private volatile int mState = STATE_QUEUED;
+    private volatile int mTotalCount;
+    private volatile String mError;
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mSessionBytes = new AtomicLong();
+    private volatile long mSessionStart;
+
+    Download(String url, String title, File directory) {
+        mUrl = url;
+        mTitle = title;
+        mDirectory = directory;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * @return why the download paused on its own, null if it did not
+     */
+    public String getError() {
+        return mError;
+    }
+
+    /**
+     * @return playlist resources, i.e. segments, initialization sections and keys; 0 until the
+     * playlist was resolved
+     */
+    public int getTotalCount() {
+        return mTotalCount;
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * @return 0 to 1, by completed resources
+     */
+    public float getProgress() {
+        int total = mTotalCount;
+        return total > 0 ? Math.min(1f, (float) mCompletedCount.get() / total) : 0;
+    }
+
+    /**
+     * @return bytes on disk, including partial files
+     */
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    /**
+     * @return average throughput since the download was last started, bits per second
+     */
+    public long getThroughput() {
+        long elapsed = SystemClock.elapsedRealtime() - mSessionStart;
+        return elapsed > 0 ? mSessionBytes.get() * 8000 / elapsed : 0;
+    }
+
+    File getDirectory() {
+        return mDirectory;
+    }
+
+    void setState(int state, String error) {
+        mState = state;
+        mError = error;
+    }
+
+    void onStarted() {
+        mCompletedCount.set(0);
+        mBytes.set(0);
+        mSessionBytes.set(0);
+        mSessionStart = SystemClock.elapsedRealtime();
+        setState(STATE_RUNNING, null);
+    }
+
+    void setTotalCount(int count) {
+        mTotalCount = count;
+    }
+
+    /**
+     * @param existing true for bytes found on disk from an earlier run
+     */
+    void onBytes(long count, boolean existing) {
+        mBytes.addAndGet(count);
+        if (!existing) {
+            mSessionBytes.addAndGet(count);
+        }
+    }
+
+    void onResourceCompleted() {
+        mCompletedCount.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return mTitle + " " + Math.round(getProgress() * 100) + "% (" + mCompletedCount.get() + "/" + mTotalCount
+                + "), " + mBytes.get() + " bytes, " + getThroughput() / 1000 + " kbps";
+    }
+}
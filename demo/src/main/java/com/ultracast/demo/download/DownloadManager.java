@@ -0,0 +1,749 @@
+package com.ultracast.demo.download;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ultracast.demo.abr.AbrController;
+import com.ultracast.demo.hls.HlsVariant;
+import com.ultracast.demo.hls.ManifestCache;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.net.UrlKeys;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads HLS VOD streams for offline playback.
+ * <p>
+ * The playlist is resolved to one media playlist, for a master playlist the middle of the
+ * variants the {@link AbrController} offers, which is kept in the download directory so a
+ * restarted download fetches exactly the same resources. Segments, initialization sections and
+ * keys are then fetched in parallel, at most {@link #MAX_CONNECTIONS} at a time and
+ * {@link #MAX_CONNECTIONS_PER_HOST} per host. A transfer is admitted by its host before it goes
+ * to the transfer threads, the others wait in a queue of their host, so a busy host never holds
+ * a thread another host could use. Looking for downloads, preparing and deleting them run on a
+ * thread of their own and never wait behind transfers.
+ * <p>
+ * Every resource is streamed into a {@code .part} file straight from the connection with
+ * {@link FileChannel#transferFrom}, without a buffer of our own, and renamed once complete. A
+ * failed transfer is retried with backoff; after process death or a pause the part files are
+ * continued with range requests, so only the missing bytes are fetched again. A byte range
+ * segment becomes a file of its own. Once every resource is on disk a local playlist referring
+ * to the files is written, {@link #getLocalUri(String)} hands it to the player. The files of a
+ * download are kept in a directory named by the SHA-1 of its url.
+ * <p>
+ * Listeners are called on the main thread, progress at most every
+ * {@link #PROGRESS_INTERVAL_MS}. Thread safe.
+ */
+public class DownloadManager {
+
+    public interface Listener {
+        void onProgress(Download download);
+
+        void onStateChanged(Download download);
+    }
+
+    public static final int MAX_CONNECTIONS = 4;
+    public static final int MAX_CONNECTIONS_PER_HOST = 2;
+    public static final long PROGRESS_INTERVAL_MS = 250;
+
+    private static final String TAG = "DownloadManager";
+    private static final String STATE_FILE = "download.state";
+    private static final String SOURCE_FILE = "source.m3u8";
+    private static final String INDEX_FILE = "index.m3u8";
+    private static final String PART_SUFFIX = ".part";
+    private static final String TAG_BYTERANGE = "#EXT-X-BYTERANGE:";
+    private static final Pattern URI_ATTRIBUTE = Pattern.compile("URI=\"(https?://[^\"]*)\"");
+    private static final Pattern CONTENT_RANGE_START = Pattern.compile("bytes (\\d+)-");
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_DELAY_MS = 500;
+    // bytes per transferFrom call, between two checks for a pause
+    private static final long TRANSFER_CHUNK = 256 * 1024;
+
+    private static DownloadManager sInstance;
+
+    private final File mRoot;
+    private final ManifestPrefetcher mPrefetcher;
+    private final AbrController mAbrController;
+    // scan, prepare and delete
+    private final ExecutorService mControlExecutor = Executors.newSingleThreadExecutor();
+    // only runs admitted transfers, and delays retries
+    private final ScheduledExecutorService mTransferExecutor = Executors.newScheduledThreadPool(MAX_CONNECTIONS);
+    // guarded by itself
+    private final Map<String, Host> mHosts = new HashMap<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    // guarded by this
+    private final Map<String, Download> mDownloads = new LinkedHashMap<>();
+    private final Map<String, Job> mJobs = new HashMap<>();
+
+    public static synchronized DownloadManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DownloadManager(new File(context.getApplicationContext().getFilesDir(), "downloads"),
+                    ManifestPrefetcher.getInstance(context), AbrController.getInstance());
+        }
+        return sInstance;
+    }
+
+    DownloadManager(File root, ManifestPrefetcher prefetcher, AbrController abrController) {
+        mRoot = root;
+        mPrefetcher = prefetcher;
+        mAbrController = abrController;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Looks for downloads of earlier runs in the background, and continues those which were
+     * running when the process ended.
+     */
+    public void resumeAll() {
+        mControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        });
+    }
+
+    /**
+     * Starts or continues downloading an HLS VOD url.
+     *
+     * @return the download, unchanged if it is running, stopping or complete already
+     */
+    public synchronized Download start(String url, String title) {
+        Job running = mJobs.get(url);
+        if (running != null) {
+            // a removed download can only be started again once its files are gone
+            return running.download;
+        }
+        Download download = mDownloads.get(url);
+        if (download == null) {
+            download = new Download(url, title, directoryFor(url));
+            mDownloads.put(url, download);
+        } else if (download.getState() == Download.STATE_COMPLETED) {
+            return download;
+        }
+        download.setState(Download.STATE_QUEUED, null);
+        final Job job = new Job(download);
+        mJobs.put(url, job);
+        mControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prepare(job);
+            }
+        });
+        notifyStateChanged(download);
+        return download;
+    }
+
+    /**
+     * Stops a download, the transfers running end at their next chunk. What was fetched is kept.
+     */
+    public synchronized void pause(String url) {
+        Job job = mJobs.get(url);
+        if (job != null) {
+            job.pausedByUser = true;
+            job.stop(null);
+        }
+    }
+
+    /**
+     * Stops a download if it is running and deletes its files.
+     */
+    public synchronized void remove(String url) {
+        mDownloads.remove(url);
+        Job job = mJobs.get(url);
+        if (job != null) {
+            // deleted by the job once its transfers stopped
+            job.removed = true;
+            job.stop(null);
+            return;
+        }
+        final File directory = directoryFor(url);
+        mControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                delete(directory);
+            }
+        });
+    }
+
+    /**
+     * @return the download of a url, null if there is none or the downloads of earlier runs are
+     * not known yet
+     */
+    public synchronized Download get(String url) {
+        return mDownloads.get(url);
+    }
+
+    public synchronized boolean hasDownloads() {
+        return !mDownloads.isEmpty();
+    }
+
+    public synchronized List<Download> getDownloads() {
+        return new ArrayList<>(mDownloads.values());
+    }
+
+    /**
+     * @return a file uri of the local playlist if the url was downloaded completely, null
+     * otherwise. Only checks for the playlist file, safe for the main thread.
+     */
+    public Uri getLocalUri(String url) {
+        File index = new File(directoryFor(url), INDEX_FILE);
+        return index.exists() ? Uri.fromFile(index) : null;
+    }
+
+    File directoryFor(String url) {
+        return new File(mRoot, UrlKeys.keyFor(url));
+    }
+
+    private void scan() {
+        File[] directories = mRoot.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new FileInputStream(new File(directory, STATE_FILE)));
+                String url = in.readUTF();
+                String title = in.readUTF();
+                boolean running = in.readBoolean();
+                if (new File(directory, INDEX_FILE).exists()) {
+                    Download download = new Download(url, title, directory);
+                    download.setState(Download.STATE_COMPLETED, null);
+                    synchronized (this) {
+                        if (!mDownloads.containsKey(url)) {
+                            mDownloads.put(url, download);
+                        }
+                    }
+                } else if (running) {
+                    Log.i(TAG, "Continuing download of " + url);
+                    start(url, title);
+                } else {
+                    Download download = new Download(url, title, directory);
+                    download.setState(Download.STATE_PAUSED, null);
+                    synchronized (this) {
+                        if (!mDownloads.containsKey(url)) {
+                            mDownloads.put(url, download);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable download " + directory, e);
+                delete(directory);
+            } finally {
+                HttpFetcher.closeQuietly(in);
+            }
+        }
+    }
+
+    private void prepare(Job job) {
+        Download download = job.download;
+        download.onStarted();
+        notifyStateChanged(download);
+        try {
+            File directory = download.getDirectory();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can not create " + directory);
+            }
+            writeState(download, true);
+            List<Resource> resources = new ArrayList<>();
+            job.index = plan(loadSource(download), resources);
+            download.setTotalCount(resources.size());
+            job.remaining.addAndGet(resources.size());
+            for (Resource resource : resources) {
+                admit(new Transfer(job, resource));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error preparing download of " + download.getUrl(), e);
+            job.stop(e.toString());
+        } finally {
+            onTaskDone(job);
+        }
+    }
+
+    /**
+     * @return the media playlist to download, with absolute uris
+     */
+    private String loadSource(Download download) throws IOException {
+        File source = new File(download.getDirectory(), SOURCE_FILE);
+        if (source.exists()) {
+            return readText(source);
+        }
+        ManifestCache.Entry entry = mPrefetcher.getOrFetch(download.getUrl());
+        if (entry.getMaster() != null) {
+            List<HlsVariant> variants = mAbrController.selectVariants(entry.getMaster().getVariants());
+            if (variants.isEmpty()) {
+                throw new IOException("No variants in " + download.getUrl());
+            }
+            // lowest first, the middle one is a fair trade of size and quality for keeping
+            entry = mPrefetcher.getOrFetch(variants.get((variants.size() - 1) / 2).getUri());
+        }
+        if (entry.getMedia() == null || !entry.getMedia().hasEndList()) {
+            throw new IOException("Live streams can not be downloaded: " + download.getUrl());
+        }
+        writeText(source, entry.getText());
+        return entry.getText();
+    }
+
+    /**
+     * Lists the resources of a media playlist.
+     *
+     * @return the playlist rewritten to refer to the downloaded files
+     */
+    static String plan(String text, List<Resource> resources) throws IOException {
+        StringBuilder out = new StringBuilder(text.length());
+        Map<String, String> attributeFiles = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        long rangeOffset = 0;
+        long rangeLength = -1;
+        long nextRangeOffset = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith(TAG_BYTERANGE)) {
+                // every range becomes a file of its own, the tag goes
+                String value = trimmed.substring(TAG_BYTERANGE.length());
+                int at = value.indexOf('@');
+                try {
+                    rangeLength = Long.parseLong(at >= 0 ? value.substring(0, at) : value);
+                    rangeOffset = at >= 0 ? Long.parseLong(value.substring(at + 1)) : nextRangeOffset;
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed byte range " + trimmed, e);
+                }
+                nextRangeOffset = rangeOffset + rangeLength;
+                continue;
+            }
+            if (trimmed.startsWith("#") && trimmed.contains("URI=\"")) {
+                // keys and initialization sections, shared by many segments
+                Matcher matcher = URI_ATTRIBUTE.matcher(line);
+                StringBuffer buffer = new StringBuffer();
+                while (matcher.find()) {
+                    String name = attributeFiles.get(matcher.group(1));
+                    if (name == null) {
+                        name = add(resources, matcher.group(1), 0, -1);
+                        attributeFiles.put(matcher.group(1), name);
+                    }
+                    matcher.appendReplacement(buffer, Matcher.quoteReplacement("URI=\"" + name + "\""));
+                }
+                matcher.appendTail(buffer);
+                out.append(buffer);
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                out.append(add(resources, trimmed, rangeLength >= 0 ? rangeOffset : 0, rangeLength));
+                rangeLength = -1;
+            } else {
+                out.append(line);
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String add(List<Resource> resources, String uri, long offset, long length) {
+        String name = resources.size() + extensionOf(uri);
+        resources.add(new Resource(uri, name, offset, length));
+        return name;
+    }
+
+    private static String extensionOf(String uri) {
+        String segment = Uri.parse(uri).getLastPathSegment();
+        int dot = segment != null ? segment.lastIndexOf('.') : -1;
+        // the player may pick the container by extension
+        return dot >= 0 && segment.length() - dot <= 5 ? segment.substring(dot) : "";
+    }
+
+    /**
+     * Hands the transfer to the transfer threads if its host has a connection to spare, queues it
+     * with the host otherwise.
+     */
+    private void admit(Transfer transfer) {
+        synchronized (mHosts) {
+            Host host = mHosts.get(transfer.host);
+            if (host == null) {
+                host = new Host();
+                mHosts.put(transfer.host, host);
+            }
+            if (host.active >= MAX_CONNECTIONS_PER_HOST) {
+                host.pending.add(transfer);
+                return;
+            }
+            host.active++;
+        }
+        mTransferExecutor.execute(transfer);
+    }
+
+    /**
+     * Passes the connection of a transfer which ended on to the next transfer of its host.
+     */
+    private void release(String hostName) {
+        Transfer next;
+        synchronized (mHosts) {
+            Host host = mHosts.get(hostName);
+            next = host.pending.poll();
+            if (next == null) {
+                host.active--;
+                if (host.active == 0) {
+                    mHosts.remove(hostName);
+                }
+                return;
+            }
+        }
+        mTransferExecutor.execute(next);
+    }
+
+    private void runTransfer(final Transfer transfer) {
+        Job job = transfer.job;
+        Resource resource = transfer.resource;
+        boolean retry = false;
+        try {
+            if (!job.stopped && fetch(job, resource)) {
+                job.download.onResourceCompleted();
+                notifyProgress(job);
+            }
+        } catch (IOException e) {
+            if (transfer.attempt >= MAX_ATTEMPTS) {
+                Log.w(TAG, "Giving up on " + resource.uri, e);
+                job.stop(e.toString());
+            } else {
+                Log.d(TAG, "Attempt " + transfer.attempt + " of " + resource.uri + " failed: " + e);
+                retry = true;
+            }
+        } finally {
+            release(transfer.host);
+            if (retry) {
+                // the connection goes to others meanwhile, the retry queues up again
+                mTransferExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        transfer.attempt++;
+                        admit(transfer);
+                    }
+                }, RETRY_DELAY_MS << (transfer.attempt - 1), TimeUnit.MILLISECONDS);
+            } else {
+                onTaskDone(job);
+            }
+        }
+    }
+
+    /**
+     * @return true if the resource is on disk, false if the download was stopped first
+     */
+    private boolean fetch(Job job, Resource resource) throws IOException {
+        Download download = job.download;
+        File target = new File(download.getDirectory(), resource.name);
+        if (target.exists()) {
+            countExisting(download, resource, target.length());
+            return true;
+        }
+        File part = new File(download.getDirectory(), resource.name + PART_SUFFIX);
+        long existing = part.length();
+        if (resource.length >= 0 && existing > resource.length) {
+            existing = 0;
+        } else if (existing > 0 && existing == resource.length) {
+            countExisting(download, resource, existing);
+            commit(part, target);
+            return true;
+        }
+        String range = null;
+        if (resource.length >= 0) {
+            range = "bytes=" + (resource.offset + existing) + "-" + (resource.offset + resource.length - 1);
+        } else if (existing > 0) {
+            range = "bytes=" + existing + "-";
+        }
+        URLConnection connection = HttpFetcher.open(resource.uri, range);
+        InputStream in = null;
+        RandomAccessFile file = null;
+        try {
+            boolean partial = connection instanceof HttpURLConnection
+                    && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+            if (range != null && !partial) {
+                if (resource.length >= 0) {
+                    throw new IOException("Byte ranges not supported for " + resource.uri);
+                }
+                // the server sent everything, start over
+                existing = 0;
+            } else if (partial && !rangeStartsAt(connection, resource.offset + existing)) {
+                throw new IOException("Unexpected Content-Range for " + resource.uri);
+            }
+            countExisting(download, resource, existing);
+            long expected = connection.getContentLength();
+            in = connection.getInputStream();
+            file = new RandomAccessFile(part, "rw");
+            file.setLength(existing);
+            FileChannel channel = file.getChannel();
+            ReadableByteChannel source = Channels.newChannel(in);
+            long position = existing;
+            long transferred;
+            while ((transferred = channel.transferFrom(source, position, TRANSFER_CHUNK)) > 0) {
+                position += transferred;
+                resource.counted += transferred;
+                download.onBytes(transferred, false);
+                notifyProgress(job);
+                if (job.stopped) {
+                    return false;
+                }
+            }
+            if (expected >= 0 && position - existing != expected) {
+                throw new IOException("Truncated " + resource.uri + " at " + (position - existing) + " of " + expected);
+            }
+            if (resource.length >= 0 && position != resource.length) {
+                throw new IOException("Wrong length of " + resource.uri + ": " + position);
+            }
+        } finally {
+            HttpFetcher.closeQuietly(file);
+            HttpFetcher.closeQuietly(in);
+            HttpFetcher.disconnect(connection);
+        }
+        commit(part, target);
+        return true;
+    }
+
+    // keeps the bytes on disk right when a retry finds what an earlier attempt wrote
+    private static void countExisting(Download download, Resource resource, long bytes) {
+        download.onBytes(bytes - resource.counted, true);
+        resource.counted = bytes;
+    }
+
+    private static boolean rangeStartsAt(URLConnection connection, long start) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        Matcher matcher = contentRange != null ? CONTENT_RANGE_START.matcher(contentRange) : null;
+        return matcher != null && matcher.lookingAt() && Long.parseLong(matcher.group(1)) == start;
+    }
+
+    private static void commit(File part, File target) throws IOException {
+        if (!part.renameTo(target)) {
+            throw new IOException("Can not rename " + part);
+        }
+    }
+
+    private void onTaskDone(Job job) {
+        if (job.remaining.decrementAndGet() == 0) {
+            finish(job);
+        }
+    }
+
+    private void finish(Job job) {
+        Download download = job.download;
+        if (!job.stopped) {
+            try {
+                writeText(new File(download.getDirectory(), INDEX_FILE), job.index);
+                download.setState(Download.STATE_COMPLETED, null);
+                Log.i(TAG, "Downloaded " + download);
+            } catch (IOException e) {
+                download.setState(Download.STATE_PAUSED, e.toString());
+            }
+        } else {
+            download.setState(Download.STATE_PAUSED, job.error);
+            Log.i(TAG, "Stopped " + download + (job.error != null ? ": " + job.error : ""));
+        }
+        if (job.removed) {
+            delete(download.getDirectory());
+        } else if (job.pausedByUser) {
+            try {
+                writeState(download, false);
+            } catch (IOException e) {
+                Log.w(TAG, "Error writing state of " + download.getUrl(), e);
+            }
+        }
+        synchronized (this) {
+            if (mJobs.get(download.getUrl()) == job) {
+                mJobs.remove(download.getUrl());
+            }
+        }
+        notifyStateChanged(download);
+    }
+
+    private void notifyProgress(Job job) {
+        long now = SystemClock.elapsedRealtime();
+        long last = job.lastProgress.get();
+        if (now - last < PROGRESS_INTERVAL_MS || !job.lastProgress.compareAndSet(last, now)) {
+            return;
+        }
+        final Download download = job.download;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onProgress(download);
+                }
+            }
+        });
+    }
+
+    private void notifyStateChanged(final Download download) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onStateChanged(download);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param running true to continue the download when the app starts again
+     */
+    private static void writeState(Download download, boolean running) throws IOException {
+        File file = new File(download.getDirectory(), STATE_FILE);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeUTF(download.getUrl());
+            out.writeUTF(download.getTitle() != null ? download.getTitle() : "");
+            out.writeBoolean(running);
+        } finally {
+            HttpFetcher.closeQuietly(out);
+        }
+    }
+
+    private static String readText(File file) throws IOException {
+        InputStreamReader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder text = new StringBuilder((int) file.length());
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return text.toString();
+        } finally {
+            HttpFetcher.closeQuietly(reader);
+        }
+    }
+
+    private static void writeText(File file, String text) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try {
+            writer.write(text);
+        } finally {
+            HttpFetcher.closeQuietly(writer);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can not write " + file);
+        }
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    static final class Resource {
+
+        final String uri;
+        final String name;
+        final long offset;
+        // -1 for the whole resource
+        final long length;
+        // bytes on disk accounted for in the download, only touched by the task fetching it
+        long counted;
+
+        Resource(String uri, String name, long offset, long length) {
+            this.uri = uri;
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final class Transfer implements Runnable {
+
+        final Job job;
+        final Resource resource;
+        final String host;
+        int attempt = 1;
+
+        Transfer(Job job, Resource resource) {
+            this.job = job;
+            this.resource = resource;
+            this.host = Uri.parse(resource.uri).getHost();
+        }
+
+        @Override
+        public void run() {
+            runTransfer(this);
+        }
+    }
+
+    private static final class Host {
+
+        // transfers running or handed to the transfer threads
+        int active;
+        final ArrayDeque<Transfer> pending = new ArrayDeque<>();
+    }
+
+    private static final class Job {
+
+        final Download download;
+        // the prepare task and the transfers, the last one to end finishes the job
+        final AtomicInteger remaining = new AtomicInteger(1);
+        final AtomicLong lastProgress = new AtomicLong();
+        volatile boolean stopped;
+        volatile boolean pausedByUser;
+        volatile boolean removed;
+        volatile String error;
+        volatile String index;
+
+        Job(Download download) {
+            this.download = download;
+        }
+
+        void stop(String reason) {
+            if (reason != null && error == null) {
+                error = reason;
+            }
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.ultracast.demo.hls;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed master playlist. Variant uris are absolute.
+ */
+public class HlsMasterPlaylist {
+
+    private final String uri;
+    private final List<HlsVariant> variants;
+
+    public HlsMasterPlaylist(String uri, List<HlsVariant> variants) {
+        this.uri = uri;
+        this.variants = Collections.unmodifiableList(variants);
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return variants in playlist order, the first one is the one players start with
+     */
+    public List<HlsVariant> getVariants() {
+        return variants;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ultracast.demo.hls;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed media playlist. Segment uris are absolute.
+ */
+public class HlsMediaPlaylist {
+
+    private final String uri;
+    private final int targetDurationMs;
+    private final long mediaSequence;
+    private final boolean endList;
+    private final List<HlsSegment> segments;
+
+    public HlsMediaPlaylist(String uri, int targetDurationMs, long mediaSequence, boolean endList,
+                            List<HlsSegment> segments) {
+        this.uri = uri;
+        this.targetDurationMs = targetDurationMs;
+        this.mediaSequence = mediaSequence;
+        this.endList = endList;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getTargetDurationMs() {
+        return targetDurationMs;
+    }
+
+    public long getMediaSequence() {
+        return mediaSequence;
+    }
+
+    /**
+     * @return true for VOD playlists, false for live playlists which are still growing
+     */
+    public boolean hasEndList() {
+        return endList;
+    }
+
+    public List<HlsSegment> getSegments() {
+        return segments;
+    }
+
+    public long getDurationMs() {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        HlsSegment last = segments.get(segments.size() - 1);
+        return last.getStartTimeMs() + last.getDurationMs();
+    }
+}
@@ -0,0 +1,194 @@
+package com.ultracast.demo.hls;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for the subset of HLS playlists the demo needs: variants of a master playlist and
+ * segments of a media playlist. All uris in the results are resolved against the playlist uri.
+ */
+public final class HlsParser {
+
+    private static final String TAG_HEADER = "#EXTM3U";
+    private static final String TAG_STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final String TAG_TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+    private static final String TAG_MEDIA_SEQUENCE = "#EXT-X-MEDIA-SEQUENCE:";
+    private static final String TAG_BYTERANGE = "#EXT-X-BYTERANGE:";
+    private static final String TAG_INF = "#EXTINF:";
+    private static final String TAG_ENDLIST = "#EXT-X-ENDLIST";
+
+    private static final Pattern BANDWIDTH = Pattern.compile("(?:^|,)BANDWIDTH=(\\d+)");
+    private static final Pattern RESOLUTION = Pattern.compile("RESOLUTION=(\\d+)x(\\d+)");
+    private static final Pattern CODECS = Pattern.compile("CODECS=\"([^\"]*)\"");
+    private static final Pattern URI_ATTRIBUTE = Pattern.compile("URI=\"([^\"]*)\"");
+
+    private HlsParser() {
+    }
+
+    public static boolean isMasterPlaylist(String text) {
+        return text.contains(TAG_STREAM_INF);
+    }
+
+    public static HlsMasterPlaylist parseMaster(String uri, String text) throws IOException {
+        List<HlsVariant> variants = new ArrayList<>();
+        BufferedReader reader = open(text);
+        String streamInf = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith(TAG_STREAM_INF)) {
+                streamInf = line.substring(TAG_STREAM_INF.length());
+            } else if (streamInf != null && !line.isEmpty() && !line.startsWith("#")) {
+                Matcher resolution = RESOLUTION.matcher(streamInf);
+                boolean hasResolution = resolution.find();
+                variants.add(new HlsVariant(resolve(uri, line),
+                        parseInt(BANDWIDTH, streamInf),
+                        hasResolution ? Integer.parseInt(resolution.group(1)) : 0,
+                        hasResolution ? Integer.parseInt(resolution.group(2)) : 0,
+                        parseString(CODECS, streamInf),
+                        streamInf));
+                streamInf = null;
+            }
+        }
+        return new HlsMasterPlaylist(uri, variants);
+    }
+
+    public static HlsMediaPlaylist parseMedia(String uri, String text) throws IOException {
+        try {
+            return parseMediaLines(uri, text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed media playlist " + uri, e);
+        }
+    }
+
+    private static HlsMediaPlaylist parseMediaLines(String uri, String text) throws IOException {
+        List<HlsSegment> segments = new ArrayList<>();
+        BufferedReader reader = open(text);
+        int targetDurationMs = 0;
+        long mediaSequence = 0;
+        boolean endList = false;
+        long segmentDurationMs = 0;
+        long startTimeMs = 0;
+        long byteRangeOffset = 0;
+        long byteRangeLength = -1;
+        long nextByteRangeOffset = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith(TAG_TARGET_DURATION)) {
+                targetDurationMs = (int) (Double.parseDouble(line.substring(TAG_TARGET_DURATION.length())) * 1000);
+            } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
+                mediaSequence = Long.parseLong(line.substring(TAG_MEDIA_SEQUENCE.length()));
+            } else if (line.startsWith(TAG_INF)) {
+                String value = line.substring(TAG_INF.length());
+                int comma = value.indexOf(',');
+                segmentDurationMs = (long) (Double.parseDouble(comma >= 0 ? value.substring(0, comma) : value) * 1000);
+            } else if (line.startsWith(TAG_BYTERANGE)) {
+                String value = line.substring(TAG_BYTERANGE.length());
+                int at = value.indexOf('@');
+                byteRangeLength = Long.parseLong(at >= 0 ? value.substring(0, at) : value);
+                byteRangeOffset = at >= 0 ? Long.parseLong(value.substring(at + 1)) : nextByteRangeOffset;
+                nextByteRangeOffset = byteRangeOffset + byteRangeLength;
+            } else if (line.startsWith(TAG_ENDLIST)) {
+                endList = true;
+            } else if (!line.isEmpty() && !line.startsWith("#")) {
+                segments.add(new HlsSegment(resolve(uri, line), segmentDurationMs, startTimeMs,
+                        byteRangeLength >= 0 ? byteRangeOffset : 0, byteRangeLength));
+                startTimeMs += segmentDurationMs;
+                segmentDurationMs = 0;
+                byteRangeLength = -1;
+            }
+        }
+        return new HlsMediaPlaylist(uri, targetDurationMs, mediaSequence, endList, segments);
+    }
+
+    /**
+     * Builds a master playlist which lists only the given variants, in the given order. Tags which
+     * do not describe a variant are kept.
+     */
+    public static String writeMaster(String text, List<HlsVariant> variants) throws IOException {
+        StringBuilder out = new StringBuilder(text.length());
+        BufferedReader reader = open(text);
+        out.append(TAG_HEADER).append('\n');
+        boolean skipUri = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith(TAG_STREAM_INF)) {
+                skipUri = true;
+            } else if (skipUri && !trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                skipUri = false;
+            } else if (!trimmed.isEmpty()) {
+                out.append(line).append('\n');
+            }
+        }
+        for (HlsVariant variant : variants) {
+            out.append(TAG_STREAM_INF).append(variant.getAttributes()).append('\n');
+            out.append(variant.getUri()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Rewrites every uri line and URI attribute of the playlist to an absolute uri, so the
+     * playlist stays valid when it is served from a different location.
+     */
+    public static String resolveUris(String uri, String text) throws IOException {
+        StringBuilder out = new StringBuilder(text.length() + 256);
+        BufferedReader reader = open(text);
+        out.append(TAG_HEADER).append('\n');
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                out.append(resolve(uri, trimmed));
+            } else if (trimmed.startsWith("#") && trimmed.contains("URI=\"")) {
+                Matcher matcher = URI_ATTRIBUTE.matcher(line);
+                StringBuffer buffer = new StringBuffer();
+                while (matcher.find()) {
+                    matcher.appendReplacement(buffer,
+                            Matcher.quoteReplacement("URI=\"" + resolve(uri, matcher.group(1)) + "\""));
+                }
+                matcher.appendTail(buffer);
+                out.append(buffer);
+            } else {
+                out.append(line);
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    public static String resolve(String base, String uri) {
+        try {
+            return URI.create(base).resolve(uri).toString();
+        } catch (IllegalArgumentException e) {
+            return uri;
+        }
+    }
+
+    private static BufferedReader open(String text) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        String first = reader.readLine();
+        if (first == null || !first.trim().startsWith(TAG_HEADER)) {
+            throw new IOException("Not an HLS playlist");
+        }
+        return reader;
+    }
+
+    private static int parseInt(Pattern pattern, String attributes) {
+        Matcher matcher = pattern.matcher(attributes);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+    private static String parseString(Pattern pattern, String attributes) {
+        Matcher matcher = pattern.matcher(attributes);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.ultracast.demo.hls;
+
+/**
+ * A media segment of a media playlist.
+ */
+public class HlsSegment {
+
+    private final String uri;
+    private final long durationMs;
+    private final long startTimeMs;
+    private final long byteRangeOffset;
+    private final long byteRangeLength;
+
+    public HlsSegment(String uri, long durationMs, long startTimeMs, long byteRangeOffset, long byteRangeLength) {
+        this.uri = uri;
+        this.durationMs = durationMs;
+        this.startTimeMs = startTimeMs;
+        this.byteRangeOffset = byteRangeOffset;
+        this.byteRangeLength = byteRangeLength;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    public long getByteRangeOffset() {
+        return byteRangeOffset;
+    }
+
+    /**
+     * @return the length of the sub-range, or -1 if the whole resource is the segment
+     */
+    public long getByteRangeLength() {
+        return byteRangeLength;
+    }
+}
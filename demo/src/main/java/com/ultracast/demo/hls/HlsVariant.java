@@ -0,0 +1,50 @@
+package com.ultracast.demo.hls;
+
+/**
+ * A variant stream of a master playlist.
+ */
+public class HlsVariant {
+
+    private final String uri;
+    private final int bandwidth;
+    private final int width;
+    private final int height;
+    private final String codecs;
+    private final String attributes;
+
+    public HlsVariant(String uri, int bandwidth, int width, int height, String codecs, String attributes) {
+        this.uri = uri;
+        this.bandwidth = bandwidth;
+        this.width = width;
+        this.height = height;
+        this.codecs = codecs;
+        this.attributes = attributes;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getBandwidth() {
+        return bandwidth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getCodecs() {
+        return codecs;
+    }
+
+    /**
+     * @return the raw attribute list of the EXT-X-STREAM-INF tag
+     */
+    public String getAttributes() {
+        return attributes;
+    }
+}
@@ -0,0 +1,232 @@
+package com.ultracast.demo.hls;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import com.ultracast.demo.memory.MemoryBudget;
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.net.UrlKeys;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Two level cache of parsed playlists: an in-memory LRU bounded by playlist size and a
+ * directory with one file per playlist. Every entry carries its own expiry time, see
+ * {@link #ttlFor(Entry)} for the refresh rules.
+ * <p>
+ * The memory level is safe to use from any thread, the disk level must not be touched on the
+ * main thread.
+ */
+public class ManifestCache implements MemoryBudget.Consumer {
+
+    private static final String TAG = "ManifestCache";
+
+    static final long MASTER_TTL_MS = 10 * 60 * 1000;
+    static final long VOD_TTL_MS = 24 * 60 * 60 * 1000;
+
+    public static class Entry {
+
+        private final String url;
+        private final String text;
+        private final long expiresAt;
+        private final HlsMasterPlaylist master;
+        private final HlsMediaPlaylist media;
+
+        Entry(String url, String text, long expiresAt, HlsMasterPlaylist master, HlsMediaPlaylist media) {
+            this.url = url;
+            this.text = text;
+            this.expiresAt = expiresAt;
+            this.master = master;
+            this.media = media;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the playlist text with all uris resolved to absolute ones
+         */
+        public String getText() {
+            return text;
+        }
+
+        public HlsMasterPlaylist getMaster() {
+            return master;
+        }
+
+        public HlsMediaPlaylist getMedia() {
+            return media;
+        }
+
+        public boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        /**
+         * @return wall clock time the fetch of the playlist started
+         */
+        public long getFetchedAt() {
+            return expiresAt - ttlFor(this);
+        }
+    }
+
+    private final LruCache<String, Entry> mMemory;
+    private final File mDirectory;
+
+    public ManifestCache(File directory, int memoryChars) {
+        mDirectory = directory;
+        mMemory = new LruCache<String, Entry>(memoryChars) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.text.length();
+            }
+        };
+    }
+
+    /**
+     * Parses the playlist and stores it in both levels.
+     */
+    public Entry put(String url, String rawText, long now) throws IOException {
+        String text = HlsParser.resolveUris(url, rawText);
+        Entry entry = parse(url, text, Long.MAX_VALUE);
+        entry = new Entry(url, text, now + ttlFor(entry), entry.master, entry.media);
+        mMemory.put(url, entry);
+        writeToDisk(entry);
+        return entry;
+    }
+
+    /**
+     * Returns a fresh entry from memory only, safe for the main thread.
+     */
+    public Entry getFromMemory(String url, long now) {
+        Entry entry = mMemory.get(url);
+        if (entry != null && entry.isExpired(now)) {
+            mMemory.remove(url);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns a fresh entry from memory or disk, promoting disk hits to memory.
+     */
+    public Entry get(String url, long now) {
+        Entry entry = getFromMemory(url, now);
+        if (entry != null) {
+            return entry;
+        }
+        entry = readFromDisk(url);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(now)) {
+            fileFor(url).delete();
+            return null;
+        }
+        mMemory.put(url, entry);
+        return entry;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        // sized in chars
+        return mMemory.size() * 2L;
+    }
+
+    /**
+     * Trims the memory level only, disk entries stay and are promoted again on use.
+     */
+    @Override
+    public void trimMemory(long maxBytes) {
+        mMemory.trimToSize((int) Math.min(maxBytes / 2, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Master playlists rarely change, VOD media playlists never do. A live media playlist must
+     * be reloaded after one target duration, when new segments are expected.
+     */
+    static long ttlFor(Entry entry) {
+        if (entry.master != null) {
+            return MASTER_TTL_MS;
+        }
+        if (entry.media.hasEndList()) {
+            return VOD_TTL_MS;
+        }
+        return Math.max(entry.media.getTargetDurationMs(), 1000);
+    }
+
+    private static Entry parse(String url, String text, long expiresAt) throws IOException {
+        if (HlsParser.isMasterPlaylist(text)) {
+            return new Entry(url, text, expiresAt, HlsParser.parseMaster(url, text), null);
+        }
+        return new Entry(url, text, expiresAt, null, HlsParser.parseMedia(url, text));
+    }
+
+    File fileFor(String url) {
+        return new File(mDirectory, UrlKeys.keyFor(url) + ".m3u8");
+    }
+
+    // file layout: url, expiry time, playlist text
+    private void writeToDisk(Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File file = fileFor(entry.url);
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            writer.write(entry.url);
+            writer.write('\n');
+            writer.write(Long.toString(entry.expiresAt));
+            writer.write('\n');
+            writer.write(entry.text);
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing " + file, e);
+            temp.delete();
+        } finally {
+            HttpFetcher.closeQuietly(writer);
+        }
+    }
+
+    private Entry readFromDisk(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            if (!url.equals(reader.readLine())) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(reader.readLine());
+            StringBuilder text = new StringBuilder((int) file.length());
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return parse(url, text.toString(), expiresAt);
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Dropping unreadable " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            HttpFetcher.closeQuietly(reader);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.ultracast.demo.hls;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.ultracast.demo.memory.MemoryBudget;
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches and parses HLS playlists ahead of playback.
+ * <p>
+ * For a master playlist the media playlist of the first variant, which the player starts with,
+ * is fetched too. The player gets warm playlists through the
+ * {@link com.ultracast.demo.cache.CachingProxy}, which serves them from the {@link ManifestCache},
+ * so opening the stream costs no playlist round trips. Live playlists are only cached for their
+ * refresh interval. A playlist which failed to prefetch is not prefetched again for
+ * {@link #FAILURE_BACKOFF_MS}.
+ */
+public class ManifestPrefetcher {
+
+    private static final String TAG = "ManifestPrefetcher";
+    private static final int MEMORY_CHARS = 1024 * 1024;
+    static final long FAILURE_BACKOFF_MS = 30000;
+
+    private static ManifestPrefetcher sInstance;
+
+    private final ManifestCache mCache;
+    private final Map<String, Future<?>> mInFlight = new HashMap<>();
+    // time a failed prefetch may be tried again, guarded by mInFlight
+    private final Map<String, Long> mRetryTimes = new HashMap<>();
+
+    public static synchronized ManifestPrefetcher getInstance(Context context) {
+        if (sInstance == null) {
+            File root = new File(context.getApplicationContext().getCacheDir(), "manifests");
+            sInstance = new ManifestPrefetcher(new ManifestCache(root, MEMORY_CHARS));
+            MemoryBudget.getInstance(context).register("manifests", MemoryBudget.PRIORITY_LOW, sInstance.mCache);
+        }
+        return sInstance;
+    }
+
+    public ManifestPrefetcher(ManifestCache cache) {
+        mCache = cache;
+    }
+
+    public static boolean isHls(String url) {
+        String path = Uri.parse(url).getPath();
+        return path != null && path.endsWith(".m3u8");
+    }
+
+    public ManifestCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Schedules a background fetch unless the playlist is already cached, being fetched or failed
+     * recently.
+     */
+    public void prefetch(final String url) {
+        long now = System.currentTimeMillis();
+        if (!isHls(url) || mCache.getFromMemory(url, now) != null) {
+            return;
+        }
+        synchronized (mInFlight) {
+            Future<?> pending = mInFlight.get(url);
+            // a prefetch dropped by the scheduler is cancelled and never cleans up after itself
+            if (pending != null && !pending.isDone()) {
+                return;
+            }
+            Long retryTime = mRetryTimes.get(url);
+            if (retryTime != null) {
+                if (now < retryTime) {
+                    return;
+                }
+                mRetryTimes.remove(url);
+            }
+            mInFlight.put(url, WorkScheduler.getInstance().submit(WorkScheduler.LANE_PREFETCH, this, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(url);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Error prefetching " + url + ", " + e);
+                        synchronized (mInFlight) {
+                            mRetryTimes.put(url, System.currentTimeMillis() + FAILURE_BACKOFF_MS);
+                        }
+                    } finally {
+                        synchronized (mInFlight) {
+                            mInFlight.remove(url);
+                        }
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Returns true if the playlists in memory show a live stream, false if they show VOD or are not
+     * cached. Safe for the main thread.
+     */
+    public boolean isLive(String url) {
+        long now = System.currentTimeMillis();
+        ManifestCache.Entry entry = mCache.getFromMemory(url, now);
+        if (entry != null && entry.getMaster() != null) {
+            List<HlsVariant> variants = entry.getMaster().getVariants();
+            entry = variants.isEmpty() ? null : mCache.getFromMemory(variants.get(0).getUri(), now);
+        }
+        return entry != null && entry.getMedia() != null && !entry.getMedia().hasEndList();
+    }
+
+    /**
+     * Blocking fetch of the playlist and, for a master playlist, of its first variant.
+     */
+    public ManifestCache.Entry load(String url) throws IOException {
+        ManifestCache.Entry entry = getOrFetch(url);
+        if (entry.getMaster() != null && !entry.getMaster().getVariants().isEmpty()) {
+            getOrFetch(entry.getMaster().getVariants().get(0).getUri());
+        }
+        return entry;
+    }
+
+    public ManifestCache.Entry getOrFetch(String url) throws IOException {
+        long now = System.currentTimeMillis();
+        ManifestCache.Entry entry = mCache.get(url, now);
+        if (entry == null) {
+            entry = mCache.put(url, HttpFetcher.fetchString(url), now);
+        }
+        return entry;
+    }
+}
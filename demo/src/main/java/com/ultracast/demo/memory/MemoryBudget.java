@@ -0,0 +1,185 @@
+package com.ultracast.demo.memory;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sheds memory held by the app's caches when the system asks for it, lowest priority first.
+ * <p>
+ * Consumers register with a size estimate and a priority. Without memory pressure nothing is
+ * dropped, so caches stay warm up to their own limits. Every trim level maps to a stage, and a
+ * stage halves the consumers one priority below it and empties those further below:
+ * <ul>
+ * <li>1, {@code RUNNING_MODERATE}: low priority halved</li>
+ * <li>2, {@code RUNNING_LOW} or {@code BACKGROUND}: low emptied, normal halved</li>
+ * <li>3, {@code RUNNING_CRITICAL} or {@code MODERATE}: normal emptied, high halved</li>
+ * <li>4, {@code COMPLETE} or {@link #onLowMemory()}: everything emptied</li>
+ * </ul>
+ * Hiding the UI alone sheds nothing, a user switching away and back finds the caches warm;
+ * {@code BACKGROUND} and the running levels report actual pressure. Memory given back in the
+ * background makes the process cheaper to keep, so less likely to be killed. Consumers are
+ * called on the main thread.
+ */
+public class MemoryBudget implements ComponentCallbacks2 {
+
+    public interface Consumer {
+        /**
+         * @return estimated bytes held
+         */
+        long getMemoryBytes();
+
+        /**
+         * Drops data until at most the given number of bytes is held, 0 to drop everything.
+         */
+        void trimMemory(long maxBytes);
+    }
+
+    /**
+     * Cheap to get back, e.g. copies of data also kept on disk.
+     */
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * Needed by what is on screen.
+     */
+    public static final int PRIORITY_HIGH = 2;
+
+    private static final String TAG = "MemoryBudget";
+    private static final int STAGE_ALL = 4;
+
+    private static MemoryBudget sInstance;
+
+    private static class Registration {
+        final String name;
+        final int priority;
+        final Consumer consumer;
+
+        Registration(String name, int priority, Consumer consumer) {
+            this.name = name;
+            this.priority = priority;
+            this.consumer = consumer;
+        }
+    }
+
+    // by ascending priority
+    private final List<Registration> mRegistrations = new ArrayList<>();
+    private int mTrimCount;
+    private long mShedBytes;
+    private int mLastLevel;
+
+    public static synchronized MemoryBudget getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MemoryBudget();
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    MemoryBudget() {
+    }
+
+    public synchronized void register(String name, int priority, Consumer consumer) {
+        int index = 0;
+        while (index < mRegistrations.size() && mRegistrations.get(index).priority <= priority) {
+            index++;
+        }
+        mRegistrations.add(index, new Registration(name, priority, consumer));
+    }
+
+    public synchronized void unregister(Consumer consumer) {
+        for (int i = 0; i < mRegistrations.size(); i++) {
+            if (mRegistrations.get(i).consumer == consumer) {
+                mRegistrations.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return estimated bytes held by all consumers
+     */
+    public synchronized long getMemoryBytes() {
+        long bytes = 0;
+        for (Registration registration : mRegistrations) {
+            bytes += registration.consumer.getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    public synchronized String getStats() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(getMemoryBytes() / 1024).append(" KB held");
+        for (Registration registration : mRegistrations) {
+            builder.append(", ").append(registration.name).append(' ')
+                    .append(registration.consumer.getMemoryBytes() / 1024).append(" KB");
+        }
+        builder.append(", ").append(mShedBytes / 1024).append(" KB shed in ").append(mTrimCount)
+                .append(" trims, last level ").append(mLastLevel);
+        return builder.toString();
+    }
+
+    /**
+     * Maps a trim level to a stage, 0 for levels that do not call for shedding anything.
+     */
+    static int stageFor(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return STAGE_ALL;
+        }
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 3;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            return 2;
+        }
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 0;
+        }
+        // running levels, the process is in the foreground
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 3;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 2;
+        }
+        return level >= TRIM_MEMORY_RUNNING_MODERATE ? 1 : 0;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(level, stageFor(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_MEMORY_COMPLETE, STAGE_ALL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    synchronized void trim(int level, int stage) {
+        mLastLevel = level;
+        if (stage == 0) {
+            return;
+        }
+        long before = getMemoryBytes();
+        for (Registration registration : mRegistrations) {
+            int shed = stage - registration.priority;
+            if (shed <= 0) {
+                break;
+            }
+            long bytes = registration.consumer.getMemoryBytes();
+            registration.consumer.trimMemory(shed == 1 ? bytes / 2 : 0);
+        }
+        long shedBytes = Math.max(0, before - getMemoryBytes());
+        mTrimCount++;
+        mShedBytes += shedBytes;
+        Log.i(TAG, "Trim level " + level + ", stage " + stage + ", shed " + shedBytes / 1024 + " KB");
+    }
+}
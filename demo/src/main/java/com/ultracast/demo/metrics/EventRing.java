@@ -0,0 +1,73 @@
+package com.ultracast.demo.metrics;
+
+/**
+ * Fixed capacity ring of (time, type, value) records kept in parallel primitive arrays.
+ * <p>
+ * Once full, the oldest record is overwritten. Recording never allocates. Not thread safe.
+ */
+public class EventRing {
+
+    private final long[] mTimes;
+    private final int[] mTypes;
+    private final long[] mValues;
+    private int mNext;
+    private int mSize;
+    private long mDropped;
+
+    public EventRing(int capacity) {
+        mTimes = new long[capacity];
+        mTypes = new int[capacity];
+        mValues = new long[capacity];
+    }
+
+    public void add(long time, int type, long value) {
+        mTimes[mNext] = time;
+        mTypes[mNext] = type;
+        mValues[mNext] = value;
+        mNext = (mNext + 1) % mTimes.length;
+        if (mSize < mTimes.length) {
+            mSize++;
+        } else {
+            mDropped++;
+        }
+    }
+
+    public void clear() {
+        mNext = 0;
+        mSize = 0;
+        mDropped = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of records overwritten since the last {@link #clear()}
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @param index 0 is the oldest record still kept
+     */
+    public long getTime(int index) {
+        return mTimes[slot(index)];
+    }
+
+    public int getType(int index) {
+        return mTypes[slot(index)];
+    }
+
+    public long getValue(int index) {
+        return mValues[slot(index)];
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        return (mNext - mSize + index + mTimes.length) % mTimes.length;
+    }
+}
@@ -0,0 +1,229 @@
+package com.ultracast.demo.metrics;
+
+import android.view.Choreographer;
+
+import com.ultracast.player.UC360Player;
+
+/**
+ * Frame pacing of the activity showing the player.
+ * <p>
+ * UC360Player renders on its own GL thread and reports no frame times, so the Choreographer
+ * frames of the main thread are measured instead: input for touch and gyro control is handled
+ * there, and a main thread missing vsyncs usually means the GL thread is starved as well.
+ * Frame intervals are recorded in microseconds, a frame longer than one and a half vsync periods
+ * is janky. Janky frames are counted by playback state and control mode, and the ones within
+ * {@link #CORRELATION_WINDOW_MS} after a seek or a format switch are attributed to it. The
+ * latest janky frames are kept with their cause.
+ * <p>
+ * All storage is allocated once and reused by {@link #reset(long)}, frames do not allocate.
+ * Times are {@link android.os.SystemClock#uptimeMillis()} values passed in by the caller, which
+ * run on the same clock as the frame times. Must be used from the main thread.
+ */
+public class FrameMonitor implements Choreographer.FrameCallback {
+
+    public static final int MODE_TOUCH = 0;
+    public static final int MODE_MOTION = 1;
+    public static final int MODE_VR_TOUCH = 2;
+    public static final int MODE_VR_MOTION = 3;
+
+    public static final long CORRELATION_WINDOW_MS = 1000;
+
+    private static final int CAUSE_NONE = 0;
+    private static final int CAUSE_SEEK = 1;
+    private static final int CAUSE_SWITCH = 2;
+
+    private static final String[] STATE_NAMES = {"idle", "buffering", "ready", "ended"};
+    private static final String[] MODE_NAMES = {"touch", "motion", "vr_touch", "vr_motion"};
+    private static final String[] CAUSE_NAMES = {"none", "seek", "switch"};
+    private static final long MAX_INTERVAL_US = 10 * 1000 * 1000;
+    private static final int SPIKE_CAPACITY = 64;
+    private static final long NONE = -1;
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final float mRefreshRate;
+    private final long mPeriodNs;
+    private final Histogram mIntervals = new Histogram(MAX_INTERVAL_US);
+    private final EventRing mSpikes = new EventRing(SPIKE_CAPACITY);
+    private final long[] mStateFrames = new long[STATE_NAMES.length];
+    private final long[] mStateJanky = new long[STATE_NAMES.length];
+    private final long[] mModeFrames = new long[MODE_NAMES.length];
+    private final long[] mModeJanky = new long[MODE_NAMES.length];
+    private final long[] mCauseJanky = new long[CAUSE_NAMES.length];
+
+    private boolean mRunning;
+    private long mLastFrameNs = NONE;
+    private long mStartTime = NONE;
+    private int mState = UC360Player.STATE_IDLE;
+    private int mMode;
+    private long mLastSeekTime = NONE;
+    private long mLastSwitchTime = NONE;
+    private long mJanky;
+    private long mDropped;
+
+    /**
+     * @param refreshRate of the display, frames per second
+     */
+    public FrameMonitor(float refreshRate) {
+        mRefreshRate = refreshRate > 0 ? refreshRate : 60;
+        mPeriodNs = (long) (1000000000 / mRefreshRate);
+    }
+
+    public static int modeOf(boolean vr, boolean motion) {
+        return (vr ? MODE_VR_TOUCH : MODE_TOUCH) + (motion ? 1 : 0);
+    }
+
+    /**
+     * Resets all counts and starts a new session, e.g. for a new source.
+     */
+    public void reset(long now) {
+        mIntervals.reset();
+        mSpikes.clear();
+        for (int i = 0; i < STATE_NAMES.length; i++) {
+            mStateFrames[i] = 0;
+            mStateJanky[i] = 0;
+        }
+        for (int i = 0; i < MODE_NAMES.length; i++) {
+            mModeFrames[i] = 0;
+            mModeJanky[i] = 0;
+        }
+        for (int i = 0; i < CAUSE_NAMES.length; i++) {
+            mCauseJanky[i] = 0;
+        }
+        mStartTime = now;
+        mLastSeekTime = NONE;
+        mLastSwitchTime = NONE;
+        mJanky = 0;
+        mDropped = 0;
+    }
+
+    public boolean isStarted() {
+        return mStartTime != NONE;
+    }
+
+    /**
+     * Starts measuring frames, the time until {@link #stop()} is not counted.
+     */
+    public void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mLastFrameNs = NONE;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    public void stop() {
+        if (mRunning) {
+            mRunning = false;
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+
+    public void onPlayerStateChanged(int playbackState) {
+        mState = playbackState;
+    }
+
+    /**
+     * @param mode one of the {@code MODE_} constants, see {@link #modeOf(boolean, boolean)}
+     */
+    public void setControlMode(int mode) {
+        mMode = mode;
+    }
+
+    public void onSeek(long now) {
+        mLastSeekTime = now;
+    }
+
+    public void onFormatSwitch(long now) {
+        mLastSwitchTime = now;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        mChoreographer.postFrameCallback(this);
+        if (mLastFrameNs != NONE && isStarted()) {
+            onFrame(frameTimeNanos - mLastFrameNs, frameTimeNanos / 1000000);
+        }
+        mLastFrameNs = frameTimeNanos;
+    }
+
+    private void onFrame(long intervalNs, long now) {
+        int state = Math.max(0, Math.min(mState - UC360Player.STATE_IDLE, STATE_NAMES.length - 1));
+        mIntervals.record(intervalNs / 1000);
+        mStateFrames[state]++;
+        mModeFrames[mMode]++;
+        if (intervalNs * 2 <= mPeriodNs * 3) {
+            return;
+        }
+        int cause = causeOf(now);
+        mJanky++;
+        mDropped += (intervalNs + mPeriodNs / 2) / mPeriodNs - 1;
+        mStateJanky[state]++;
+        mModeJanky[mMode]++;
+        mCauseJanky[cause]++;
+        mSpikes.add(now - mStartTime, cause, intervalNs / 1000);
+    }
+
+    private int causeOf(long now) {
+        boolean seek = mLastSeekTime != NONE && now - mLastSeekTime <= CORRELATION_WINDOW_MS;
+        boolean formatSwitch = mLastSwitchTime != NONE && now - mLastSwitchTime <= CORRELATION_WINDOW_MS;
+        if (seek && formatSwitch) {
+            // the more recent one
+            return mLastSeekTime >= mLastSwitchTime ? CAUSE_SEEK : CAUSE_SWITCH;
+        }
+        return seek ? CAUSE_SEEK : formatSwitch ? CAUSE_SWITCH : CAUSE_NONE;
+    }
+
+    /**
+     * Writes the session as a compact JSON object. Allocates, call it off the frame path.
+     */
+    public String toJson(long now) {
+        StringBuilder out = new StringBuilder(512 + mSpikes.size() * 24);
+        out.append("{\"duration_ms\":").append(isStarted() ? now - mStartTime : 0);
+        out.append(",\"refresh_hz\":").append(mRefreshRate);
+        out.append(",\"frames\":").append(mIntervals.getCount());
+        out.append(",\"janky\":").append(mJanky);
+        out.append(",\"dropped\":").append(mDropped);
+        out.append(",\"interval\":{\"mean_us\":").append(mIntervals.getMean());
+        out.append(",\"p50_us\":").append(mIntervals.getPercentile(50));
+        out.append(",\"p90_us\":").append(mIntervals.getPercentile(90));
+        out.append(",\"p99_us\":").append(mIntervals.getPercentile(99));
+        out.append(",\"max_us\":").append(mIntervals.getMax());
+        out.append("},\"states\":");
+        appendCounts(out, STATE_NAMES, mStateFrames, mStateJanky);
+        out.append(",\"modes\":");
+        appendCounts(out, MODE_NAMES, mModeFrames, mModeJanky);
+        out.append(",\"janky_after\":{\"seek\":").append(mCauseJanky[CAUSE_SEEK]);
+        out.append(",\"switch\":").append(mCauseJanky[CAUSE_SWITCH]);
+        out.append("},\"spikes_dropped\":").append(mSpikes.getDropped());
+        out.append(",\"spikes\":[");
+        for (int i = 0; i < mSpikes.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append('[').append(mSpikes.getTime(i)).append(",\"")
+                    .append(CAUSE_NAMES[mSpikes.getType(i)]).append("\",")
+                    .append(mSpikes.getValue(i)).append(']');
+        }
+        return out.append("]}").toString();
+    }
+
+    private static void appendCounts(StringBuilder out, String[] names, long[] frames, long[] janky) {
+        out.append('{');
+        boolean first = true;
+        for (int i = 0; i < names.length; i++) {
+            if (frames[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(names[i]).append("\":{\"frames\":").append(frames[i])
+                    .append(",\"janky\":").append(janky[i]).append('}');
+        }
+        out.append('}');
+    }
+}
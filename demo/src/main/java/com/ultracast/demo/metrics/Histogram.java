@@ -0,0 +1,122 @@
+package com.ultracast.demo.metrics;
+
+/**
+ * Fixed memory log-linear histogram of non-negative values.
+ * <p>
+ * Every power of two range is split into {@link #SUB_BUCKETS} linear buckets, so the relative
+ * error of a reported percentile is below 1/8 over the whole range. All memory is allocated in
+ * the constructor, recording never allocates. Not thread safe.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] mCounts;
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /**
+     * @param maxValue the largest value to be told apart, larger values fall into the last bucket
+     */
+    public Histogram(long maxValue) {
+        mCounts = new long[bucketIndex(Math.max(maxValue, SUB_BUCKETS)) + 1];
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[Math.min(bucketIndex(value), mCounts.length - 1)]++;
+        mTotalCount++;
+        mSum += value;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * @return the number of recorded values which are larger or equal to the threshold, exact
+     * if the threshold is a bucket boundary
+     */
+    public long getCountAbove(long threshold) {
+        long count = 0;
+        for (int i = Math.min(bucketIndex(threshold), mCounts.length - 1); i < mCounts.length; i++) {
+            count += mCounts[i];
+        }
+        return count;
+    }
+
+    public long getMin() {
+        return mTotalCount > 0 ? mMin : 0;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mTotalCount > 0 ? mSum / mTotalCount : 0;
+    }
+
+    /**
+     * @param percentile in the range 0..100
+     * @return the upper bound of the bucket containing the percentile, capped by the maximum
+     */
+    public long getPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * mTotalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                // the last bucket holds everything above the range
+                return i < mCounts.length - 1 ? Math.min(bucketLowerBound(i + 1) - 1, mMax) : mMax;
+            }
+        }
+        return mMax;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int mantissa = (int) (value >> shift);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long mantissa = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return mantissa << shift;
+    }
+}
@@ -0,0 +1,242 @@
+package com.ultracast.demo.metrics;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ultracast.demo.playback.PlayerEventHub;
+import com.ultracast.demo.playback.PlayerEventQueue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the {@link QoeSession} of a player off the main thread and exports the sessions it
+ * finishes.
+ * <p>
+ * Player events reach the session through a {@link PlayerEventQueue} attached to the hub, the
+ * calls below go through the same queue, so the session sees everything in the order it
+ * happened on the main thread, timed when it happened. A thread of its own drains the queue
+ * and builds the JSON of finished sessions, which is logged and appended to a file of one
+ * session per line. The methods are to be called from the main thread.
+ */
+public class QoeRecorder implements PlayerEventQueue.Listener {
+
+    private static final String TAG = "QoeRecorder";
+    // a burst of events per seek or stall, the consumer only falls behind when starved
+    private static final int QUEUE_CAPACITY = 256;
+    private static final long MAX_EXPORT_BYTES = 256 * 1024;
+
+    private static final int TYPE_START = PlayerEventQueue.TYPE_FIRST_CUSTOM;
+    private static final int TYPE_SEEK_STARTED = TYPE_START + 1;
+    private static final int TYPE_SEEK_COMPLETED = TYPE_START + 2;
+    private static final int TYPE_SEEK_CANCELLED = TYPE_START + 3;
+    private static final int TYPE_REOPEN = TYPE_START + 4;
+    private static final int TYPE_VIDEO_FORMAT = TYPE_START + 5;
+    private static final int TYPE_FINISH = TYPE_START + 6;
+
+    private final PlayerEventQueue mQueue = new PlayerEventQueue(QUEUE_CAPACITY);
+    private final File mExportFile;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private PlayerEventHub mHub;
+    // main thread view of the session
+    private boolean mStarted;
+
+    // consumer thread
+    private final QoeSession mSession = new QoeSession();
+    private final PlayerEventQueue.Event mEvent = new PlayerEventQueue.Event();
+    private long mReportedDropped;
+
+    /**
+     * @param exportFile where finished sessions are appended, the previous file is kept with a
+     *                   {@code .1} suffix once it grows too long
+     */
+    public QoeRecorder(File exportFile) {
+        mExportFile = exportFile;
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mQueue.setListener(this);
+    }
+
+    /**
+     * Takes the player events from the hub, from now on.
+     */
+    public void attach(PlayerEventHub hub) {
+        if (mHub != null) {
+            mHub.removeQueue(mQueue);
+        }
+        mHub = hub;
+        hub.addQueue(mQueue);
+    }
+
+    /**
+     * Finishes the last session and stops the thread once it has exported it.
+     */
+    public void release() {
+        finish();
+        if (mHub != null) {
+            mHub.removeQueue(mQueue);
+            mHub = null;
+        }
+        mThread.quitSafely();
+    }
+
+    /**
+     * Starts measuring a new source, see {@link QoeSession#start(String, long)}.
+     */
+    public void start(String url) {
+        mStarted = true;
+        offer(TYPE_START, 0, 0, 0, url);
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * For a state the hub did not report, as when a session starts on a player already playing.
+     */
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        if (!mQueue.offer(PlayerEventQueue.TYPE_STATE_CHANGED, SystemClock.uptimeMillis(),
+                playWhenReady, playbackState, 0)) {
+            Log.w(TAG, "Dropped a state change");
+        }
+    }
+
+    /**
+     * For errors the player does not report, e.g. a source which could not be resolved.
+     */
+    public void onPlayerError(int errorType) {
+        if (!mQueue.offer(PlayerEventQueue.TYPE_ERROR, SystemClock.uptimeMillis(), false, 0, errorType)) {
+            Log.w(TAG, "Dropped an error");
+        }
+    }
+
+    public void onSeekStarted() {
+        offer(TYPE_SEEK_STARTED, 0, 0, 0, null);
+    }
+
+    public void onSeekCompleted(long latencyMs) {
+        offer(TYPE_SEEK_COMPLETED, latencyMs, 0, 0, null);
+    }
+
+    public void onSeekCancelled() {
+        offer(TYPE_SEEK_CANCELLED, 0, 0, 0, null);
+    }
+
+    public void onReopen() {
+        offer(TYPE_REOPEN, 0, 0, 0, null);
+    }
+
+    public void onVideoFormat(int bitrate, int width, int height) {
+        offer(TYPE_VIDEO_FORMAT, bitrate, width, height, null);
+    }
+
+    /**
+     * Ends the session, which is exported in the background, once per session.
+     */
+    public void finish() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        offer(TYPE_FINISH, 0, 0, 0, null);
+    }
+
+    @Override
+    public void onEventsAvailable(PlayerEventQueue queue) {
+        mHandler.post(mDrainTask);
+    }
+
+    private void offer(int type, long value, int arg1, int arg2, Object object) {
+        if (!mQueue.offer(type, SystemClock.uptimeMillis(), value, arg1, arg2, object)) {
+            Log.w(TAG, "Dropped event " + type);
+        }
+    }
+
+    // consumer thread
+    private void drain() {
+        PlayerEventQueue.Event event = mEvent;
+        while (mQueue.poll(event)) {
+            switch (event.type) {
+                case PlayerEventQueue.TYPE_STATE_CHANGED:
+                    mSession.onPlayerStateChanged(event.playWhenReady, event.playbackState, event.uptime);
+                    break;
+                case PlayerEventQueue.TYPE_ERROR:
+                    mSession.onPlayerError(event.errorType, event.uptime);
+                    break;
+                case TYPE_START:
+                    mSession.start((String) event.object, event.uptime);
+                    event.object = null;
+                    break;
+                case TYPE_SEEK_STARTED:
+                    mSession.onSeekStarted(event.uptime);
+                    break;
+                case TYPE_SEEK_COMPLETED:
+                    mSession.onSeekCompleted(event.value, event.uptime);
+                    break;
+                case TYPE_SEEK_CANCELLED:
+                    mSession.onSeekCancelled();
+                    break;
+                case TYPE_REOPEN:
+                    mSession.onReopen(event.uptime);
+                    break;
+                case TYPE_VIDEO_FORMAT:
+                    mSession.onVideoFormat((int) event.value, event.arg1, event.arg2, event.uptime);
+                    break;
+                case TYPE_FINISH:
+                    export(mSession.finish(event.uptime));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // consumer thread
+    private void export(String qoe) {
+        if (qoe == null) {
+            return;
+        }
+        long dropped = mQueue.getDropped();
+        if (dropped > mReportedDropped) {
+            // the session missed events, its numbers are off
+            Log.w(TAG, dropped - mReportedDropped + " events dropped");
+            mReportedDropped = dropped;
+        }
+        Log.i(TAG, "QoE " + qoe);
+        if (mExportFile.length() > MAX_EXPORT_BYTES) {
+            File previous = new File(mExportFile.getPath() + ".1");
+            if (!mExportFile.renameTo(previous)) {
+                Log.w(TAG, "Failed to rotate " + mExportFile);
+            }
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(mExportFile, true);
+            out.write((qoe + "\n").getBytes("UTF-8"));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to export QoE to " + mExportFile + ", " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    //ignored
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.ultracast.demo.metrics;
+
+import com.ultracast.player.UC360Player;
+
+/**
+ * Quality of experience metrics of one playback session, i.e. one opened source.
+ * <p>
+ * Records time to first frame, rebuffering, seek latency, format switches and errors. Buffering
+ * at startup, after a seek and after a reopen of the source is not counted as rebuffering. All storage
+ * is allocated once and reused by {@link #start(String, long)}, so the event methods do not
+ * allocate and can be called straight from the player callbacks. Times are
+ * {@link android.os.SystemClock#uptimeMillis()} values passed in by the caller.
+ * A session ends with {@link #finish(long)}, which reports it once. Must be used from a single thread.
+ */
+public class QoeSession {
+
+    public static final int EVENT_OPEN = 0;
+    public static final int EVENT_FIRST_FRAME = 1;
+    public static final int EVENT_REBUFFER = 2;
+    public static final int EVENT_SEEK = 3;
+    public static final int EVENT_BITRATE = 4;
+    public static final int EVENT_ERROR = 5;
+    public static final int EVENT_ENDED = 6;
+    public static final int EVENT_REOPEN = 7;
+
+    private static final String[] EVENT_NAMES = {
+            "open", "first_frame", "rebuffer", "seek", "bitrate", "error", "ended", "reopen"
+    };
+    private static final int EVENT_CAPACITY = 128;
+    private static final long MAX_LATENCY_MS = 60000;
+    private static final long NONE = -1;
+
+    private final EventRing mEvents = new EventRing(EVENT_CAPACITY);
+    private final Histogram mSeekLatency = new Histogram(MAX_LATENCY_MS);
+    private final Histogram mRebufferDuration = new Histogram(MAX_LATENCY_MS);
+    private final int[] mErrors = new int[3];
+
+    private String mUrl;
+    private long mStartTime = NONE;
+    private long mTimeToFirstFrame = NONE;
+    private boolean mPlayWhenReady;
+    private long mPlayingSince = NONE;
+    private long mPlayingMs;
+    private long mRebufferSince = NONE;
+    private long mRebufferMs;
+    private int mRebufferCount;
+    private boolean mSeeking;
+    private long mReopenSince = NONE;
+    private int mBitrate;
+    // bitrate times ms played at it, for the average over the played time
+    private long mBitrateMs;
+    private long mBitratePlayingMs;
+    private int mWidth;
+    private int mHeight;
+    private int mBitrateSwitches;
+    private int mResolutionSwitches;
+
+    /**
+     * Resets all metrics and starts measuring a new source from {@code openUrl}.
+     */
+    public void start(String url, long now) {
+        mEvents.clear();
+        mSeekLatency.reset();
+        mRebufferDuration.reset();
+        for (int i = 0; i < mErrors.length; i++) {
+            mErrors[i] = 0;
+        }
+        mUrl = url;
+        mStartTime = now;
+        mTimeToFirstFrame = NONE;
+        mPlayWhenReady = false;
+        mPlayingSince = NONE;
+        mPlayingMs = 0;
+        mRebufferSince = NONE;
+        mRebufferMs = 0;
+        mRebufferCount = 0;
+        mSeeking = false;
+        mReopenSince = NONE;
+        mBitrate = 0;
+        mBitrateMs = 0;
+        mBitratePlayingMs = 0;
+        mWidth = 0;
+        mHeight = 0;
+        mBitrateSwitches = 0;
+        mResolutionSwitches = 0;
+        mEvents.add(0, EVENT_OPEN, 0);
+    }
+
+    public boolean isStarted() {
+        return mStartTime != NONE;
+    }
+
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState, long now) {
+        if (!isStarted()) {
+            return;
+        }
+        mPlayWhenReady = playWhenReady;
+        stopPlaying(now);
+        switch (playbackState) {
+            case UC360Player.STATE_READY:
+                if (mTimeToFirstFrame == NONE) {
+                    mTimeToFirstFrame = now - mStartTime;
+                    mEvents.add(mTimeToFirstFrame, EVENT_FIRST_FRAME, mTimeToFirstFrame);
+                }
+                if (mReopenSince != NONE) {
+                    mEvents.add(now - mStartTime, EVENT_REOPEN, now - mReopenSince);
+                    mReopenSince = NONE;
+                }
+                stopRebuffer(now);
+                if (playWhenReady) {
+                    mPlayingSince = now;
+                }
+                break;
+            case UC360Player.STATE_BUFFERING:
+                // startup, seeks and reopens are accounted separately, only stalls of playback count
+                if (mTimeToFirstFrame != NONE && !mSeeking && mReopenSince == NONE && playWhenReady
+                        && mRebufferSince == NONE) {
+                    mRebufferSince = now;
+                    mRebufferCount++;
+                }
+                break;
+            case UC360Player.STATE_ENDED:
+                stopRebuffer(now);
+                mEvents.add(now - mStartTime, EVENT_ENDED, 0);
+                break;
+            default:
+                stopRebuffer(now);
+                break;
+        }
+    }
+
+    public void onSeekStarted(long now) {
+        if (!isStarted()) {
+            return;
+        }
+        mSeeking = true;
+        stopRebuffer(now);
+    }
+
+    public void onSeekCompleted(long latencyMs, long now) {
+        if (!isStarted()) {
+            return;
+        }
+        mSeeking = false;
+        mSeekLatency.record(latencyMs);
+        mEvents.add(now - mStartTime, EVENT_SEEK, latencyMs);
+    }
+
+    /**
+     * Must be called when a seek ends without completing, e.g. because the source is closed.
+     */
+    public void onSeekCancelled() {
+        mSeeking = false;
+    }
+
+    /**
+     * Must be called when the source is opened again within the session, e.g. for a quality
+     * change. The buffering until it is ready again is recorded as a reopen, not a rebuffer.
+     */
+    public void onReopen(long now) {
+        if (!isStarted()) {
+            return;
+        }
+        stopRebuffer(now);
+        mReopenSince = now;
+    }
+
+    /**
+     * Must be called with the values of {@link UC360Player#getVideoFormat()} whenever they may
+     * have changed.
+     */
+    public void onVideoFormat(int bitrate, int width, int height, long now) {
+        if (!isStarted() || bitrate <= 0) {
+            return;
+        }
+        if (mBitrate > 0 && bitrate != mBitrate) {
+            mBitrateSwitches++;
+        }
+        if (mWidth > 0 && (width != mWidth || height != mHeight)) {
+            mResolutionSwitches++;
+        }
+        if (bitrate != mBitrate) {
+            mEvents.add(now - mStartTime, EVENT_BITRATE, bitrate);
+            // the time played so far was at the previous bitrate
+            if (mPlayingSince != NONE) {
+                stopPlaying(now);
+                mPlayingSince = now;
+            }
+        }
+        mBitrate = bitrate;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public void onPlayerError(int errorType, long now) {
+        if (!isStarted()) {
+            return;
+        }
+        mErrors[errorIndex(errorType)]++;
+        mEvents.add(now - mStartTime, EVENT_ERROR, errorType);
+    }
+
+    /**
+     * @return the time to first frame in ms, or -1 if no frame was shown yet
+     */
+    public long getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
+
+    public int getRebufferCount() {
+        return mRebufferCount;
+    }
+
+    /**
+     * @return the share of time spent stalled while the user wanted to watch, 0..1
+     */
+    public float getRebufferRatio(long now) {
+        long rebufferMs = mRebufferMs + (mRebufferSince != NONE ? now - mRebufferSince : 0);
+        long playingMs = mPlayingMs + (mPlayingSince != NONE ? now - mPlayingSince : 0);
+        long total = rebufferMs + playingMs;
+        return total > 0 ? (float) rebufferMs / total : 0;
+    }
+
+    /**
+     * @return the bitrate averaged over the time played with a known format, 0 if none yet
+     */
+    public int getAverageBitrate(long now) {
+        long bitrateMs = mBitrateMs;
+        long playingMs = mBitratePlayingMs;
+        if (mPlayingSince != NONE && mBitrate > 0) {
+            bitrateMs += (now - mPlayingSince) * mBitrate;
+            playingMs += now - mPlayingSince;
+        }
+        return playingMs > 0 ? (int) (bitrateMs / playingMs) : 0;
+    }
+
+    public Histogram getSeekLatency() {
+        return mSeekLatency;
+    }
+
+    public int getBitrateSwitches() {
+        return mBitrateSwitches;
+    }
+
+    public int getResolutionSwitches() {
+        return mResolutionSwitches;
+    }
+
+    public int getErrorCount(int errorType) {
+        return mErrors[errorIndex(errorType)];
+    }
+
+    /**
+     * Ends the session, events are ignored until the next {@link #start(String, long)}.
+     *
+     * @return the session as JSON, or null if there is none or it was finished already
+     */
+    public String finish(long now) {
+        if (!isStarted()) {
+            return null;
+        }
+        String json = toJson(now);
+        stopPlaying(now);
+        stopRebuffer(now);
+        mStartTime = NONE;
+        return json;
+    }
+
+    /**
+     * Writes the session as a compact JSON object. Allocates, call it off the event path.
+     */
+    public String toJson(long now) {
+        StringBuilder out = new StringBuilder(512 + mEvents.size() * 32);
+        out.append("{\"url\":");
+        appendString(out, mUrl);
+        out.append(",\"duration_ms\":").append(isStarted() ? now - mStartTime : 0);
+        out.append(",\"ttff_ms\":").append(mTimeToFirstFrame);
+        out.append(",\"rebuffer\":{\"count\":").append(mRebufferCount);
+        out.append(",\"ratio\":").append(getRebufferRatio(now));
+        appendHistogram(out.append(','), mRebufferDuration);
+        out.append("},\"seek\":{");
+        appendHistogram(out, mSeekLatency);
+        out.append("},\"switches\":{\"bitrate\":").append(mBitrateSwitches);
+        out.append(",\"resolution\":").append(mResolutionSwitches);
+        out.append("},\"format\":{\"bitrate\":").append(mBitrate);
+        out.append(",\"avg_bitrate\":").append(getAverageBitrate(now));
+        out.append(",\"width\":").append(mWidth);
+        out.append(",\"height\":").append(mHeight);
+        out.append("},\"errors\":{\"source\":").append(mErrors[0]);
+        out.append(",\"device_not_supported\":").append(mErrors[1]);
+        out.append(",\"unexpected\":").append(mErrors[2]);
+        out.append("},\"events_dropped\":").append(mEvents.getDropped());
+        out.append(",\"events\":[");
+        for (int i = 0; i < mEvents.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append('[').append(mEvents.getTime(i)).append(",\"")
+                    .append(EVENT_NAMES[mEvents.getType(i)]).append("\",")
+                    .append(mEvents.getValue(i)).append(']');
+        }
+        return out.append("]}").toString();
+    }
+
+    private void stopPlaying(long now) {
+        if (mPlayingSince != NONE) {
+            mPlayingMs += now - mPlayingSince;
+            if (mBitrate > 0) {
+                mBitrateMs += (now - mPlayingSince) * mBitrate;
+                mBitratePlayingMs += now - mPlayingSince;
+            }
+            mPlayingSince = NONE;
+        }
+    }
+
+    private void stopRebuffer(long now) {
+        if (mRebufferSince == NONE) {
+            return;
+        }
+        long duration = now - mRebufferSince;
+        mRebufferSince = NONE;
+        mRebufferMs += duration;
+        mRebufferDuration.record(duration);
+        mEvents.add(now - mStartTime, EVENT_REBUFFER, duration);
+    }
+
+    private static int errorIndex(int errorType) {
+        switch (errorType) {
+            case UC360Player.TYPE_SOURCE:
+                return 0;
+            case UC360Player.TYPE_DEVICE_NOT_SUPPORTED:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    private static void appendHistogram(StringBuilder out, Histogram histogram) {
+        out.append("\"n\":").append(histogram.getCount());
+        out.append(",\"mean_ms\":").append(histogram.getMean());
+        out.append(",\"p50_ms\":").append(histogram.getPercentile(50));
+        out.append(",\"p90_ms\":").append(histogram.getPercentile(90));
+        out.append(",\"max_ms\":").append(histogram.getMax());
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
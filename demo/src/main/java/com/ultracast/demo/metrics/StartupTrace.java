@@ -0,0 +1,168 @@
+package com.ultracast.demo.metrics;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Named timing sections of the startup path, from process start to the catalog and from a tap in
+ * the catalog to the first frame.
+ * <p>
+ * Sections also show up in systrace through {@link Trace}, so {@link #begin(String)} and
+ * {@link #end(String)} must be called on the same thread. Marks are instants, e.g. the tap or the
+ * first frame. {@link #report(Context)} appends everything recorded so far as one JSON line to
+ * {@link #REPORT_FILE} in the files dir, which scripts/startup-benchmark.sh collects.
+ * Times are milliseconds of {@link SystemClock#elapsedRealtime()} relative to the process start.
+ */
+public final class StartupTrace {
+
+    public static final String REPORT_FILE = "startup_trace.jsonl";
+    public static final String MARK_LIST_SHOWN = "list_shown";
+    public static final String MARK_TAP = "tap";
+    public static final String MARK_FIRST_FRAME = "first_frame";
+
+    private static final String TAG = "StartupTrace";
+    private static final int MAX_ENTRIES = 64;
+    private static final long OPEN = -1;
+    private static final long INSTANT = -2;
+
+    private static final long sOrigin = processStartTime();
+    private static final String[] sNames = new String[MAX_ENTRIES];
+    private static final long[] sStarts = new long[MAX_ENTRIES];
+    private static final long[] sDurations = new long[MAX_ENTRIES];
+    private static int sCount;
+
+    private StartupTrace() {
+    }
+
+    public static void begin(String name) {
+        Trace.beginSection(name);
+        add(name, SystemClock.elapsedRealtime() - sOrigin, OPEN);
+    }
+
+    public static void end(String name) {
+        long now = SystemClock.elapsedRealtime() - sOrigin;
+        synchronized (StartupTrace.class) {
+            for (int i = sCount - 1; i >= 0; i--) {
+                if (sDurations[i] == OPEN && sNames[i].equals(name)) {
+                    sDurations[i] = now - sStarts[i];
+                    break;
+                }
+            }
+        }
+        Trace.endSection();
+    }
+
+    public static void mark(String name) {
+        add(name, SystemClock.elapsedRealtime() - sOrigin, INSTANT);
+    }
+
+    /**
+     * Writes the recorded sections and marks as a JSON line and starts over.
+     */
+    public static void report(Context context) {
+        final String json;
+        synchronized (StartupTrace.class) {
+            json = toJson();
+            sCount = 0;
+        }
+        Log.i(TAG, json);
+        final File file = new File(context.getFilesDir(), REPORT_FILE);
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_HOUSEKEEPING, StartupTrace.class, new Runnable() {
+            @Override
+            public void run() {
+                append(file, json);
+            }
+        });
+    }
+
+    private static void append(File file, String json) {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file, true);
+            out.write((json + "\n").getBytes("UTF-8"));
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing trace report", e);
+        } finally {
+            HttpFetcher.closeQuietly(out);
+        }
+    }
+
+    private static synchronized void add(String name, long start, long duration) {
+        if (sCount == MAX_ENTRIES) {
+            return;
+        }
+        sNames[sCount] = name;
+        sStarts[sCount] = start;
+        sDurations[sCount] = duration;
+        sCount++;
+    }
+
+    private static String toJson() {
+        StringBuilder out = new StringBuilder(1024);
+        out.append("{\"sections\":[");
+        boolean first = true;
+        for (int i = 0; i < sCount; i++) {
+            if (sDurations[i] == INSTANT) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append("{\"name\":\"").append(sNames[i]).append("\",\"start_ms\":").append(sStarts[i])
+                    .append(",\"duration_ms\":").append(sDurations[i]).append('}');
+        }
+        out.append("],\"marks\":{");
+        first = true;
+        for (int i = 0; i < sCount; i++) {
+            if (sDurations[i] != INSTANT) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(sNames[i]).append("\":").append(sStarts[i]);
+        }
+        out.append('}');
+        long listShown = findMark(MARK_LIST_SHOWN);
+        if (listShown != OPEN) {
+            out.append(",\"launch_to_list_ms\":").append(listShown);
+        }
+        long tap = findMark(MARK_TAP);
+        long firstFrame = findMark(MARK_FIRST_FRAME);
+        if (tap != OPEN && firstFrame != OPEN) {
+            out.append(",\"tap_to_first_frame_ms\":").append(firstFrame - tap);
+        }
+        return out.append('}').toString();
+    }
+
+    private static long findMark(String name) {
+        for (int i = 0; i < sCount; i++) {
+            if (sDurations[i] == INSTANT && sNames[i].equals(name)) {
+                return sStarts[i];
+            }
+        }
+        return OPEN;
+    }
+
+    private static long processStartTime() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        // before N the first use of the trace, early in DemoActivity.onCreate, has to do
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,176 @@
+package com.ultracast.demo.motion;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import java.io.IOException;
+
+/**
+ * Runs a {@link PosePipeline} on the device sensors and the display frames.
+ * <p>
+ * Sensor samples arrive on a dedicated high priority thread at the configured rate, optionally
+ * batched by the sensor hub. On every Choreographer frame the pose is predicted for the frame
+ * being visible, two refresh periods later, and passed to the {@link PosePipeline.PoseSink}.
+ * Choreographer reports {@link System#nanoTime()} while sensor timestamps are
+ * {@link SystemClock#elapsedRealtimeNanos()}, frame times are moved into the sensor time base.
+ * {@link #start()} and {@link #stop()} must be called from the main thread.
+ */
+public class HeadTracker implements SensorEventListener, Choreographer.FrameCallback {
+
+    public static final int DEFAULT_SAMPLING_PERIOD_US = 5000;
+
+    private static final String TAG = "HeadTracker";
+    private static final int FRAMES_OF_LATENCY = 2;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mGyroscope;
+    private final Sensor mAccelerometer;
+    private final int mSamplingPeriodUs;
+    private final int mMaxReportLatencyUs;
+    // guarded by itself, fed from the sensor thread and read on frames
+    private final PosePipeline mPipeline;
+
+    private HandlerThread mSensorThread;
+    private SensorTrace.Recorder mRecorder;
+    private long mClockOffsetNs;
+    private boolean mRunning;
+
+    /**
+     * @param samplingPeriodUs   sensor sampling period
+     * @param maxReportLatencyUs how long the sensor hub may batch samples, 0 for none
+     */
+    public HeadTracker(Context context, int samplingPeriodUs, int maxReportLatencyUs) {
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mGyroscope = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        mAccelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        mSamplingPeriodUs = samplingPeriodUs;
+        mMaxReportLatencyUs = maxReportLatencyUs;
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        mPipeline = new PosePipeline((long) (FRAMES_OF_LATENCY * 1e9 / refreshRate));
+    }
+
+    public boolean isSupported() {
+        return mGyroscope != null && mAccelerometer != null;
+    }
+
+    public void setPoseSink(PosePipeline.PoseSink sink) {
+        synchronized (mPipeline) {
+            mPipeline.setPoseSink(sink);
+        }
+    }
+
+    /**
+     * Records the samples, see {@link SensorTrace}. The recorder is closed by {@link #stop()}.
+     */
+    public void setRecorder(SensorTrace.Recorder recorder) {
+        synchronized (mPipeline) {
+            mRecorder = recorder;
+        }
+    }
+
+    public void start() {
+        if (mRunning || !isSupported()) {
+            return;
+        }
+        mRunning = true;
+        synchronized (mPipeline) {
+            mPipeline.reset();
+        }
+        mClockOffsetNs = SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+        mSensorThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mSensorThread.start();
+        Handler handler = new Handler(mSensorThread.getLooper());
+        register(mGyroscope, handler);
+        register(mAccelerometer, handler);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        mSensorManager.unregisterListener(this);
+        mSensorThread.quit();
+        mSensorThread = null;
+        synchronized (mPipeline) {
+            if (mRecorder != null) {
+                try {
+                    mRecorder.close();
+                } catch (IOException e) {
+                    //ignored
+                }
+                mRecorder = null;
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public String getStats() {
+        synchronized (mPipeline) {
+            return mPipeline.getStats();
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float[] values = event.values;
+        char sensor;
+        synchronized (mPipeline) {
+            if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+                mPipeline.onGyroscope(event.timestamp, values[0], values[1], values[2]);
+                sensor = SensorTrace.GYROSCOPE;
+            } else {
+                mPipeline.onAccelerometer(event.timestamp, values[0], values[1], values[2]);
+                sensor = SensorTrace.ACCELEROMETER;
+            }
+            if (mRecorder != null) {
+                try {
+                    mRecorder.record(sensor, event.timestamp, values[0], values[1], values[2]);
+                } catch (IOException e) {
+                    Log.w(TAG, "Stopped recording sensor trace", e);
+                    mRecorder = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        synchronized (mPipeline) {
+            mPipeline.onFrame(frameTimeNanos + mClockOffsetNs);
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void register(Sensor sensor, Handler handler) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mSensorManager.registerListener(this, sensor, mSamplingPeriodUs, mMaxReportLatencyUs, handler);
+        } else {
+            mSensorManager.registerListener(this, sensor, mSamplingPeriodUs, handler);
+        }
+    }
+}
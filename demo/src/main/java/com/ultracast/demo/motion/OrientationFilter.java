@@ -0,0 +1,101 @@
+package com.ultracast.demo.motion;
+
+/**
+ * Complementary filter fusing gyroscope and accelerometer samples into a device orientation.
+ * <p>
+ * The orientation is a unit quaternion rotating device coordinates into world coordinates with z
+ * up. Gyroscope samples are integrated; the accelerometer, which measures the up direction while
+ * the head is not accelerating, pulls the estimate back towards it with a small proportional gain
+ * and cancels the gyroscope drift in pitch and roll. Yaw has no absolute reference and follows
+ * the gyroscope only. Timestamps are nanoseconds in the sensor time base. Not thread safe.
+ */
+public class OrientationFilter {
+
+    // rad/s of correction per unit of error, balances drift against accelerometer noise
+    private static final double CORRECTION_GAIN = 0.5;
+    // gaps longer than this are not integrated, e.g. after the sensors were paused
+    private static final long MAX_STEP_NS = 100000000;
+
+    private final double[] mOrientation = new double[4];
+    private final double[] mAngularVelocity = new double[3];
+    private final double[] mUp = new double[3];
+    private boolean mHasUp;
+    private long mTimestamp;
+
+    public OrientationFilter() {
+        reset();
+    }
+
+    public void reset() {
+        Quaternions.setIdentity(mOrientation);
+        mAngularVelocity[0] = 0;
+        mAngularVelocity[1] = 0;
+        mAngularVelocity[2] = 0;
+        mHasUp = false;
+        mTimestamp = 0;
+    }
+
+    /**
+     * @param x, y, z the acceleration in m/s^2, device coordinates
+     */
+    public void onAccelerometer(long timestampNs, double x, double y, double z) {
+        double norm = Math.sqrt(x * x + y * y + z * z);
+        if (norm < 1e-3) {
+            return;
+        }
+        mUp[0] = x / norm;
+        mUp[1] = y / norm;
+        mUp[2] = z / norm;
+        mHasUp = true;
+    }
+
+    /**
+     * @param x, y, z the angular velocity in rad/s, device coordinates
+     */
+    public void onGyroscope(long timestampNs, double x, double y, double z) {
+        mAngularVelocity[0] = x;
+        mAngularVelocity[1] = y;
+        mAngularVelocity[2] = z;
+        long step = timestampNs - mTimestamp;
+        mTimestamp = timestampNs;
+        if (step <= 0 || step > MAX_STEP_NS) {
+            return;
+        }
+        double cx = x;
+        double cy = y;
+        double cz = z;
+        if (mHasUp) {
+            // up as the current estimate sees it in device coordinates: conj(q) * (0, 0, 1) * q
+            double[] q = mOrientation;
+            double vx = 2 * (q[1] * q[3] - q[0] * q[2]);
+            double vy = 2 * (q[2] * q[3] + q[0] * q[1]);
+            double vz = q[0] * q[0] - q[1] * q[1] - q[2] * q[2] + q[3] * q[3];
+            // the cross product is the axis turning the estimate towards the measurement
+            cx += CORRECTION_GAIN * (mUp[1] * vz - mUp[2] * vy);
+            cy += CORRECTION_GAIN * (mUp[2] * vx - mUp[0] * vz);
+            cz += CORRECTION_GAIN * (mUp[0] * vy - mUp[1] * vx);
+        }
+        Quaternions.integrate(mOrientation, cx, cy, cz, step / 1e9, mOrientation);
+    }
+
+    /**
+     * @return the orientation, valid until the next sample; do not modify
+     */
+    public double[] getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * @return the last angular velocity in rad/s, device coordinates; do not modify
+     */
+    public double[] getAngularVelocity() {
+        return mAngularVelocity;
+    }
+
+    /**
+     * @return the timestamp of the last gyroscope sample, 0 before the first one
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+}
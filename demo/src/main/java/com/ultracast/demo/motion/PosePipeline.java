@@ -0,0 +1,169 @@
+package com.ultracast.demo.motion;
+
+import com.ultracast.demo.metrics.Histogram;
+
+/**
+ * Sensor fusion and pose prediction, independent of Android so recorded sensor traces can be
+ * replayed on the JVM, see {@link SensorTrace}.
+ * <p>
+ * Samples go through an {@link OrientationFilter}. For every display frame the pose is predicted
+ * for the moment the frame reaches the screen, {@code frame time + latency}, by extrapolating the
+ * last angular velocity, and handed to the {@link PoseSink}. Every prediction is kept until the
+ * filter reaches its target time and is then compared with the actual orientation, next to the
+ * error the unpredicted orientation would have had. All storage is preallocated.
+ * Not thread safe.
+ */
+public class PosePipeline {
+
+    public interface PoseSink {
+        /**
+         * @param targetTimeNs the time the pose is predicted for, sensor time base
+         * @param orientation  device to world rotation, only valid during the call
+         */
+        void onPose(long targetTimeNs, double[] orientation);
+    }
+
+    private static final int MAX_PENDING = 32;
+    // longer horizons extrapolate more noise than they remove latency
+    private static final long MAX_HORIZON_NS = 50000000;
+    // errors are recorded in hundredths of a degree
+    private static final double ERROR_SCALE = 100;
+
+    private final OrientationFilter mFilter = new OrientationFilter();
+    private final double[] mPredicted = new double[4];
+    private final long[] mPendingTargets = new long[MAX_PENDING];
+    private final double[] mPendingPredicted = new double[MAX_PENDING * 4];
+    private final double[] mPendingUnpredicted = new double[MAX_PENDING * 4];
+    private final double[] mScratch = new double[4];
+    private final double[] mScratchOther = new double[4];
+    private int mPendingStart;
+    private int mPendingCount;
+
+    private final Histogram mPredictedError = new Histogram(18000);
+    private final Histogram mUnpredictedError = new Histogram(18000);
+    private final Histogram mFrameCostUs = new Histogram(100000);
+
+    private long mLatencyNs;
+    private PoseSink mSink;
+
+    /**
+     * @param latencyNs time from a frame callback to the frame being visible
+     */
+    public PosePipeline(long latencyNs) {
+        mLatencyNs = latencyNs;
+    }
+
+    public void setLatency(long latencyNs) {
+        mLatencyNs = latencyNs;
+    }
+
+    public void setPoseSink(PoseSink sink) {
+        mSink = sink;
+    }
+
+    public void reset() {
+        mFilter.reset();
+        mPendingStart = 0;
+        mPendingCount = 0;
+        mPredictedError.reset();
+        mUnpredictedError.reset();
+        mFrameCostUs.reset();
+    }
+
+    public void onAccelerometer(long timestampNs, double x, double y, double z) {
+        mFilter.onAccelerometer(timestampNs, x, y, z);
+    }
+
+    public void onGyroscope(long timestampNs, double x, double y, double z) {
+        mFilter.onGyroscope(timestampNs, x, y, z);
+        resolvePredictions(timestampNs);
+    }
+
+    /**
+     * Predicts the pose for a display frame and passes it to the sink.
+     *
+     * @param frameTimeNs the frame time, in the sensor time base
+     */
+    public void onFrame(long frameTimeNs) {
+        long startTime = System.nanoTime();
+        long sampleTime = mFilter.getTimestamp();
+        if (sampleTime == 0) {
+            return;
+        }
+        long targetTime = frameTimeNs + mLatencyNs;
+        long horizon = Math.max(0, Math.min(targetTime - sampleTime, MAX_HORIZON_NS));
+        double[] velocity = mFilter.getAngularVelocity();
+        Quaternions.integrate(mFilter.getOrientation(), velocity[0], velocity[1], velocity[2],
+                horizon / 1e9, mPredicted);
+        addPending(targetTime);
+        if (mSink != null) {
+            mSink.onPose(targetTime, mPredicted);
+        }
+        mFrameCostUs.record((System.nanoTime() - startTime) / 1000);
+    }
+
+    public double[] getOrientation() {
+        return mFilter.getOrientation();
+    }
+
+    /**
+     * @return angular error of the predicted poses, in hundredths of a degree
+     */
+    public Histogram getPredictedError() {
+        return mPredictedError;
+    }
+
+    /**
+     * @return angular error of showing the latest filtered pose without prediction, in hundredths
+     * of a degree
+     */
+    public Histogram getUnpredictedError() {
+        return mUnpredictedError;
+    }
+
+    /**
+     * @return processing time of {@link #onFrame(long)} in microseconds
+     */
+    public Histogram getFrameCost() {
+        return mFrameCostUs;
+    }
+
+    public String getStats() {
+        return "frames " + mFrameCostUs.getCount()
+                + ", error p50/p90 predicted " + degrees(mPredictedError.getPercentile(50))
+                + "/" + degrees(mPredictedError.getPercentile(90))
+                + " deg, unpredicted " + degrees(mUnpredictedError.getPercentile(50))
+                + "/" + degrees(mUnpredictedError.getPercentile(90))
+                + " deg, frame cost p50/p99 " + mFrameCostUs.getPercentile(50)
+                + "/" + mFrameCostUs.getPercentile(99) + " us";
+    }
+
+    private void addPending(long targetTime) {
+        if (mPendingCount == MAX_PENDING) {
+            // the sensors stalled, the oldest prediction can not be judged anymore
+            mPendingStart = (mPendingStart + 1) % MAX_PENDING;
+            mPendingCount--;
+        }
+        int slot = (mPendingStart + mPendingCount) % MAX_PENDING;
+        mPendingTargets[slot] = targetTime;
+        System.arraycopy(mPredicted, 0, mPendingPredicted, slot * 4, 4);
+        System.arraycopy(mFilter.getOrientation(), 0, mPendingUnpredicted, slot * 4, 4);
+        mPendingCount++;
+    }
+
+    private void resolvePredictions(long now) {
+        double[] actual = mFilter.getOrientation();
+        while (mPendingCount > 0 && mPendingTargets[mPendingStart] <= now) {
+            System.arraycopy(mPendingPredicted, mPendingStart * 4, mScratch, 0, 4);
+            System.arraycopy(mPendingUnpredicted, mPendingStart * 4, mScratchOther, 0, 4);
+            mPredictedError.record(Math.round(Quaternions.angleDegrees(mScratch, actual) * ERROR_SCALE));
+            mUnpredictedError.record(Math.round(Quaternions.angleDegrees(mScratchOther, actual) * ERROR_SCALE));
+            mPendingStart = (mPendingStart + 1) % MAX_PENDING;
+            mPendingCount--;
+        }
+    }
+
+    private static String degrees(long hundredths) {
+        return String.valueOf(hundredths / ERROR_SCALE);
+    }
+}
@@ -0,0 +1,103 @@
+package com.ultracast.demo.motion;
+
+/**
+ * Allocation free quaternion math on {@code double[4]} arrays in (w, x, y, z) order.
+ * Output arrays may be the same as input arrays.
+ */
+public final class Quaternions {
+
+    private Quaternions() {
+    }
+
+    public static void setIdentity(double[] q) {
+        q[0] = 1;
+        q[1] = 0;
+        q[2] = 0;
+        q[3] = 0;
+    }
+
+    public static void copy(double[] from, double[] to) {
+        System.arraycopy(from, 0, to, 0, 4);
+    }
+
+    /**
+     * out = a * b
+     */
+    public static void multiply(double[] a, double[] b, double[] out) {
+        double w = a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3];
+        double x = a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2];
+        double y = a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1];
+        double z = a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0];
+        out[0] = w;
+        out[1] = x;
+        out[2] = y;
+        out[3] = z;
+    }
+
+    /**
+     * Rotates q by the body frame angular velocity (rad/s) applied for dt seconds:
+     * out = q * exp(omega * dt / 2).
+     */
+    public static void integrate(double[] q, double wx, double wy, double wz, double dt, double[] out) {
+        double magnitude = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        double angle = magnitude * dt;
+        double w;
+        double s;
+        if (angle < 1e-9) {
+            // small angle approximation, also avoids dividing by a zero magnitude
+            w = 1;
+            s = dt / 2;
+        } else {
+            w = Math.cos(angle / 2);
+            s = Math.sin(angle / 2) / magnitude;
+        }
+        double dx = wx * s;
+        double dy = wy * s;
+        double dz = wz * s;
+        double qw = q[0] * w - q[1] * dx - q[2] * dy - q[3] * dz;
+        double qx = q[0] * dx + q[1] * w + q[2] * dz - q[3] * dy;
+        double qy = q[0] * dy - q[1] * dz + q[2] * w + q[3] * dx;
+        double qz = q[0] * dz + q[1] * dy - q[2] * dx + q[3] * w;
+        out[0] = qw;
+        out[1] = qx;
+        out[2] = qy;
+        out[3] = qz;
+        normalize(out);
+    }
+
+    public static void normalize(double[] q) {
+        double norm = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        if (norm == 0) {
+            setIdentity(q);
+            return;
+        }
+        q[0] /= norm;
+        q[1] /= norm;
+        q[2] /= norm;
+        q[3] /= norm;
+    }
+
+    /**
+     * Direction the back of the device points at, i.e. where the camera of a phone held in front
+     * of the eyes looks, for a device to world orientation with z up.
+     *
+     * @param out yaw in degrees, positive clockwise seen from above, and pitch in degrees,
+     *            positive up
+     */
+    public static void getViewDirection(double[] q, double[] out) {
+        // the device -z axis rotated into world coordinates
+        double x = -2 * (q[1] * q[3] + q[0] * q[2]);
+        double y = -2 * (q[2] * q[3] - q[0] * q[1]);
+        double z = -(1 - 2 * (q[1] * q[1] + q[2] * q[2]));
+        out[0] = -Math.toDegrees(Math.atan2(y, x));
+        out[1] = Math.toDegrees(Math.asin(Math.max(-1, Math.min(z, 1))));
+    }
+
+    /**
+     * @return the angle of the rotation between two unit quaternions, in degrees
+     */
+    public static double angleDegrees(double[] a, double[] b) {
+        double dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return Math.toDegrees(2 * Math.acos(Math.min(dot, 1)));
+    }
+}
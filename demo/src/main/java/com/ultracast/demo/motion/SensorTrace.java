@@ -0,0 +1,99 @@
+package com.ultracast.demo.motion;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Plain text recordings of sensor samples, one per line:
+ * {@code <timestamp ns> <g|a> <x> <y> <z>}, where g is the gyroscope in rad/s and a the
+ * accelerometer in m/s^2. Lines starting with # are comments.
+ * <p>
+ * {@link HeadTracker} records traces on a device, {@link #replay(Reader, PosePipeline, long)}
+ * feeds them through a {@link PosePipeline} on the JVM to tune the filter and the prediction
+ * against real head motion.
+ */
+public final class SensorTrace {
+
+    public static final char GYROSCOPE = 'g';
+    public static final char ACCELEROMETER = 'a';
+
+    private SensorTrace() {
+    }
+
+    /**
+     * Writes samples in the trace format. Not thread safe.
+     */
+    public static class Recorder {
+
+        private final Writer mWriter;
+
+        public Recorder(Writer writer) {
+            mWriter = writer;
+        }
+
+        public void record(char sensor, long timestampNs, float x, float y, float z) throws IOException {
+            mWriter.write(String.format(Locale.US, "%d %c %.6f %.6f %.6f\n", timestampNs, sensor, x, y, z));
+        }
+
+        public void close() throws IOException {
+            mWriter.close();
+        }
+    }
+
+    /**
+     * Feeds a trace through the pipeline, calling {@link PosePipeline#onFrame(long)} every frame
+     * interval of sensor time as a display would.
+     *
+     * @return the number of samples replayed
+     */
+    public static int replay(Reader reader, PosePipeline pipeline, long frameIntervalNs) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        int count = 0;
+        long nextFrame = -1;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 5 || fields[1].length() != 1) {
+                throw new IOException("Malformed sample: " + line);
+            }
+            long timestamp;
+            double x;
+            double y;
+            double z;
+            try {
+                timestamp = Long.parseLong(fields[0]);
+                x = Double.parseDouble(fields[2]);
+                y = Double.parseDouble(fields[3]);
+                z = Double.parseDouble(fields[4]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed sample: " + line, e);
+            }
+            if (nextFrame < 0) {
+                nextFrame = timestamp + frameIntervalNs;
+            }
+            while (timestamp >= nextFrame) {
+                pipeline.onFrame(nextFrame);
+                nextFrame += frameIntervalNs;
+            }
+            switch (fields[1].charAt(0)) {
+                case GYROSCOPE:
+                    pipeline.onGyroscope(timestamp, x, y, z);
+                    break;
+                case ACCELEROMETER:
+                    pipeline.onAccelerometer(timestamp, x, y, z);
+                    break;
+                default:
+                    throw new IOException("Unknown sensor: " + line);
+            }
+            count++;
+        }
+        return count;
+    }
+}
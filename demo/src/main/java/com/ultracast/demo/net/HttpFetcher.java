@@ -0,0 +1,94 @@
+package com.ultracast.demo.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Minimal blocking HTTP helpers shared by the background loaders. Also accepts file: urls so
+ * pre-extracted local data goes through the same path.
+ */
+public final class HttpFetcher {
+
+    private static final int CONNECT_TIMEOUT_MS = 8000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private HttpFetcher() {
+    }
+
+    public static byte[] fetch(String url) throws IOException {
+        URLConnection connection = open(url);
+        InputStream in = connection.getInputStream();
+        try {
+            int length = connection.getContentLength();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : BUFFER_SIZE);
+            copy(in, out);
+            return out.toByteArray();
+        } finally {
+            closeQuietly(in);
+            disconnect(connection);
+        }
+    }
+
+    public static String fetchString(String url) throws IOException {
+        return new String(fetch(url), "UTF-8");
+    }
+
+    public static URLConnection open(String url) throws IOException {
+        return open(url, null);
+    }
+
+    /**
+     * @param range value of the Range header, null for the whole resource. A server which ignores
+     *              it answers 200 with the whole resource, callers must check for 206.
+     */
+    public static URLConnection open(String url, String range) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        if (connection instanceof HttpURLConnection) {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if (code < 200 || code >= 300) {
+                disconnect(connection);
+                throw new IOException("HTTP " + code + " for " + url);
+            }
+        }
+        return connection;
+    }
+
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    public static void disconnect(URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).disconnect();
+        }
+    }
+
+    public static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.ultracast.demo.net;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Names for what is stored per url on disk, the SHA-1 of the url in hex. Unlike a hash code they
+ * do not collide in practice and are safe as file names.
+ */
+public final class UrlKeys {
+
+    /**
+     * Length of a key in bytes, twice that in hex digits.
+     */
+    public static final int KEY_BYTES = 20;
+
+    private UrlKeys() {
+    }
+
+    /**
+     * Returns the SHA-1 of the url in hex.
+     */
+    public static String keyFor(String url) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            chars[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(chars);
+    }
+
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
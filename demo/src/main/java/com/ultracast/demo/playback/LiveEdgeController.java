@@ -0,0 +1,422 @@
+package com.ultracast.demo.playback;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.ultracast.demo.abr.AbrController;
+import com.ultracast.demo.hls.HlsMediaPlaylist;
+import com.ultracast.demo.hls.HlsVariant;
+import com.ultracast.demo.hls.ManifestCache;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.metrics.Histogram;
+import com.ultracast.demo.work.WorkScheduler;
+import com.ultracast.player.UC360Player;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps live HLS playback at a target distance behind the live edge.
+ * <p>
+ * The media playlist is reloaded every target duration, every half while it does not change,
+ * through the {@link ManifestPrefetcher} so the player and this controller share the loads. The
+ * live edge is the end of the playlist window, moved on by the time since the window last moved.
+ * That is at most one target duration past the last playlist load, so the edge keeps moving while
+ * the origin cannot be reached but not while it adds no segments. Failed loads are retried with
+ * a growing delay, after {@link #MAX_LOAD_ERRORS} in a row the url is given up on, as is a url
+ * found to be VOD.
+ * <p>
+ * Live positions are relative to the window start, as the player reports them, so the window the
+ * player loaded is what counts: its duration is used if the player reports one, and the window is
+ * taken to have moved when the position drops back without a seek or the duration changes. Until
+ * the player's window is seen to move, the time this controller's own loads found a new segment
+ * stands in for it.
+ * <p>
+ * The player has no playback rate, so a small drift is caught up with short skips inside the
+ * buffer: at most {@link #CATCH_UP_STEP_MS} every {@link #CATCH_UP_INTERVAL_MS}, about what
+ * playing at 1.2x would do, and only if enough stays buffered to not stall. Drifting more than
+ * twice the target, e.g. after a long stall, jumps back to the target in one seek, as does
+ * {@link #jumpToLive()}. Being closer to the edge than the target is left alone. Must be used from
+ * the main thread.
+ */
+public class LiveEdgeController {
+
+    /**
+     * Target latency in target durations when none is set, the closest the HLS spec lets players
+     * start to the end of a playlist.
+     */
+    public static final int DEFAULT_TARGET_SEGMENTS = 3;
+    /**
+     * Distance over the target which still counts as at the live edge.
+     */
+    public static final long TOLERANCE_MS = 1000;
+    public static final long CATCH_UP_STEP_MS = 500;
+    public static final long CATCH_UP_INTERVAL_MS = 2500;
+
+    private static final String TAG = "LiveEdgeController";
+    private static final long MIN_BUFFER_AFTER_SKIP_MS = 1000;
+    // positions lag behind a seek for a moment
+    private static final long SEEK_SETTLE_MS = 1000;
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+    private static final long ERROR_RETRY_MS = 2000;
+    static final int MAX_LOAD_ERRORS = 5;
+    private static final long MAX_LATENCY_MS = 10 * 60 * 1000;
+    // smaller than any segment, larger than position jitter
+    private static final long WINDOW_SHIFT_MS = 500;
+
+    private final UC360Player mPlayer;
+    private final ManifestPrefetcher mPrefetcher;
+    private final AbrController mAbrController;
+    private final MainThreadClock mClock;
+    // brings load results back to the main thread
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mRefreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private long mTargetLatencyMs;
+    private String mUrl;
+    private String mMediaUrl;
+    // bumped by start and stop, results of older loads are dropped
+    private int mGeneration;
+    private Future<?> mPendingLoad;
+
+    private boolean mLive;
+    // the playlist has an end, there is nothing to track
+    private boolean mVod;
+    private int mLoadErrors;
+    private long mTargetDurationMs;
+    private long mWindowMs;
+    private long mLastSequence = -1;
+    private long mEdgeUptime;
+    private long mLoadUptime;
+    // when the player's window last moved, 0 until it was seen to
+    private long mPlayerWindowUptime;
+    private long mLastPositionMs;
+    private long mLastDurationMs;
+    private long mLastUpdateUptime;
+    private boolean mChanged;
+    private long mLatencyMs = -1;
+
+    private boolean mPlayWhenReady;
+    private int mPlaybackState = UC360Player.STATE_IDLE;
+    private long mLastSeekUptime;
+    private long mExternalSeekUptime;
+    private long mLastCatchUpUptime;
+    private long mLastSampleUptime;
+
+    private final Histogram mLatency = new Histogram(MAX_LATENCY_MS);
+    private int mCatchUps;
+    private int mJumps;
+    private int mStalls;
+
+    public LiveEdgeController(UC360Player player, ManifestPrefetcher prefetcher, AbrController abrController) {
+        this(player, prefetcher, abrController, new MainThreadClock.Android());
+    }
+
+    LiveEdgeController(UC360Player player, ManifestPrefetcher prefetcher, AbrController abrController,
+                       MainThreadClock clock) {
+        mPlayer = player;
+        mPrefetcher = prefetcher;
+        mAbrController = abrController;
+        mClock = clock;
+    }
+
+    /**
+     * @param targetLatencyMs distance to keep from the live edge, 0 for
+     *                        {@link #DEFAULT_TARGET_SEGMENTS} target durations
+     */
+    public void setTargetLatency(long targetLatencyMs) {
+        mTargetLatencyMs = targetLatencyMs;
+    }
+
+    public long getTargetLatency() {
+        return mTargetLatencyMs > 0 ? mTargetLatencyMs : DEFAULT_TARGET_SEGMENTS * mTargetDurationMs;
+    }
+
+    /**
+     * Starts tracking an url, which turns out to be live or not once its playlist loaded. Not
+     * for downloaded copies, which have no live edge.
+     */
+    public void start(String url) {
+        if (!url.equals(mUrl)) {
+            mMediaUrl = null;
+            mLive = false;
+            mVod = false;
+            mLastSequence = -1;
+            mEdgeUptime = 0;
+            mPlayerWindowUptime = 0;
+            mLastUpdateUptime = 0;
+            mLatencyMs = -1;
+            mLatency.reset();
+            mCatchUps = 0;
+            mJumps = 0;
+            mStalls = 0;
+        }
+        stop();
+        mUrl = url;
+        mLoadErrors = 0;
+        if (ManifestPrefetcher.isHls(url) && !mVod) {
+            refresh();
+        }
+    }
+
+    /**
+     * Stops reloading the playlist, {@link #start(String)} with the same url continues.
+     */
+    public void stop() {
+        mGeneration++;
+        mClock.removeCallbacks(mRefreshTask);
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel(false);
+            mPendingLoad = null;
+        }
+    }
+
+    /**
+     * @return true if the url is the one tracked and its playlist was found to be live
+     */
+    public boolean isLive(String url) {
+        return mLive && url != null && url.equals(mUrl);
+    }
+
+    /**
+     * @return the distance behind the live edge at the last update, -1 if not known
+     */
+    public long getLatencyMs() {
+        return mLatencyMs;
+    }
+
+    public boolean isAtLiveEdge() {
+        return mLatencyMs >= 0 && mLatencyMs <= getTargetLatency() + TOLERANCE_MS;
+    }
+
+    /**
+     * Must be called from {@link UC360Player.EventListener#onPlayerStateChanged(boolean, int)}.
+     */
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        if (mLive && playWhenReady && playbackState == UC360Player.STATE_BUFFERING
+                && mPlaybackState == UC360Player.STATE_READY
+                && mClock.uptimeMillis() - mLastSeekUptime > SEEK_SETTLE_MS) {
+            mStalls++;
+        }
+        mPlayWhenReady = playWhenReady;
+        mPlaybackState = playbackState;
+    }
+
+    /**
+     * Must be called when the position is changed by a seek from elsewhere, which would look like
+     * the window moving otherwise.
+     */
+    public void onSeek() {
+        mLastSeekUptime = mClock.uptimeMillis();
+        mExternalSeekUptime = mLastSeekUptime;
+    }
+
+    /**
+     * Updates the distance to the live edge and corrects it when needed, to be called with every
+     * position update.
+     *
+     * @param durationMs duration reported by the player, 0 if it reports none
+     * @return true if the position was changed with a seek
+     */
+    public boolean update(long positionMs, long durationMs) {
+        if (!mLive || mEdgeUptime == 0) {
+            return false;
+        }
+        long now = mClock.uptimeMillis();
+        trackPlayerWindow(positionMs, durationMs, now);
+        long edgeUptime = mPlayerWindowUptime > 0 ? mPlayerWindowUptime : mEdgeUptime;
+        long age = Math.min(now - edgeUptime, now - mLoadUptime + mTargetDurationMs);
+        long edge = (durationMs > 0 ? durationMs : mWindowMs) + age;
+        mLatencyMs = Math.max(0, edge - positionMs);
+        if (mPlayWhenReady && now - mLastSampleUptime >= SAMPLE_INTERVAL_MS) {
+            mLastSampleUptime = now;
+            mLatency.record(mLatencyMs);
+        }
+        if (!mPlayWhenReady || mPlaybackState != UC360Player.STATE_READY || now - mLastSeekUptime < SEEK_SETTLE_MS) {
+            return false;
+        }
+        long target = getTargetLatency();
+        if (mLatencyMs > 2 * target) {
+            Log.i(TAG, "Jumping to live, " + mLatencyMs + " ms behind");
+            mJumps++;
+            seek(positionMs + mLatencyMs - target, now);
+            return true;
+        }
+        if (mLatencyMs > target + TOLERANCE_MS && now - mLastCatchUpUptime >= CATCH_UP_INTERVAL_MS) {
+            long step = Math.min(CATCH_UP_STEP_MS, mLatencyMs - target);
+            if (mPlayer.getBufferedPosition() - positionMs >= step + MIN_BUFFER_AFTER_SKIP_MS) {
+                mCatchUps++;
+                mLastCatchUpUptime = now;
+                seek(positionMs + step, now);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Seeks to the target distance from the live edge.
+     *
+     * @return false if the edge is not known yet
+     */
+    public boolean jumpToLive() {
+        if (!mLive || mLatencyMs < 0) {
+            return false;
+        }
+        mJumps++;
+        seek(mPlayer.getCurrentTime() + mLatencyMs - getTargetLatency(), mClock.uptimeMillis());
+        return true;
+    }
+
+    public String getStats() {
+        long target = getTargetLatency();
+        long count = mLatency.getCount();
+        long atEdge = count - mLatency.getCountAbove(target + TOLERANCE_MS);
+        return String.format(Locale.US, "latency p50 %d ms, p90 %d ms, max %d ms, target %d ms,"
+                        + " at the edge %.0f%% of %d samples, catch-ups %d, jumps %d, stalls %d",
+                mLatency.getPercentile(50), mLatency.getPercentile(90), mLatency.getMax(), target,
+                count > 0 ? atEdge * 100.0 / count : 0, count, mCatchUps, mJumps, mStalls);
+    }
+
+    private void trackPlayerWindow(long positionMs, long durationMs, long now) {
+        // own seeks only go back as far as mLastPositionMs was lowered to, other seeks anywhere
+        if (mLastUpdateUptime > 0 && now - mExternalSeekUptime >= SEEK_SETTLE_MS) {
+            long expected = mLastPositionMs;
+            if (mPlayWhenReady && mPlaybackState == UC360Player.STATE_READY) {
+                expected += now - mLastUpdateUptime;
+            }
+            if (positionMs < expected - WINDOW_SHIFT_MS || (durationMs > 0 && durationMs != mLastDurationMs)) {
+                mPlayerWindowUptime = now;
+            }
+        }
+        mLastPositionMs = positionMs;
+        mLastDurationMs = durationMs;
+        mLastUpdateUptime = now;
+    }
+
+    private void seek(long positionMs, long now) {
+        mLastSeekUptime = now;
+        mLastPositionMs = Math.min(mLastPositionMs, positionMs);
+        mPlayer.seek(Math.max(0, positionMs));
+    }
+
+    private void refresh() {
+        mClock.removeCallbacks(mRefreshTask);
+        // rescheduled here rather than on completion, a load dropped by the lane does not end the refreshes
+        long interval;
+        if (mLoadErrors > 0 || mTargetDurationMs == 0) {
+            interval = ERROR_RETRY_MS << Math.max(0, mLoadErrors - 1);
+        } else {
+            interval = mChanged ? mTargetDurationMs : mTargetDurationMs / 2;
+        }
+        mClock.postDelayed(mRefreshTask, interval);
+        if (mPendingLoad != null && !mPendingLoad.isDone()) {
+            return;
+        }
+        final int generation = mGeneration;
+        final boolean resolved = mMediaUrl != null;
+        final String url = resolved ? mMediaUrl : mUrl;
+        mPendingLoad = WorkScheduler.getInstance().submit(WorkScheduler.LANE_USER_VISIBLE, this, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final String mediaUrl = resolved ? url : resolveMediaUrl(url);
+                    ManifestCache.Entry entry = mPrefetcher.getOrFetch(mediaUrl);
+                    final HlsMediaPlaylist media = entry.getMedia();
+                    if (media == null) {
+                        throw new IOException("Not a media playlist " + mediaUrl);
+                    }
+                    // the prefetcher may have loaded it a moment ago
+                    final long age = Math.max(0, System.currentTimeMillis() - entry.getFetchedAt());
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration) {
+                                onPlaylistLoaded(mediaUrl, media, mClock.uptimeMillis() - age);
+                            }
+                        }
+                    });
+                } catch (final IOException e) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration) {
+                                onLoadError(url, e);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // worker thread
+    private String resolveMediaUrl(String url) throws IOException {
+        ManifestCache.Entry entry = mPrefetcher.getOrFetch(url);
+        if (entry.getMaster() == null) {
+            return url;
+        }
+        // all variants share the timeline, the one the player starts with is as good as any
+        List<HlsVariant> variants = mAbrController.selectVariants(entry.getMaster().getVariants());
+        if (variants.isEmpty()) {
+            throw new IOException("No variants in " + url);
+        }
+        return variants.get(0).getUri();
+    }
+
+    /**
+     * Takes a load of the media playlist of the url being tracked, on the main thread.
+     *
+     * @param fetchUptime when the load started
+     */
+    void onPlaylistLoaded(String mediaUrl, HlsMediaPlaylist media, long fetchUptime) {
+        mMediaUrl = mediaUrl;
+        mLoadErrors = 0;
+        if (media.hasEndList()) {
+            // VOD, or the event is over
+            if (mLive) {
+                Log.i(TAG, "Live stream ended " + mUrl);
+            }
+            mLive = false;
+            mVod = true;
+            mLatencyMs = -1;
+            stop();
+            return;
+        }
+        mLive = true;
+        mLoadUptime = fetchUptime;
+        mTargetDurationMs = media.getTargetDurationMs();
+        long lastSequence = media.getMediaSequence() + media.getSegments().size() - 1;
+        mChanged = lastSequence != mLastSequence;
+        if (mChanged) {
+            mLastSequence = lastSequence;
+            // the segment appeared between the previous load and this one, latest at its start
+            mEdgeUptime = fetchUptime;
+            mWindowMs = media.getDurationMs();
+        }
+    }
+
+    /**
+     * Retries later, less often with every error in a row, and stops after
+     * {@link #MAX_LOAD_ERRORS}. On the main thread.
+     */
+    void onLoadError(String url, IOException e) {
+        mLoadErrors++;
+        if (mLoadErrors >= MAX_LOAD_ERRORS) {
+            Log.w(TAG, "Giving up on " + url + " after " + mLoadErrors + " errors, " + e);
+            stop();
+            return;
+        }
+        Log.w(TAG, "Error loading " + url + ", " + e);
+        mClock.removeCallbacks(mRefreshTask);
+        mClock.postDelayed(mRefreshTask, ERROR_RETRY_MS << (mLoadErrors - 1));
+    }
+}
@@ -0,0 +1,58 @@
+package com.ultracast.demo.playback;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Time, display frames and delayed tasks as seen by the playback classes on the main thread. Tests
+ * run them on a virtual clock instead.
+ */
+interface MainThreadClock {
+
+    long uptimeMillis();
+
+    void postFrameCallback(Choreographer.FrameCallback callback);
+
+    void removeFrameCallback(Choreographer.FrameCallback callback);
+
+    void postDelayed(Runnable task, long delayMs);
+
+    void removeCallbacks(Runnable task);
+
+    /**
+     * The system clock, the main looper and the display's frames. Must be created on the main
+     * thread.
+     */
+    class Android implements MainThreadClock {
+
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            mChoreographer.postFrameCallback(callback);
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            mChoreographer.removeFrameCallback(callback);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            mHandler.postDelayed(task, delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            mHandler.removeCallbacks(task);
+        }
+    }
+}
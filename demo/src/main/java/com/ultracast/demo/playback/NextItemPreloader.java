@@ -0,0 +1,185 @@
+package com.ultracast.demo.playback;
+
+import android.util.Log;
+
+import com.ultracast.demo.abr.AbrController;
+import com.ultracast.demo.cache.SegmentCache;
+import com.ultracast.demo.hls.HlsMediaPlaylist;
+import com.ultracast.demo.hls.HlsSegment;
+import com.ultracast.demo.hls.HlsVariant;
+import com.ultracast.demo.hls.ManifestCache;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.metrics.Histogram;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the start of the next video while the current one is ending, so switching to it costs
+ * little more than opening a cached source on the warm player.
+ * <p>
+ * For an HLS source the playlists are loaded through the {@link ManifestPrefetcher} and the
+ * segments of the variant the player will start with are downloaded into the
+ * {@link SegmentCache}, from the resume position on, until {@link #PRELOAD_MS} of media or the
+ * byte budget is reached. A progressive file is cached whole if it fits the budget. Live
+ * sources only get their playlists, they start at the live edge anyway. Only one preload runs at
+ * a time, {@link #cancel()} stops it between segments.
+ * <p>
+ * The time to first frame of opens which were preloaded and of those which were not is
+ * recorded to report the latency saved, see {@link #getStats()}. Must be used from the main
+ * thread.
+ */
+public class NextItemPreloader {
+
+    public static final long PRELOAD_MS = 6000;
+
+    private static final String TAG = "NextItemPreloader";
+    private static final long MAX_FIRST_FRAME_MS = 60000;
+
+    private final ManifestPrefetcher mPrefetcher;
+    private final SegmentCache mCache;
+    private final AbrController mAbrController;
+    private final long mBudgetBytes;
+
+    // bumped to stop the running preload
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private Future<?> mTask;
+    private String mUrl;
+    private volatile String mPreloadedUrl;
+
+    private int mStarted;
+    private int mCancelled;
+    private final AtomicInteger mCompleted = new AtomicInteger();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final Histogram mPreloadedFirstFrame = new Histogram(MAX_FIRST_FRAME_MS);
+    private final Histogram mColdFirstFrame = new Histogram(MAX_FIRST_FRAME_MS);
+
+    public NextItemPreloader(ManifestPrefetcher prefetcher, SegmentCache cache, AbrController abrController,
+                             long budgetBytes) {
+        mPrefetcher = prefetcher;
+        mCache = cache;
+        mAbrController = abrController;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Starts preloading a url unless it is being or has been preloaded already.
+     *
+     * @param positionMs where playback of the url will start
+     */
+    public void preload(final String url, final long positionMs) {
+        if (url.equals(mUrl)) {
+            return;
+        }
+        cancel();
+        mUrl = url;
+        mStarted++;
+        final int generation = mGeneration.get();
+        mTask = WorkScheduler.getInstance().submit(WorkScheduler.LANE_PREFETCH, this, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long bytes = load(url, positionMs, generation);
+                    if (generation == mGeneration.get()) {
+                        mPreloadedUrl = url;
+                        mCompleted.incrementAndGet();
+                        Log.i(TAG, "Preloaded " + bytes + " bytes of " + url);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Error preloading " + url, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the preload in progress, what was loaded so far stays cached.
+     */
+    public void cancel() {
+        if (mTask != null && !mTask.isDone()) {
+            mTask.cancel(false);
+            mCancelled++;
+        }
+        mGeneration.incrementAndGet();
+        mTask = null;
+        mUrl = null;
+    }
+
+    /**
+     * To be called when a url is opened.
+     *
+     * @return true if the url was preloaded completely, only once per preload
+     */
+    public boolean takePreloaded(String url) {
+        if (!url.equals(mPreloadedUrl)) {
+            return false;
+        }
+        mPreloadedUrl = null;
+        return true;
+    }
+
+    /**
+     * Records the time to first frame of an open.
+     */
+    public void onFirstFrame(long elapsedMs, boolean preloaded) {
+        (preloaded ? mPreloadedFirstFrame : mColdFirstFrame).record(elapsedMs);
+    }
+
+    public String getStats() {
+        long preloaded = mPreloadedFirstFrame.getPercentile(50);
+        long cold = mColdFirstFrame.getPercentile(50);
+        long saved = mPreloadedFirstFrame.getCount() > 0 && mColdFirstFrame.getCount() > 0 ? cold - preloaded : 0;
+        return String.format(Locale.US, "preloads %d (%d completed, %d cancelled), %d bytes,"
+                        + " first frame p50 preloaded %d ms (%d), not preloaded %d ms (%d), saved %d ms per switch",
+                mStarted, mCompleted.get(), mCancelled, mBytes.get(), preloaded, mPreloadedFirstFrame.getCount(),
+                cold, mColdFirstFrame.getCount(), saved);
+    }
+
+    private long load(String url, long positionMs, int generation) throws IOException {
+        if (!ManifestPrefetcher.isHls(url)) {
+            return count(mCache.fetch(url, mBudgetBytes));
+        }
+        ManifestCache.Entry entry = mPrefetcher.load(url);
+        HlsMediaPlaylist media = entry.getMedia();
+        if (entry.getMaster() != null) {
+            // the first variant offered by the proxy is the one the player starts with
+            List<HlsVariant> variants = mAbrController.selectVariants(entry.getMaster().getVariants());
+            if (variants.isEmpty()) {
+                return 0;
+            }
+            media = mPrefetcher.getOrFetch(variants.get(0).getUri()).getMedia();
+        }
+        if (media == null || !media.hasEndList()) {
+            return 0;
+        }
+        long bytes = 0;
+        for (HlsSegment segment : media.getSegments()) {
+            if (segment.getStartTimeMs() + segment.getDurationMs() <= positionMs) {
+                continue;
+            }
+            // byte ranges are passed through by the proxy, not cached
+            if (generation != mGeneration.get() || segment.getByteRangeLength() >= 0
+                    || segment.getStartTimeMs() >= positionMs + PRELOAD_MS || bytes >= mBudgetBytes) {
+                break;
+            }
+            long fetched = count(mCache.fetch(segment.getUri(), mBudgetBytes - bytes));
+            if (fetched < 0) {
+                break;
+            }
+            bytes += fetched;
+        }
+        return bytes;
+    }
+
+    private long count(long bytes) {
+        if (bytes > 0) {
+            mBytes.addAndGet(bytes);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,80 @@
+package com.ultracast.demo.playback;
+
+import com.ultracast.demo.catalog.Catalog;
+import com.ultracast.demo.catalog.Sample;
+
+/**
+ * The catalog position being played, so playback can continue with the next entry.
+ * <p>
+ * The catalog screen sets its catalog and the position picked, and clears the catalog when it
+ * goes away, after which there is no next entry. Play next is off until the user switches it
+ * on. Main thread only.
+ */
+public class PlayQueue {
+
+    private static PlayQueue sInstance;
+
+    private Catalog mCatalog;
+    private int mPosition = -1;
+    private boolean mPlayNext;
+
+    public static PlayQueue getInstance() {
+        if (sInstance == null) {
+            sInstance = new PlayQueue();
+        }
+        return sInstance;
+    }
+
+    public void setCatalog(Catalog catalog) {
+        mCatalog = catalog;
+        mPosition = -1;
+    }
+
+    /**
+     * Forgets the catalog if it is still the one set.
+     */
+    public void clear(Catalog catalog) {
+        if (mCatalog == catalog) {
+            mCatalog = null;
+            mPosition = -1;
+        }
+    }
+
+    /**
+     * @param position the catalog position playing, -1 for a video not from the catalog
+     */
+    public void setPosition(int position) {
+        mPosition = position;
+    }
+
+    public boolean isPlayNext() {
+        return mPlayNext;
+    }
+
+    public void setPlayNext(boolean playNext) {
+        mPlayNext = playNext;
+    }
+
+    /**
+     * @return the entry after the one playing, null if there is none or it is not loaded yet
+     */
+    public Sample peekNext() {
+        if (mCatalog == null || mPosition < 0 || mPosition + 1 >= mCatalog.getCount()) {
+            return null;
+        }
+        return mCatalog.get(mPosition + 1);
+    }
+
+    /**
+     * Moves on to the next entry.
+     *
+     * @return the entry now playing, null if there is no next one
+     */
+    public Sample advance() {
+        Sample next = peekNext();
+        if (next != null) {
+            mPosition++;
+        }
+        return next;
+    }
+}
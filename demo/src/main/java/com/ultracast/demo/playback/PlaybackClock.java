@@ -0,0 +1,150 @@
+package com.ultracast.demo.playback;
+
+import android.view.Choreographer;
+
+import com.ultracast.player.UC360Player;
+
+/**
+ * Playback position source driven by display frames.
+ * <p>
+ * The player is sampled only every {@link #SAMPLE_INTERVAL_MS}, between samples the position
+ * is extrapolated from the last sample while the player is playing. Frame callbacks are posted
+ * only while playback is actually advancing, so paused, buffering or ended playback costs nothing.
+ * The listener is called only when the position or duration differs from the last delivered value.
+ */
+public class PlaybackClock implements Choreographer.FrameCallback {
+
+    public interface Listener {
+        void onTimeChanged(int currentTime, int duration);
+    }
+
+    private static final int SAMPLE_INTERVAL_MS = 500;
+
+    private final UC360Player mPlayer;
+    private final Listener mListener;
+    private final MainThreadClock mClock;
+
+    private long mSamplePosition;
+    private long mSampleDuration;
+    private long mSampleUptime;
+
+    private int mLastTime = -1;
+    private int mLastDuration = -1;
+
+    private boolean mStarted;
+    private boolean mPlayWhenReady;
+    private int mPlaybackState = UC360Player.STATE_IDLE;
+    private boolean mFramePosted;
+
+    public PlaybackClock(UC360Player player, Listener listener) {
+        this(player, listener, new MainThreadClock.Android());
+    }
+
+    PlaybackClock(UC360Player player, Listener listener, MainThreadClock clock) {
+        mPlayer = player;
+        mListener = listener;
+        mClock = clock;
+    }
+
+    public void start() {
+        mStarted = true;
+        mPlaybackState = mPlayer.getPlaybackState();
+        sync();
+    }
+
+    public void stop() {
+        mStarted = false;
+        removeFrame();
+    }
+
+    /**
+     * Must be called from {@link UC360Player.EventListener#onPlayerStateChanged(boolean, int)}.
+     */
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        mPlayWhenReady = playWhenReady;
+        mPlaybackState = playbackState;
+        sync();
+    }
+
+    public void setPlayWhenReady(boolean playWhenReady) {
+        mPlayWhenReady = playWhenReady;
+        sync();
+    }
+
+    /**
+     * Takes a fresh sample from the player, e.g. after a seek, and delivers it immediately.
+     */
+    public void sync() {
+        if (!mStarted) {
+            return;
+        }
+        sample(mClock.uptimeMillis());
+        deliver(mSamplePosition);
+        if (isAdvancing()) {
+            postFrame();
+        } else {
+            removeFrame();
+        }
+    }
+
+    public long getCurrentTime() {
+        return isAdvancing() ? extrapolate(mClock.uptimeMillis()) : mSamplePosition;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFramePosted = false;
+        if (!mStarted || !isAdvancing()) {
+            return;
+        }
+        long now = frameTimeNanos / 1000000;
+        if (now - mSampleUptime >= SAMPLE_INTERVAL_MS) {
+            sample(now);
+        }
+        deliver(extrapolate(now));
+        postFrame();
+    }
+
+    private boolean isAdvancing() {
+        return mPlayWhenReady && mPlaybackState == UC360Player.STATE_READY;
+    }
+
+    private void sample(long uptime) {
+        mSamplePosition = mPlayer.getCurrentTime();
+        mSampleDuration = mPlayer.getDuration();
+        mSampleUptime = uptime;
+    }
+
+    private long extrapolate(long uptime) {
+        long position = mSamplePosition + Math.max(0, uptime - mSampleUptime);
+        if (mSampleDuration > 0 && position > mSampleDuration) {
+            position = mSampleDuration;
+        }
+        return position;
+    }
+
+    private void deliver(long position) {
+        int time = (int) position;
+        int duration = (int) mSampleDuration;
+        if (time == mLastTime && duration == mLastDuration) {
+            return;
+        }
+        mLastTime = time;
+        mLastDuration = duration;
+        mListener.onTimeChanged(time, duration);
+    }
+
+    private void postFrame() {
+        if (!mFramePosted) {
+            mFramePosted = true;
+            mClock.postFrameCallback(this);
+        }
+    }
+
+    private void removeFrame() {
+        if (mFramePosted) {
+            mFramePosted = false;
+            mClock.removeFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.ultracast.demo.playback;
+
+import android.util.Log;
+
+import com.ultracast.demo.widget.TimeLineView;
+import com.ultracast.player.UC360Player;
+
+/**
+ * Keeps the playback clock, seeks and live edge in step with the player's events and shows them
+ * on a {@link TimeLineView}, whose drags it turns into seeks. Main thread only.
+ */
+public class PlaybackControls implements TimeLineView.Listener {
+
+    public interface PreviewListener {
+        /**
+         * @return true if a preview of the time is shown, which replaces the exploratory seek,
+         * the player then only seeks once the drag stops
+         */
+        boolean onScrubPreview(int msec);
+
+        void onScrubStopped(int msec);
+    }
+
+    private static final String TAG = "PlaybackControls";
+    private static final long BUFFERED_POSITION_INTERVAL_MS = 250;
+
+    private final UC360Player mPlayer;
+    private final PlaybackClock mPlaybackClock;
+    private final SeekScheduler mSeekScheduler;
+    private final LiveEdgeController mLiveEdgeController;
+    private final TimeLineView mTimeline;
+    private final MainThreadClock mClock;
+    private PreviewListener mPreviewListener;
+    private String mUrl;
+    private long mLastBufferedPositionTime;
+
+    public PlaybackControls(UC360Player player, PlaybackClock playbackClock, SeekScheduler seekScheduler,
+                            LiveEdgeController liveEdgeController, TimeLineView timeline) {
+        this(player, playbackClock, seekScheduler, liveEdgeController, timeline, new MainThreadClock.Android());
+    }
+
+    PlaybackControls(UC360Player player, PlaybackClock playbackClock, SeekScheduler seekScheduler,
+                     LiveEdgeController liveEdgeController, TimeLineView timeline, MainThreadClock clock) {
+        mPlayer = player;
+        mPlaybackClock = playbackClock;
+        mSeekScheduler = seekScheduler;
+        mLiveEdgeController = liveEdgeController;
+        mTimeline = timeline;
+        mClock = clock;
+        timeline.setListener(this);
+    }
+
+    public void setPreviewListener(PreviewListener listener) {
+        mPreviewListener = listener;
+    }
+
+    /**
+     * Subscribes to the hub. To be the first subscriber, so the ones after it see the clock, seeks
+     * and live edge updated.
+     */
+    public void subscribe(PlayerEventHub hub) {
+        hub.subscribe(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                mPlaybackClock.onPlayerStateChanged(playWhenReady, playbackState);
+                mSeekScheduler.onPlayerStateChanged(playbackState);
+                mLiveEdgeController.onPlayerStateChanged(playWhenReady, playbackState);
+                // the clock does not tick while paused or buffering
+                mTimeline.setBufferedPosition((int) mPlayer.getBufferedPosition());
+            }
+
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                if (mLiveEdgeController.isLive(mUrl)) {
+                    // a catch-up seek shows in the next sample of the clock
+                    mLiveEdgeController.update(currentTime, duration);
+                    mTimeline.setLiveEdge((int) mLiveEdgeController.getLatencyMs(),
+                            mLiveEdgeController.isAtLiveEdge());
+                }
+                mTimeline.setTime(currentTime, duration);
+                long now = mClock.uptimeMillis();
+                if (now - mLastBufferedPositionTime >= BUFFERED_POSITION_INTERVAL_MS) {
+                    mLastBufferedPositionTime = now;
+                    mTimeline.setBufferedPosition((int) mPlayer.getBufferedPosition());
+                }
+            }
+        });
+    }
+
+    /**
+     * For a new source: clears the buffered ranges of the last one. The live edge is shown once
+     * the live edge controller found the url live.
+     */
+    public void open(String url) {
+        mUrl = url;
+        mTimeline.clearBuffered();
+    }
+
+    /* TimeLineView.Listener */
+
+    @Override
+    public void onScrolling(int msec) {
+        if (mPreviewListener != null && mPreviewListener.onScrubPreview(msec)) {
+            return;
+        }
+        mSeekScheduler.seekTo(msec);
+        mPlaybackClock.sync();
+    }
+
+    @Override
+    public void onScrollingStop(int msec) {
+        if (mPreviewListener != null) {
+            mPreviewListener.onScrubStopped(msec);
+        }
+        mSeekScheduler.seekExact(msec);
+        mPlaybackClock.sync();
+        Log.d(TAG, "seeks issued " + mSeekScheduler.getIssuedCount()
+                + ", coalesced " + mSeekScheduler.getCoalescedCount());
+    }
+
+    @Override
+    public void onJumpToLive() {
+        if (mLiveEdgeController.jumpToLive()) {
+            mPlaybackClock.sync();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.ultracast.demo.playback;
+
+import android.os.SystemClock;
+
+import com.ultracast.player.UC360Player;
+
+import java.util.Arrays;
+
+/**
+ * The single {@link UC360Player.EventListener} of a player, fanning its events and the ticks of
+ * the {@link PlaybackClock} out to any number of subscribers, one per feature.
+ * <p>
+ * The hub stays registered for the lifetime of the player, so events arriving while the activity
+ * is paused are not lost. Subscribers are kept in an array which is copied on change, dispatch
+ * walks it without locks or allocations. The last playback state is sticky: a new subscriber
+ * gets it right away. Consumers on other threads attach a {@link PlayerEventQueue} instead, which
+ * gets the player events but not the ticks. Must be used from the main thread, which is where the
+ * player reports its events.
+ */
+public class PlayerEventHub implements UC360Player.EventListener, PlaybackClock.Listener {
+
+    public interface Subscriber extends UC360Player.EventListener, PlaybackClock.Listener {
+    }
+
+    /**
+     * Empty subscriber for features interested in some events only.
+     */
+    public static class Adapter implements Subscriber {
+
+        @Override
+        public void onTimeChanged(int currentTime, int duration) {
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        }
+
+        @Override
+        public void onPlayerError(int errorType) {
+        }
+
+        @Override
+        public void onMotionControlNotSupported() {
+        }
+
+        @Override
+        public void onPlayerClick() {
+        }
+    }
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+    private static final PlayerEventQueue[] NO_QUEUES = new PlayerEventQueue[0];
+
+    private Subscriber[] mSubscribers = NO_SUBSCRIBERS;
+    private PlayerEventQueue[] mQueues = NO_QUEUES;
+    private boolean mHasState;
+    private boolean mPlayWhenReady;
+    private int mPlaybackState = UC360Player.STATE_IDLE;
+
+    /**
+     * Adds a subscriber, which immediately gets the last playback state if there was one.
+     * Subscribers are called in the order they subscribed.
+     */
+    public void subscribe(Subscriber subscriber) {
+        if (indexOf(mSubscribers, subscriber) >= 0) {
+            return;
+        }
+        Subscriber[] subscribers = Arrays.copyOf(mSubscribers, mSubscribers.length + 1);
+        subscribers[mSubscribers.length] = subscriber;
+        mSubscribers = subscribers;
+        if (mHasState) {
+            subscriber.onPlayerStateChanged(mPlayWhenReady, mPlaybackState);
+        }
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        mSubscribers = remove(mSubscribers, subscriber, NO_SUBSCRIBERS);
+    }
+
+    /**
+     * Attaches a queue for a consumer thread. The last playback state is offered to it first.
+     */
+    public void addQueue(PlayerEventQueue queue) {
+        if (indexOf(mQueues, queue) >= 0) {
+            return;
+        }
+        PlayerEventQueue[] queues = Arrays.copyOf(mQueues, mQueues.length + 1);
+        queues[mQueues.length] = queue;
+        mQueues = queues;
+        if (mHasState) {
+            queue.offer(PlayerEventQueue.TYPE_STATE_CHANGED, SystemClock.uptimeMillis(),
+                    mPlayWhenReady, mPlaybackState, 0);
+        }
+    }
+
+    public void removeQueue(PlayerEventQueue queue) {
+        mQueues = remove(mQueues, queue, NO_QUEUES);
+    }
+
+    public boolean hasState() {
+        return mHasState;
+    }
+
+    public boolean getPlayWhenReady() {
+        return mPlayWhenReady;
+    }
+
+    public int getPlaybackState() {
+        return mPlaybackState;
+    }
+
+    @Override
+    public void onTimeChanged(int currentTime, int duration) {
+        Subscriber[] subscribers = mSubscribers;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onTimeChanged(currentTime, duration);
+        }
+    }
+
+    @Override
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        mHasState = true;
+        mPlayWhenReady = playWhenReady;
+        mPlaybackState = playbackState;
+        // a subscriber may unsubscribe while being called, iterate the array as it was
+        Subscriber[] subscribers = mSubscribers;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onPlayerStateChanged(playWhenReady, playbackState);
+        }
+        offer(PlayerEventQueue.TYPE_STATE_CHANGED, playWhenReady, playbackState, 0);
+    }
+
+    @Override
+    public void onPlayerError(int errorType) {
+        Subscriber[] subscribers = mSubscribers;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onPlayerError(errorType);
+        }
+        offer(PlayerEventQueue.TYPE_ERROR, mPlayWhenReady, mPlaybackState, errorType);
+    }
+
+    @Override
+    public void onMotionControlNotSupported() {
+        Subscriber[] subscribers = mSubscribers;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onMotionControlNotSupported();
+        }
+        offer(PlayerEventQueue.TYPE_MOTION_CONTROL_NOT_SUPPORTED, mPlayWhenReady, mPlaybackState, 0);
+    }
+
+    @Override
+    public void onPlayerClick() {
+        Subscriber[] subscribers = mSubscribers;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onPlayerClick();
+        }
+        offer(PlayerEventQueue.TYPE_CLICK, mPlayWhenReady, mPlaybackState, 0);
+    }
+
+    private void offer(int type, boolean playWhenReady, int playbackState, int errorType) {
+        PlayerEventQueue[] queues = mQueues;
+        if (queues.length == 0) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        for (PlayerEventQueue queue : queues) {
+            queue.offer(type, now, playWhenReady, playbackState, errorType);
+        }
+    }
+
+    private static <T> int indexOf(T[] array, T item) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static <T> T[] remove(T[] array, T item, T[] empty) {
+        int index = indexOf(array, item);
+        if (index < 0) {
+            return array;
+        }
+        if (array.length == 1) {
+            return empty;
+        }
+        T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+package com.ultracast.demo.playback;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer, single consumer queue of player events for consumers off the main
+ * thread, fed by {@link PlayerEventHub}.
+ * <p>
+ * The queue is a ring of preallocated {@link Event} records, the producer fills the next free
+ * record in place and the consumer copies it out in {@link #poll(Event)}, so neither side
+ * allocates. When the consumer falls behind and the ring is full, new events are dropped and
+ * counted. The producer may add events of its own, typed from {@link #TYPE_FIRST_CUSTOM}, which
+ * the consumer sees in order with the player events.
+ * <p>
+ * A {@link Listener} is told when events are waiting, once until the consumer found the queue
+ * empty, so it can wake the consumer without polling.
+ */
+public class PlayerEventQueue {
+
+    public static final int TYPE_STATE_CHANGED = 0;
+    public static final int TYPE_ERROR = 1;
+    public static final int TYPE_MOTION_CONTROL_NOT_SUPPORTED = 2;
+    public static final int TYPE_CLICK = 3;
+    public static final int TYPE_FIRST_CUSTOM = 64;
+
+    public interface Listener {
+        /**
+         * Called on the producer thread, the consumer is to poll until the queue is empty.
+         */
+        void onEventsAvailable(PlayerEventQueue queue);
+    }
+
+    public static final class Event {
+        public int type;
+        public long uptime;
+        public boolean playWhenReady;
+        public int playbackState;
+        public int errorType;
+        // custom events
+        public long value;
+        public int arg1;
+        public int arg2;
+        public Object object;
+
+        void copyFrom(Event event) {
+            type = event.type;
+            uptime = event.uptime;
+            playWhenReady = event.playWhenReady;
+            playbackState = event.playbackState;
+            errorType = event.errorType;
+            value = event.value;
+            arg1 = event.arg1;
+            arg2 = event.arg2;
+            object = event.object;
+        }
+    }
+
+    private final Event[] mSlots;
+    private final int mMask;
+    // next slot to read, only advanced by the consumer
+    private final AtomicLong mHead = new AtomicLong();
+    // next slot to write, only advanced by the producer
+    private final AtomicLong mTail = new AtomicLong();
+    // the listener was told and the consumer has not found the queue empty since
+    private final AtomicBoolean mNotified = new AtomicBoolean();
+    private volatile Listener mListener;
+    private volatile long mDropped;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public PlayerEventQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mSlots = new Event[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new Event();
+        }
+        mMask = size - 1;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Producer side, for player events.
+     *
+     * @return false if the queue is full and the event was dropped
+     */
+    public boolean offer(int type, long uptime, boolean playWhenReady, int playbackState, int errorType) {
+        Event event = next();
+        if (event == null) {
+            return false;
+        }
+        event.type = type;
+        event.uptime = uptime;
+        event.playWhenReady = playWhenReady;
+        event.playbackState = playbackState;
+        event.errorType = errorType;
+        event.value = 0;
+        event.arg1 = 0;
+        event.arg2 = 0;
+        event.object = null;
+        publish();
+        return true;
+    }
+
+    /**
+     * Producer side, for events of its own.
+     *
+     * @param type {@link #TYPE_FIRST_CUSTOM} or above
+     * @return false if the queue is full and the event was dropped
+     */
+    public boolean offer(int type, long uptime, long value, int arg1, int arg2, Object object) {
+        Event event = next();
+        if (event == null) {
+            return false;
+        }
+        event.type = type;
+        event.uptime = uptime;
+        event.playWhenReady = false;
+        event.playbackState = 0;
+        event.errorType = 0;
+        event.value = value;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.object = object;
+        publish();
+        return true;
+    }
+
+    /**
+     * Consumer side, copies the oldest event into {@code out}.
+     *
+     * @return false if the queue is empty
+     */
+    public boolean poll(Event out) {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            // offers from now on notify again, one that came before is seen below
+            mNotified.set(false);
+            if (head == mTail.get()) {
+                return false;
+            }
+        }
+        Event event = mSlots[(int) head & mMask];
+        out.copyFrom(event);
+        event.object = null;
+        // hands the record back to the producer
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    public long getDropped() {
+        return mDropped;
+    }
+
+    private Event next() {
+        long tail = mTail.get();
+        if (tail - mHead.get() == mSlots.length) {
+            mDropped++;
+            return null;
+        }
+        return mSlots[(int) tail & mMask];
+    }
+
+    private void publish() {
+        // publishes the record to the consumer, a full store so the check below can not see an
+        // older mNotified than the consumer that cleared it saw of the tail
+        mTail.set(mTail.get() + 1);
+        Listener listener = mListener;
+        if (listener != null && !mNotified.get() && mNotified.compareAndSet(false, true)) {
+            listener.onEventsAvailable(this);
+        }
+    }
+}
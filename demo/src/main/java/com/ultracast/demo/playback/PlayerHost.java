@@ -0,0 +1,137 @@
+package com.ultracast.demo.playback;
+
+import android.app.Activity;
+import android.net.Uri;
+
+import com.ultracast.demo.memory.MemoryBudget;
+import com.ultracast.demo.metrics.StartupTrace;
+import com.ultracast.player.Format;
+import com.ultracast.player.UC360Player;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Owns a {@link UC360Player} and keeps it warm between videos.
+ * <p>
+ * A player is bound to the activity it was created for, so it can not move to another
+ * activity instance. Instead the hosting activity is parked in the back stack while the
+ * catalog is shown and is brought back to switch sources with {@code openUrl}, which keeps the
+ * GL surface, the decoder and the sensor registration alive. A parked host is evicted on back
+ * navigation out of the catalog and on memory pressure: as a {@link MemoryBudget} consumer its
+ * only way to shed memory is to release the player, which it does once parked. The player has no
+ * buffer limits to lower, so that is all a player in the background can give back.
+ * <p>
+ * Player events are delivered through a {@link PlayerEventHub} registered for the lifetime of
+ * the player.
+ */
+public class PlayerHost implements MemoryBudget.Consumer {
+
+    // decoder output and GL textures, roughly, at 12 bits per pixel
+    private static final int FRAME_BUFFERS = 12;
+
+    private static WeakReference<Activity> sParked;
+
+    private final Activity mActivity;
+    private final UC360Player mPlayer;
+    private final PlayerEventHub mEventHub = new PlayerEventHub();
+    private int mOpenCount;
+
+    public PlayerHost(Activity activity, int glViewId, int mode) {
+        mActivity = activity;
+        StartupTrace.begin("UC360Player.init");
+        mPlayer = UC360Player.Factory.create(activity);
+        mPlayer.init(glViewId, mode);
+        StartupTrace.end("UC360Player.init");
+        mPlayer.addOnPlayerEventListener(mEventHub);
+    }
+
+    public UC360Player getPlayer() {
+        return mPlayer;
+    }
+
+    public PlayerEventHub getEventHub() {
+        return mEventHub;
+    }
+
+    /**
+     * Stops event delivery, must be called before the player is destroyed.
+     */
+    public void release() {
+        mPlayer.removeOnPlayerEventListener(mEventHub);
+    }
+
+    /**
+     * Opens a source on the existing player.
+     *
+     * @return true if the player was already warmed up by a previous source
+     */
+    public boolean open(Uri uri, boolean startPlayWhenReady, boolean isLive) {
+        boolean warm = mOpenCount > 0;
+        mOpenCount++;
+        StartupTrace.begin("UC360Player.openUrl");
+        mPlayer.openUrl(uri, startPlayWhenReady, isLive);
+        StartupTrace.end("UC360Player.openUrl");
+        return warm;
+    }
+
+    public int getOpenCount() {
+        return mOpenCount;
+    }
+
+    /**
+     * @return a rough estimate of the decoder and GL buffers for the current format, 0 once
+     * evicted
+     */
+    @Override
+    public long getMemoryBytes() {
+        // a finishing activity may have released its player already
+        if (mActivity.isFinishing()) {
+            return 0;
+        }
+        Format format = mPlayer.getVideoFormat();
+        if (format == null) {
+            return 0;
+        }
+        return (long) format.getWidth() * format.getHeight() * 3 / 2 * FRAME_BUFFERS;
+    }
+
+    /**
+     * Releases the player if it is parked and holds more than the given bytes, a player in use
+     * is kept.
+     */
+    @Override
+    public void trimMemory(long maxBytes) {
+        // with no format known yet, only a trim to nothing releases it
+        if (isParked(mActivity) && (maxBytes == 0 || getMemoryBytes() > maxBytes)) {
+            evictParked();
+        }
+    }
+
+    /**
+     * Marks the activity as parked, i.e. stopped but kept for the next video.
+     */
+    public static void park(Activity activity) {
+        sParked = new WeakReference<>(activity);
+    }
+
+    public static void unpark(Activity activity) {
+        if (sParked != null && sParked.get() == activity) {
+            sParked = null;
+        }
+    }
+
+    public static boolean isParked(Activity activity) {
+        return sParked != null && sParked.get() == activity;
+    }
+
+    /**
+     * Finishes the parked activity, releasing its player.
+     */
+    public static void evictParked() {
+        Activity activity = sParked != null ? sParked.get() : null;
+        sParked = null;
+        if (activity != null && !activity.isFinishing()) {
+            activity.finish();
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.ultracast.demo.playback;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers where each video was left: position, quality, view direction and VR and motion
+ * control modes, so playback resumes there after a restart or process death.
+ * <p>
+ * {@link #put(Entry)} only updates memory and is safe to call from {@code onPause}. Changed
+ * entries are written behind on the housekeeping lane, all changes since the last write in one
+ * append, to a log of records {@code length, payload, CRC32} which is synced to disk. A crash
+ * mid-write leaves a torn last record, which fails its checksum and is cut off on load, so the
+ * log always replays to the last complete batch. Once the log holds much more records than
+ * entries it is compacted into a new file that replaces it atomically. The store starts loading
+ * in the background when first used, {@link #get(String)} waits for that load, or loads itself
+ * if the load has not started yet. Thread safe.
+ */
+public class ResumeStore {
+
+    public static class Entry {
+
+        private final String url;
+        private final long position;
+        private final long duration;
+        private final int quality;
+        private final int bitrate;
+        private final float yaw;
+        private final float pitch;
+        private final boolean vrEnabled;
+        private final boolean motionEnabled;
+        private final long savedAt;
+
+        /**
+         * @param position      playback position in ms
+         * @param duration      duration in ms, 0 if unknown
+         * @param quality       {@link com.ultracast.demo.abr.AbrController} quality
+         * @param bitrate       bitrate of the variant playing, 0 if unknown
+         * @param yaw           view direction in degrees from the center of the frame
+         * @param pitch         view direction in degrees from the horizon
+         * @param savedAt       wall clock time the entry was taken, entries are dropped oldest first
+         */
+        public Entry(String url, long position, long duration, int quality, int bitrate, float yaw, float pitch,
+                     boolean vrEnabled, boolean motionEnabled, long savedAt) {
+            this.url = url;
+            this.position = position;
+            this.duration = duration;
+            this.quality = quality;
+            this.bitrate = bitrate;
+            this.yaw = yaw;
+            this.pitch = pitch;
+            this.vrEnabled = vrEnabled;
+            this.motionEnabled = motionEnabled;
+            this.savedAt = savedAt;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        public int getBitrate() {
+            return bitrate;
+        }
+
+        public float getYaw() {
+            return yaw;
+        }
+
+        public float getPitch() {
+            return pitch;
+        }
+
+        public boolean isVrEnabled() {
+            return vrEnabled;
+        }
+
+        public boolean isMotionEnabled() {
+            return motionEnabled;
+        }
+
+        public long getSavedAt() {
+            return savedAt;
+        }
+    }
+
+    private static final String TAG = "ResumeStore";
+    private static final String FILE_NAME = "resume.log";
+    static final int MAX_ENTRIES = 256;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+    // a tombstone, the entry was removed
+    private static final int FLAG_REMOVED = 1;
+    private static final int FLAG_VR = 2;
+    private static final int FLAG_MOTION = 4;
+
+    private static ResumeStore sInstance;
+
+    private final File mFile;
+    private final Object mLoadLock = new Object();
+    // written with mLoadLock held
+    private volatile boolean mIsLoaded;
+    // in save order, the eldest entry is the least recently saved, guarded by this
+    private LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    // written by the next flush, a null value removes the url
+    private Map<String, Entry> mDirty = new LinkedHashMap<>();
+    private boolean mFlushScheduled;
+    private final Object mFlushLock = new Object();
+    // guarded by mFlushLock
+    private int mLogRecords;
+
+    public static synchronized ResumeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResumeStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            sInstance.loadAsync();
+        }
+        return sInstance;
+    }
+
+    ResumeStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return the entry for a url, null if there is none. Waits for the store to load, which is
+     * started early enough to be done by the time a video is opened.
+     */
+    public Entry get(String url) {
+        ensureLoaded();
+        synchronized (this) {
+            return mEntries.get(url);
+        }
+    }
+
+    public void put(Entry entry) {
+        synchronized (this) {
+            // re-inserted to become the newest
+            mEntries.remove(entry.getUrl());
+            mEntries.put(entry.getUrl(), entry);
+            mDirty.put(entry.getUrl(), entry);
+            trimToSize();
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Forgets a url, e.g. once it was watched to the end.
+     */
+    public void remove(String url) {
+        synchronized (this) {
+            // before the load the url may still be in the log
+            if (mEntries.remove(url) == null && !mDirty.containsKey(url) && mIsLoaded) {
+                return;
+            }
+            mDirty.put(url, null);
+        }
+        scheduleFlush();
+    }
+
+    private void loadAsync() {
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_USER_VISIBLE, this, new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+            }
+        });
+    }
+
+    // also called from the flush, the lane may drop the load task
+    private void ensureLoaded() {
+        synchronized (mLoadLock) {
+            if (!mIsLoaded) {
+                load();
+                mIsLoaded = true;
+            }
+        }
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        Map<String, Entry> loaded = new LinkedHashMap<>();
+        long validLength = 0;
+        int records = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (true) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    break;
+                }
+                readEntry(payload, loaded);
+                validLength += 4 + payload.length + 8;
+                records++;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading " + mFile, e);
+        } finally {
+            HttpFetcher.closeQuietly(in);
+        }
+        if (validLength < mFile.length()) {
+            Log.w(TAG, "Dropping torn tail of " + mFile + " at " + validLength);
+            truncate(validLength);
+        }
+        boolean trimmed;
+        synchronized (this) {
+            // entries put or removed while loading are newer and stay the newest
+            LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+            for (Entry entry : loaded.values()) {
+                if (!mEntries.containsKey(entry.getUrl()) && !mDirty.containsKey(entry.getUrl())) {
+                    entries.put(entry.getUrl(), entry);
+                }
+            }
+            entries.putAll(mEntries);
+            mEntries = entries;
+            trimmed = trimToSize();
+        }
+        synchronized (mFlushLock) {
+            mLogRecords = records;
+        }
+        if (trimmed) {
+            scheduleFlush();
+        }
+        Log.i(TAG, "Loaded " + loaded.size() + " entries from " + records + " records");
+    }
+
+    /**
+     * Drops the least recently saved entries beyond {@link #MAX_ENTRIES}. Must hold this.
+     *
+     * @return whether entries were dropped
+     */
+    private boolean trimToSize() {
+        boolean trimmed = false;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > MAX_ENTRIES) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            mDirty.put(eldest.getUrl(), null);
+            trimmed = true;
+        }
+        return trimmed;
+    }
+
+    /**
+     * @return the payload of the next record, null at the end of the log or at a torn record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            long checksum = in.readLong();
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            return crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void readEntry(byte[] payload, Map<String, Entry> entries) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int flags = in.readByte();
+        String url = in.readUTF();
+        if ((flags & FLAG_REMOVED) != 0) {
+            entries.remove(url);
+            return;
+        }
+        Entry entry = new Entry(url, in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readFloat(),
+                in.readFloat(), (flags & FLAG_VR) != 0, (flags & FLAG_MOTION) != 0, in.readLong());
+        // re-inserted so the map ends up in save order
+        entries.remove(url);
+        entries.put(url, entry);
+    }
+
+    private void scheduleFlush() {
+        synchronized (this) {
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_HOUSEKEEPING, this, new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Writes the changes since the last flush. Runs on the housekeeping lane, tests call it to
+     * write synchronously.
+     */
+    void flush() {
+        // appending before the load finished would be cut off as a torn tail
+        ensureLoaded();
+        synchronized (mFlushLock) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        Map<String, Entry> dirty;
+        int liveEntries;
+        synchronized (this) {
+            dirty = mDirty;
+            mDirty = new LinkedHashMap<>();
+            mFlushScheduled = false;
+            liveEntries = mEntries.size();
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        try {
+            if (mLogRecords + dirty.size() > 4 * liveEntries + 64) {
+                compact();
+            } else {
+                List<byte[]> records = new ArrayList<>(dirty.size());
+                for (Map.Entry<String, Entry> change : dirty.entrySet()) {
+                    records.add(toRecord(change.getKey(), change.getValue()));
+                }
+                write(mFile, records, true);
+                mLogRecords += records.size();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing " + mFile, e);
+            // keep the changes for the next flush unless newer ones replaced them
+            synchronized (this) {
+                for (Map.Entry<String, Entry> change : dirty.entrySet()) {
+                    if (!mDirty.containsKey(change.getKey())) {
+                        mDirty.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        List<byte[]> records;
+        synchronized (this) {
+            records = new ArrayList<>(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                records.add(toRecord(entry.getUrl(), entry));
+            }
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        write(temp, records, false);
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Can not replace " + mFile);
+        }
+        mLogRecords = records.size();
+    }
+
+    private static void write(File file, List<byte[]> records, boolean append) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(records.size() * 128);
+        DataOutputStream data = new DataOutputStream(buffer);
+        CRC32 crc = new CRC32();
+        for (byte[] payload : records) {
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            data.writeInt(payload.length);
+            data.write(payload);
+            data.writeLong(crc.getValue());
+        }
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            buffer.writeTo(out);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            HttpFetcher.closeQuietly(out);
+        }
+    }
+
+    private static byte[] toRecord(String url, Entry entry) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(buffer);
+        if (entry == null) {
+            out.writeByte(FLAG_REMOVED);
+            out.writeUTF(url);
+            return buffer.toByteArray();
+        }
+        out.writeByte((entry.isVrEnabled() ? FLAG_VR : 0) | (entry.isMotionEnabled() ? FLAG_MOTION : 0));
+        out.writeUTF(url);
+        out.writeLong(entry.getPosition());
+        out.writeLong(entry.getDuration());
+        out.writeInt(entry.getQuality());
+        out.writeInt(entry.getBitrate());
+        out.writeFloat(entry.getYaw());
+        out.writeFloat(entry.getPitch());
+        out.writeLong(entry.getSavedAt());
+        return buffer.toByteArray();
+    }
+
+    private void truncate(long length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            file.setLength(length);
+        } catch (IOException e) {
+            Log.w(TAG, "Can not truncate " + mFile, e);
+        } finally {
+            HttpFetcher.closeQuietly(file);
+        }
+    }
+}
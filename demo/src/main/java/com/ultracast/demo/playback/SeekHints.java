@@ -0,0 +1,180 @@
+package com.ultracast.demo.playback;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.ultracast.demo.cache.SegmentCache;
+import com.ultracast.demo.hls.HlsMediaPlaylist;
+import com.ultracast.demo.hls.HlsSegment;
+import com.ultracast.demo.hls.HlsVariant;
+import com.ultracast.demo.hls.ManifestCache;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds where seeks in an HLS VOD source are cheap, for the timeline to snap drags to.
+ * <p>
+ * Segments start with a keyframe, so the segment start times of the first variant are the
+ * keyframe hints. Segments of any variant whose playlist is in memory and which are in the
+ * {@link SegmentCache} are merged into cached ranges, a downloaded source is cached whole. The
+ * playlists are looked up on the user visible lane when a url is loaded and on the prefetch lane
+ * when its hints are refreshed, the result is delivered on the main thread, only for the latest
+ * url loaded. Live and progressive sources have no hints.
+ */
+public class SeekHints {
+
+    public interface Listener {
+        /**
+         * @param keyframes    ascending times in ms
+         * @param cachedRanges start and end in ms of every range, ascending
+         */
+        void onSeekHints(String url, int[] keyframes, int[] cachedRanges);
+    }
+
+    private static final String TAG = "SeekHints";
+    // segments closer than this are one range, durations in playlists are rounded
+    private static final long MERGE_GAP_MS = 100;
+    private static final int[] NONE = new int[0];
+
+    private final ManifestPrefetcher mPrefetcher;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private String mUrl;
+
+    public SeekHints(ManifestPrefetcher prefetcher, Listener listener) {
+        mPrefetcher = prefetcher;
+        mListener = listener;
+    }
+
+    /**
+     * Loads the hints of the url, replacing those of any url loaded before.
+     *
+     * @param cache      the cache segments are played from, null if they are not
+     * @param downloaded true if the source is played from a download
+     */
+    public void load(String url, SegmentCache cache, boolean downloaded) {
+        load(url, cache, downloaded, WorkScheduler.LANE_USER_VISIBLE);
+    }
+
+    /**
+     * Loads the hints of the url again, e.g. as more segments get cached. Nobody waits for them,
+     * so they are looked up on the prefetch lane, unless the url is not the one loaded last.
+     */
+    public void refresh(String url, SegmentCache cache, boolean downloaded) {
+        load(url, cache, downloaded, mUrl != null && mUrl.equals(url) ? WorkScheduler.LANE_PREFETCH
+                : WorkScheduler.LANE_USER_VISIBLE);
+    }
+
+    private void load(final String url, final SegmentCache cache, final boolean downloaded, int lane) {
+        cancel();
+        mUrl = url;
+        if (!ManifestPrefetcher.isHls(url)) {
+            return;
+        }
+        WorkScheduler.getInstance().submit(lane, this, new Runnable() {
+            @Override
+            public void run() {
+                List<HlsMediaPlaylist> playlists;
+                try {
+                    playlists = loadPlaylists(url);
+                } catch (IOException e) {
+                    Log.w(TAG, "Error loading playlists of " + url, e);
+                    return;
+                }
+                if (playlists.isEmpty() || !playlists.get(0).hasEndList()) {
+                    return;
+                }
+                final int[] keyframes = keyframesOf(playlists.get(0));
+                final int[] cachedRanges = downloaded
+                        ? new int[]{0, (int) playlists.get(0).getDurationMs()}
+                        : cache != null ? cachedRangesOf(playlists, cache) : NONE;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (url.equals(mUrl)) {
+                            mListener.onSeekHints(url, keyframes, cachedRanges);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public void cancel() {
+        WorkScheduler.getInstance().cancelAll(this);
+        mUrl = null;
+    }
+
+    /**
+     * Returns the media playlists of the url, the first variant's first, fetching only that one.
+     */
+    private List<HlsMediaPlaylist> loadPlaylists(String url) throws IOException {
+        List<HlsMediaPlaylist> playlists = new ArrayList<>();
+        ManifestCache.Entry entry = mPrefetcher.getOrFetch(url);
+        if (entry.getMaster() == null) {
+            playlists.add(entry.getMedia());
+            return playlists;
+        }
+        List<HlsVariant> variants = entry.getMaster().getVariants();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < variants.size(); i++) {
+            String uri = variants.get(i).getUri();
+            // the other variants only if the player loaded them
+            ManifestCache.Entry media = i == 0 ? mPrefetcher.getOrFetch(uri)
+                    : mPrefetcher.getCache().getFromMemory(uri, now);
+            if (media != null && media.getMedia() != null) {
+                playlists.add(media.getMedia());
+            }
+        }
+        return playlists;
+    }
+
+    private static int[] keyframesOf(HlsMediaPlaylist playlist) {
+        List<HlsSegment> segments = playlist.getSegments();
+        int[] keyframes = new int[segments.size()];
+        for (int i = 0; i < keyframes.length; i++) {
+            keyframes[i] = (int) segments.get(i).getStartTimeMs();
+        }
+        return keyframes;
+    }
+
+    private static int[] cachedRangesOf(List<HlsMediaPlaylist> playlists, SegmentCache cache) {
+        // a segment counts if any variant has it, variants share the segment boundaries
+        List<HlsSegment> cached = new ArrayList<>();
+        for (HlsMediaPlaylist playlist : playlists) {
+            for (HlsSegment segment : playlist.getSegments()) {
+                if (cache.contains(segment.getUri())) {
+                    cached.add(segment);
+                }
+            }
+        }
+        Collections.sort(cached, new Comparator<HlsSegment>() {
+            @Override
+            public int compare(HlsSegment a, HlsSegment b) {
+                return a.getStartTimeMs() < b.getStartTimeMs() ? -1 : a.getStartTimeMs() == b.getStartTimeMs() ? 0 : 1;
+            }
+        });
+        int[] ranges = new int[cached.size() * 2];
+        int count = 0;
+        for (HlsSegment segment : cached) {
+            long start = segment.getStartTimeMs();
+            long end = start + segment.getDurationMs();
+            if (count > 0 && start <= ranges[count - 1] + MERGE_GAP_MS) {
+                ranges[count - 1] = (int) Math.max(ranges[count - 1], end);
+            } else {
+                ranges[count++] = (int) start;
+                ranges[count++] = (int) end;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(ranges, 0, result, 0, count);
+        return result;
+    }
+}
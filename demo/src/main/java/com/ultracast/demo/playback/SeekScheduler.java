@@ -0,0 +1,154 @@
+package com.ultracast.demo.playback;
+
+import com.ultracast.player.UC360Player;
+
+/**
+ * Rate limits seeks coming from the timeline while scrubbing.
+ * <p>
+ * At most one seek is in flight at a time. A seek is considered complete when the player reports
+ * {@link UC360Player#STATE_READY} after it, or after {@link #SEEK_TIMEOUT_MS} if the target was
+ * already buffered and the player never left the ready state. Targets requested while a seek is
+ * in flight replace each other, only the latest one is issued.
+ */
+public class SeekScheduler {
+
+    public interface Listener {
+        void onSeekStarted(long msec);
+
+        /**
+         * @param latencyMs time from issuing the seek to the player being ready again
+         */
+        void onSeekCompleted(long latencyMs);
+
+        /**
+         * Called instead of {@link #onSeekCompleted(long)} when a seek in flight is cancelled.
+         */
+        void onSeekCancelled();
+    }
+
+    private static final long NO_TARGET = -1;
+    private static final long SEEK_TIMEOUT_MS = 250;
+
+    private final UC360Player mPlayer;
+    private final MainThreadClock mClock;
+    private final Runnable mTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            onSeekCompleted();
+        }
+    };
+
+    private Listener mListener;
+    private boolean mInFlight;
+    private long mPendingTarget = NO_TARGET;
+    private long mSeekStartUptime;
+
+    private int mIssuedCount;
+    private int mCoalescedCount;
+
+    public SeekScheduler(UC360Player player) {
+        this(player, new MainThreadClock.Android());
+    }
+
+    SeekScheduler(UC360Player player, MainThreadClock clock) {
+        mPlayer = player;
+        mClock = clock;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Requests a seek while the user is still scrubbing.
+     */
+    public void seekTo(long msec) {
+        if (mInFlight) {
+            if (mPendingTarget != NO_TARGET) {
+                mCoalescedCount++;
+            }
+            mPendingTarget = msec;
+        } else {
+            issue(msec);
+        }
+    }
+
+    /**
+     * Requests the final seek at the end of scrubbing. It is issued immediately and drops any
+     * pending target.
+     */
+    public void seekExact(long msec) {
+        if (mPendingTarget != NO_TARGET) {
+            mCoalescedCount++;
+            mPendingTarget = NO_TARGET;
+        }
+        issue(msec);
+    }
+
+    /**
+     * Must be called from {@link UC360Player.EventListener#onPlayerStateChanged(boolean, int)}.
+     */
+    public void onPlayerStateChanged(int playbackState) {
+        if (!mInFlight) {
+            return;
+        }
+        if (playbackState == UC360Player.STATE_BUFFERING) {
+            // the seek went to the network, wait for the ready state instead of the timeout
+            mClock.removeCallbacks(mTimeoutTask);
+        } else {
+            onSeekCompleted();
+        }
+    }
+
+    public void cancel() {
+        mClock.removeCallbacks(mTimeoutTask);
+        mPendingTarget = NO_TARGET;
+        if (mInFlight) {
+            mInFlight = false;
+            if (mListener != null) {
+                mListener.onSeekCancelled();
+            }
+        }
+    }
+
+    public boolean isSeeking() {
+        return mInFlight;
+    }
+
+    public long getSeekStartUptime() {
+        return mSeekStartUptime;
+    }
+
+    public int getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    public int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    private void issue(long msec) {
+        mInFlight = true;
+        mIssuedCount++;
+        mSeekStartUptime = mClock.uptimeMillis();
+        mClock.removeCallbacks(mTimeoutTask);
+        mClock.postDelayed(mTimeoutTask, SEEK_TIMEOUT_MS);
+        if (mListener != null) {
+            mListener.onSeekStarted(msec);
+        }
+        mPlayer.seek(msec);
+    }
+
+    private void onSeekCompleted() {
+        mClock.removeCallbacks(mTimeoutTask);
+        mInFlight = false;
+        if (mListener != null) {
+            mListener.onSeekCompleted(mClock.uptimeMillis() - mSeekStartUptime);
+        }
+        if (mPendingTarget != NO_TARGET) {
+            long target = mPendingTarget;
+            mPendingTarget = NO_TARGET;
+            issue(target);
+        }
+    }
+}
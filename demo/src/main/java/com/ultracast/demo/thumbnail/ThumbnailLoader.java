@@ -0,0 +1,246 @@
+package com.ultracast.demo.thumbnail;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.ultracast.demo.memory.MemoryBudget;
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Loads sprite sheets of a {@link ThumbnailTrack} off the main thread.
+ * <p>
+ * Decoded sheets are kept in an LRU cache bounded by bytes. Evicted sheets go to a small pool
+ * and are reused as {@link BitmapFactory.Options#inBitmap} for the next decode, sprite sheets of
+ * one track normally have the same size, so steady-state scrubbing does not allocate bitmaps.
+ * The sheet last handed out may still be drawn and is never pooled. Neighbour sheets are
+ * prefetched separately from the lookups, so the cache stats count lookups only.
+ * All public methods must be called from the main thread.
+ */
+public class ThumbnailLoader implements MemoryBudget.Consumer {
+
+    public interface Callback {
+        void onSheetLoaded(int sheetIndex);
+    }
+
+    private static final String TAG = "ThumbnailLoader";
+    private static final int POOL_SIZE = 2;
+    private static final int PREFETCH_DISTANCE = 1;
+
+    private final ThumbnailTrack mTrack;
+    private final Callback mCallback;
+    private final LruCache<Integer, Bitmap> mCache;
+    private final List<Bitmap> mPool = new ArrayList<>(POOL_SIZE);
+    private final SparseArray<Future<?>> mPending = new SparseArray<>();
+    // the sheets in the cache, checked by loads without counting as lookups or reordering it
+    private final SparseBooleanArray mCached = new SparseBooleanArray();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final WorkScheduler mScheduler = WorkScheduler.getInstance();
+    private Bitmap mDisplayed;
+    private int mPrefetchedAround = -1;
+    private boolean mReleased;
+
+    public ThumbnailLoader(ThumbnailTrack track, int cacheBytes, Callback callback) {
+        mTrack = track;
+        mCallback = callback;
+        mCache = new LruCache<Integer, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, Bitmap oldValue, Bitmap newValue) {
+                if (newValue == null) {
+                    mCached.delete(key);
+                }
+                recycleToPool(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Returns the sheet containing the thumbnail for the given time and sets {@code outSrc} to
+     * the thumbnail bounds within it. Returns null if the sheet is not decoded yet, the
+     * {@link Callback} is notified once it is. The returned sheet is kept out of the bitmap pool
+     * until another one is returned.
+     */
+    public Bitmap getThumbnail(long timeMs, Rect outSrc) {
+        int sheetIndex = mTrack.getSheetIndex(timeMs);
+        Bitmap sheet = mCache.get(sheetIndex);
+        if (sheet == null) {
+            load(sheetIndex);
+            return null;
+        }
+        mDisplayed = sheet;
+        int tileWidth = sheet.getWidth() / mTrack.getColumns();
+        int tileHeight = sheet.getHeight() / mTrack.getRows();
+        int tile = mTrack.getTileIndex(timeMs);
+        int left = (tile % mTrack.getColumns()) * tileWidth;
+        int top = (tile / mTrack.getColumns()) * tileHeight;
+        outSrc.set(left, top, left + tileWidth, top + tileHeight);
+        return sheet;
+    }
+
+    /**
+     * Loads the sheets next to the one of the given time, once per sheet scrubbed into.
+     */
+    public void prefetch(long timeMs) {
+        int sheetIndex = mTrack.getSheetIndex(timeMs);
+        if (sheetIndex == mPrefetchedAround) {
+            return;
+        }
+        mPrefetchedAround = sheetIndex;
+        for (int i = 1; i <= PREFETCH_DISTANCE; i++) {
+            if (sheetIndex - i >= 0) {
+                load(sheetIndex - i);
+            }
+            load(sheetIndex + i);
+        }
+    }
+
+    /**
+     * Drops all decoded sheets, e.g. on memory pressure.
+     */
+    public void trim() {
+        mCache.evictAll();
+        synchronized (mPool) {
+            mPool.clear();
+        }
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return mCache.size() + getPoolBytes();
+    }
+
+    /**
+     * Evicts sheets, then drops pooled bitmaps while more than the given bytes are held.
+     */
+    @Override
+    public void trimMemory(long maxBytes) {
+        mCache.trimToSize((int) Math.min(maxBytes, Integer.MAX_VALUE));
+        synchronized (mPool) {
+            while (!mPool.isEmpty() && mCache.size() + getPoolBytes() > maxBytes) {
+                mPool.remove(mPool.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Cancels the sheets still being loaded, e.g. when the player goes to the background.
+     */
+    public void cancelPending() {
+        mScheduler.cancelAll(this);
+        mPending.clear();
+        mPrefetchedAround = -1;
+    }
+
+    public void release() {
+        mReleased = true;
+        cancelPending();
+        trim();
+    }
+
+    public String getStats() {
+        return "hits " + mCache.hitCount() + ", misses " + mCache.missCount()
+                + ", evictions " + mCache.evictionCount() + ", bytes " + mCache.size();
+    }
+
+    private void load(final int sheetIndex) {
+        Future<?> pending = mPending.get(sheetIndex);
+        // a cancelled load was dropped by the scheduler and never reports back
+        if ((pending != null && !pending.isCancelled()) || mCached.get(sheetIndex) || mReleased) {
+            return;
+        }
+        final String url = mTrack.getSheetUrl(sheetIndex);
+        mPending.put(sheetIndex, mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, this, new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap sheet = decode(url);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPending.remove(sheetIndex);
+                        if (sheet != null && !mReleased) {
+                            mCache.put(sheetIndex, sheet);
+                            mCached.put(sheetIndex, true);
+                            mCallback.onSheetLoaded(sheetIndex);
+                        }
+                    }
+                });
+            }
+        }));
+    }
+
+    private Bitmap decode(String url) {
+        byte[] data;
+        try {
+            data = HttpFetcher.fetch(url);
+        } catch (IOException e) {
+            Log.w(TAG, "Error loading thumbnails " + url, e);
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = takeFromPool(options.outWidth, options.outHeight);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap can not be reused for this image
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    private Bitmap takeFromPool(int width, int height) {
+        synchronized (mPool) {
+            for (int i = 0; i < mPool.size(); i++) {
+                Bitmap bitmap = mPool.get(i);
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    return mPool.remove(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private long getPoolBytes() {
+        long bytes = 0;
+        synchronized (mPool) {
+            for (int i = 0; i < mPool.size(); i++) {
+                bytes += mPool.get(i).getByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    private void recycleToPool(Bitmap bitmap) {
+        // the preview may still draw it, a decode into it would show up there
+        if (bitmap == mDisplayed) {
+            return;
+        }
+        synchronized (mPool) {
+            if (bitmap.isMutable() && mPool.size() < POOL_SIZE) {
+                mPool.add(bitmap);
+            }
+        }
+    }
+}
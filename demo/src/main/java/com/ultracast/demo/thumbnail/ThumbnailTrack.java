@@ -0,0 +1,81 @@
+package com.ultracast.demo.thumbnail;
+
+import android.content.Intent;
+
+/**
+ * Describes a trick-play track made of sprite sheets. Each sheet is a grid of
+ * {@code columns * rows} equirectangular thumbnails, one per {@code interval} milliseconds.
+ * The sheet url is {@code urlPattern} with its {@code %d} placeholder replaced by the sheet index,
+ * e.g. "sprite_%d.jpg". Other {@code %} characters, like escapes in the url, are kept as they are.
+ */
+public class ThumbnailTrack {
+
+    private static final String URL_EXTRA = "thumbnails_url";
+    private static final String COLUMNS_EXTRA = "thumbnails_columns";
+    private static final String ROWS_EXTRA = "thumbnails_rows";
+    private static final String INTERVAL_EXTRA = "thumbnails_interval";
+    private static final String PLACEHOLDER = "%d";
+
+    private final String urlPattern;
+    private final int columns;
+    private final int rows;
+    private final int interval;
+
+    public ThumbnailTrack(String urlPattern, int columns, int rows, int interval) {
+        this.urlPattern = urlPattern;
+        this.columns = columns;
+        this.rows = rows;
+        this.interval = interval;
+    }
+
+    public static ThumbnailTrack fromIntent(Intent intent) {
+        String url = intent.getStringExtra(URL_EXTRA);
+        int columns = intent.getIntExtra(COLUMNS_EXTRA, 0);
+        int rows = intent.getIntExtra(ROWS_EXTRA, 0);
+        int interval = intent.getIntExtra(INTERVAL_EXTRA, 0);
+        if (url == null || columns <= 0 || rows <= 0 || interval <= 0) {
+            return null;
+        }
+        return new ThumbnailTrack(url, columns, rows, interval);
+    }
+
+    public void putInto(Intent intent) {
+        intent.putExtra(URL_EXTRA, urlPattern);
+        intent.putExtra(COLUMNS_EXTRA, columns);
+        intent.putExtra(ROWS_EXTRA, rows);
+        intent.putExtra(INTERVAL_EXTRA, interval);
+    }
+
+    public String getUrlPattern() {
+        return urlPattern;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public int getSheetIndex(long timeMs) {
+        return (int) ((Math.max(timeMs, 0) / interval) / (columns * rows));
+    }
+
+    public int getTileIndex(long timeMs) {
+        return (int) ((Math.max(timeMs, 0) / interval) % (columns * rows));
+    }
+
+    public String getSheetUrl(int sheetIndex) {
+        int placeholder = urlPattern.indexOf(PLACEHOLDER);
+        if (placeholder < 0) {
+            return urlPattern;
+        }
+        return urlPattern.substring(0, placeholder) + sheetIndex
+                + urlPattern.substring(placeholder + PLACEHOLDER.length());
+    }
+}
@@ -0,0 +1,213 @@
+package com.ultracast.demo.tiles;
+
+import android.net.Uri;
+import android.util.JsonReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Describes a 360 video split into a grid of independently coded tiles.
+ * <p>
+ * The equirectangular frame is cut into {@code columns * rows} tiles, columns spanning 360
+ * degrees of yaw and rows 180 degrees of pitch, and into segments of {@code segment_duration}
+ * milliseconds. Every quality has a url template with {@code {column}}, {@code {row}} and
+ * {@code {segment}} placeholders. {@code monolithic} is the same video as a single stream, used
+ * by players which can not render tiles and as the reference for the bandwidth savings:
+ * <pre>
+ * {"columns": 8, "rows": 4, "segment_duration": 2000, "segments": 30,
+ *  "qualities": [{"bitrate": 2000000, "url": "lq/{row}_{column}_{segment}.mp4"}, ...],
+ *  "monolithic": {"bitrate": 16000000, "url": "full.mp4"}}
+ * </pre>
+ * Relative urls are resolved against the manifest url. Bitrates are for the whole frame.
+ */
+public class TileManifest {
+
+    private static final String SUFFIX = ".tiles.json";
+
+    public static class Quality {
+
+        private final int bitrate;
+        private final String urlTemplate;
+
+        public Quality(int bitrate, String urlTemplate) {
+            this.bitrate = bitrate;
+            this.urlTemplate = urlTemplate;
+        }
+
+        public int getBitrate() {
+            return bitrate;
+        }
+
+        public String getUrlTemplate() {
+            return urlTemplate;
+        }
+    }
+
+    private final int columns;
+    private final int rows;
+    private final int segmentDuration;
+    private final int segmentCount;
+    // lowest bitrate first
+    private final List<Quality> qualities;
+    private final String monolithicUrl;
+    private final int monolithicBitrate;
+
+    public TileManifest(int columns, int rows, int segmentDuration, int segmentCount, List<Quality> qualities,
+                        String monolithicUrl, int monolithicBitrate) {
+        this.columns = columns;
+        this.rows = rows;
+        this.segmentDuration = segmentDuration;
+        this.segmentCount = segmentCount;
+        this.qualities = qualities;
+        this.monolithicUrl = monolithicUrl;
+        this.monolithicBitrate = monolithicBitrate;
+    }
+
+    public static boolean isTileManifest(String url) {
+        String path = Uri.parse(url).getPath();
+        return path != null && path.endsWith(SUFFIX);
+    }
+
+    /**
+     * @param url  the url the manifest was loaded from, to resolve relative urls
+     * @param json the manifest
+     */
+    public static TileManifest parse(String url, String json) throws IOException {
+        int columns = 0;
+        int rows = 0;
+        int segmentDuration = 0;
+        int segmentCount = 0;
+        List<Quality> qualities = new ArrayList<>();
+        String monolithicUrl = null;
+        int monolithicBitrate = 0;
+
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("columns".equals(name)) {
+                    columns = reader.nextInt();
+                } else if ("rows".equals(name)) {
+                    rows = reader.nextInt();
+                } else if ("segment_duration".equals(name)) {
+                    segmentDuration = reader.nextInt();
+                } else if ("segments".equals(name)) {
+                    segmentCount = reader.nextInt();
+                } else if ("qualities".equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Quality quality = readQuality(reader, url);
+                        if (quality != null) {
+                            qualities.add(quality);
+                        }
+                    }
+                    reader.endArray();
+                } else if ("monolithic".equals(name)) {
+                    Quality monolithic = readQuality(reader, url);
+                    if (monolithic != null) {
+                        monolithicUrl = monolithic.getUrlTemplate();
+                        monolithicBitrate = monolithic.getBitrate();
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed tile manifest " + url, e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                //ignored
+            }
+        }
+        if (columns <= 0 || rows <= 0 || segmentDuration <= 0 || segmentCount <= 0
+                || qualities.isEmpty() || monolithicUrl == null) {
+            throw new IOException("Incomplete tile manifest " + url);
+        }
+        Collections.sort(qualities, new Comparator<Quality>() {
+            @Override
+            public int compare(Quality a, Quality b) {
+                return a.getBitrate() < b.getBitrate() ? -1 : (a.getBitrate() == b.getBitrate() ? 0 : 1);
+            }
+        });
+        return new TileManifest(columns, rows, segmentDuration, segmentCount, qualities,
+                monolithicUrl, monolithicBitrate);
+    }
+
+    private static Quality readQuality(JsonReader reader, String baseUrl) throws IOException {
+        int bitrate = 0;
+        String url = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("bitrate".equals(name)) {
+                bitrate = reader.nextInt();
+            } else if ("url".equals(name)) {
+                url = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        // the template braces are legal in a path, resolving leaves them alone
+        return new Quality(bitrate, new URL(new URL(baseUrl), url).toString());
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getTileCount() {
+        return columns * rows;
+    }
+
+    public int getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getSegmentIndex(long timeMs) {
+        return (int) Math.min(Math.max(timeMs, 0) / segmentDuration, segmentCount - 1);
+    }
+
+    public List<Quality> getQualities() {
+        return qualities;
+    }
+
+    public String getMonolithicUrl() {
+        return monolithicUrl;
+    }
+
+    public int getMonolithicBitrate() {
+        return monolithicBitrate;
+    }
+
+    /**
+     * @param tile tile index, {@code row * columns + column}
+     */
+    public String getTileUrl(int quality, int tile, int segment) {
+        return qualities.get(quality).getUrlTemplate()
+                .replace("{column}", String.valueOf(tile % columns))
+                .replace("{row}", String.valueOf(tile / columns))
+                .replace("{segment}", String.valueOf(segment));
+    }
+}
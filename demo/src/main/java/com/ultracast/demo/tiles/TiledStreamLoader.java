@@ -0,0 +1,302 @@
+package com.ultracast.demo.tiles;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.ultracast.demo.cache.SegmentCache;
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.work.WorkScheduler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches the tiles of a {@link TileManifest} ahead of the playhead, the tiles in the viewport
+ * in the highest quality and the rest of the sphere in the lowest.
+ * <p>
+ * The next {@link #LOOKAHEAD_SEGMENTS} segments are kept scheduled. Viewport tiles go to the
+ * user visible lane and the others to the prefetch lane of the {@link WorkScheduler}. When the
+ * view direction changes the affected tiles are rescheduled: queued fetches in the wrong quality
+ * are cancelled and tiles entering the viewport are upgraded, except in the segment playing
+ * already. At most {@link #MAX_QUEUED} fetches per lane are queued at a time, nearest segment
+ * first, and the rest follow as they complete, so the lane never drops the tiles needed next.
+ * Tiles are stored in the {@link SegmentCache} under their url. The bytes fetched are
+ * compared with what the monolithic stream would have cost for the same segments, see
+ * {@link #getStats(long)}. Must be used from the main thread.
+ * <p>
+ * No renderer consumes the tiles yet, the player keeps playing the monolithic stream, so the
+ * loader is only started for measurements and everything it fetches comes on top of the stream.
+ */
+public class TiledStreamLoader {
+
+    public interface ManifestCallback {
+        void onManifestLoaded(String url, TileManifest manifest);
+
+        void onManifestError(String url, IOException e);
+    }
+
+    public static final int LOOKAHEAD_SEGMENTS = 3;
+    // well below the lane capacities, which are shared with other loaders
+    public static final int MAX_QUEUED = 16;
+
+    private static final String TAG = "TiledStreamLoader";
+    private static final int QUALITY_NONE = -1;
+    private static final float HORIZONTAL_FOV = 90;
+    private static final float VERTICAL_FOV = 60;
+    private static final float VIEWPORT_MARGIN = 15;
+
+    private final TileManifest mManifest;
+    private final SegmentCache mCache;
+    private final ViewportTiles mViewport;
+    private final int mLowQuality;
+    private final int mHighQuality;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mScheduleTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (TiledStreamLoader.this) {
+                if (mCurrentSegment >= 0) {
+                    schedule();
+                }
+            }
+        }
+    };
+
+    // indexed by segment * tiles + tile, guarded by this
+    private final int[] mFetchedQuality;
+    private final int[] mPendingQuality;
+    private final Future<?>[] mPending;
+    private final boolean[] mSegmentRequested;
+    private int mCurrentSegment = -1;
+    private boolean mBacklog;
+
+    private int mSegmentsRequested;
+    private int mReprioritized;
+    private int mUpgrades;
+    private final AtomicLong mTilesFetched = new AtomicLong();
+    private final AtomicLong mTilesFromCache = new AtomicLong();
+    private final AtomicLong mHighBytes = new AtomicLong();
+    private final AtomicLong mLowBytes = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+
+    public TiledStreamLoader(TileManifest manifest, SegmentCache cache) {
+        mManifest = manifest;
+        mCache = cache;
+        mViewport = new ViewportTiles(manifest.getColumns(), manifest.getRows(),
+                HORIZONTAL_FOV, VERTICAL_FOV, VIEWPORT_MARGIN);
+        // until the first pose the player looks at the center of the frame
+        mViewport.update(0, 0);
+        mLowQuality = 0;
+        mHighQuality = manifest.getQualities().size() - 1;
+        int size = manifest.getSegmentCount() * manifest.getTileCount();
+        mFetchedQuality = new int[size];
+        mPendingQuality = new int[size];
+        mPending = new Future<?>[size];
+        mSegmentRequested = new boolean[manifest.getSegmentCount()];
+        Arrays.fill(mFetchedQuality, QUALITY_NONE);
+        Arrays.fill(mPendingQuality, QUALITY_NONE);
+    }
+
+    /**
+     * Fetches and parses a manifest in the background, the callback runs on the main thread.
+     */
+    public static void loadManifest(final String url, final ManifestCallback callback) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_USER_VISIBLE, callback, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final TileManifest manifest = TileManifest.parse(url, HttpFetcher.fetchString(url));
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onManifestLoaded(url, manifest);
+                        }
+                    });
+                } catch (final IOException e) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onManifestError(url, e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    public TileManifest getManifest() {
+        return mManifest;
+    }
+
+    /**
+     * Moves the lookahead window to the segment playing at the given time.
+     */
+    public void setPosition(long timeMs) {
+        int segment = mManifest.getSegmentIndex(timeMs);
+        if (segment == mCurrentSegment) {
+            return;
+        }
+        synchronized (this) {
+            mCurrentSegment = segment;
+            cancelOutsideWindow();
+            schedule();
+        }
+    }
+
+    /**
+     * @param yaw   degrees from the center of the frame, positive to the right
+     * @param pitch degrees from the horizon, positive up
+     */
+    public void setViewDirection(double yaw, double pitch) {
+        if (!mViewport.update(yaw, pitch) || mCurrentSegment < 0) {
+            return;
+        }
+        synchronized (this) {
+            schedule();
+        }
+    }
+
+    /**
+     * Cancels the queued fetches, running ones complete.
+     */
+    public void release() {
+        mHandler.removeCallbacks(mScheduleTask);
+        WorkScheduler.getInstance().cancelAll(this);
+    }
+
+    /**
+     * @param streamBytes the bytes of the monolithic stream the player fetched meanwhile, which
+     *                    are part of the total as long as the player plays that stream
+     */
+    public synchronized String getStats(long streamBytes) {
+        long fetched = mHighBytes.get() + mLowBytes.get();
+        long monolithic = (long) mManifest.getMonolithicBitrate() / 8 * mManifest.getSegmentDuration() / 1000
+                * mSegmentsRequested;
+        return String.format(Locale.US, "segments %d, tiles %d (%d from cache, %d errors), tile bytes %d"
+                        + " (high %d, low %d) vs monolithic %d, %.0f%%, stream bytes %d, total bytes %d,"
+                        + " reprioritized %d, upgraded %d, visible %d/%d",
+                mSegmentsRequested, mTilesFetched.get(), mTilesFromCache.get(), mErrors.get(), fetched,
+                mHighBytes.get(), mLowBytes.get(), monolithic, monolithic > 0 ? fetched * 100.0 / monolithic : 0,
+                streamBytes, streamBytes + fetched, mReprioritized, mUpgrades, mViewport.getVisibleCount(),
+                mManifest.getTileCount());
+    }
+
+    private void cancelOutsideWindow() {
+        int tiles = mManifest.getTileCount();
+        int start = mCurrentSegment * tiles;
+        int end = Math.min(mCurrentSegment + LOOKAHEAD_SEGMENTS, mManifest.getSegmentCount()) * tiles;
+        for (int i = 0; i < mPending.length; i++) {
+            if ((i < start || i >= end) && mPending[i] != null) {
+                mPending[i].cancel(false);
+                mPending[i] = null;
+                mPendingQuality[i] = QUALITY_NONE;
+            }
+        }
+    }
+
+    private void schedule() {
+        int tiles = mManifest.getTileCount();
+        int end = Math.min(mCurrentSegment + LOOKAHEAD_SEGMENTS, mManifest.getSegmentCount());
+        // counted from the futures, fetches dropped by a full lane are done as well
+        int queuedHigh = 0;
+        int queuedLow = 0;
+        for (int i = mCurrentSegment * tiles; i < end * tiles; i++) {
+            if (mPending[i] != null && !mPending[i].isDone()) {
+                if (mPendingQuality[i] == mHighQuality) {
+                    queuedHigh++;
+                } else {
+                    queuedLow++;
+                }
+            }
+        }
+        mBacklog = false;
+        for (int segment = mCurrentSegment; segment < end; segment++) {
+            if (!mSegmentRequested[segment]) {
+                mSegmentRequested[segment] = true;
+                mSegmentsRequested++;
+            }
+            for (int tile = 0; tile < tiles; tile++) {
+                int i = segment * tiles + tile;
+                int quality = mViewport.isVisible(tile) ? mHighQuality : mLowQuality;
+                Future<?> pending = mPending[i];
+                if (pending != null && !pending.isDone()) {
+                    if (mPendingQuality[i] == quality || !pending.cancel(false)) {
+                        // already queued in this quality or running
+                        continue;
+                    }
+                    mReprioritized++;
+                }
+                mPending[i] = null;
+                mPendingQuality[i] = QUALITY_NONE;
+                int fetched = mFetchedQuality[i];
+                if (fetched >= quality || (fetched != QUALITY_NONE && segment == mCurrentSegment)) {
+                    continue;
+                }
+                boolean high = quality == mHighQuality;
+                if ((high ? queuedHigh : queuedLow) >= MAX_QUEUED) {
+                    mBacklog = true;
+                    continue;
+                }
+                if (high) {
+                    queuedHigh++;
+                } else {
+                    queuedLow++;
+                }
+                if (fetched != QUALITY_NONE) {
+                    mUpgrades++;
+                }
+                mPendingQuality[i] = quality;
+                mPending[i] = submit(i, tile, segment, quality);
+            }
+        }
+    }
+
+    private Future<?> submit(final int index, int tile, int segment, final int quality) {
+        final String url = mManifest.getTileUrl(quality, tile, segment);
+        int lane = quality == mHighQuality ? WorkScheduler.LANE_USER_VISIBLE : WorkScheduler.LANE_PREFETCH;
+        return WorkScheduler.getInstance().submit(lane, this, new Runnable() {
+            @Override
+            public void run() {
+                boolean fetched = false;
+                try {
+                    fetch(url, quality);
+                    fetched = true;
+                } catch (IOException e) {
+                    mErrors.incrementAndGet();
+                    Log.w(TAG, "Error fetching tile " + url, e);
+                } finally {
+                    onFetched(index, quality, fetched);
+                }
+            }
+        });
+    }
+
+    private synchronized void onFetched(int index, int quality, boolean fetched) {
+        if (fetched && quality > mFetchedQuality[index]) {
+            mFetchedQuality[index] = quality;
+        }
+        // a failed tile is retried by the next schedule
+        if (mPendingQuality[index] == quality) {
+            mPending[index] = null;
+            mPendingQuality[index] = QUALITY_NONE;
+        }
+        if (mBacklog) {
+            mBacklog = false;
+            mHandler.post(mScheduleTask);
+        }
+    }
+
+    private void fetch(String url, int quality) throws IOException {
+        mTilesFetched.incrementAndGet();
+        long bytes = mCache.fetch(url, Long.MAX_VALUE);
+        if (bytes == 0) {
+            mTilesFromCache.incrementAndGet();
+        }
+        (quality == mHighQuality ? mHighBytes : mLowBytes).addAndGet(bytes);
+    }
+}
@@ -0,0 +1,93 @@
+package com.ultracast.demo.tiles;
+
+/**
+ * Finds the tiles of an equirectangular grid covered by a viewport.
+ * <p>
+ * Yaw is in degrees, 0 is the center of the frame and positive to the right, pitch is in
+ * degrees, positive up. A tile is visible if its yaw and pitch range overlaps the field of view
+ * plus a margin, the margin covers head movement until the next tiles arrive. Away from the
+ * horizon a degree of yaw is narrower on screen, so the yaw range is widened by 1 / cos(pitch)
+ * and covers the full circle once the view reaches a pole. Not thread safe.
+ */
+public class ViewportTiles {
+
+    private final int mColumns;
+    private final int mRows;
+    private final boolean[] mVisible;
+    private float mHorizontalFov;
+    private float mVerticalFov;
+    private float mMargin;
+
+    public ViewportTiles(int columns, int rows, float horizontalFov, float verticalFov, float margin) {
+        mColumns = columns;
+        mRows = rows;
+        mVisible = new boolean[columns * rows];
+        mHorizontalFov = horizontalFov;
+        mVerticalFov = verticalFov;
+        mMargin = margin;
+    }
+
+    public void setFieldOfView(float horizontalFov, float verticalFov) {
+        mHorizontalFov = horizontalFov;
+        mVerticalFov = verticalFov;
+    }
+
+    /**
+     * Updates the visible tiles for a view direction.
+     *
+     * @return true if the set of visible tiles changed
+     */
+    public boolean update(double yaw, double pitch) {
+        double halfPitch = mVerticalFov / 2.0 + mMargin;
+        double top = Math.min(pitch + halfPitch, 90);
+        double bottom = Math.max(pitch - halfPitch, -90);
+        double halfYaw;
+        if (top >= 90 || bottom <= -90) {
+            halfYaw = 180;
+        } else {
+            double widest = Math.max(Math.abs(top), Math.abs(bottom));
+            halfYaw = Math.min((mHorizontalFov / 2.0 + mMargin) / Math.cos(Math.toRadians(widest)), 180);
+        }
+        // yaw relative to the left edge of the frame, in [0, 360)
+        double center = ((yaw + 180) % 360 + 360) % 360;
+
+        double tileWidth = 360.0 / mColumns;
+        double tileHeight = 180.0 / mRows;
+        boolean changed = false;
+        for (int row = 0; row < mRows; row++) {
+            // row 0 is the top of the frame
+            double tileTop = 90 - row * tileHeight;
+            double tileBottom = tileTop - tileHeight;
+            boolean rowVisible = tileBottom < top && tileTop > bottom;
+            for (int column = 0; column < mColumns; column++) {
+                boolean visible = rowVisible
+                        && yawDistance(center, (column + 0.5) * tileWidth) < halfYaw + tileWidth / 2;
+                int tile = row * mColumns + column;
+                if (mVisible[tile] != visible) {
+                    mVisible[tile] = visible;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    public boolean isVisible(int tile) {
+        return mVisible[tile];
+    }
+
+    public int getVisibleCount() {
+        int count = 0;
+        for (boolean visible : mVisible) {
+            if (visible) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static double yawDistance(double a, double b) {
+        double distance = Math.abs(a - b) % 360;
+        return distance > 180 ? 360 - distance : distance;
+    }
+}
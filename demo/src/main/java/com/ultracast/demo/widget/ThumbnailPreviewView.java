@@ -0,0 +1,72 @@
+package com.ultracast.demo.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Shows a single thumbnail cut out of a sprite sheet above the timeline slider.
+ */
+public class ThumbnailPreviewView extends View {
+
+    private Bitmap mSheet;
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mBorderPaint = new Paint();
+
+    public ThumbnailPreviewView(Context context) {
+        super(context);
+        init();
+    }
+
+    public ThumbnailPreviewView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        mBorderPaint.setColor(0xFFFFFFFF);
+    }
+
+    /**
+     * @param sheet the sprite sheet, null to keep showing the previous thumbnail
+     * @param src   bounds of the thumbnail within the sheet
+     */
+    public void setThumbnail(Bitmap sheet, Rect src) {
+        if (sheet == null) {
+            return;
+        }
+        mSheet = sheet;
+        mSrcRect.set(src);
+        invalidate();
+    }
+
+    /**
+     * Centers the preview horizontally on the given x coordinate of the parent, keeping it
+     * inside the parent bounds.
+     */
+    public void moveTo(int centerX, int parentWidth) {
+        int x = centerX - getWidth() / 2;
+        x = Math.max(0, Math.min(x, parentWidth - getWidth()));
+        setTranslationX(x - getLeft());
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        mDstRect.set(1, 1, w - 1, h - 1);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mSheet == null || mSheet.isRecycled()) {
+            return;
+        }
+        canvas.drawRect(0, 0, getWidth(), getHeight(), mBorderPaint);
+        canvas.drawBitmap(mSheet, mSrcRect, mDstRect, mBitmapPaint);
+    }
+}
@@ -17,6 +17,8 @@ public class TimeLineView extends View {
         void onScrolling(int msec);
 
         void onScrollingStop(int msec);
+
+        void onJumpToLive();
     }
 
     private static final String TAG = "ProgressBar";
@@ -25,17 +27,46 @@ public class TimeLineView extends View {
     private static final int SLIDER_RADIUS = 8;
     private static final int PADDING = 6;
     private static final int TEXT_SIZE = 14;
+    private static final int SNAP_DISTANCE = 12;
+    // cached ranges beyond this many are not shown
+    private static final int MAX_RANGES = 32;
+    private static final int NO_SNAP = -1;
+    //"h:mm:ss" with the largest int hour value fits into it
+    private static final int MAX_LABEL_LENGTH = 16;
+    private static final char[] LIVE = {'L', 'I', 'V', 'E'};
 
     private int mCurrentTime;
     private int mDuration;
+    // the player's buffer ends here, it starts at the current time
+    private int mBufferedTime;
+    // start and end of every cached range, in ms
+    private final int[] mCachedRanges = new int[MAX_RANGES * 2];
+    private int mCachedRangesLength;
+    private int[] mKeyframes = new int[0];
+    private int mKeyframeCount;
+    // the buffered ranges as drawn, start and end in pixels, the player's buffer first
+    private final int[] mRangePixels = new int[MAX_RANGES * 2 + 2];
+    private int mRangePixelsLength;
+    private final int[] mNewRangePixels = new int[MAX_RANGES * 2 + 2];
+    private boolean mRangesPosted;
+    private final Runnable mSyncRangesTask = new Runnable() {
+        @Override
+        public void run() {
+            mRangesPosted = false;
+            syncRanges(true);
+        }
+    };
 
     private Rect mBackgroundRect;
     private Rect mScrubberRect;
     private Rect mPlayedRect;
+    private Rect mBufferedRect;
     private Rect mDeffaultTextRect;
+    private Rect mLiveTextRect;
     private Paint mBackgroundPaint;
     private Paint mScrubberPaint;
     private Paint mPlayedPaint;
+    private Paint mBufferedPaint;
     private Paint mTextPaint;
     private Paint mSliderPaint;
 
@@ -44,10 +75,27 @@ public class TimeLineView extends View {
     private int mSliderRadius;
     private int mSliderHeight;
     private boolean mSliding;
+    // exact time of the snap point the slider is at, the slider position is rounded to pixels
+    private int mSnapTime = NO_SNAP;
+    private int mSnapDistance;
     private boolean mShowProgress;
 
     private int mPadding;
-    private Rect mBounds = new Rect();
+    private int mTextBaseline;
+    private int mLiveBaseline;
+
+    private final char[] mCurrentLabel = new char[MAX_LABEL_LENGTH];
+    private int mCurrentLabelLength;
+    private int mCurrentLabelSecond = -1;
+    private final char[] mDurationLabel = new char[MAX_LABEL_LENGTH];
+    private int mDurationLabelLength;
+    private int mDurationLabelSecond = -1;
+    // distance behind the live edge, "-m:ss", shown instead of "LIVE" when the second is set
+    private final char[] mLiveLabel = new char[MAX_LABEL_LENGTH];
+    private int mLiveLabelLength;
+    private int mLiveLabelSecond = -1;
+    private final char[] mMeasureBuffer = new char[MAX_LABEL_LENGTH];
+    private final float[] mLabelWidths = new float[MAX_LABEL_LENGTH + 1];
     private Listener mListener;
 
     public TimeLineView(Context context) {
@@ -65,10 +113,13 @@ public class TimeLineView extends View {
         mBackgroundRect = new Rect();
         mScrubberRect = new Rect();
         mPlayedRect = new Rect();
+        mBufferedRect = new Rect();
         mDeffaultTextRect = new Rect();
+        mLiveTextRect = new Rect();
 
         mBackgroundPaint = new Paint();
         mPlayedPaint = new Paint();
+        mBufferedPaint = new Paint();
         mScrubberPaint = new Paint();
         mSliderPaint = new Paint();
         mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -76,6 +127,7 @@ public class TimeLineView extends View {
         mBackgroundPaint.setColor(0x00FFFFFF);//invisible
         mScrubberPaint.setColor(0xFF9E9E9E);
         mPlayedPaint.setColor(0xFF0077EA);
+        mBufferedPaint.setColor(0xFFE0E0E0);
         mSliderPaint.setColor(0xFFFFFFFF);
 
         mTextPaint.setColor(0xFFFFFFFF);
@@ -84,9 +136,14 @@ public class TimeLineView extends View {
 
         mTextPaint.setTextSize(TEXT_SIZE * metrics.density);
         mTextPaint.getTextBounds("000:00:00", 0, 8, mDeffaultTextRect);
+        mTextPaint.getTextBounds(LIVE, 0, LIVE.length, mLiveTextRect);
+        mCurrentLabelLength = formatTime(0, mCurrentLabel, 0);
+        mDurationLabelLength = formatTime(0, mDurationLabel, 0);
+        mLiveLabel[0] = '-';
         mSliderRadius = (int) (SLIDER_RADIUS * metrics.density);
         mSliderHeight = (int) (SLIDER_HEIGHT * metrics.density);
         mPadding = (int) (PADDING * metrics.density);
+        mSnapDistance = (int) (SNAP_DISTANCE * metrics.density);
 
         //              SLIDER_RADIUS       SLIDER_HEIGHT       PADDING
         //------------------------------------------------------------------------------------------
@@ -107,31 +164,35 @@ public class TimeLineView extends View {
         canvas.drawRect(mBackgroundRect, mBackgroundPaint);
         canvas.drawRect(mScrubberRect, mScrubberPaint);
 
-
-        String time = toString(mCurrentTime);
-        mTextPaint.getTextBounds(time, 0, time.length(), mBounds);
-
-        canvas.drawText(toString(mCurrentTime),
-                mScrubberRect.left - mSliderRadius - mPadding - mBounds.width(),
-                getHeight() / 2 + mDeffaultTextRect.height() / 2 - mDeffaultTextRect.bottom,
+        canvas.drawText(mCurrentLabel, 0, mCurrentLabelLength,
+                mScrubberRect.left - mSliderRadius - mPadding - labelWidth(mCurrentLabel, mCurrentLabelLength),
+                mTextBaseline,
                 mTextPaint);
 
         if (mShowProgress) {
+            for (int i = 0; i < mRangePixelsLength; i += 2) {
+                if (mRangePixels[i + 1] > mRangePixels[i]) {
+                    mBufferedRect.set(mRangePixels[i], mScrubberRect.top, mRangePixels[i + 1], mScrubberRect.bottom);
+                    canvas.drawRect(mBufferedRect, mBufferedPaint);
+                }
+            }
             canvas.drawRect(mPlayedRect, mPlayedPaint);
             canvas.drawCircle(mSliderX, mSliderY, mSliderRadius, mSliderPaint);
 
-            canvas.drawText(toString(mDuration),
+            canvas.drawText(mDurationLabel, 0, mDurationLabelLength,
                     mScrubberRect.right + mPadding + mSliderRadius,
-                    getHeight() / 2 + mDeffaultTextRect.height() / 2 - mDeffaultTextRect.bottom,
+                    mTextBaseline,
+                    mTextPaint);
+        } else if (mLiveLabelSecond >= 0) {
+            canvas.drawText(mLiveLabel, 0, mLiveLabelLength,
+                    mScrubberRect.right + mPadding + mSliderRadius,
+                    mTextBaseline,
                     mTextPaint);
         } else {
-            String live = "LIVE";
-            mTextPaint.getTextBounds(live, 0, live.length(), mBounds);
-
             mTextPaint.setColor(0xFFF44336); // set the red color of "LIVE" text
-            canvas.drawText(live,
+            canvas.drawText(LIVE, 0, LIVE.length,
                     mScrubberRect.right + mPadding + mSliderRadius,
-                    getHeight() / 2 + mBounds.height() / 2 - mBounds.bottom,
+                    mLiveBaseline,
                     mTextPaint);
             mTextPaint.setColor(0xFFFFFFFF); //return the white text color
         }
@@ -155,57 +216,352 @@ public class TimeLineView extends View {
                 half + 2);
 
         mSliderY = half;
+        mTextBaseline = half + mDeffaultTextRect.height() / 2 - mDeffaultTextRect.bottom;
+        mLiveBaseline = half + mLiveTextRect.height() / 2 - mLiveTextRect.bottom;
         update();
+        syncRanges(false);
+        invalidate();
     }
 
     public void setTime(int currentTime, int duration) {
+        boolean showProgress = duration > 0;
+        boolean progressChanged = showProgress != mShowProgress;
+        if (progressChanged || duration != mDuration) {
+            postSyncRanges();
+        }
         mCurrentTime = currentTime;
         mDuration = duration;
-        mShowProgress = mDuration > 0;
+        mShowProgress = showProgress;
+
+        if (currentTime / 1000 != mCurrentLabelSecond) {
+            mCurrentLabelSecond = currentTime / 1000;
+            mCurrentLabelLength = formatTime(currentTime, mCurrentLabel, 0);
+            invalidate(getPaddingLeft(), 0, mScrubberRect.left - mSliderRadius, getHeight());
+        }
+        if (duration / 1000 != mDurationLabelSecond || progressChanged) {
+            mDurationLabelSecond = duration / 1000;
+            mDurationLabelLength = formatTime(duration, mDurationLabel, 0);
+            invalidate(mScrubberRect.right + mSliderRadius, 0, getWidth() - getPaddingRight(), getHeight());
+        }
+        if (progressChanged) {
+            // the slider and the played part appear or disappear entirely
+            invalidate(mScrubberRect.left - mSliderRadius, mSliderY - mSliderRadius,
+                    mScrubberRect.right + mSliderRadius + 1, mSliderY + mSliderRadius + 1);
+        }
         update();
     }
 
+    /**
+     * Shows how far playback is behind the live edge in place of "LIVE" while it is not at the
+     * edge. Tapping the label jumps back to live.
+     *
+     * @param latencyMs distance behind the live edge, -1 if not known
+     * @param atEdge    true to show "LIVE"
+     */
+    public void setLiveEdge(int latencyMs, boolean atEdge) {
+        int second = atEdge || latencyMs < 0 ? -1 : latencyMs / 1000;
+        if (second == mLiveLabelSecond) {
+            return;
+        }
+        mLiveLabelSecond = second;
+        if (second >= 0) {
+            mLiveLabelLength = formatTime(latencyMs, mLiveLabel, 1);
+        }
+        if (!mShowProgress) {
+            invalidate(mScrubberRect.right + mSliderRadius, 0, getWidth() - getPaddingRight(), getHeight());
+        }
+    }
+
+    /**
+     * Sets how far ahead of the current time the player has buffered. Like all buffered range
+     * updates it is drawn with the next display frame, only the part of the bar that changed.
+     */
+    public void setBufferedPosition(int msec) {
+        if (msec != mBufferedTime) {
+            mBufferedTime = msec;
+            postSyncRanges();
+        }
+    }
+
+    /**
+     * Sets the ranges which are cached apart from the player's buffer, e.g. on disk.
+     *
+     * @param ranges start and end in ms of every range, ascending
+     */
+    public void setCachedRanges(int[] ranges) {
+        int length = Math.min(ranges.length, mCachedRanges.length);
+        System.arraycopy(ranges, 0, mCachedRanges, 0, length);
+        mCachedRangesLength = length;
+        postSyncRanges();
+    }
+
+    /**
+     * Sets the keyframe times, which are cheaper to seek to. Drags snap to a keyframe or to a
+     * buffered range when close to one, see {@link #snap(int)}.
+     *
+     * @param times ascending times in ms
+     */
+    public void setKeyframes(int[] times) {
+        if (mKeyframes.length < times.length) {
+            mKeyframes = new int[times.length];
+        }
+        System.arraycopy(times, 0, mKeyframes, 0, times.length);
+        mKeyframeCount = times.length;
+    }
+
+    /**
+     * Clears the buffered ranges and keyframes, e.g. for a new source.
+     */
+    public void clearBuffered() {
+        mBufferedTime = 0;
+        mCachedRangesLength = 0;
+        mKeyframeCount = 0;
+        postSyncRanges();
+    }
+
+    public int getCurrentTime() {
+        return mCurrentTime;
+    }
+
+    public int getDuration() {
+        return mDuration;
+    }
+
+    public int getBufferedPosition() {
+        return mBufferedTime;
+    }
+
     public int getProgressbarHeight() {
         return mSliderHeight;
     }
 
+    public int getSliderX() {
+        return mSliderX;
+    }
+
     private void update() {
+        int oldSliderX = mSliderX;
+        int oldPlayedRight = mPlayedRect.right;
         mPlayedRect.set(mScrubberRect);
 
         if (mSliding) {
             mPlayedRect.right = mSliderX;
         } else {
             if (mShowProgress) {
-                if (mCurrentTime > 0) {
-                    //move to current video's position
-                    mPlayedRect.right = mPlayedRect.left + ((mScrubberRect.width() * mCurrentTime) / mDuration);
+                mPlayedRect.right = sliderPosition(mCurrentTime, mDuration);
+                mSliderX = mPlayedRect.right;
+            }
+        }
+
+        //redraw only the part of the bar between the old and the new slider position
+        if (oldSliderX != mSliderX || oldPlayedRight != mPlayedRect.right) {
+            int from = Math.min(Math.min(oldSliderX, mSliderX), Math.min(oldPlayedRight, mPlayedRect.right));
+            int to = Math.max(Math.max(oldSliderX, mSliderX), Math.max(oldPlayedRight, mPlayedRect.right));
+            invalidate(from - mSliderRadius, mSliderY - mSliderRadius,
+                    to + mSliderRadius + 1, mSliderY + mSliderRadius + 1);
+        }
+    }
+
+    private void postSyncRanges() {
+        // buffer updates come with playback, at most one redraw of them per display frame
+        if (!mRangesPosted) {
+            mRangesPosted = true;
+            postOnAnimation(mSyncRangesTask);
+        }
+    }
+
+    /**
+     * Converts the buffered ranges to pixels and, if asked to, invalidates the edges which moved.
+     */
+    private void syncRanges(boolean invalidate) {
+        int length = 0;
+        if (mShowProgress && mDuration > 0) {
+            mNewRangePixels[length++] = sliderPosition(mCurrentTime, mDuration);
+            mNewRangePixels[length++] = sliderPosition(Math.max(mBufferedTime, mCurrentTime), mDuration);
+            for (int i = 0; i < mCachedRangesLength; i++) {
+                mNewRangePixels[length++] = sliderPosition(mCachedRanges[i], mDuration);
+            }
+        }
+        if (invalidate) {
+            for (int i = 0; i < Math.max(length, mRangePixelsLength); i += 2) {
+                int oldLeft = i < mRangePixelsLength ? mRangePixels[i] : 0;
+                int oldRight = i < mRangePixelsLength ? mRangePixels[i + 1] : 0;
+                int newLeft = i < length ? mNewRangePixels[i] : 0;
+                int newRight = i < length ? mNewRangePixels[i + 1] : 0;
+                if (oldRight <= oldLeft || newRight <= newLeft) {
+                    // appeared or disappeared
+                    invalidateBar(oldLeft, oldRight);
+                    invalidateBar(newLeft, newRight);
                 } else {
-                    //move to play position
-                    mPlayedRect.right = mScrubberRect.left;
+                    invalidateBar(Math.min(oldLeft, newLeft), Math.max(oldLeft, newLeft));
+                    invalidateBar(Math.min(oldRight, newRight), Math.max(oldRight, newRight));
                 }
-                mSliderX = mPlayedRect.right;
             }
         }
+        System.arraycopy(mNewRangePixels, 0, mRangePixels, 0, length);
+        mRangePixelsLength = length;
+    }
 
-        //redraw
-        invalidate();
+    private void invalidateBar(int from, int to) {
+        if (to > from) {
+            invalidate(from, mScrubberRect.top, to + 1, mScrubberRect.bottom);
+        }
+    }
+
+    /**
+     * Returns where a drag to x snaps to, x itself if there is nothing close. Preferred are a
+     * buffered keyframe, then the edge of a buffered range when x is not buffered, then any
+     * keyframe: the player starts decoding at a keyframe, and a seek into the buffer does not
+     * rebuffer. Sets {@link #mSnapTime} to the time snapped to.
+     */
+    private int snap(int x) {
+        mSnapTime = NO_SNAP;
+        if (!mShowProgress || mDuration <= 0) {
+            return x;
+        }
+        int time = nearestKeyframe(x, true);
+        if (time == NO_SNAP && !isBuffered(getTime(x))) {
+            time = nearestBufferedEdge(x);
+        }
+        if (time == NO_SNAP) {
+            time = nearestKeyframe(x, false);
+        }
+        if (time == NO_SNAP) {
+            return x;
+        }
+        mSnapTime = time;
+        return sliderPosition(time, mDuration);
+    }
+
+    private int nearestKeyframe(int x, boolean buffered) {
+        int best = NO_SNAP;
+        int bestDistance = mSnapDistance + 1;
+        for (int i = 0; i < mKeyframeCount; i++) {
+            int distance = sliderPosition(mKeyframes[i], mDuration) - x;
+            if (distance > mSnapDistance) {
+                break;
+            }
+            if (Math.abs(distance) < bestDistance && (!buffered || isBuffered(mKeyframes[i]))) {
+                best = mKeyframes[i];
+                bestDistance = Math.abs(distance);
+            }
+        }
+        return best;
+    }
+
+    private int nearestBufferedEdge(int x) {
+        int best = NO_SNAP;
+        int bestDistance = mSnapDistance + 1;
+        for (int i = -2; i < mCachedRangesLength; i += 2) {
+            int start = i < 0 ? mCurrentTime : mCachedRanges[i];
+            int end = i < 0 ? mBufferedTime : mCachedRanges[i + 1];
+            if (end <= start) {
+                continue;
+            }
+            int startDistance = Math.abs(sliderPosition(start, mDuration) - x);
+            int endDistance = Math.abs(sliderPosition(end, mDuration) - x);
+            if (startDistance < bestDistance) {
+                best = start;
+                bestDistance = startDistance;
+            }
+            if (endDistance < bestDistance) {
+                best = end;
+                bestDistance = endDistance;
+            }
+        }
+        return best;
+    }
+
+    private boolean isBuffered(int time) {
+        if (time >= mCurrentTime && time < mBufferedTime) {
+            return true;
+        }
+        for (int i = 0; i < mCachedRangesLength; i += 2) {
+            if (time >= mCachedRanges[i] && time < mCachedRanges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int sliderPosition(int currentTime, int duration) {
+        return positionOf(currentTime, duration, mScrubberRect.left, mScrubberRect.width());
     }
 
     private int getTime() {
-        return ((mPlayedRect.right - mScrubberRect.left) * mDuration) / mScrubberRect.width();
+        if (mSnapTime != NO_SNAP) {
+            return mSnapTime;
+        }
+        return getTime(mPlayedRect.right);
+    }
+
+    private int getTime(int x) {
+        return timeAt(x, mDuration, mScrubberRect.left, mScrubberRect.width());
     }
 
-    private String toString(int msec) {
-        int sec = (msec / 1000) % 60;
-        int min = ((msec / 1000) / 60) % 60;
-        int hour = (msec / 1000) / 3600;
-        String time;
+    /**
+     * @return the x of a time on a bar starting at left, the start for no duration
+     */
+    static int positionOf(int time, int duration, int left, int width) {
+        if (duration > 0 && time > 0) {
+            //move to current video's position
+            return left + (int) (((long) width * time) / duration);
+        }
+        //move to play position
+        return left;
+    }
+
+    /**
+     * @return the time at x on a bar starting at left, the inverse of {@link #positionOf}
+     */
+    static int timeAt(int x, int duration, int left, int width) {
+        return (int) (((long) (x - left) * duration) / width);
+    }
+
+    /**
+     * Returns the width of a label, measured once per label width class. A class is the label
+     * with all digits replaced by zeros, so it is keyed by the label length.
+     */
+    private float labelWidth(char[] label, int length) {
+        float width = mLabelWidths[length];
+        if (width == 0) {
+            for (int i = 0; i < length; i++) {
+                mMeasureBuffer[i] = label[i] == ':' ? ':' : '0';
+            }
+            width = mTextPaint.measureText(mMeasureBuffer, 0, length);
+            mLabelWidths[length] = width;
+        }
+        return width;
+    }
+
+    /**
+     * Formats the time as "mm:ss" or "h:mm:ss" into the given buffer without allocations.
+     *
+     * @param start index in the buffer to write at
+     * @return the length of the label, from the start of the buffer
+     */
+    static int formatTime(int msec, char[] out, int start) {
+        int totalSec = Math.max(msec, 0) / 1000;
+        int sec = totalSec % 60;
+        int min = (totalSec / 60) % 60;
+        int hour = totalSec / 3600;
+        int length = start;
         if (hour > 0) {
-            time = String.format("%d:%02d:%02d", hour, min, sec);
-        } else {
-            time = String.format("%02d:%02d", min, sec);
+            int divider = 1;
+            while (hour / divider >= 10) {
+                divider *= 10;
+            }
+            for (; divider > 0; divider /= 10) {
+                out[length++] = (char) ('0' + (hour / divider) % 10);
+            }
+            out[length++] = ':';
         }
-        return time;
+        out[length++] = (char) ('0' + min / 10);
+        out[length++] = (char) ('0' + min % 10);
+        out[length++] = ':';
+        out[length++] = (char) ('0' + sec / 10);
+        out[length++] = (char) ('0' + sec % 10);
+        return length;
     }
 
     @Override
@@ -220,7 +576,7 @@ public class TimeLineView extends View {
 //                        mListener.onScrollingStart();
                 }
                 case MotionEvent.ACTION_MOVE: {
-                    mSliderX = x;
+                    mSliderX = snap(x);
                     update();
                     if (mListener != null)
                         mListener.onScrolling(getTime());
@@ -237,6 +593,10 @@ public class TimeLineView extends View {
             }
         } else {
             mSliding = false;
+            if (!mShowProgress && x > mScrubberRect.right && event.getActionMasked() == MotionEvent.ACTION_UP
+                    && mListener != null) {
+                mListener.onJumpToLive();
+            }
         }
         return true;
     }
@@ -0,0 +1,256 @@
+package com.ultracast.demo.work;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.ultracast.demo.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the background work of the app in priority lanes.
+ * <p>
+ * Every lane has its own threads, thread priority and bounded queue, so user visible work never
+ * waits behind a prefetch and a prefetch never waits behind housekeeping. When a queue is full
+ * the oldest queued task of that lane is dropped, queued work goes stale first. Tasks are
+ * submitted on behalf of an owner, e.g. a loader bound to an activity, and
+ * {@link #cancelAll(Object)} cancels everything of an owner when it goes away. Each lane keeps
+ * queue depth, wait time and run time metrics, see {@link #getStats()}. Thread safe.
+ */
+public class WorkScheduler {
+
+    /**
+     * Work the user is waiting for: catalog pages, thumbnails while scrubbing.
+     */
+    public static final int LANE_USER_VISIBLE = 0;
+    /**
+     * Speculative work: playlist prefetch.
+     */
+    public static final int LANE_PREFETCH = 1;
+    /**
+     * Anything else: reports, cleanup.
+     */
+    public static final int LANE_HOUSEKEEPING = 2;
+
+    private static final String TAG = "WorkScheduler";
+    private static final String[] LANE_NAMES = {"user-visible", "prefetch", "housekeeping"};
+    private static final int[] LANE_THREADS = {3, 2, 1};
+    private static final int[] LANE_CAPACITIES = {64, 32, 16};
+    private static final int[] LANE_PRIORITIES = {
+            Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_LOWEST
+    };
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final long MAX_LATENCY_MS = 60000;
+
+    private static WorkScheduler sInstance;
+
+    private final Lane[] mLanes = new Lane[LANE_NAMES.length];
+    // submitted and not finished yet, guarded by itself
+    private final Set<Task> mTasks = new HashSet<>();
+
+    public static synchronized WorkScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new WorkScheduler();
+        }
+        return sInstance;
+    }
+
+    WorkScheduler() {
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new Lane(LANE_NAMES[i], LANE_THREADS[i], LANE_CAPACITIES[i], LANE_PRIORITIES[i]);
+        }
+    }
+
+    /**
+     * @param lane  one of the {@code LANE_} constants
+     * @param owner the object the work is done for, see {@link #cancelAll(Object)}
+     * @return a future which is cancelled if the task is dropped from a full queue
+     */
+    public Future<?> submit(int lane, Object owner, Runnable runnable) {
+        Task task = new Task(mLanes[lane], owner, runnable);
+        synchronized (mTasks) {
+            mTasks.add(task);
+        }
+        mLanes[lane].execute(task);
+        return task;
+    }
+
+    /**
+     * Cancels the queued and running tasks of the owner, running ones are interrupted.
+     */
+    public void cancelAll(Object owner) {
+        List<Task> tasks = new ArrayList<>();
+        synchronized (mTasks) {
+            for (Task task : mTasks) {
+                if (task.mOwner == owner) {
+                    tasks.add(task);
+                }
+            }
+        }
+        // queued ones first, or the threads freed by interrupting the running ones pick them up
+        for (Task task : tasks) {
+            if (task.mLane.remove(task)) {
+                task.cancel(false);
+            }
+        }
+        for (Task task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    public String getStats() {
+        StringBuilder stats = new StringBuilder();
+        for (Lane lane : mLanes) {
+            if (stats.length() > 0) {
+                stats.append("; ");
+            }
+            lane.appendStats(stats);
+        }
+        return stats.toString();
+    }
+
+    private final class Task extends FutureTask<Void> {
+
+        private final Lane mLane;
+        private final Object mOwner;
+        private final long mSubmitTime = SystemClock.uptimeMillis();
+        // dropped from a full queue, which the lane counts apart from cancellations
+        private volatile boolean mDropped;
+
+        Task(Lane lane, Object owner, Runnable runnable) {
+            super(runnable, null);
+            mLane = lane;
+            mOwner = owner;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            long startTime = SystemClock.uptimeMillis();
+            mLane.onStarted(startTime - mSubmitTime);
+            super.run();
+            mLane.onFinished(SystemClock.uptimeMillis() - startTime);
+        }
+
+        @Override
+        protected void done() {
+            synchronized (mTasks) {
+                mTasks.remove(this);
+            }
+            if (isCancelled() && !mDropped) {
+                mLane.onCancelled();
+            }
+        }
+
+        void drop() {
+            mDropped = true;
+            cancel(false);
+        }
+    }
+
+    private static final class Lane implements RejectedExecutionHandler {
+
+        private final String mName;
+        private final ThreadPoolExecutor mExecutor;
+        private final Histogram mWaitTime = new Histogram(MAX_LATENCY_MS);
+        private final Histogram mRunTime = new Histogram(MAX_LATENCY_MS);
+        private long mSubmitted;
+        private long mCompleted;
+        private long mDropped;
+        private long mCancelled;
+        private int mMaxDepth;
+
+        Lane(final String name, int threads, int capacity, final int priority) {
+            mName = name;
+            mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(priority);
+                            runnable.run();
+                        }
+                    }, TAG + "-" + name);
+                }
+            }, this);
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        void execute(Task task) {
+            synchronized (this) {
+                mSubmitted++;
+            }
+            mExecutor.execute(task);
+            int depth = mExecutor.getQueue().size();
+            synchronized (this) {
+                mMaxDepth = Math.max(mMaxDepth, depth);
+            }
+        }
+
+        /**
+         * @return true if the task was queued
+         */
+        boolean remove(Task task) {
+            return mExecutor.remove(task);
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest != null) {
+                drop((Task) oldest);
+            }
+            if (!executor.getQueue().offer(runnable)) {
+                drop((Task) runnable);
+            }
+        }
+
+        private void drop(Task task) {
+            synchronized (this) {
+                mDropped++;
+            }
+            task.drop();
+        }
+
+        synchronized void onStarted(long waitMs) {
+            mWaitTime.record(waitMs);
+        }
+
+        synchronized void onFinished(long runMs) {
+            mRunTime.record(runMs);
+            mCompleted++;
+        }
+
+        synchronized void onCancelled() {
+            mCancelled++;
+        }
+
+        synchronized void appendStats(StringBuilder out) {
+            out.append(mName).append(": depth ").append(mExecutor.getQueue().size())
+                    .append(" (max ").append(mMaxDepth).append("), submitted ").append(mSubmitted)
+                    .append(", completed ").append(mCompleted)
+                    .append(", dropped ").append(mDropped)
+                    .append(", cancelled ").append(mCancelled)
+                    .append(", wait p50/p90 ").append(mWaitTime.getPercentile(50))
+                    .append('/').append(mWaitTime.getPercentile(90))
+                    .append(" ms, run p50/p90 ").append(mRunTime.getPercentile(50))
+                    .append('/').append(mRunTime.getPercentile(90)).append(" ms");
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.ultracast.demo.cache;
+
+import com.ultracast.demo.abr.AbrController;
+import com.ultracast.demo.hls.ManifestCache;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.net.HttpFetcher;
+import com.ultracast.demo.net.LocalOrigin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// playlists go through the ManifestCache, which needs a working android.util.LruCache
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CachingProxyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] mSegment = new byte[100 * 1024];
+    private LocalOrigin mOrigin;
+    private SegmentCache mCache;
+    private CachingProxy mProxy;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < mSegment.length; i++) {
+            mSegment[i] = (byte) (i * 31);
+        }
+        mOrigin = new LocalOrigin();
+        mOrigin.put("/v/segment0.ts", mSegment);
+        mOrigin.put("/v/index.m3u8", "#EXTM3U\n"
+                + "#EXT-X-TARGETDURATION:6\n"
+                + "#EXTINF:6.0,\n"
+                + "segment0.ts\n"
+                + "#EXT-X-ENDLIST\n");
+        mCache = new SegmentCache(folder.newFolder("segments"), 1024 * 1024);
+        ManifestPrefetcher prefetcher = new ManifestPrefetcher(
+                new ManifestCache(folder.newFolder("manifests"), 64 * 1024));
+        mProxy = new CachingProxy(mCache, prefetcher, AbrController.getInstance());
+        mProxy.start();
+        assertTrue(mProxy.isRunning());
+    }
+
+    @After
+    public void tearDown() {
+        mProxy.stop();
+        mOrigin.close();
+    }
+
+    @Test
+    public void downloadsMediaOnceAndServesItFromTheCache() throws IOException {
+        String url = proxied("/v/segment0.ts");
+        assertArrayEquals(mSegment, get(url, null, 200));
+        assertNotNull(mCache.get(mOrigin.url("/v/segment0.ts")));
+        assertArrayEquals(mSegment, get(url, null, 200));
+        assertEquals(1, mOrigin.getRequestCount("/v/segment0.ts"));
+        assertEquals(0.5, mProxy.getHitRatio(), 0.001);
+        assertEquals(mSegment.length, mProxy.getBytesSaved());
+        assertEquals(mSegment.length, mProxy.getBytesFromOrigin());
+    }
+
+    @Test
+    public void passesRangesOfUncachedMediaThrough() throws IOException {
+        byte[] body = get(proxied("/v/segment0.ts"), "bytes=1000-1999", 206);
+        assertArrayEquals(Arrays.copyOfRange(mSegment, 1000, 2000), body);
+        assertEquals("bytes=1000-1999", mOrigin.getRanges().get(0));
+        // a part is not worth caching
+        assertNull(mCache.get(mOrigin.url("/v/segment0.ts")));
+    }
+
+    @Test
+    public void servesRangesOfCachedMedia() throws IOException {
+        get(proxied("/v/segment0.ts"), null, 200);
+        HttpURLConnection connection = open(proxied("/v/segment0.ts"), "bytes=5000-");
+        try {
+            assertEquals(206, connection.getResponseCode());
+            assertEquals("bytes 5000-" + (mSegment.length - 1) + "/" + mSegment.length,
+                    connection.getHeaderField("Content-Range"));
+            assertArrayEquals(Arrays.copyOfRange(mSegment, 5000, mSegment.length), read(connection));
+        } finally {
+            connection.disconnect();
+        }
+        assertEquals(1, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void rejectsRangesBeyondCachedMedia() throws IOException {
+        get(proxied("/v/segment0.ts"), null, 200);
+        get(proxied("/v/segment0.ts"), "bytes=" + mSegment.length + "-", 416);
+    }
+
+    @Test
+    public void servesSuffixRangesOfCachedMedia() throws IOException {
+        get(proxied("/v/segment0.ts"), null, 200);
+        HttpURLConnection connection = open(proxied("/v/segment0.ts"), "bytes=-500");
+        try {
+            assertEquals(206, connection.getResponseCode());
+            assertEquals("bytes " + (mSegment.length - 500) + "-" + (mSegment.length - 1) + "/" + mSegment.length,
+                    connection.getHeaderField("Content-Range"));
+            assertArrayEquals(Arrays.copyOfRange(mSegment, mSegment.length - 500, mSegment.length),
+                    read(connection));
+        } finally {
+            connection.disconnect();
+        }
+        // longer than the file means all of it
+        assertArrayEquals(mSegment, get(proxied("/v/segment0.ts"), "bytes=-" + (mSegment.length * 2), 206));
+        get(proxied("/v/segment0.ts"), "bytes=-0", 416);
+        assertEquals(1, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void passesSuffixRangesOfUncachedMediaThrough() throws IOException {
+        byte[] body = get(proxied("/v/segment0.ts"), "bytes=-500", 206);
+        assertArrayEquals(Arrays.copyOfRange(mSegment, mSegment.length - 500, mSegment.length), body);
+        assertEquals(Arrays.asList("bytes=-500"), mOrigin.getRanges());
+        assertNull(mCache.get(mOrigin.url("/v/segment0.ts")));
+    }
+
+    @Test
+    public void downloadsConcurrentMissesOnce() throws Exception {
+        mOrigin.setDelayMs(300);
+        final byte[][] bodies = new byte[3][];
+        Thread[] threads = new Thread[bodies.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        bodies[index] = get(proxied("/v/segment0.ts"), null, 200);
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        for (byte[] body : bodies) {
+            assertArrayEquals(mSegment, body);
+        }
+        assertEquals(1, mOrigin.getRequestCount("/v/segment0.ts"));
+    }
+
+    @Test
+    public void dropsClientsWhichSendNothing() throws IOException {
+        mProxy.setClientTimeoutMs(200);
+        URL base = new URL(proxyBase());
+        Socket socket = new Socket(base.getHost(), base.getPort());
+        try {
+            // well before this the proxy should have closed the connection
+            socket.setSoTimeout(5000);
+            long start = System.currentTimeMillis();
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            socket.close();
+        }
+        assertArrayEquals(mSegment, get(proxied("/v/segment0.ts"), null, 200));
+    }
+
+    @Test
+    public void rewritesPlaylistsToTheProxy() throws IOException {
+        String text = new String(get(proxied("/v/index.m3u8"), null, 200), "UTF-8");
+        assertTrue(text.contains(proxied("/v/segment0.ts") + "\n"));
+        assertFalse(text.contains(mOrigin.url("/")));
+    }
+
+    @Test
+    public void forwardsOriginErrors() throws IOException {
+        get(proxied("/v/missing.ts"), null, 404);
+        get(proxied("/v/missing.m3u8"), null, 502);
+    }
+
+    @Test
+    public void rejectsOtherSchemes() throws IOException {
+        String base = proxyBase();
+        get(base + "/file//etc/hosts", null, 400);
+        get(base + "/jar/file:/tmp/a.jar!/a", null, 400);
+        get(base + "/ftp/127.0.0.1/a.ts", null, 400);
+        get(base + "/no-scheme", null, 400);
+        assertEquals(0, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void rejectsOtherMethods() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxied("/v/segment0.ts")).openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            assertEquals(400, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void survivesRequestsWhichFailToParse() throws IOException {
+        // the range overflows a long
+        try {
+            get(proxied("/v/segment0.ts"), "bytes=99999999999999999999-", 200);
+            fail("expected the connection to be dropped");
+        } catch (IOException expected) {
+            // and the proxy keeps serving
+        }
+        assertArrayEquals(mSegment, get(proxied("/v/segment0.ts"), null, 200));
+    }
+
+    @Test
+    public void leavesOtherUrlsAlone() {
+        assertEquals("file:///sdcard/a.mp4", mProxy.proxyUri("file:///sdcard/a.mp4").toString());
+        mProxy.stop();
+        assertEquals(mOrigin.url("/v/segment0.ts"), mProxy.proxyUri(mOrigin.url("/v/segment0.ts")).toString());
+    }
+
+    private String proxied(String path) {
+        return mProxy.proxyUri(mOrigin.url(path)).toString();
+    }
+
+    private String proxyBase() {
+        String proxied = proxied("/");
+        return proxied.substring(0, proxied.indexOf("/http/"));
+    }
+
+    private static byte[] get(String url, String range, int expectedCode) throws IOException {
+        HttpURLConnection connection = open(url, range);
+        try {
+            assertEquals(expectedCode, connection.getResponseCode());
+            return expectedCode < 300 ? read(connection) : null;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        return connection;
+    }
+
+    private static byte[] read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HttpFetcher.copy(in, out);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
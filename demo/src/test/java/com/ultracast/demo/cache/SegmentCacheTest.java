@@ -0,0 +1,202 @@
+package com.ultracast.demo.cache;
+
+import com.ultracast.demo.net.LocalOrigin;
+import com.ultracast.demo.net.UrlKeys;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentCacheTest {
+
+    private static final String A = "http://cdn.example.com/a.ts";
+    private static final String B = "http://cdn.example.com/b.ts";
+    private static final String C = "http://cdn.example.com/c.ts";
+    private static final String D = "http://cdn.example.com/d.ts";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = folder.newFolder("segments");
+    }
+
+    @Test
+    public void storesCommittedResources() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 1000);
+        put(cache, A, 100);
+        File file = cache.get(A);
+        assertNotNull(file);
+        assertEquals(100, file.length());
+        assertEquals(UrlKeys.keyFor(A), file.getName());
+        assertEquals(100, cache.getSize());
+        assertEquals(1, cache.getCount());
+        assertNull(cache.get(B));
+    }
+
+    @Test
+    public void ignoresAbortedWrites() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 1000);
+        SegmentCache.Writer writer = cache.openWriter(A);
+        writer.write(new byte[50], 0, 50);
+        writer.abort();
+        writer.commit();
+        assertNull(cache.get(A));
+        assertEquals(0, cache.getSize());
+        // only the index may be left
+        assertFalse(new File(mDirectory, UrlKeys.keyFor(A)).exists());
+        assertTrue(mDirectory.list().length <= 1);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 250);
+        put(cache, A, 100);
+        put(cache, B, 100);
+        cache.get(A);
+        put(cache, C, 100);
+        assertNotNull(cache.get(A));
+        assertNull(cache.get(B));
+        assertNotNull(cache.get(C));
+        assertEquals(200, cache.getSize());
+        assertFalse(new File(mDirectory, UrlKeys.keyFor(B)).exists());
+    }
+
+    @Test
+    public void containsDoesNotChangeTheOrder() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 250);
+        put(cache, A, 100);
+        put(cache, B, 100);
+        assertTrue(cache.contains(A));
+        put(cache, C, 100);
+        assertFalse(cache.contains(A));
+        assertTrue(cache.contains(B));
+    }
+
+    @Test
+    public void rejectsResourcesLargerThanTheCache() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 100);
+        put(cache, A, 101);
+        assertNull(cache.get(A));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void trimsToSize() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 1000);
+        put(cache, A, 100);
+        put(cache, B, 100);
+        put(cache, C, 100);
+        cache.trimToSize(150);
+        assertEquals(1, cache.getCount());
+        assertNotNull(cache.get(C));
+    }
+
+    @Test
+    public void indexRoundTripKeepsEntriesAndOrder() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 1000);
+        put(cache, A, 100);
+        put(cache, B, 200);
+        put(cache, C, 300);
+        cache.get(A);
+        // lookups reorder in memory, the next write persists the order
+        put(cache, D, 50);
+
+        SegmentCache restarted = new SegmentCache(mDirectory, 1000);
+        assertEquals(4, restarted.getCount());
+        assertEquals(650, restarted.getSize());
+        // B is the eldest now, then C, A and D
+        restarted.trimToSize(450);
+        assertFalse(restarted.contains(B));
+        assertTrue(restarted.contains(C));
+        restarted.trimToSize(150);
+        assertFalse(restarted.contains(C));
+        assertNotNull(restarted.get(A));
+        assertNotNull(restarted.get(D));
+    }
+
+    @Test
+    public void dropsATornIndex() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 1000);
+        put(cache, A, 100);
+        put(cache, B, 100);
+        // a crash in the middle of the second entry
+        RandomAccessFile index = new RandomAccessFile(new File(mDirectory, "index"), "rw");
+        index.setLength(index.length() - 10);
+        index.close();
+
+        SegmentCache restarted = new SegmentCache(mDirectory, 1000);
+        assertEquals(0, restarted.getCount());
+        assertEquals(0, restarted.getSize());
+        assertNull(restarted.get(A));
+    }
+
+    @Test
+    public void dropsEntriesWhoseFileChanged() throws IOException {
+        SegmentCache cache = new SegmentCache(mDirectory, 1000);
+        put(cache, A, 100);
+        put(cache, B, 100);
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory, UrlKeys.keyFor(A)), "rw");
+        file.setLength(50);
+        file.close();
+
+        SegmentCache restarted = new SegmentCache(mDirectory, 1000);
+        assertEquals(1, restarted.getCount());
+        assertNull(restarted.get(A));
+        assertNotNull(restarted.get(B));
+
+        // and while running
+        new File(mDirectory, UrlKeys.keyFor(B)).delete();
+        assertNull(restarted.get(B));
+        assertEquals(0, restarted.getSize());
+    }
+
+    @Test
+    public void fetchesOnce() throws IOException {
+        LocalOrigin origin = new LocalOrigin();
+        try {
+            origin.put("/a.ts", new byte[300]);
+            SegmentCache cache = new SegmentCache(mDirectory, 1000);
+            assertEquals(300, cache.fetch(origin.url("/a.ts"), 1000));
+            assertEquals(0, cache.fetch(origin.url("/a.ts"), 1000));
+            assertEquals(1, origin.getRequestCount("/a.ts"));
+            assertEquals(300, cache.get(origin.url("/a.ts")).length());
+        } finally {
+            origin.close();
+        }
+    }
+
+    @Test
+    public void skipsFetchesLargerThanTheLimit() throws IOException {
+        LocalOrigin origin = new LocalOrigin();
+        try {
+            origin.put("/a.ts", new byte[300]);
+            SegmentCache cache = new SegmentCache(mDirectory, 1000);
+            assertEquals(-1, cache.fetch(origin.url("/a.ts"), 200));
+            assertNull(cache.get(origin.url("/a.ts")));
+        } finally {
+            origin.close();
+        }
+    }
+
+    private static void put(SegmentCache cache, String url, int length) throws IOException {
+        SegmentCache.Writer writer = cache.openWriter(url);
+        byte[] data = new byte[length];
+        writer.write(data, 0, length);
+        writer.commit();
+    }
+}
@@ -0,0 +1,147 @@
+package com.ultracast.demo.catalog;
+
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+// the compiled index is checked against the CatalogParser, built on android.util.JsonReader
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BinaryCatalogTest {
+
+    private static final ThumbnailTrack TRACK =
+            new ThumbnailTrack("http://cdn.example.com/sheet%d.jpg", 10, 5, 2000);
+
+    @Test
+    public void readsEntries() throws IOException {
+        BinaryCatalog catalog = wrap(Arrays.asList(
+                new Sample("Le Mans 2016: Race Start", "http://cdn.example.com/a.m3u8", TRACK),
+                new Sample("Formula 360°", "http://cdn.example.com/b.mp4", null)));
+        assertEquals(2, catalog.getCount());
+        Sample first = catalog.get(0);
+        assertEquals("Le Mans 2016: Race Start", first.getTitle());
+        assertEquals("http://cdn.example.com/a.m3u8", first.getUrl());
+        ThumbnailTrack track = first.getThumbnails();
+        assertEquals(TRACK.getUrlPattern(), track.getUrlPattern());
+        assertEquals(10, track.getColumns());
+        assertEquals(5, track.getRows());
+        assertEquals(2000, track.getInterval());
+        // multi byte characters survive
+        assertEquals("Formula 360°", catalog.getTitle(1));
+        assertNull(catalog.get(1).getThumbnails());
+    }
+
+    @Test
+    public void ignoresPositionsOutOfRange() throws IOException {
+        BinaryCatalog catalog = wrap(Arrays.asList(new Sample("a", "http://cdn.example.com/a.m3u8", null)));
+        assertNull(catalog.get(-1));
+        assertNull(catalog.get(1));
+        assertNull(catalog.getTitle(1));
+    }
+
+    @Test
+    public void sharesRepeatedStrings() throws IOException {
+        Sample sample = new Sample("a", "http://cdn.example.com/a.m3u8", TRACK);
+        byte[] once = CatalogIndexWriter.write(Arrays.asList(sample));
+        byte[] twice = CatalogIndexWriter.write(Arrays.asList(sample, sample));
+        // only a record more
+        assertEquals(once.length + 24, twice.length);
+        assertEquals("a", new BinaryCatalog(ByteBuffer.wrap(twice)).getTitle(1));
+    }
+
+    @Test
+    public void readsAnEmptyCatalog() throws IOException {
+        assertEquals(0, wrap(new ArrayList<Sample>()).getCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        new BinaryCatalog(ByteBuffer.wrap("[{\"title\": \"a\"}]".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        byte[] bytes = CatalogIndexWriter.write(Arrays.asList(new Sample("a", "http://cdn.example.com/a", null)));
+        bytes[7] = 2;
+        new BinaryCatalog(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            samples.add(new Sample("a" + i, "http://cdn.example.com/a" + i, null));
+        }
+        byte[] bytes = CatalogIndexWriter.write(samples);
+        new BinaryCatalog(ByteBuffer.wrap(Arrays.copyOf(bytes, 16 + 5 * 24)));
+    }
+
+    @Test
+    public void matchesTheJsonItWasCompiledFrom() throws IOException {
+        // set by the build, which compiles the index before the tests
+        String binPath = System.getProperty("catalog.bin");
+        String jsonPath = System.getProperty("catalog.json");
+        assumeTrue(binPath != null && jsonPath != null);
+        File bin = new File(binPath);
+        assertTrue("compileCatalog did not run", bin.exists());
+
+        final List<Sample> expected = new ArrayList<>();
+        new CatalogParser(PagedCatalog.PAGE_SIZE).parse(new FileInputStream(jsonPath),
+                new CatalogParser.PageSink() {
+                    @Override
+                    public boolean onPage(List<Sample> page) {
+                        expected.addAll(page);
+                        return true;
+                    }
+                });
+        RandomAccessFile file = new RandomAccessFile(bin, "r");
+        BinaryCatalog catalog;
+        try {
+            catalog = new BinaryCatalog(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        } finally {
+            file.close();
+        }
+
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), catalog.getCount());
+        for (int i = 0; i < expected.size(); i++) {
+            Sample want = expected.get(i);
+            Sample got = catalog.get(i);
+            assertNotNull(got);
+            assertEquals(want.getTitle(), got.getTitle());
+            assertEquals(want.getUrl(), got.getUrl());
+            assertEquals(want.getTitle(), catalog.getTitle(i));
+            if (want.getThumbnails() == null) {
+                assertNull(got.getThumbnails());
+            } else {
+                assertEquals(want.getThumbnails().getUrlPattern(), got.getThumbnails().getUrlPattern());
+                assertEquals(want.getThumbnails().getColumns(), got.getThumbnails().getColumns());
+                assertEquals(want.getThumbnails().getRows(), got.getThumbnails().getRows());
+                assertEquals(want.getThumbnails().getInterval(), got.getThumbnails().getInterval());
+            }
+        }
+    }
+
+    private static BinaryCatalog wrap(List<Sample> samples) throws IOException {
+        return new BinaryCatalog(ByteBuffer.wrap(CatalogIndexWriter.write(samples)));
+    }
+}
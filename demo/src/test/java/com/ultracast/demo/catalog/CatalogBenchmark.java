@@ -0,0 +1,85 @@
+package com.ultracast.demo.catalog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Loads a synthetic catalog through the {@link PagedCatalog} and reports the time to the first
+ * row, the time to the last one and the peak heap. Run with {@code -Pbenchmarks} for the full
+ * 100k entries.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CatalogBenchmark {
+
+    private static final int COUNT = Boolean.getBoolean("benchmarks") ? 100000 : 5000;
+    private static final long TIMEOUT_MS = 120000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PagedCatalog mCatalog;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        mCatalog = new PagedCatalog(new File(folder.getRoot(), "catalog.spill"), new PagedCatalog.Listener() {
+            @Override
+            public void onCatalogChanged() {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mCatalog.close();
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void firstRowComesBeforeTheParseFinishes() throws InterruptedException {
+        String json = SyntheticCatalog.json(COUNT);
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+        long peakHeap = baseHeap;
+        long firstRowNs = -1;
+
+        long startNs = System.nanoTime();
+        mCatalog.load(SyntheticCatalog.stream(json), "synthetic");
+        while (!mCatalog.isLoaded()) {
+            if (System.nanoTime() - startNs > TIMEOUT_MS * 1000000L) {
+                fail("timed out");
+            }
+            Thread.sleep(1);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            if (firstRowNs < 0 && mCatalog.get(0) != null) {
+                firstRowNs = System.nanoTime() - startNs;
+            }
+            peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+        }
+        long loadedNs = System.nanoTime() - startNs;
+
+        assertEquals(COUNT, mCatalog.getCount());
+        assertNotNull(mCatalog.get(0));
+        assertTrue(firstRowNs >= 0 && firstRowNs <= loadedNs);
+        System.out.println(String.format("PagedCatalog, %d entries: first row %.1f ms, loaded %.1f ms,"
+                        + " peak heap %d KB over %d KB, decoded pages %d KB",
+                COUNT, firstRowNs / 1e6, loadedNs / 1e6, (peakHeap - baseHeap) / 1024, baseHeap / 1024,
+                mCatalog.getMemoryBytes() / 1024));
+    }
+}
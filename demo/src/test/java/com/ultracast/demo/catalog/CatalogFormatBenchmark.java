@@ -0,0 +1,141 @@
+package com.ultracast.demo.catalog;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the work to get a catalog on screen from the JSON and from the binary index: the
+ * full parse of the JSON path against opening the index and binding the first screen of rows,
+ * and a full scan of the index for reference. Runs 1k and 10k entries, and 100k with
+ * {@code -Pbenchmarks}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CatalogFormatBenchmark {
+
+    private static final int[] SIZES = Boolean.getBoolean("benchmarks")
+            ? new int[]{1000, 10000, 100000} : new int[]{1000, 10000};
+    private static final int RUNS = 5;
+    private static final int SCREEN_ROWS = 20;
+
+    private com.sun.management.ThreadMXBean mThreads;
+    private long mThreadId;
+    // keeps the results alive so nothing is optimized away
+    private int mSink;
+
+    @Test
+    public void binaryIndexOpensWithoutParsing() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+        mThreadId = Thread.currentThread().getId();
+
+        for (int size : SIZES) {
+            final byte[] json = SyntheticCatalog.json(size).getBytes("UTF-8");
+            final byte[] index = CatalogIndexWriter.write(parse(json));
+
+            Result jsonParse = measure(new Task() {
+                @Override
+                public int run() throws IOException {
+                    return parse(json).size();
+                }
+            });
+            Result binaryOpen = measure(new Task() {
+                @Override
+                public int run() throws IOException {
+                    BinaryCatalog catalog = new BinaryCatalog(ByteBuffer.wrap(index));
+                    int length = 0;
+                    for (int i = 0; i < SCREEN_ROWS; i++) {
+                        length += catalog.getTitle(i).length();
+                    }
+                    return length;
+                }
+            });
+            Result binaryScan = measure(new Task() {
+                @Override
+                public int run() throws IOException {
+                    BinaryCatalog catalog = new BinaryCatalog(ByteBuffer.wrap(index));
+                    int count = 0;
+                    for (int i = 0; i < catalog.getCount(); i++) {
+                        count += catalog.get(i) != null ? 1 : 0;
+                    }
+                    assertEquals(catalog.getCount(), count);
+                    return count;
+                }
+            });
+
+            System.out.println(String.format("%d entries, JSON %d KB, index %d KB", size,
+                    json.length / 1024, index.length / 1024));
+            System.out.println("  json parse:        " + jsonParse);
+            System.out.println("  binary first rows: " + binaryOpen);
+            System.out.println("  binary full scan:  " + binaryScan);
+            // opening the index does not depend on the size of the catalog
+            assertTrue(binaryOpen.allocatedBytes < jsonParse.allocatedBytes);
+        }
+        assertTrue(mSink != 0);
+    }
+
+    private Result measure(Task task) throws IOException {
+        // warm up, then keep the fastest run
+        mSink += task.run();
+        Result best = null;
+        for (int i = 0; i < RUNS; i++) {
+            long startBytes = mThreads.getThreadAllocatedBytes(mThreadId);
+            long startNs = System.nanoTime();
+            mSink += task.run();
+            Result result = new Result(System.nanoTime() - startNs,
+                    mThreads.getThreadAllocatedBytes(mThreadId) - startBytes);
+            if (best == null || result.elapsedNs < best.elapsedNs) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    private static List<Sample> parse(byte[] json) throws IOException {
+        final List<Sample> samples = new ArrayList<>();
+        new CatalogParser(PagedCatalog.PAGE_SIZE).parse(SyntheticCatalog.stream(json),
+                new CatalogParser.PageSink() {
+                    @Override
+                    public boolean onPage(List<Sample> page) {
+                        samples.addAll(page);
+                        return true;
+                    }
+                });
+        return samples;
+    }
+
+    private interface Task {
+        int run() throws IOException;
+    }
+
+    private static class Result {
+        final long elapsedNs;
+        final long allocatedBytes;
+
+        Result(long elapsedNs, long allocatedBytes) {
+            this.elapsedNs = elapsedNs;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8.2f ms, %8d KB allocated", elapsedNs / 1e6, allocatedBytes / 1024);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.ultracast.demo.catalog;
+
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the {@link BinaryCatalog} format like the {@code compileCatalog} task does, for
+ * catalogs built in tests.
+ */
+final class CatalogIndexWriter {
+
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 24;
+
+    private CatalogIndexWriter() {
+    }
+
+    static byte[] write(List<Sample> samples) throws IOException {
+        final int stringTableStart = HEADER_BYTES + samples.size() * RECORD_BYTES;
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream stringsOut = new DataOutputStream(strings);
+        Map<String, Integer> offsets = new HashMap<>();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x55434154);
+        out.writeInt(1);
+        out.writeInt(samples.size());
+        out.writeInt(RECORD_BYTES);
+        for (Sample sample : samples) {
+            ThumbnailTrack thumbnails = sample.getThumbnails();
+            out.writeInt(intern(sample.getTitle(), stringTableStart, stringsOut, offsets));
+            out.writeInt(intern(sample.getUrl(), stringTableStart, stringsOut, offsets));
+            if (thumbnails != null) {
+                out.writeInt(intern(thumbnails.getUrlPattern(), stringTableStart, stringsOut, offsets));
+                out.writeInt(thumbnails.getColumns());
+                out.writeInt(thumbnails.getRows());
+                out.writeInt(thumbnails.getInterval());
+            } else {
+                out.writeInt(-1);
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeInt(0);
+            }
+        }
+        stringsOut.flush();
+        strings.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int intern(String value, int stringTableStart, DataOutputStream strings,
+                              Map<String, Integer> offsets) throws IOException {
+        Integer offset = offsets.get(value);
+        if (offset == null) {
+            byte[] bytes = value.getBytes("UTF-8");
+            offset = stringTableStart + strings.size();
+            strings.writeShort(bytes.length);
+            strings.write(bytes);
+            offsets.put(value, offset);
+        }
+        return offset;
+    }
+}
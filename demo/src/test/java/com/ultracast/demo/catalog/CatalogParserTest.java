@@ -0,0 +1,121 @@
+package com.ultracast.demo.catalog;
+
+import com.ultracast.demo.thumbnail.ThumbnailTrack;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+// the parser is built on android.util.JsonReader
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CatalogParserTest {
+
+    @Test
+    public void deliversFullPagesAndAShortLastPage() throws IOException {
+        RecordingSink sink = new RecordingSink(Integer.MAX_VALUE);
+        int count = new CatalogParser(64).parse(SyntheticCatalog.stream(SyntheticCatalog.json(150)), sink);
+        assertEquals(150, count);
+        assertEquals(3, sink.pages.size());
+        assertEquals(64, sink.pages.get(0).size());
+        assertEquals(64, sink.pages.get(1).size());
+        assertEquals(22, sink.pages.get(2).size());
+        Sample last = sink.pages.get(2).get(21);
+        assertEquals(SyntheticCatalog.title(149), last.getTitle());
+        assertEquals(SyntheticCatalog.url(149), last.getUrl());
+        assertNull(last.getThumbnails());
+    }
+
+    @Test
+    public void readsThumbnailTracks() throws IOException {
+        RecordingSink sink = new RecordingSink(Integer.MAX_VALUE);
+        new CatalogParser(64).parse(SyntheticCatalog.stream(SyntheticCatalog.json(2)), sink);
+        ThumbnailTrack track = sink.pages.get(0).get(0).getThumbnails();
+        assertNotNull(track);
+        assertEquals(SyntheticCatalog.thumbnailUrl(0), track.getUrlPattern());
+        assertEquals(10, track.getColumns());
+        assertEquals(10, track.getRows());
+        assertEquals(2000, track.getInterval());
+    }
+
+    @Test
+    public void deliversNothingForAnEmptyCatalog() throws IOException {
+        RecordingSink sink = new RecordingSink(Integer.MAX_VALUE);
+        assertEquals(0, new CatalogParser(64).parse(SyntheticCatalog.stream("[]"), sink));
+        assertEquals(0, sink.pages.size());
+    }
+
+    @Test
+    public void stopsWhenTheSinkSaysSo() throws IOException {
+        RecordingSink sink = new RecordingSink(2);
+        int count = new CatalogParser(10).parse(SyntheticCatalog.stream(SyntheticCatalog.json(1000)), sink);
+        assertEquals(20, count);
+        assertEquals(2, sink.pages.size());
+    }
+
+    @Test
+    public void skipsEntriesWithoutTitleOrUrl() throws IOException {
+        String json = "[{\"title\": \"a\", \"url\": \"http://cdn.example.com/a.m3u8\"},"
+                + "{\"title\": \"no url\"},"
+                + "{\"url\": \"http://cdn.example.com/no-title.m3u8\"},"
+                + "{\"title\": \"\", \"url\": \"http://cdn.example.com/empty.m3u8\"},"
+                + "{\"title\": \"b\", \"url\": \"http://cdn.example.com/b.m3u8\"}]";
+        RecordingSink sink = new RecordingSink(Integer.MAX_VALUE);
+        assertEquals(2, new CatalogParser(64).parse(SyntheticCatalog.stream(json), sink));
+        assertEquals("a", sink.pages.get(0).get(0).getTitle());
+        assertEquals("b", sink.pages.get(0).get(1).getTitle());
+    }
+
+    @Test
+    public void skipsUnknownFields() throws IOException {
+        String json = "[{\"id\": 7, \"title\": \"a\", \"tags\": [\"x\", {\"y\": 1}],"
+                + " \"url\": \"http://cdn.example.com/a.m3u8\", \"live\": false}]";
+        RecordingSink sink = new RecordingSink(Integer.MAX_VALUE);
+        assertEquals(1, new CatalogParser(64).parse(SyntheticCatalog.stream(json), sink));
+        assertEquals("http://cdn.example.com/a.m3u8", sink.pages.get(0).get(0).getUrl());
+    }
+
+    @Test
+    public void dropsIncompleteThumbnailTracks() throws IOException {
+        String json = "[{\"title\": \"a\", \"url\": \"http://cdn.example.com/a.m3u8\","
+                + " \"thumbnails\": {\"url\": \"sheet%d.jpg\", \"columns\": 10, \"rows\": 10}},"
+                + "{\"title\": \"b\", \"url\": \"http://cdn.example.com/b.m3u8\","
+                + " \"thumbnails\": {\"columns\": 10, \"rows\": 10, \"interval\": 2000}}]";
+        RecordingSink sink = new RecordingSink(Integer.MAX_VALUE);
+        assertEquals(2, new CatalogParser(64).parse(SyntheticCatalog.stream(json), sink));
+        // the entry is kept without a track
+        assertNull(sink.pages.get(0).get(0).getThumbnails());
+        assertNull(sink.pages.get(0).get(1).getThumbnails());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedDocuments() throws IOException {
+        new CatalogParser(64).parse(SyntheticCatalog.stream("{\"title\": \"a\"}"),
+                new RecordingSink(Integer.MAX_VALUE));
+    }
+
+    private static class RecordingSink implements CatalogParser.PageSink {
+
+        final List<List<Sample>> pages = new ArrayList<>();
+        private final int mMaxPages;
+
+        RecordingSink(int maxPages) {
+            mMaxPages = maxPages;
+        }
+
+        @Override
+        public boolean onPage(List<Sample> page) {
+            pages.add(page);
+            return pages.size() < mMaxPages;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.ultracast.demo.catalog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// pages are kept in an android.util.LruCache and published through the main looper
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PagedCatalogTest {
+
+    private static final int COUNT = 1000;
+    private static final long TIMEOUT_MS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mSpillFile;
+    private PagedCatalog mCatalog;
+    private int mChanges;
+
+    @Before
+    public void setUp() throws IOException {
+        // the parse posts from a worker thread, run the posts on the test thread instead
+        ShadowLooper.pauseMainLooper();
+        mSpillFile = new File(folder.getRoot(), "catalog.spill");
+        mCatalog = new PagedCatalog(mSpillFile, new PagedCatalog.Listener() {
+            @Override
+            public void onCatalogChanged() {
+                mChanges++;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mCatalog.close();
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void publishesEveryEntry() {
+        load(SyntheticCatalog.json(COUNT));
+        assertEquals(COUNT, mCatalog.getCount());
+        assertTrue(mChanges > 0);
+        Sample first = mCatalog.get(0);
+        assertNotNull(first);
+        assertEquals(SyntheticCatalog.title(0), first.getTitle());
+        assertEquals(SyntheticCatalog.url(0), first.getUrl());
+        assertEquals(SyntheticCatalog.title(1), mCatalog.getTitle(1));
+    }
+
+    @Test
+    public void finishesLoadingAnEmptyCatalog() {
+        load("[]");
+        assertEquals(0, mCatalog.getCount());
+        assertNull(mCatalog.get(0));
+    }
+
+    @Test
+    public void finishesLoadingABrokenCatalog() {
+        String json = SyntheticCatalog.json(COUNT);
+        load(json.substring(0, json.length() / 2));
+        // the full pages parsed before the error are kept
+        assertTrue(mCatalog.getCount() > 0);
+        assertEquals(0, mCatalog.getCount() % PagedCatalog.PAGE_SIZE);
+        assertNotNull(awaitSample(mCatalog.getCount() - 1));
+    }
+
+    @Test
+    public void keepsOnlyAWindowOfPagesDecoded() {
+        load(SyntheticCatalog.json(COUNT));
+        long windowBytes = mCatalog.getMemoryBytes();
+        assertTrue(windowBytes > 0);
+        // far pages are written to the spill file only
+        assertNull(mCatalog.get(COUNT - 1));
+        Sample last = awaitSample(COUNT - 1);
+        assertEquals(SyntheticCatalog.title(COUNT - 1), last.getTitle());
+        // a full scroll keeps the memory bounded
+        for (int position = 0; position < COUNT; position++) {
+            awaitSample(position);
+        }
+        assertTrue(mCatalog.getMemoryBytes() <= windowBytes * 2);
+    }
+
+    @Test
+    public void readsPagesBackWithTheirThumbnails() {
+        load(SyntheticCatalog.json(COUNT));
+        int position = COUNT - 2;
+        Sample sample = awaitSample(position);
+        assertEquals(SyntheticCatalog.url(position), sample.getUrl());
+        assertNotNull(sample.getThumbnails());
+        assertEquals(SyntheticCatalog.thumbnailUrl(position), sample.getThumbnails().getUrlPattern());
+        assertEquals(2000, sample.getThumbnails().getInterval());
+        assertNull(awaitSample(position + 1).getThumbnails());
+    }
+
+    @Test
+    public void trimmingDropsDecodedPages() {
+        load(SyntheticCatalog.json(COUNT));
+        mCatalog.trimMemory(0);
+        assertEquals(0, mCatalog.getMemoryBytes());
+        assertNull(mCatalog.get(0));
+        assertEquals(SyntheticCatalog.title(0), awaitSample(0).getTitle());
+    }
+
+    @Test
+    public void ignoresPositionsOutOfRange() {
+        load(SyntheticCatalog.json(10));
+        assertNull(mCatalog.get(-1));
+        assertNull(mCatalog.get(10));
+    }
+
+    @Test
+    public void closeDeletesTheSpillFile() {
+        load(SyntheticCatalog.json(COUNT));
+        assertTrue(mSpillFile.exists());
+        mCatalog.get(COUNT - 1);
+        mCatalog.close();
+        assertFalse(mSpillFile.exists());
+        int changes = mChanges;
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(changes, mChanges);
+        assertEquals(0, mCatalog.getMemoryBytes());
+    }
+
+    private void load(String json) {
+        mCatalog.load(SyntheticCatalog.stream(json), "test");
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!mCatalog.isLoaded()) {
+            flushMainLooper(deadline);
+        }
+        // and the coalesced notification
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private Sample awaitSample(int position) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        Sample sample;
+        while ((sample = mCatalog.get(position)) == null) {
+            flushMainLooper(deadline);
+        }
+        return sample;
+    }
+
+    private static void flushMainLooper(long deadline) {
+        if (System.currentTimeMillis() > deadline) {
+            fail("timed out");
+        }
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+}
@@ -0,0 +1,57 @@
+package com.ultracast.demo.catalog;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Generates JSON catalogs of any size, every other entry with a thumbnail track.
+ */
+final class SyntheticCatalog {
+
+    private SyntheticCatalog() {
+    }
+
+    static String title(int position) {
+        return "Clip " + position;
+    }
+
+    static String url(int position) {
+        return "http://cdn.example.com/clips/" + position + "/master.m3u8";
+    }
+
+    static String thumbnailUrl(int position) {
+        return "http://cdn.example.com/clips/" + position + "/sheet%d.jpg";
+    }
+
+    static boolean hasThumbnails(int position) {
+        return position % 2 == 0;
+    }
+
+    static String json(int count) {
+        StringBuilder builder = new StringBuilder(count * 180);
+        builder.append("[\n");
+        for (int i = 0; i < count; i++) {
+            builder.append("  {\"title\": \"").append(title(i))
+                    .append("\", \"url\": \"").append(url(i)).append('"');
+            if (hasThumbnails(i)) {
+                builder.append(", \"thumbnails\": {\"url\": \"").append(thumbnailUrl(i))
+                        .append("\", \"columns\": 10, \"rows\": 10, \"interval\": 2000}");
+            }
+            builder.append(i + 1 < count ? "},\n" : "}\n");
+        }
+        return builder.append("]\n").toString();
+    }
+
+    static InputStream stream(String json) {
+        try {
+            return stream(json.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static InputStream stream(byte[] json) {
+        return new ByteArrayInputStream(json);
+    }
+}
@@ -0,0 +1,224 @@
+package com.ultracast.demo.download;
+
+import com.ultracast.demo.abr.AbrController;
+import com.ultracast.demo.hls.ManifestCache;
+import com.ultracast.demo.hls.ManifestPrefetcher;
+import com.ultracast.demo.net.LocalOrigin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// runs against local origins, android.net.Uri and the main looper need the framework
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DownloadManagerTest {
+
+    private static final long TIMEOUT_MS = 20000;
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalOrigin mOrigin;
+    private LocalOrigin mOtherOrigin;
+    private File mRoot;
+    private ManifestPrefetcher mPrefetcher;
+    private DownloadManager mManager;
+
+    @Before
+    public void setUp() throws IOException {
+        mOrigin = new LocalOrigin();
+        mOtherOrigin = new LocalOrigin();
+        mRoot = folder.newFolder("downloads");
+        mPrefetcher = new ManifestPrefetcher(new ManifestCache(folder.newFolder("manifests"), 64 * 1024));
+        mManager = new DownloadManager(mRoot, mPrefetcher, AbrController.getInstance());
+    }
+
+    @After
+    public void tearDown() {
+        mOrigin.close();
+        mOtherOrigin.close();
+    }
+
+    @Test
+    public void downloadsEveryResource() throws IOException {
+        String url = serve(mOrigin, "/a", 5);
+        Download download = mManager.start(url, "a");
+        awaitState(download, Download.STATE_COMPLETED);
+        assertEquals(5, download.getCompletedCount());
+        assertEquals(5L * SEGMENT_BYTES, download.getBytes());
+        File directory = mManager.directoryFor(url);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(segment(i), read(new File(directory, i + ".ts")));
+        }
+        assertNotNull(mManager.getLocalUri(url));
+        String index = new String(read(new File(directory, "index.m3u8")), "UTF-8");
+        assertTrue(index.contains("\n0.ts\n"));
+        assertFalse(index.contains("http://"));
+    }
+
+    @Test
+    public void limitsConnectionsPerHost() throws IOException {
+        String firstUrl = serve(mOrigin, "/a", 8);
+        String secondUrl = serve(mOrigin, "/b", 8);
+        // playlists are not transfers, only the segments count
+        mPrefetcher.getOrFetch(firstUrl);
+        mPrefetcher.getOrFetch(secondUrl);
+        mOrigin.setDelayMs(50);
+        Download first = mManager.start(firstUrl, "a");
+        Download second = mManager.start(secondUrl, "b");
+        awaitState(first, Download.STATE_COMPLETED);
+        awaitState(second, Download.STATE_COMPLETED);
+        assertEquals(DownloadManager.MAX_CONNECTIONS_PER_HOST, mOrigin.getMaxActive());
+    }
+
+    @Test
+    public void aBusyHostDoesNotHoldUpOthers() throws IOException {
+        mOrigin.setDelayMs(200);
+        Download slow = mManager.start(serve(mOrigin, "/slow", 16), "slow");
+        awaitRequests(mOrigin, 2);
+        // the other origin is another host to the manager
+        String otherUrl = serve(mOtherOrigin, "/fast", 2).replace("127.0.0.1", "localhost");
+        Download fast = mManager.start(otherUrl, "fast");
+        awaitState(fast, Download.STATE_COMPLETED);
+        // did not wait for the queued transfers of the slow host
+        assertTrue(slow.getCompletedCount() <= 6);
+        awaitState(slow, Download.STATE_COMPLETED);
+    }
+
+    @Test
+    public void removingDoesNotWaitForTransfers() throws IOException {
+        String doneUrl = serve(mOrigin, "/done", 1);
+        awaitState(mManager.start(doneUrl, "done"), Download.STATE_COMPLETED);
+        File doneDirectory = mManager.directoryFor(doneUrl);
+        assertTrue(doneDirectory.exists());
+
+        mOrigin.setDelayMs(200);
+        int requests = mOrigin.getRequestCount();
+        Download slow = mManager.start(serve(mOrigin, "/slow", 16), "slow");
+        // the playlist and the first transfers
+        awaitRequests(mOrigin, requests + 3);
+        mManager.remove(doneUrl);
+        assertNull(mManager.get(doneUrl));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (doneDirectory.exists()) {
+            sleep(deadline);
+        }
+        // did not wait for the queued transfers
+        assertTrue(slow.getCompletedCount() <= 6);
+    }
+
+    @Test
+    public void retriesFailedTransfers() throws IOException {
+        String url = serve(mOrigin, "/a", 3);
+        mOrigin.fail("/a/segment1.ts", 2);
+        Download download = mManager.start(url, "a");
+        awaitState(download, Download.STATE_COMPLETED);
+        assertEquals(3, mOrigin.getRequestCount("/a/segment1.ts"));
+        assertArrayEquals(segment(1), read(new File(mManager.directoryFor(url), "1.ts")));
+    }
+
+    @Test
+    public void stopsOnErrorsOfThePlaylist() throws IOException {
+        Download download = mManager.start(mOrigin.url("/missing/index.m3u8"), "missing");
+        awaitState(download, Download.STATE_PAUSED);
+        assertNotNull(download.getError());
+        assertNull(mManager.getLocalUri(mOrigin.url("/missing/index.m3u8")));
+    }
+
+    @Test
+    public void findsDownloadsOfEarlierRuns() throws IOException {
+        String url = "http://cdn.example.com/a/index.m3u8";
+        File directory = mManager.directoryFor(url);
+        assertTrue(directory.mkdirs());
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(directory, "download.state")));
+        out.writeUTF(url);
+        out.writeUTF("a");
+        out.writeBoolean(false);
+        out.close();
+        new FileOutputStream(new File(directory, "index.m3u8")).close();
+
+        mManager.resumeAll();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mManager.get(url) == null) {
+            sleep(deadline);
+        }
+        assertEquals(Download.STATE_COMPLETED, mManager.get(url).getState());
+        assertEquals(40, directory.getName().length());
+        assertNotNull(mManager.getLocalUri(url));
+    }
+
+    private static String serve(LocalOrigin origin, String directory, int segments) {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:2\n");
+        for (int i = 0; i < segments; i++) {
+            origin.put(directory + "/segment" + i + ".ts", segment(i));
+            playlist.append("#EXTINF:2.0,\nsegment").append(i).append(".ts\n");
+        }
+        playlist.append("#EXT-X-ENDLIST\n");
+        origin.put(directory + "/index.m3u8", playlist.toString());
+        return origin.url(directory + "/index.m3u8");
+    }
+
+    private static byte[] segment(int index) {
+        byte[] data = new byte[SEGMENT_BYTES];
+        Arrays.fill(data, (byte) index);
+        return data;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void awaitState(Download download, int state) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (download.getState() != state) {
+            sleep(deadline);
+        }
+    }
+
+    private static void awaitRequests(LocalOrigin origin, int count) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (origin.getRequestCount() < count) {
+            sleep(deadline);
+        }
+    }
+
+    private static void sleep(long deadline) {
+        if (System.currentTimeMillis() > deadline) {
+            fail("timed out");
+        }
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
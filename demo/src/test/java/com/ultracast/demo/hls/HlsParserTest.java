@@ -0,0 +1,148 @@
+package com.ultracast.demo.hls;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HlsParserTest {
+
+    private static final String BASE = "http://cdn.example.com/videos/a/";
+
+    static final String MASTER = "#EXTM3U\n"
+            + "#EXT-X-VERSION:3\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=1280x640,CODECS=\"avc1.4d401f,mp4a.40.2\"\n"
+            + "low/index.m3u8\n"
+            + "\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=4000000,RESOLUTION=3840x1920\n"
+            + "http://other.example.com/high/index.m3u8\n";
+
+    static final String VOD = "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:6\n"
+            + "#EXT-X-MEDIA-SEQUENCE:0\n"
+            + "#EXTINF:6.0,\n"
+            + "segment0.ts\n"
+            + "#EXTINF:6.0,\n"
+            + "segment1.ts\n"
+            + "#EXTINF:2.5,\n"
+            + "segment2.ts\n"
+            + "#EXT-X-ENDLIST\n";
+
+    static final String LIVE = "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MEDIA-SEQUENCE:120\n"
+            + "#EXTINF:4.0,\n"
+            + "live120.ts\n"
+            + "#EXTINF:4.0,\n"
+            + "live121.ts\n";
+
+    @Test
+    public void detectsMasterPlaylists() {
+        assertTrue(HlsParser.isMasterPlaylist(MASTER));
+        assertFalse(HlsParser.isMasterPlaylist(VOD));
+    }
+
+    @Test
+    public void parsesVariants() throws IOException {
+        HlsMasterPlaylist master = HlsParser.parseMaster(BASE + "master.m3u8", MASTER);
+        List<HlsVariant> variants = master.getVariants();
+        assertEquals(2, variants.size());
+        HlsVariant low = variants.get(0);
+        assertEquals(BASE + "low/index.m3u8", low.getUri());
+        assertEquals(800000, low.getBandwidth());
+        assertEquals(1280, low.getWidth());
+        assertEquals(640, low.getHeight());
+        assertEquals("avc1.4d401f,mp4a.40.2", low.getCodecs());
+        HlsVariant high = variants.get(1);
+        assertEquals("http://other.example.com/high/index.m3u8", high.getUri());
+        assertEquals(4000000, high.getBandwidth());
+        assertNull(high.getCodecs());
+    }
+
+    @Test
+    public void parsesVodSegments() throws IOException {
+        HlsMediaPlaylist media = HlsParser.parseMedia(BASE + "low/index.m3u8", VOD);
+        assertTrue(media.hasEndList());
+        assertEquals(6000, media.getTargetDurationMs());
+        assertEquals(14500, media.getDurationMs());
+        List<HlsSegment> segments = media.getSegments();
+        assertEquals(3, segments.size());
+        assertEquals(BASE + "low/segment1.ts", segments.get(1).getUri());
+        assertEquals(6000, segments.get(1).getStartTimeMs());
+        assertEquals(12000, segments.get(2).getStartTimeMs());
+        assertEquals(2500, segments.get(2).getDurationMs());
+        assertEquals(-1, segments.get(0).getByteRangeLength());
+    }
+
+    @Test
+    public void parsesLivePlaylists() throws IOException {
+        HlsMediaPlaylist media = HlsParser.parseMedia(BASE + "live.m3u8", LIVE);
+        assertFalse(media.hasEndList());
+        assertEquals(120, media.getMediaSequence());
+        assertEquals(4000, media.getTargetDurationMs());
+        assertEquals(2, media.getSegments().size());
+    }
+
+    @Test
+    public void parsesByteRanges() throws IOException {
+        String text = "#EXTM3U\n"
+                + "#EXT-X-TARGETDURATION:2\n"
+                + "#EXTINF:2,\n"
+                + "#EXT-X-BYTERANGE:1000@500\n"
+                + "media.mp4\n"
+                + "#EXTINF:2,\n"
+                + "#EXT-X-BYTERANGE:700\n"
+                + "media.mp4\n"
+                + "#EXT-X-ENDLIST\n";
+        List<HlsSegment> segments = HlsParser.parseMedia(BASE + "index.m3u8", text).getSegments();
+        assertEquals(500, segments.get(0).getByteRangeOffset());
+        assertEquals(1000, segments.get(0).getByteRangeLength());
+        // without an offset the range follows the previous one
+        assertEquals(1500, segments.get(1).getByteRangeOffset());
+        assertEquals(700, segments.get(1).getByteRangeLength());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTextWithoutHeader() throws IOException {
+        HlsParser.parseMedia(BASE + "index.m3u8", "segment0.ts\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedNumbers() throws IOException {
+        HlsParser.parseMedia(BASE + "index.m3u8", "#EXTM3U\n#EXTINF:six,\nsegment0.ts\n");
+    }
+
+    @Test
+    public void resolvesUriLinesAndAttributes() throws IOException {
+        String text = "#EXTM3U\n"
+                + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"../keys/key1\"\n"
+                + "#EXTINF:6.0,\n"
+                + "segment0.ts\n"
+                + "#EXT-X-ENDLIST\n";
+        String resolved = HlsParser.resolveUris(BASE + "low/index.m3u8", text);
+        assertTrue(resolved.contains("#EXT-X-MAP:URI=\"" + BASE + "low/init.mp4\"\n"));
+        assertTrue(resolved.contains("URI=\"" + BASE + "keys/key1\"\n"));
+        assertTrue(resolved.contains("\n" + BASE + "low/segment0.ts\n"));
+        assertTrue(resolved.endsWith("#EXT-X-ENDLIST\n"));
+    }
+
+    @Test
+    public void writesSelectedVariantsOnly() throws IOException {
+        HlsMasterPlaylist master = HlsParser.parseMaster(BASE + "master.m3u8", MASTER);
+        HlsVariant high = master.getVariants().get(1);
+        String text = HlsParser.writeMaster(MASTER, Arrays.asList(high));
+        HlsMasterPlaylist written = HlsParser.parseMaster(BASE + "master.m3u8", text);
+        assertEquals(1, written.getVariants().size());
+        assertEquals(high.getUri(), written.getVariants().get(0).getUri());
+        assertEquals(4000000, written.getVariants().get(0).getBandwidth());
+        // tags which do not belong to a variant are kept
+        assertTrue(text.contains("#EXT-X-VERSION:3\n"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.ultracast.demo.hls;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// the memory level is an android.util.LruCache
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ManifestCacheTest {
+
+    private static final String MASTER_URL = "http://cdn.example.com/a/master.m3u8";
+    private static final String VOD_URL = "http://cdn.example.com/a/low/index.m3u8";
+    private static final String LIVE_URL = "http://cdn.example.com/live/index.m3u8";
+    private static final long NOW = 1000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mDirectory;
+    private ManifestCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = folder.newFolder("manifests");
+        mCache = new ManifestCache(mDirectory, 64 * 1024);
+    }
+
+    @Test
+    public void masterPlaylistsLiveForTenMinutes() throws IOException {
+        ManifestCache.Entry entry = mCache.put(MASTER_URL, HlsParserTest.MASTER, NOW);
+        assertEquals(ManifestCache.MASTER_TTL_MS, ManifestCache.ttlFor(entry));
+        assertNotNull(mCache.getFromMemory(MASTER_URL, NOW + ManifestCache.MASTER_TTL_MS - 1));
+        assertNull(mCache.getFromMemory(MASTER_URL, NOW + ManifestCache.MASTER_TTL_MS));
+    }
+
+    @Test
+    public void vodPlaylistsLiveForADay() throws IOException {
+        ManifestCache.Entry entry = mCache.put(VOD_URL, HlsParserTest.VOD, NOW);
+        assertEquals(ManifestCache.VOD_TTL_MS, ManifestCache.ttlFor(entry));
+        assertNotNull(mCache.get(VOD_URL, NOW + ManifestCache.VOD_TTL_MS - 1));
+        assertNull(mCache.get(VOD_URL, NOW + ManifestCache.VOD_TTL_MS));
+    }
+
+    @Test
+    public void livePlaylistsLiveForOneTargetDuration() throws IOException {
+        ManifestCache.Entry entry = mCache.put(LIVE_URL, HlsParserTest.LIVE, NOW);
+        assertEquals(4000, ManifestCache.ttlFor(entry));
+        assertNotNull(mCache.getFromMemory(LIVE_URL, NOW + 3999));
+        assertNull(mCache.getFromMemory(LIVE_URL, NOW + 4000));
+    }
+
+    @Test
+    public void livePlaylistsLiveAtLeastOneSecond() throws IOException {
+        String text = "#EXTM3U\n#EXTINF:0.5,\nlive0.ts\n";
+        assertEquals(1000, ManifestCache.ttlFor(mCache.put(LIVE_URL, text, NOW)));
+    }
+
+    @Test
+    public void storesResolvedText() throws IOException {
+        ManifestCache.Entry entry = mCache.put(VOD_URL, HlsParserTest.VOD, NOW);
+        assertTrue(entry.getText().contains("http://cdn.example.com/a/low/segment0.ts"));
+        assertEquals(3, entry.getMedia().getSegments().size());
+        assertNull(entry.getMaster());
+    }
+
+    @Test
+    public void readsEntriesBackFromDisk() throws IOException {
+        mCache.put(VOD_URL, HlsParserTest.VOD, NOW);
+        ManifestCache restarted = new ManifestCache(mDirectory, 64 * 1024);
+        assertNull(restarted.getFromMemory(VOD_URL, NOW));
+        ManifestCache.Entry entry = restarted.get(VOD_URL, NOW + 1);
+        assertNotNull(entry);
+        assertEquals(3, entry.getMedia().getSegments().size());
+        // the disk hit is promoted to memory and keeps its expiry time
+        assertNotNull(restarted.getFromMemory(VOD_URL, NOW + 2));
+        assertTrue(entry.isExpired(NOW + ManifestCache.VOD_TTL_MS));
+    }
+
+    @Test
+    public void deletesExpiredEntriesOnDisk() throws IOException {
+        mCache.put(LIVE_URL, HlsParserTest.LIVE, NOW);
+        ManifestCache restarted = new ManifestCache(mDirectory, 64 * 1024);
+        assertNull(restarted.get(LIVE_URL, NOW + 4000));
+        assertFalse(restarted.fileFor(LIVE_URL).exists());
+    }
+
+    @Test
+    public void trimmingKeepsTheDiskLevel() throws IOException {
+        mCache.put(VOD_URL, HlsParserTest.VOD, NOW);
+        assertTrue(mCache.getMemoryBytes() > 0);
+        mCache.trimMemory(0);
+        assertEquals(0, mCache.getMemoryBytes());
+        assertNull(mCache.getFromMemory(VOD_URL, NOW));
+        assertNotNull(mCache.get(VOD_URL, NOW));
+    }
+
+    @Test
+    public void namesFilesBySha1OfTheUrl() {
+        String name = mCache.fileFor(VOD_URL).getName();
+        assertEquals(40 + ".m3u8".length(), name.length());
+        assertNotEquals(name, mCache.fileFor(VOD_URL + "?v=2").getName());
+    }
+
+    @Test
+    public void dropsUnreadableFiles() throws IOException {
+        mCache.put(VOD_URL, HlsParserTest.VOD, NOW);
+        File file = mCache.fileFor(VOD_URL);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write((VOD_URL + "\nnot a time\n").getBytes("UTF-8"));
+        out.close();
+        ManifestCache restarted = new ManifestCache(mDirectory, 64 * 1024);
+        assertNull(restarted.get(VOD_URL, NOW));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void ignoresFilesOfOtherUrls() throws IOException {
+        mCache.put(VOD_URL, HlsParserTest.VOD, NOW);
+        File file = mCache.fileFor(VOD_URL);
+        assertTrue(file.renameTo(mCache.fileFor(LIVE_URL)));
+        ManifestCache restarted = new ManifestCache(mDirectory, 64 * 1024);
+        assertNull(restarted.get(LIVE_URL, NOW));
+    }
+}
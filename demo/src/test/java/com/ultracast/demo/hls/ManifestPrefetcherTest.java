@@ -0,0 +1,153 @@
+package com.ultracast.demo.hls;
+
+import com.ultracast.demo.net.LocalOrigin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ManifestPrefetcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalOrigin mOrigin;
+    private File mDirectory;
+    private ManifestPrefetcher mPrefetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        mOrigin = new LocalOrigin();
+        mOrigin.put("/a/master.m3u8", "#EXTM3U\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=800000\n"
+                + "low/index.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=4000000\n"
+                + "high/index.m3u8\n");
+        mOrigin.put("/a/low/index.m3u8", HlsParserTest.VOD);
+        mOrigin.put("/a/high/index.m3u8", HlsParserTest.VOD);
+        mOrigin.put("/live/index.m3u8", HlsParserTest.LIVE);
+        mDirectory = folder.newFolder("manifests");
+        mPrefetcher = new ManifestPrefetcher(new ManifestCache(mDirectory, 64 * 1024));
+    }
+
+    @After
+    public void tearDown() {
+        mOrigin.close();
+    }
+
+    @Test
+    public void recognizesHlsUrls() {
+        assertTrue(ManifestPrefetcher.isHls("http://cdn.example.com/a/master.m3u8"));
+        assertTrue(ManifestPrefetcher.isHls("http://cdn.example.com/a/master.m3u8?token=1"));
+        assertFalse(ManifestPrefetcher.isHls("http://cdn.example.com/a/video.mp4"));
+        assertFalse(ManifestPrefetcher.isHls("http://cdn.example.com/m3u8/video.mp4"));
+    }
+
+    @Test
+    public void loadsTheMasterAndTheFirstVariantOnly() throws IOException {
+        ManifestCache.Entry entry = mPrefetcher.load(mOrigin.url("/a/master.m3u8"));
+        assertNotNull(entry.getMaster());
+        assertEquals(1, mOrigin.getRequestCount("/a/master.m3u8"));
+        assertEquals(1, mOrigin.getRequestCount("/a/low/index.m3u8"));
+        assertEquals(0, mOrigin.getRequestCount("/a/high/index.m3u8"));
+        long now = System.currentTimeMillis();
+        assertNotNull(mPrefetcher.getCache().getFromMemory(mOrigin.url("/a/low/index.m3u8"), now));
+    }
+
+    @Test
+    public void servesWarmPlaylistsWithoutRequests() throws IOException {
+        mPrefetcher.load(mOrigin.url("/a/master.m3u8"));
+        int requests = mOrigin.getRequestCount();
+        mPrefetcher.load(mOrigin.url("/a/master.m3u8"));
+        mPrefetcher.getOrFetch(mOrigin.url("/a/low/index.m3u8"));
+        assertEquals(requests, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void servesPlaylistsFromDiskAfterARestart() throws IOException {
+        mPrefetcher.load(mOrigin.url("/a/master.m3u8"));
+        int requests = mOrigin.getRequestCount();
+        ManifestPrefetcher restarted = new ManifestPrefetcher(new ManifestCache(mDirectory, 64 * 1024));
+        ManifestCache.Entry entry = restarted.load(mOrigin.url("/a/master.m3u8"));
+        assertEquals(2, entry.getMaster().getVariants().size());
+        assertEquals(requests, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void tellsLiveFromVod() throws IOException {
+        assertFalse(mPrefetcher.isLive(mOrigin.url("/live/index.m3u8")));
+        mPrefetcher.load(mOrigin.url("/live/index.m3u8"));
+        mPrefetcher.load(mOrigin.url("/a/master.m3u8"));
+        assertTrue(mPrefetcher.isLive(mOrigin.url("/live/index.m3u8")));
+        assertFalse(mPrefetcher.isLive(mOrigin.url("/a/master.m3u8")));
+    }
+
+    @Test
+    public void reportsOriginErrors() {
+        mOrigin.fail("/a/master.m3u8", 1);
+        try {
+            mPrefetcher.load(mOrigin.url("/a/master.m3u8"));
+            fail("expected an IOException");
+        } catch (IOException expected) {
+            // the failure is not cached
+        }
+        try {
+            mPrefetcher.load(mOrigin.url("/missing.m3u8"));
+            fail("expected an IOException");
+        } catch (IOException expected) {
+            // not found
+        }
+    }
+
+    @Test
+    public void retriesAfterAnError() throws IOException {
+        mOrigin.fail("/a/master.m3u8", 1);
+        try {
+            mPrefetcher.load(mOrigin.url("/a/master.m3u8"));
+        } catch (IOException expected) {
+            // the next load goes to the origin again
+        }
+        assertNotNull(mPrefetcher.load(mOrigin.url("/a/master.m3u8")).getMaster());
+        assertEquals(2, mOrigin.getRequestCount("/a/master.m3u8"));
+    }
+
+    @Test
+    public void doesNotPrefetchFailedPlaylistsAgainRightAway() throws InterruptedException {
+        mOrigin.fail("/a/master.m3u8", 1);
+        String url = mOrigin.url("/a/master.m3u8");
+        mPrefetcher.prefetch(url);
+        awaitRequests("/a/master.m3u8", 1);
+        // while flinging the same rows ask again and again
+        for (int i = 0; i < 10; i++) {
+            mPrefetcher.prefetch(url);
+            Thread.sleep(20);
+        }
+        assertEquals(1, mOrigin.getRequestCount("/a/master.m3u8"));
+    }
+
+    private void awaitRequests(String path, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mOrigin.getRequestCount(path) < count) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        // and for the failure to be recorded
+        Thread.sleep(100);
+    }
+}
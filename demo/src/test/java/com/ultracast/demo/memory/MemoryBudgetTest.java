@@ -0,0 +1,71 @@
+package com.ultracast.demo.memory;
+
+import org.junit.Test;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+import static org.junit.Assert.assertEquals;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void hidingTheUiShedsNothing() {
+        assertEquals(0, MemoryBudget.stageFor(TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(0, MemoryBudget.stageFor(0));
+    }
+
+    @Test
+    public void pressureDrivesTheStage() {
+        assertEquals(1, MemoryBudget.stageFor(TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(2, MemoryBudget.stageFor(TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(3, MemoryBudget.stageFor(TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(2, MemoryBudget.stageFor(TRIM_MEMORY_BACKGROUND));
+        assertEquals(3, MemoryBudget.stageFor(TRIM_MEMORY_MODERATE));
+        assertEquals(4, MemoryBudget.stageFor(TRIM_MEMORY_COMPLETE));
+    }
+
+    @Test
+    public void shedsLowestPriorityFirst() {
+        MemoryBudget budget = new MemoryBudget();
+        Cache low = new Cache(1000);
+        Cache normal = new Cache(1000);
+        Cache high = new Cache(1000);
+        budget.register("high", MemoryBudget.PRIORITY_HIGH, high);
+        budget.register("low", MemoryBudget.PRIORITY_LOW, low);
+        budget.register("normal", MemoryBudget.PRIORITY_NORMAL, normal);
+
+        budget.onTrimMemory(TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(3000, budget.getMemoryBytes());
+
+        budget.onTrimMemory(TRIM_MEMORY_BACKGROUND);
+        assertEquals(0, low.bytes);
+        assertEquals(500, normal.bytes);
+        assertEquals(1000, high.bytes);
+
+        budget.onLowMemory();
+        assertEquals(0, budget.getMemoryBytes());
+    }
+
+    private static class Cache implements MemoryBudget.Consumer {
+        long bytes;
+
+        Cache(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void trimMemory(long maxBytes) {
+            bytes = Math.min(bytes, maxBytes);
+        }
+    }
+}
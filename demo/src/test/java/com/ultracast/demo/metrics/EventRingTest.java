@@ -0,0 +1,63 @@
+package com.ultracast.demo.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EventRingTest {
+
+    @Test
+    public void keepsRecordsOldestFirst() {
+        EventRing ring = new EventRing(4);
+        ring.add(10, 1, 100);
+        ring.add(20, 2, 200);
+        assertEquals(2, ring.size());
+        assertEquals(10, ring.getTime(0));
+        assertEquals(1, ring.getType(0));
+        assertEquals(100, ring.getValue(0));
+        assertEquals(20, ring.getTime(1));
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void overwritesTheOldestOnceFull() {
+        EventRing ring = new EventRing(3);
+        for (int i = 0; i < 10; i++) {
+            ring.add(i, i, i * 10);
+        }
+        assertEquals(3, ring.size());
+        assertEquals(7, ring.getDropped());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(7 + i, ring.getTime(i));
+            assertEquals(7 + i, ring.getType(i));
+            assertEquals((7 + i) * 10, ring.getValue(i));
+        }
+    }
+
+    @Test
+    public void clearStartsOver() {
+        EventRing ring = new EventRing(2);
+        ring.add(1, 1, 1);
+        ring.add(2, 2, 2);
+        ring.add(3, 3, 3);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.getDropped());
+        ring.add(4, 4, 4);
+        assertEquals(4, ring.getTime(0));
+    }
+
+    @Test
+    public void rejectsIndicesOutsideTheRecords() {
+        EventRing ring = new EventRing(4);
+        ring.add(1, 1, 1);
+        for (int index : new int[]{-1, 1, 4}) {
+            try {
+                ring.getTime(index);
+                fail("expected index " + index + " to be rejected");
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+    }
+}
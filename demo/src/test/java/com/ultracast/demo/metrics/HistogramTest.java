@@ -0,0 +1,81 @@
+package com.ultracast.demo.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void isEmptyAtFirst() {
+        Histogram histogram = new Histogram(1000);
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void keepsSmallValuesExact() {
+        Histogram histogram = new Histogram(1000);
+        for (int i = 1; i <= 7; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(4, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(100));
+        assertEquals(4, histogram.getMean());
+        assertEquals(3, histogram.getCountAbove(5));
+    }
+
+    @Test
+    public void boundsPercentilesByTheBucketWidth() {
+        Histogram histogram = new Histogram(60000);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        long p50 = histogram.getPercentile(50);
+        long p90 = histogram.getPercentile(90);
+        // buckets are an eighth of their power of two wide
+        assertTrue("p50 " + p50, p50 >= 500 && p50 < 500 + 500 / 8);
+        assertTrue("p90 " + p90, p90 >= 900 && p90 < 900 + 900 / 8);
+        assertEquals(1000, histogram.getPercentile(100));
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(1, histogram.getMin());
+        assertEquals(500, histogram.getMean());
+    }
+
+    @Test
+    public void putsValuesBeyondTheRangeIntoTheLastBucket() {
+        Histogram histogram = new Histogram(1000);
+        histogram.record(10);
+        histogram.record(5000);
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin());
+        assertEquals(5000, histogram.getMax());
+        assertEquals(5000, histogram.getPercentile(100));
+        assertEquals(1, histogram.getCountAbove(100000));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        Histogram histogram = new Histogram(1000);
+        histogram.record(300);
+        histogram.reset();
+        histogram.record(20);
+        assertEquals(1, histogram.getCount());
+        assertEquals(20, histogram.getMin());
+        assertEquals(20, histogram.getMax());
+        assertEquals(0, histogram.getCountAbove(100));
+    }
+
+    @Test
+    public void bucketBoundsRoundTrip() {
+        for (int index = 0; index < 200; index++) {
+            assertEquals(index, Histogram.bucketIndex(Histogram.bucketLowerBound(index)));
+            assertEquals(index, Histogram.bucketIndex(Histogram.bucketLowerBound(index + 1) - 1));
+        }
+    }
+}
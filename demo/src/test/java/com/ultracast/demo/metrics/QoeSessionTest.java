@@ -0,0 +1,120 @@
+package com.ultracast.demo.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.ultracast.player.UC360Player.STATE_BUFFERING;
+import static com.ultracast.player.UC360Player.STATE_READY;
+import static com.ultracast.player.UC360Player.TYPE_SOURCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QoeSessionTest {
+
+    private static final long START = 1000;
+
+    private final QoeSession mSession = new QoeSession();
+
+    @Before
+    public void setUp() {
+        mSession.start("http://example.com/a.m3u8", START);
+        state(STATE_BUFFERING, START);
+    }
+
+    @Test
+    public void measuresTheTimeToFirstFrame() {
+        assertEquals(-1, mSession.getTimeToFirstFrame());
+        state(STATE_READY, START + 700);
+        assertEquals(700, mSession.getTimeToFirstFrame());
+        // later ready states do not move it
+        state(STATE_BUFFERING, START + 2000);
+        state(STATE_READY, START + 2500);
+        assertEquals(700, mSession.getTimeToFirstFrame());
+    }
+
+    @Test
+    public void countsStallsOfPlaybackAsRebuffers() {
+        state(STATE_READY, START + 500);
+        state(STATE_BUFFERING, START + 4500);
+        state(STATE_READY, START + 5500);
+        assertEquals(1, mSession.getRebufferCount());
+        // 1 s stalled of 9 s watched, startup excluded
+        assertEquals(1000f / 9000, mSession.getRebufferRatio(START + 9500), 0.0001);
+        // a stall still going on counts up to now
+        state(STATE_BUFFERING, START + 9500);
+        assertEquals(3000f / 11000, mSession.getRebufferRatio(START + 11500), 0.0001);
+    }
+
+    @Test
+    public void doesNotCountBufferingAfterSeeks() {
+        state(STATE_READY, START + 500);
+        mSession.onSeekStarted(START + 1000);
+        state(STATE_BUFFERING, START + 1000);
+        state(STATE_READY, START + 1300);
+        mSession.onSeekCompleted(300, START + 1300);
+        mSession.onSeekStarted(START + 2000);
+        mSession.onSeekCompleted(100, START + 2100);
+        assertEquals(0, mSession.getRebufferCount());
+        Histogram latency = mSession.getSeekLatency();
+        assertEquals(2, latency.getCount());
+        assertEquals(100, latency.getMin());
+        assertEquals(300, latency.getMax());
+    }
+
+    @Test
+    public void countsStallsAgainAfterACancelledSeek() {
+        state(STATE_READY, START + 500);
+        mSession.onSeekStarted(START + 1000);
+        state(STATE_BUFFERING, START + 1000);
+        mSession.onSeekCancelled();
+        state(STATE_READY, START + 1500);
+        state(STATE_BUFFERING, START + 3000);
+        assertEquals(1, mSession.getRebufferCount());
+        assertEquals(0, mSession.getSeekLatency().getCount());
+    }
+
+    @Test
+    public void doesNotCountBufferingAfterReopens() {
+        state(STATE_READY, START + 500);
+        mSession.onReopen(START + 3000);
+        state(STATE_BUFFERING, START + 3000);
+        state(STATE_READY, START + 3800);
+        assertEquals(0, mSession.getRebufferCount());
+        assertTrue(mSession.toJson(START + 4000).contains("[3800,\"reopen\",800]"));
+        // and stalls after it count again
+        state(STATE_BUFFERING, START + 5000);
+        assertEquals(1, mSession.getRebufferCount());
+    }
+
+    @Test
+    public void reportsOnce() {
+        state(STATE_READY, START + 500);
+        mSession.onPlayerError(TYPE_SOURCE, START + 800);
+        String json = mSession.finish(START + 1000);
+        assertNotNull(json);
+        assertTrue(json, json.startsWith("{\"url\":\"http://example.com/a.m3u8\",\"duration_ms\":1000,\"ttff_ms\":500,"));
+        assertTrue(json, json.contains("\"errors\":{\"source\":1,"));
+        assertFalse(mSession.isStarted());
+        assertNull(mSession.finish(START + 2000));
+
+        // nothing is recorded until the next session starts
+        state(STATE_BUFFERING, START + 3000);
+        assertEquals(0, mSession.getRebufferCount());
+        mSession.start("http://example.com/b.m3u8", START + 5000);
+        assertEquals(-1, mSession.getTimeToFirstFrame());
+        assertNotNull(mSession.finish(START + 6000));
+    }
+
+    @Test
+    public void escapesTheUrl() {
+        mSession.start("http://example.com/\"a\"\n", START);
+        assertTrue(mSession.toJson(START).startsWith("{\"url\":\"http://example.com/\\\"a\\\"\\u000a\""));
+    }
+
+    private void state(int playbackState, long now) {
+        mSession.onPlayerStateChanged(true, playbackState, now);
+    }
+}
@@ -0,0 +1,102 @@
+package com.ultracast.demo.motion;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SensorTraceTest {
+
+    private static final long FRAME_INTERVAL_NS = 16666667;
+    // two frames at 60 Hz, as HeadTracker assumes
+    private static final long LATENCY_NS = 2 * FRAME_INTERVAL_NS;
+
+    @Test
+    public void replaysHeadTurns() throws IOException {
+        PosePipeline pipeline = new PosePipeline(LATENCY_NS);
+        int samples;
+        Reader reader = open("head-turns.trace");
+        try {
+            samples = SensorTrace.replay(reader, pipeline, FRAME_INTERVAL_NS);
+        } finally {
+            reader.close();
+        }
+        assertEquals(1200, samples);
+        // four seconds of frames, the last one is not reached by a sample
+        long frames = pipeline.getFrameCost().getCount();
+        assertTrue("frames " + frames, frames >= 238 && frames <= 240);
+        // predictions made in the last 33 ms can not be judged
+        long judged = pipeline.getPredictedError().getCount();
+        assertTrue("judged " + judged, judged >= frames - 3 && judged <= frames);
+        assertEquals(judged, pipeline.getUnpredictedError().getCount());
+
+        // in hundredths of a degree, the turns reach 280 deg/s
+        String stats = pipeline.getStats();
+        long predicted50 = pipeline.getPredictedError().getPercentile(50);
+        long predicted90 = pipeline.getPredictedError().getPercentile(90);
+        long unpredicted50 = pipeline.getUnpredictedError().getPercentile(50);
+        long unpredicted90 = pipeline.getUnpredictedError().getPercentile(90);
+        assertTrue(stats, predicted90 < 150);
+        assertTrue(stats, unpredicted90 > 400);
+        // prediction has to pay for itself where it matters, in the turns
+        assertTrue(stats, predicted50 * 3 < unpredicted50);
+        assertTrue(stats, predicted90 * 3 < unpredicted90);
+        // the turns add up to none, only the nod of at most 10 degrees is left
+        double angle = Quaternions.angleDegrees(pipeline.getOrientation(), identity());
+        assertTrue("ends " + angle + " deg from the start", angle < 12);
+
+        // generous, the first frames run interpreted
+        assertTrue(stats, pipeline.getFrameCost().getPercentile(50) < 1000);
+    }
+
+    @Test
+    public void replaysWhatItRecords() throws IOException {
+        StringWriter trace = new StringWriter();
+        SensorTrace.Recorder recorder = new SensorTrace.Recorder(trace);
+        recorder.record(SensorTrace.GYROSCOPE, 1000000000L, 0, 0, 1);
+        recorder.record(SensorTrace.ACCELEROMETER, 1002000000L, 0, 0, 9.81f);
+        recorder.record(SensorTrace.GYROSCOPE, 1005000000L, 0, 0, 1);
+        recorder.record(SensorTrace.GYROSCOPE, 1040000000L, 0, 0, 1);
+        recorder.close();
+
+        PosePipeline pipeline = new PosePipeline(0);
+        assertEquals(4, SensorTrace.replay(new StringReader(trace.toString()), pipeline, FRAME_INTERVAL_NS));
+        // frames at 16.7 and 33.3 ms
+        assertEquals(2, pipeline.getFrameCost().getCount());
+        // 1 rad/s about z for the 40 ms integrated
+        assertEquals(Math.toDegrees(0.04), Quaternions.angleDegrees(pipeline.getOrientation(), identity()), 0.01);
+    }
+
+    @Test
+    public void rejectsMalformedTraces() {
+        for (String trace : new String[]{"1 g 0 0", "1 x 0 0 0", "1 g a 0 0", "one g 0 0 0", "1 gy 0 0 0"}) {
+            try {
+                SensorTrace.replay(new StringReader(trace), new PosePipeline(0), FRAME_INTERVAL_NS);
+                fail("expected " + trace + " to be rejected");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static Reader open(String name) throws IOException {
+        InputStream in = SensorTraceTest.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing test resource " + name);
+        }
+        return new InputStreamReader(in, "UTF-8");
+    }
+
+    private static double[] identity() {
+        double[] q = new double[4];
+        Quaternions.setIdentity(q);
+        return q;
+    }
+}
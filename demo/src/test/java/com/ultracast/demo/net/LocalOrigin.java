@@ -0,0 +1,177 @@
+package com.ultracast.demo.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loopback HTTP origin for tests. Serves fixed bodies by path with byte ranges, counts requests,
+ * tracks how many are served at once and fails or delays requests on demand.
+ */
+public class LocalOrigin {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> mBodies = new HashMap<>();
+    private final Map<String, Integer> mFailures = new HashMap<>();
+    private final List<String> mRequests = new ArrayList<>();
+    private final List<String> mRanges = new ArrayList<>();
+    private long mDelayMs;
+    private int mActive;
+    private int mMaxActive;
+
+    public LocalOrigin() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 16);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    public synchronized void put(String path, byte[] body) {
+        mBodies.put(path, body);
+    }
+
+    public void put(String path, String text) {
+        put(path, text.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Answers the next requests of the path with 503.
+     */
+    public synchronized void fail(String path, int times) {
+        mFailures.put(path, times);
+    }
+
+    /**
+     * Holds every response for the given time, so requests overlap.
+     */
+    public synchronized void setDelayMs(long delayMs) {
+        mDelayMs = delayMs;
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    public synchronized int getRequestCount(String path) {
+        int count = 0;
+        for (String request : mRequests) {
+            if (request.equals(path)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the Range headers received, null for requests without one, in request order
+     */
+    public synchronized List<String> getRanges() {
+        return new ArrayList<>(mRanges);
+    }
+
+    /**
+     * @return the most requests served at the same time, counted until their response starts
+     */
+    public synchronized int getMaxActive() {
+        return mMaxActive;
+    }
+
+    public void close() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        byte[] body;
+        boolean fail;
+        long delayMs;
+        synchronized (this) {
+            mRequests.add(path);
+            mRanges.add(range);
+            body = mBodies.get(path);
+            Integer failures = mFailures.get(path);
+            fail = failures != null && failures > 0;
+            if (fail) {
+                mFailures.put(path, failures - 1);
+            }
+            delayMs = mDelayMs;
+            mActive++;
+            mMaxActive = Math.max(mMaxActive, mActive);
+        }
+        try {
+            try {
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+            } finally {
+                // a client sees the end of a response only after this, it never overlaps its next request
+                synchronized (this) {
+                    mActive--;
+                }
+            }
+            if (fail) {
+                exchange.sendResponseHeaders(503, -1);
+            } else if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                int start = 0;
+                int end = body.length - 1;
+                Matcher matcher = range != null ? RANGE.matcher(range) : null;
+                if (matcher != null && matcher.matches()) {
+                    if (matcher.group(1).isEmpty()) {
+                        // a suffix, the last bytes
+                        start = Math.max(0, body.length - Integer.parseInt(matcher.group(2)));
+                    } else {
+                        start = Integer.parseInt(matcher.group(1));
+                    }
+                    if (!matcher.group(1).isEmpty() && !matcher.group(2).isEmpty()) {
+                        end = Math.min(end, Integer.parseInt(matcher.group(2)));
+                    }
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + start + "-" + end + "/" + body.length);
+                    exchange.sendResponseHeaders(206, end - start + 1);
+                } else {
+                    // 0 would mean a chunked body
+                    exchange.sendResponseHeaders(200, body.length > 0 ? body.length : -1);
+                }
+                OutputStream out = exchange.getResponseBody();
+                out.write(body, start, end - start + 1);
+                out.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
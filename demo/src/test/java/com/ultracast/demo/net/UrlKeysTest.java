@@ -0,0 +1,31 @@
+package com.ultracast.demo.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class UrlKeysTest {
+
+    @Test
+    public void keysAreTheSha1InHex() {
+        // sha1sum of the empty string
+        assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", UrlKeys.keyFor(""));
+        assertEquals(UrlKeys.KEY_BYTES * 2, UrlKeys.keyFor("http://cdn.example.com/a.ts").length());
+    }
+
+    @Test
+    public void differentUrlsGetDifferentKeys() {
+        // same String.hashCode()
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(UrlKeys.keyFor("http://a/Aa"), UrlKeys.keyFor("http://a/BB"));
+    }
+
+    @Test
+    public void hexRoundTrips() {
+        byte[] bytes = {0, 1, (byte) 0x7f, (byte) 0x80, (byte) 0xff};
+        assertEquals("00017f80ff", UrlKeys.toHex(bytes));
+        assertArrayEquals(bytes, UrlKeys.fromHex("00017f80ff"));
+    }
+}
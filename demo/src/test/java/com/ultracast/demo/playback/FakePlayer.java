@@ -0,0 +1,431 @@
+package com.ultracast.demo.playback;
+
+import android.net.Uri;
+
+import com.ultracast.player.Format;
+import com.ultracast.player.UC360Player;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless {@link UC360Player} driven by a {@link VirtualClock}, for checking the app's playback
+ * handling on the JVM, without the native player or a network.
+ * <p>
+ * Opening a source buffers for the startup latency, then plays at real speed for the scripted
+ * duration and ends. Seeks ahead within the buffer are instant, other seeks buffer for the seek
+ * latency. Stalls, errors and format switches are scheduled at clock times, see
+ * {@link #fromScript(String, VirtualClock)}. Events are delivered from the clock's tasks. The
+ * getters count their calls, so a scripted session can check how often the app polls.
+ * Plain Java apart from the {@link Uri} passed in, not thread safe.
+ */
+class FakePlayer implements UC360Player {
+
+    private final VirtualClock mClock;
+    private final List<EventListener> mListeners = new ArrayList<>();
+    private final Runnable mReadyTask = new Runnable() {
+        @Override
+        public void run() {
+            setState(STATE_READY);
+        }
+    };
+    private final Runnable mEndTask = new Runnable() {
+        @Override
+        public void run() {
+            setState(STATE_ENDED);
+        }
+    };
+
+    private long mDurationMs = 10 * 60 * 1000;
+    private long mStartupLatencyMs = 500;
+    private long mSeekLatencyMs = 200;
+    private long mBufferAheadMs = 30000;
+    private final Format mFormat = newFormat();
+    private boolean mHasFormat;
+
+    private Uri mUri;
+    private boolean mPlayWhenReady;
+    private int mState = STATE_IDLE;
+    // position at mPositionTime, moving on from there while playing
+    private long mPositionMs;
+    private long mPositionTime;
+
+    private int mOpenCount;
+    private int mSeekCount;
+    private long mPollCount;
+
+    public FakePlayer(VirtualClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Builds a player from a script of whitespace separated settings, times in ms, {@code AT}
+     * being a clock time:
+     * <pre>
+     * duration=MS startup=MS seek=MS buffer=MS
+     * format=AT:BITRATE:WIDTHxHEIGHT stall=AT:MS error=AT:TYPE
+     * </pre>
+     * e.g. {@code "duration=120000 format=0:3000000:1920x1080 stall=20000:4000"}.
+     *
+     * @throws IllegalArgumentException for a malformed script
+     */
+    public static FakePlayer fromScript(String script, VirtualClock clock) {
+        FakePlayer player = new FakePlayer(clock);
+        for (String setting : script.trim().split("\\s+")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            int equals = setting.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + setting);
+            }
+            String key = setting.substring(0, equals);
+            String[] values = setting.substring(equals + 1).split(":");
+            try {
+                switch (key) {
+                    case "duration":
+                        player.setDuration(Long.parseLong(values[0]));
+                        break;
+                    case "startup":
+                        player.setStartupLatency(Long.parseLong(values[0]));
+                        break;
+                    case "seek":
+                        player.setSeekLatency(Long.parseLong(values[0]));
+                        break;
+                    case "buffer":
+                        player.setBufferAhead(Long.parseLong(values[0]));
+                        break;
+                    case "format":
+                        String[] size = values[2].split("x");
+                        player.scheduleFormat(Long.parseLong(values[0]), Integer.parseInt(values[1]),
+                                Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+                        break;
+                    case "stall":
+                        player.scheduleStall(Long.parseLong(values[0]), Long.parseLong(values[1]));
+                        break;
+                    case "error":
+                        player.scheduleError(Long.parseLong(values[0]), Integer.parseInt(values[1]));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown setting " + setting);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Malformed setting " + setting, e);
+            }
+        }
+        return player;
+    }
+
+    /**
+     * @param durationMs 0 for a source without duration, which plays until stopped
+     */
+    public void setDuration(long durationMs) {
+        mDurationMs = durationMs;
+    }
+
+    public void setStartupLatency(long latencyMs) {
+        mStartupLatencyMs = latencyMs;
+    }
+
+    public void setSeekLatency(long latencyMs) {
+        mSeekLatencyMs = latencyMs;
+    }
+
+    /**
+     * @param bufferAheadMs how far ahead of the position the player has buffered while ready
+     */
+    public void setBufferAhead(long bufferAheadMs) {
+        mBufferAheadMs = bufferAheadMs;
+    }
+
+    /**
+     * Switches the video format at the given clock time, a switch while no source is open is kept
+     * for the next one.
+     */
+    public void scheduleFormat(long atMs, final int bitrate, final int width, final int height) {
+        mClock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mFormat != null) {
+                    mFormat.setBitrate(bitrate);
+                    mFormat.setWidth(width);
+                    mFormat.setHeight(height);
+                    mHasFormat = true;
+                }
+            }
+        }, atMs - mClock.now());
+    }
+
+    /**
+     * Runs out of buffer at the given clock time if ready then, and buffers for the given time.
+     */
+    public void scheduleStall(long atMs, final long durationMs) {
+        mClock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mState == STATE_READY) {
+                    setState(STATE_BUFFERING);
+                    mClock.cancel(mReadyTask);
+                    mClock.schedule(mReadyTask, durationMs);
+                }
+            }
+        }, atMs - mClock.now());
+    }
+
+    /**
+     * Fails playback at the given clock time if a source is open then.
+     *
+     * @param errorType one of the {@code TYPE_} constants of {@link UC360Player}
+     */
+    public void scheduleError(long atMs, final int errorType) {
+        mClock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mState == STATE_IDLE) {
+                    return;
+                }
+                mClock.cancel(mReadyTask);
+                setState(STATE_IDLE);
+                for (EventListener listener : new ArrayList<>(mListeners)) {
+                    listener.onPlayerError(errorType);
+                }
+            }
+        }, atMs - mClock.now());
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    public int getOpenCount() {
+        return mOpenCount;
+    }
+
+    public int getSeekCount() {
+        return mSeekCount;
+    }
+
+    /**
+     * @return calls of the position, duration, buffer and state getters
+     */
+    public long getPollCount() {
+        return mPollCount;
+    }
+
+    @Override
+    public void addOnPlayerEventListener(EventListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void removeOnPlayerEventListener(EventListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public void openUrl(Uri uri, boolean startPlayWhenReady, boolean isLive) {
+        mOpenCount++;
+        mUri = uri;
+        mPlayWhenReady = startPlayWhenReady;
+        mPositionMs = 0;
+        mPositionTime = mClock.now();
+        mClock.cancel(mReadyTask);
+        setState(STATE_BUFFERING);
+        mClock.schedule(mReadyTask, mStartupLatencyMs);
+    }
+
+    @Override
+    public void seek(long timeMs) {
+        mSeekCount++;
+        if (mState == STATE_IDLE) {
+            return;
+        }
+        long position = position();
+        long target = mDurationMs > 0 ? Math.max(0, Math.min(timeMs, mDurationMs)) : Math.max(0, timeMs);
+        mPositionMs = target;
+        mPositionTime = mClock.now();
+        if (mState == STATE_READY && target >= position && target <= position + mBufferAheadMs) {
+            scheduleEnd();
+            return;
+        }
+        mClock.cancel(mReadyTask);
+        setState(STATE_BUFFERING);
+        mClock.schedule(mReadyTask, mSeekLatencyMs);
+    }
+
+    @Override
+    public void play() {
+        setPlayWhenReady(true);
+    }
+
+    @Override
+    public void pause() {
+        setPlayWhenReady(false);
+    }
+
+    @Override
+    public void stop() {
+        mClock.cancel(mReadyTask);
+        setState(STATE_IDLE);
+    }
+
+    @Override
+    public void resetCurrentPosition(boolean resetPosition) {
+        if (resetPosition) {
+            seek(0);
+        }
+    }
+
+    @Override
+    public long getCurrentTime() {
+        mPollCount++;
+        return position();
+    }
+
+    @Override
+    public long getDuration() {
+        mPollCount++;
+        return mDurationMs;
+    }
+
+    @Override
+    public long getBufferedPosition() {
+        mPollCount++;
+        if (mState != STATE_READY) {
+            return position();
+        }
+        long buffered = position() + mBufferAheadMs;
+        return mDurationMs > 0 ? Math.min(buffered, mDurationMs) : buffered;
+    }
+
+    @Override
+    public int getBufferedPercentage() {
+        return mDurationMs > 0 ? (int) (getBufferedPosition() * 100 / mDurationMs) : 0;
+    }
+
+    @Override
+    public int getPlaybackState() {
+        mPollCount++;
+        return mState;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return isAdvancing();
+    }
+
+    @Override
+    public Format getVideoFormat() {
+        return mHasFormat && mState != STATE_IDLE ? mFormat : null;
+    }
+
+    @Override
+    public void init(int glViewId, int mode) {
+    }
+
+    @Override
+    public void switchControlMode(int mode) {
+    }
+
+    @Override
+    public void switchVrMode() {
+    }
+
+    @Override
+    public void setMaximumZoom(float value) {
+    }
+
+    @Override
+    public void setMinimumZoom(float value) {
+    }
+
+    @Override
+    public void onOrientationChanged() {
+    }
+
+    @Override
+    public void onStart() {
+    }
+
+    @Override
+    public void onResume() {
+    }
+
+    @Override
+    public void onPause() {
+    }
+
+    @Override
+    public void onStop() {
+    }
+
+    @Override
+    public void onDestroy() {
+        mClock.cancel(mReadyTask);
+        mClock.cancel(mEndTask);
+        mListeners.clear();
+    }
+
+    private boolean isAdvancing() {
+        return mPlayWhenReady && mState == STATE_READY;
+    }
+
+    private long position() {
+        long position = mPositionMs + (isAdvancing() ? mClock.now() - mPositionTime : 0);
+        return mDurationMs > 0 ? Math.min(position, mDurationMs) : position;
+    }
+
+    private void setPlayWhenReady(boolean playWhenReady) {
+        if (playWhenReady == mPlayWhenReady) {
+            return;
+        }
+        mPositionMs = position();
+        mPositionTime = mClock.now();
+        mPlayWhenReady = playWhenReady;
+        scheduleEnd();
+        notifyStateChanged();
+    }
+
+    private void setState(int state) {
+        mPositionMs = position();
+        mPositionTime = mClock.now();
+        if (state == mState) {
+            return;
+        }
+        mState = state;
+        scheduleEnd();
+        notifyStateChanged();
+    }
+
+    private void scheduleEnd() {
+        mClock.cancel(mEndTask);
+        if (isAdvancing() && mDurationMs > 0) {
+            mClock.schedule(mEndTask, mDurationMs - mPositionMs);
+        }
+    }
+
+    private void notifyStateChanged() {
+        // listeners may remove themselves
+        for (EventListener listener : new ArrayList<>(mListeners)) {
+            listener.onPlayerStateChanged(mPlayWhenReady, mState);
+        }
+    }
+
+    /**
+     * Format has no public constructor, formats reported by the fake are made through the hidden
+     * one. Without it the fake reports no format. Tests only, the app gets its formats from the
+     * player.
+     */
+    private static Format newFormat() {
+        try {
+            Constructor<Format> constructor = Format.class.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException
+                | InvocationTargetException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.ultracast.demo.playback;
+
+import com.ultracast.player.UC360Player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.ultracast.player.UC360Player.STATE_BUFFERING;
+import static com.ultracast.player.UC360Player.STATE_ENDED;
+import static com.ultracast.player.UC360Player.STATE_IDLE;
+import static com.ultracast.player.UC360Player.STATE_READY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class FakePlayerTest {
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final List<Integer> mStates = new ArrayList<>();
+    private final List<Integer> mErrors = new ArrayList<>();
+
+    @Test
+    public void buffersThenPlaysToTheEnd() {
+        FakePlayer player = open("duration=10000 startup=500");
+        assertEquals(Arrays.asList(STATE_BUFFERING), mStates);
+        mClock.advanceTo(500);
+        assertEquals(STATE_READY, player.getPlaybackState());
+        mClock.advanceTo(4500);
+        assertEquals(4000, player.getCurrentTime());
+        mClock.advanceTo(20000);
+        assertEquals(Arrays.asList(STATE_BUFFERING, STATE_READY, STATE_ENDED), mStates);
+        assertEquals(10000, player.getCurrentTime());
+    }
+
+    @Test
+    public void standsStillWhilePaused() {
+        FakePlayer player = open("startup=0");
+        mClock.advanceTo(1000);
+        player.pause();
+        mClock.advanceTo(5000);
+        assertEquals(1000, player.getCurrentTime());
+        player.play();
+        mClock.advanceTo(6000);
+        assertEquals(2000, player.getCurrentTime());
+    }
+
+    @Test
+    public void seeksWithinTheBufferAreInstant() {
+        FakePlayer player = open("startup=0 buffer=30000 seek=200");
+        mClock.advanceTo(1000);
+        player.seek(20000);
+        assertEquals(STATE_READY, player.getPlaybackState());
+        assertEquals(20000, player.getCurrentTime());
+
+        player.seek(5000);
+        assertEquals(STATE_BUFFERING, player.getPlaybackState());
+        mClock.advance(200);
+        assertEquals(STATE_READY, player.getPlaybackState());
+        assertEquals(5000, player.getCurrentTime());
+        assertEquals(2, player.getSeekCount());
+    }
+
+    @Test
+    public void stallsAndFailsAtScriptedTimes() {
+        FakePlayer player = open("startup=0 stall=2000:1000 error=5000:" + UC360Player.TYPE_SOURCE);
+        mClock.advanceTo(2500);
+        assertEquals(STATE_BUFFERING, player.getPlaybackState());
+        assertEquals(2000, player.getCurrentTime());
+        mClock.advanceTo(4000);
+        assertEquals(STATE_READY, player.getPlaybackState());
+        assertEquals(3000, player.getCurrentTime());
+        mClock.advanceTo(6000);
+        assertEquals(STATE_IDLE, player.getPlaybackState());
+        assertEquals(Arrays.asList(UC360Player.TYPE_SOURCE), mErrors);
+    }
+
+    @Test
+    public void reportsScriptedFormats() {
+        FakePlayer player = open("startup=0 format=1000:3000000:1920x1080");
+        assertNull(player.getVideoFormat());
+        mClock.advanceTo(1000);
+        // null where Format cannot be made
+        if (player.getVideoFormat() != null) {
+            assertEquals(1920, player.getVideoFormat().getWidth());
+        }
+        player.stop();
+        assertNull(player.getVideoFormat());
+    }
+
+    @Test
+    public void countsPolls() {
+        FakePlayer player = open("");
+        player.getCurrentTime();
+        player.getDuration();
+        player.getBufferedPosition();
+        player.getPlaybackState();
+        assertEquals(4, player.getPollCount());
+    }
+
+    @Test
+    public void rejectsMalformedScripts() {
+        for (String script : new String[]{"duration", "stall=1000", "format=0:1:1920", "speed=2"}) {
+            try {
+                FakePlayer.fromScript(script, mClock);
+                fail("expected " + script + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private FakePlayer open(String script) {
+        FakePlayer player = FakePlayer.fromScript(script, mClock);
+        player.addOnPlayerEventListener(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                mStates.add(playbackState);
+            }
+
+            @Override
+            public void onPlayerError(int errorType) {
+                mErrors.add(errorType);
+            }
+        });
+        player.openUrl(null, true, false);
+        return player;
+    }
+}
@@ -0,0 +1,149 @@
+package com.ultracast.demo.playback;
+
+import com.ultracast.demo.hls.HlsParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Live sessions on the fake player. The origin is an event playlist which gains a segment every
+ * target duration and never drops one, so the player's positions count from the start of the
+ * stream and the true latency is the stream's age minus the position.
+ */
+public class LiveEdgeControllerTest {
+
+    private static final String URL = "http://example.com/live/index.m3u8";
+    private static final long SEGMENT_MS = 4000;
+    // the stream was live this long when the player joined
+    private static final long JOINED_AT_MS = 60000;
+    private static final long UPDATE_INTERVAL_MS = 250;
+
+    private final VirtualClock mClock = new VirtualClock();
+    private FakePlayer mPlayer;
+    private LiveEdgeController mController;
+
+    @Test
+    public void staysAtTheTargetThroughStalls() throws IOException {
+        // the short stalls are caught up with skips, the long one with a jump
+        start("duration=0 startup=0 seek=500 buffer=6000 stall=30000:3000 stall=60000:2000 stall=90000:15000");
+        long target = 3 * SEGMENT_MS;
+        assertEquals(target, mController.getTargetLatency());
+        long limit = target + LiveEdgeController.TOLERANCE_MS;
+
+        // joining a minute behind
+        mClock.advanceTo(10000);
+        assertEquals(1, count("jumps"));
+        assertWithin(target, limit);
+        // at most a catch-up step for every interval, so a minute to recover from the longest
+        for (long settled : new long[]{29000, 59000, 89000, 150000}) {
+            mClock.advanceTo(settled);
+            assertWithin(target, limit);
+            assertTrue(mController.isAtLiveEdge());
+        }
+        assertTrue(count("catch-ups") >= 2);
+        // the joining jump and the one after the long stall
+        assertEquals(2, count("jumps"));
+        assertEquals(3, count("stalls"));
+    }
+
+    @Test
+    public void leavesPlaybackAloneWhileStalled() throws IOException {
+        start("duration=0 startup=0 seek=500 buffer=6000 stall=30000:8000");
+        mClock.advanceTo(30000);
+        int seeks = mPlayer.getSeekCount();
+        mClock.advanceTo(37900);
+        assertEquals(seeks, mPlayer.getSeekCount());
+        assertFalse(mController.isAtLiveEdge());
+    }
+
+    @Test
+    public void stopsTrackingEndedStreams() throws IOException {
+        start("duration=0 startup=0");
+        mClock.advanceTo(10000);
+        assertTrue(mController.isAtLiveEdge());
+        mController.onPlaylistLoaded(URL, HlsParser.parseMedia(URL, playlist(20) + "#EXT-X-ENDLIST\n"), mClock.now());
+        assertEquals(-1, mController.getLatencyMs());
+        assertFalse(mController.isAtLiveEdge());
+        assertFalse(mController.update(mPlayer.getCurrentTime(), 0));
+    }
+
+    @Test
+    public void givesUpAfterRepeatedErrors() {
+        LiveEdgeController controller = new LiveEdgeController(new FakePlayer(mClock), null, null, mClock);
+        for (int i = 1; i < LiveEdgeController.MAX_LOAD_ERRORS; i++) {
+            controller.onLoadError(URL, new IOException("timeout"));
+            // one retry pending at a time
+            assertEquals(1, mClock.getPendingCount());
+        }
+        controller.onLoadError(URL, new IOException("timeout"));
+        assertEquals(0, mClock.getPendingCount());
+    }
+
+    private void start(String script) throws IOException {
+        mPlayer = FakePlayer.fromScript(script, mClock);
+        mController = new LiveEdgeController(mPlayer, null, null, mClock);
+        mPlayer.addOnPlayerEventListener(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                mController.onPlayerStateChanged(playWhenReady, playbackState);
+            }
+        });
+        mPlayer.openUrl(null, true, true);
+        // the player starts at the beginning of the window, moving it is up to the controller
+        load();
+        mClock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                mClock.schedule(this, SEGMENT_MS / 2);
+            }
+        }, SEGMENT_MS / 2);
+        mClock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mController.update(mPlayer.getCurrentTime(), mPlayer.getDuration());
+                mClock.schedule(this, UPDATE_INTERVAL_MS);
+            }
+        }, UPDATE_INTERVAL_MS);
+    }
+
+    private void load() {
+        int segments = (int) ((JOINED_AT_MS + mClock.now()) / SEGMENT_MS);
+        try {
+            mController.onPlaylistLoaded(URL, HlsParser.parseMedia(URL, playlist(segments)), mClock.now());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void assertWithin(long min, long max) {
+        long latency = trueLatency();
+        assertTrue("latency " + latency + " at " + mClock.now() + ", " + mController.getStats(),
+                latency >= min && latency <= max);
+    }
+
+    private long trueLatency() {
+        return JOINED_AT_MS + mClock.now() - mPlayer.getCurrentTime();
+    }
+
+    private int count(String name) {
+        String stats = mController.getStats();
+        int start = stats.indexOf(name + " ") + name.length() + 1;
+        int end = stats.indexOf(',', start);
+        return Integer.parseInt(stats.substring(start, end < 0 ? stats.length() : end));
+    }
+
+    private static String playlist(int segments) {
+        StringBuilder text = new StringBuilder("#EXTM3U\n#EXT-X-PLAYLIST-TYPE:EVENT\n#EXT-X-TARGETDURATION:4\n"
+                + "#EXT-X-MEDIA-SEQUENCE:0\n");
+        for (int i = 0; i < segments; i++) {
+            text.append("#EXTINF:4.0,\nsegment").append(i).append(".ts\n");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package com.ultracast.demo.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackClockTest {
+
+    private final VirtualClock mClock = new VirtualClock();
+    private FakePlayer mPlayer;
+    private PlaybackClock mPlaybackClock;
+    private int mTime = -1;
+    private int mDuration = -1;
+    private int mDeliveries;
+
+    @Before
+    public void setUp() {
+        mPlayer = FakePlayer.fromScript("duration=60000 startup=100", mClock);
+        mPlaybackClock = new PlaybackClock(mPlayer, new PlaybackClock.Listener() {
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                mTime = currentTime;
+                mDuration = duration;
+                mDeliveries++;
+            }
+        }, mClock);
+        mPlayer.addOnPlayerEventListener(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                mPlaybackClock.onPlayerStateChanged(playWhenReady, playbackState);
+            }
+        });
+        mPlaybackClock.start();
+        mPlayer.openUrl(null, true, false);
+    }
+
+    @Test
+    public void followsThePlayerBetweenSamples() {
+        mClock.advanceTo(2100);
+        assertEquals(60000, mDuration);
+        // extrapolated to the last frame
+        assertTrue("time " + mTime, Math.abs(mTime - 2000) < VirtualClock.FRAME_MS);
+        assertEquals(mPlayer.getCurrentTime(), mPlaybackClock.getCurrentTime());
+    }
+
+    @Test
+    public void samplesThePlayerTwiceASecond() {
+        long polls = mPlayer.getPollCount();
+        mClock.advanceTo(10100);
+        // a position and a duration per sample
+        long samples = (mPlayer.getPollCount() - polls) / 2;
+        assertTrue("samples " + samples, samples >= 19 && samples <= 21);
+        assertTrue("deliveries " + mDeliveries, mDeliveries >= 10000 / VirtualClock.FRAME_MS);
+    }
+
+    @Test
+    public void doesNotWakeUpWhilePaused() {
+        mClock.advanceTo(1000);
+        int deliveries = mDeliveries;
+        mPlayer.pause();
+        long wakeups = mClock.getWakeups();
+        mClock.advanceTo(60000);
+        assertEquals(wakeups, mClock.getWakeups());
+        // the position it stopped at, nothing after
+        assertEquals(deliveries + 1, mDeliveries);
+        assertEquals(900, mTime);
+        assertEquals(0, mClock.getPendingCount());
+    }
+
+    @Test
+    public void doesNotWakeUpWhileStopped() {
+        mClock.advanceTo(1000);
+        mPlaybackClock.stop();
+        long frames = mClock.getFrames();
+        mClock.advanceTo(10000);
+        assertEquals(frames, mClock.getFrames());
+    }
+
+    @Test
+    public void syncDeliversAFreshSample() {
+        mClock.advanceTo(1000);
+        mPlayer.seek(30000);
+        mPlaybackClock.sync();
+        assertEquals(30000, mTime);
+    }
+}
@@ -0,0 +1,242 @@
+package com.ultracast.demo.playback;
+
+import android.view.Choreographer;
+import android.view.MotionEvent;
+
+import com.ultracast.demo.widget.TimeLineView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Scripted sessions on the fake player, through the event hub and playback controls PlayerActivity
+ * uses, shown on a timeline, which check how much main thread work, how many wakeups and how much
+ * garbage playback costs.
+ */
+// the timeline is a real View
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PlaybackSessionTest {
+
+    private static final long SAMPLE_INTERVAL_MS = 500;
+    private static final long BUFFERED_POSITION_INTERVAL_MS = 250;
+    // a minute of frames at 60 fps, more than enough to show one allocation per frame
+    private static final int FRAMES = 3600;
+
+    private static class Session extends PlayerEventHub.Adapter implements SeekScheduler.Listener {
+        final VirtualClock clock = new VirtualClock();
+        final PlayerEventHub hub = new PlayerEventHub();
+        final FakePlayer player;
+        final PlaybackClock playbackClock;
+        final SeekScheduler seekScheduler;
+        final TimeLineView timeline = new TimeLineView(RuntimeEnvironment.application);
+        final PlaybackControls controls;
+        int timeChanges;
+        int seeksCompleted;
+        long maxSeekLatency;
+
+        Session(String script) {
+            player = FakePlayer.fromScript(script, clock);
+            player.addOnPlayerEventListener(hub);
+            playbackClock = new PlaybackClock(player, hub, clock);
+            seekScheduler = new SeekScheduler(player, clock);
+            seekScheduler.setListener(this);
+            LiveEdgeController liveEdgeController = new LiveEdgeController(player, null, null, clock);
+            controls = new PlaybackControls(player, playbackClock, seekScheduler, liveEdgeController,
+                    timeline, clock);
+            controls.subscribe(hub);
+            hub.subscribe(this);
+            playbackClock.start();
+            controls.open("session");
+            player.openUrl(null, true, false);
+        }
+
+        /**
+         * Drags the slider from one time to another, a step per frame, then lets go, with the
+         * calls the timeline makes.
+         */
+        void scrub(int from, int to, int frames) {
+            for (int i = 0; i <= frames; i++) {
+                controls.onScrolling((int) (from + (long) (to - from) * i / frames));
+                clock.advance(VirtualClock.FRAME_MS);
+            }
+            controls.onScrollingStop(to);
+        }
+
+        /**
+         * Touches the timeline at x, a step per frame from where the slider is, then lets go.
+         */
+        void drag(int x, int frames) {
+            int from = timeline.getSliderX();
+            int y = timeline.getHeight() / 2;
+            long downTime = clock.now();
+            touch(downTime, MotionEvent.ACTION_DOWN, from, y);
+            for (int i = 1; i <= frames; i++) {
+                clock.advance(VirtualClock.FRAME_MS);
+                touch(downTime, MotionEvent.ACTION_MOVE, from + (x - from) * i / frames, y);
+            }
+            touch(downTime, MotionEvent.ACTION_UP, x, y);
+        }
+
+        private void touch(long downTime, int action, int x, int y) {
+            MotionEvent event = MotionEvent.obtain(downTime, clock.now(), action, x, y, 0);
+            timeline.onTouchEvent(event);
+            event.recycle();
+        }
+
+        @Override
+        public void onTimeChanged(int currentTime, int duration) {
+            timeChanges++;
+        }
+
+        @Override
+        public void onSeekStarted(long msec) {
+        }
+
+        @Override
+        public void onSeekCompleted(long latencyMs) {
+            seeksCompleted++;
+            maxSeekLatency = Math.max(maxSeekLatency, latencyMs);
+        }
+
+        @Override
+        public void onSeekCancelled() {
+        }
+    }
+
+    @Test
+    public void longSeeks() {
+        Session session = new Session("duration=3600000 startup=0 seek=300 buffer=30000");
+        session.clock.advanceTo(1000);
+        long polls = session.player.getPollCount();
+        for (int i = 1; i <= 10; i++) {
+            // far beyond the buffer every time
+            session.controls.onScrollingStop(i * 300000);
+            session.clock.advance(10000);
+            assertTrue(Math.abs(session.timeline.getCurrentTime() - (i * 300000 + 10000 - 300)) < VirtualClock.FRAME_MS);
+        }
+        assertEquals(10, session.player.getSeekCount());
+        assertEquals(10, session.seeksCompleted);
+        assertEquals(300, session.maxSeekLatency);
+        // no frames while the seeks buffer
+        assertTrue(session.clock.getFrames() <= (1000 + 10 * (10000 - 300)) / VirtualClock.FRAME_MS + 10);
+        // a sample per interval and one per sync and state change, of position and duration, and
+        // the buffered position for the timeline per interval and state change
+        long perSeek = 2 * (10000 / SAMPLE_INTERVAL_MS + 3) + 10000 / BUFFERED_POSITION_INTERVAL_MS + 3;
+        polls = session.player.getPollCount() - polls;
+        assertTrue("polls " + polls, polls <= 10 * perSeek);
+        // the buffered position is kept up while playing
+        long buffered = session.player.getBufferedPosition();
+        assertTrue(Math.abs(session.timeline.getBufferedPosition() - buffered)
+                <= BUFFERED_POSITION_INTERVAL_MS + VirtualClock.FRAME_MS);
+    }
+
+    @Test
+    public void rapidScrubs() {
+        Session session = new Session("duration=3600000 startup=0 seek=200 buffer=30000");
+        session.clock.advanceTo(1000);
+        // two seconds of dragging across an hour, with a seek taking 200 ms
+        int frames = (int) (2000 / VirtualClock.FRAME_MS);
+        session.scrub(0, 3000000, frames);
+        session.clock.advance(1000);
+
+        int issued = session.seekScheduler.getIssuedCount();
+        assertTrue("issued " + issued, issued <= 2000 / 200 + 2);
+        assertEquals(issued, session.player.getSeekCount());
+        assertEquals(frames + 2, issued + session.seekScheduler.getCoalescedCount());
+        assertTrue(Math.abs(session.timeline.getCurrentTime() - (3000000 + 1000 - 200)) < VirtualClock.FRAME_MS);
+        assertEquals(3600000, session.timeline.getDuration());
+        assertFalse(session.seekScheduler.isSeeking());
+    }
+
+    @Test
+    public void dragsOnTheTimeline() {
+        Session session = new Session("duration=3600000 startup=0 seek=200 buffer=30000");
+        session.timeline.layout(0, 0, 1000, 100);
+        session.clock.advanceTo(1000);
+        // half a second of dragging to the middle, far from the buffered range
+        session.drag(500, (int) (500 / VirtualClock.FRAME_MS));
+        session.clock.advance(1000);
+
+        assertTrue(session.player.getSeekCount() > 1);
+        assertFalse(session.seekScheduler.isSeeking());
+        // within a few pixels of the middle
+        int time = session.timeline.getCurrentTime();
+        assertTrue("time " + time, Math.abs(time - (1800000 + 1000 - 200)) < 3600000 / 100);
+        assertTrue(Math.abs(time - session.player.getCurrentTime()) < VirtualClock.FRAME_MS);
+    }
+
+    @Test
+    public void rebufferStorm() {
+        StringBuilder script = new StringBuilder("duration=0 startup=0");
+        int stalls = 20;
+        for (int i = 1; i <= stalls; i++) {
+            script.append(" stall=").append(i * 3000).append(":1000");
+        }
+        Session session = new Session(script.toString());
+        long end = stalls * 3000 + 2000;
+        session.clock.advanceTo(end);
+
+        long playingMs = end - stalls * 1000;
+        assertEquals(playingMs, session.player.getCurrentTime());
+        // frames only while playing, at most one more around every stall
+        long frames = session.clock.getFrames();
+        assertTrue("frames " + frames, frames <= playingMs / VirtualClock.FRAME_MS + stalls);
+        long polls = session.player.getPollCount();
+        long samples = 2 * (playingMs / SAMPLE_INTERVAL_MS + 2 * stalls + 2);
+        long bufferedPositions = playingMs / BUFFERED_POSITION_INTERVAL_MS + 3 * stalls + 2;
+        assertTrue("polls " + polls, polls <= samples + bufferedPositions);
+        assertTrue(session.timeChanges <= frames + 2 * stalls + 1);
+    }
+
+    @Test
+    public void playbackDoesNotAllocatePerFrame() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        // the virtual clock allocates a task per frame, measure that on its own first
+        final VirtualClock clock = new VirtualClock();
+        Choreographer.FrameCallback idle = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                clock.postFrameCallback(this);
+            }
+        };
+        Session session = new Session("duration=0 startup=0");
+        // steady state: warm up both
+        runIdleFrames(clock, idle);
+        session.clock.advance(FRAMES * VirtualClock.FRAME_MS);
+
+        long start = threads.getThreadAllocatedBytes(threadId);
+        runIdleFrames(clock, idle);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+        long frames = session.clock.getFrames();
+        start = threads.getThreadAllocatedBytes(threadId);
+        session.clock.advance(FRAMES * VirtualClock.FRAME_MS);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+
+        assertEquals(FRAMES, session.clock.getFrames() - frames);
+        assertEquals("bytes allocated per frame", 0, Math.max(0, allocated) / FRAMES);
+    }
+
+    private static void runIdleFrames(VirtualClock clock, Choreographer.FrameCallback idle) {
+        clock.postFrameCallback(idle);
+        clock.advance(FRAMES * VirtualClock.FRAME_MS);
+        clock.removeFrameCallback(idle);
+    }
+}
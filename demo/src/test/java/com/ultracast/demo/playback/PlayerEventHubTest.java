@@ -0,0 +1,133 @@
+package com.ultracast.demo.playback;
+
+import com.ultracast.player.UC360Player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerEventHubTest {
+
+    private final List<String> mCalls = new ArrayList<>();
+
+    @Test
+    public void fansEventsOutInSubscriptionOrder() {
+        PlayerEventHub hub = new PlayerEventHub();
+        hub.subscribe(new Recorder("a"));
+        hub.subscribe(new Recorder("b"));
+        hub.onPlayerStateChanged(true, UC360Player.STATE_READY);
+        hub.onTimeChanged(1000, 60000);
+        hub.onPlayerError(UC360Player.TYPE_SOURCE);
+        hub.onPlayerClick();
+        assertEquals(Arrays.asList(
+                "a state " + UC360Player.STATE_READY, "b state " + UC360Player.STATE_READY,
+                "a time 1000", "b time 1000",
+                "a error " + UC360Player.TYPE_SOURCE, "b error " + UC360Player.TYPE_SOURCE,
+                "a click", "b click"), mCalls);
+    }
+
+    @Test
+    public void lateSubscribersGetTheLastState() {
+        PlayerEventHub hub = new PlayerEventHub();
+        hub.subscribe(new Recorder("a"));
+        assertTrue(mCalls.isEmpty());
+        assertFalse(hub.hasState());
+        hub.onPlayerStateChanged(false, UC360Player.STATE_BUFFERING);
+        hub.subscribe(new Recorder("b"));
+        assertEquals(Arrays.asList("a state " + UC360Player.STATE_BUFFERING,
+                "b state " + UC360Player.STATE_BUFFERING), mCalls);
+        assertTrue(hub.hasState());
+        assertFalse(hub.getPlayWhenReady());
+        assertEquals(UC360Player.STATE_BUFFERING, hub.getPlaybackState());
+    }
+
+    @Test
+    public void subscribesOnce() {
+        PlayerEventHub hub = new PlayerEventHub();
+        Recorder recorder = new Recorder("a");
+        hub.subscribe(recorder);
+        hub.subscribe(recorder);
+        hub.onTimeChanged(1, 2);
+        assertEquals(Arrays.asList("a time 1"), mCalls);
+    }
+
+    @Test
+    public void subscribersMayUnsubscribeWhileCalled() {
+        final PlayerEventHub hub = new PlayerEventHub();
+        hub.subscribe(new Recorder("a") {
+            @Override
+            public void onTimeChanged(int currentTime, int duration) {
+                super.onTimeChanged(currentTime, duration);
+                hub.unsubscribe(this);
+            }
+        });
+        hub.subscribe(new Recorder("b"));
+        hub.onTimeChanged(1, 2);
+        hub.onTimeChanged(2, 2);
+        assertEquals(Arrays.asList("a time 1", "b time 1", "b time 2"), mCalls);
+    }
+
+    @Test
+    public void queuesPlayerEventsForOtherThreads() {
+        PlayerEventHub hub = new PlayerEventHub();
+        hub.onPlayerStateChanged(true, UC360Player.STATE_BUFFERING);
+        PlayerEventQueue queue = new PlayerEventQueue(8);
+        hub.addQueue(queue);
+        hub.addQueue(queue);
+        hub.onTimeChanged(1000, 60000);
+        hub.onPlayerError(UC360Player.TYPE_UNEXPECTED);
+        hub.removeQueue(queue);
+        hub.onPlayerClick();
+
+        // the sticky state first, ticks are not queued
+        PlayerEventQueue.Event event = new PlayerEventQueue.Event();
+        assertTrue(queue.poll(event));
+        assertEquals(PlayerEventQueue.TYPE_STATE_CHANGED, event.type);
+        assertEquals(UC360Player.STATE_BUFFERING, event.playbackState);
+        assertTrue(queue.poll(event));
+        assertEquals(PlayerEventQueue.TYPE_ERROR, event.type);
+        assertEquals(UC360Player.TYPE_UNEXPECTED, event.errorType);
+        assertTrue(event.playWhenReady);
+        assertFalse(queue.poll(event));
+    }
+
+    private class Recorder implements PlayerEventHub.Subscriber {
+
+        private final String mName;
+
+        Recorder(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void onTimeChanged(int currentTime, int duration) {
+            mCalls.add(mName + " time " + currentTime);
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            mCalls.add(mName + " state " + playbackState);
+        }
+
+        @Override
+        public void onPlayerError(int errorType) {
+            mCalls.add(mName + " error " + errorType);
+        }
+
+        @Override
+        public void onMotionControlNotSupported() {
+            mCalls.add(mName + " motion");
+        }
+
+        @Override
+        public void onPlayerClick() {
+            mCalls.add(mName + " click");
+        }
+    }
+}
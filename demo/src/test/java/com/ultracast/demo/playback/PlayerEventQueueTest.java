@@ -0,0 +1,135 @@
+package com.ultracast.demo.playback;
+
+import com.ultracast.player.UC360Player;
+
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerEventQueueTest {
+
+    private static final int TYPE_CUSTOM = PlayerEventQueue.TYPE_FIRST_CUSTOM;
+
+    private final PlayerEventQueue.Event mEvent = new PlayerEventQueue.Event();
+
+    @Test
+    public void deliversEventsInOrder() {
+        PlayerEventQueue queue = new PlayerEventQueue(4);
+        queue.offer(PlayerEventQueue.TYPE_STATE_CHANGED, 10, true, UC360Player.STATE_READY, 0);
+        queue.offer(TYPE_CUSTOM, 20, 3000000, 1920, 1080, "url");
+        queue.offer(PlayerEventQueue.TYPE_ERROR, 30, true, UC360Player.STATE_READY, UC360Player.TYPE_SOURCE);
+        assertEquals(3, queue.size());
+
+        assertTrue(queue.poll(mEvent));
+        assertEquals(PlayerEventQueue.TYPE_STATE_CHANGED, mEvent.type);
+        assertEquals(10, mEvent.uptime);
+        assertTrue(mEvent.playWhenReady);
+        assertEquals(UC360Player.STATE_READY, mEvent.playbackState);
+        assertTrue(queue.poll(mEvent));
+        assertEquals(TYPE_CUSTOM, mEvent.type);
+        assertEquals(3000000, mEvent.value);
+        assertEquals(1920, mEvent.arg1);
+        assertEquals(1080, mEvent.arg2);
+        assertEquals("url", mEvent.object);
+        // fields of an earlier event do not leak into the next one
+        assertTrue(queue.poll(mEvent));
+        assertEquals(UC360Player.TYPE_SOURCE, mEvent.errorType);
+        assertEquals(0, mEvent.value);
+        assertNull(mEvent.object);
+        assertFalse(queue.poll(mEvent));
+    }
+
+    @Test
+    public void dropsNewEventsWhenFull() {
+        // rounded up to 4
+        PlayerEventQueue queue = new PlayerEventQueue(3);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, queue.offer(TYPE_CUSTOM, i, 0, 0, 0, null));
+        }
+        assertEquals(2, queue.getDropped());
+        // room again once polled, the ring wraps around
+        assertTrue(queue.poll(mEvent));
+        assertEquals(0, mEvent.uptime);
+        assertTrue(queue.offer(TYPE_CUSTOM, 6, 0, 0, 0, null));
+        long expected = 1;
+        while (queue.poll(mEvent)) {
+            assertEquals(expected == 4 ? 6 : expected, mEvent.uptime);
+            expected++;
+        }
+        assertEquals(5, expected);
+    }
+
+    @Test
+    public void notifiesOnceUntilDrained() {
+        PlayerEventQueue queue = new PlayerEventQueue(8);
+        final AtomicInteger notifications = new AtomicInteger();
+        queue.setListener(new PlayerEventQueue.Listener() {
+            @Override
+            public void onEventsAvailable(PlayerEventQueue queue) {
+                notifications.incrementAndGet();
+            }
+        });
+        queue.offer(TYPE_CUSTOM, 1, 0, 0, 0, null);
+        queue.offer(TYPE_CUSTOM, 2, 0, 0, 0, null);
+        assertEquals(1, notifications.get());
+        // not empty yet, the consumer is still to come back for the rest
+        queue.poll(mEvent);
+        queue.offer(TYPE_CUSTOM, 3, 0, 0, 0, null);
+        assertEquals(1, notifications.get());
+        while (queue.poll(mEvent)) {
+        }
+        queue.offer(TYPE_CUSTOM, 4, 0, 0, 0, null);
+        assertEquals(2, notifications.get());
+    }
+
+    @Test
+    public void wakesTheConsumerForEveryEvent() throws InterruptedException {
+        final int count = 200000;
+        final PlayerEventQueue queue = new PlayerEventQueue(64);
+        final Semaphore wakeups = new Semaphore(0);
+        queue.setListener(new PlayerEventQueue.Listener() {
+            @Override
+            public void onEventsAvailable(PlayerEventQueue queue) {
+                wakeups.release();
+            }
+        });
+        final long[] received = new long[1];
+        final boolean[] ordered = {true};
+        // a consumer which only polls when woken up, a lost wakeup strands events
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PlayerEventQueue.Event event = new PlayerEventQueue.Event();
+                try {
+                    while (received[0] < count) {
+                        if (!wakeups.tryAcquire(5, TimeUnit.SECONDS)) {
+                            return;
+                        }
+                        while (queue.poll(event)) {
+                            ordered[0] &= event.uptime == received[0];
+                            received[0]++;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // ends the test
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < count && consumer.isAlive(); i++) {
+            while (!queue.offer(TYPE_CUSTOM, i, 0, 0, 0, null) && consumer.isAlive()) {
+                Thread.yield();
+            }
+        }
+        consumer.join();
+        assertEquals(count, received[0]);
+        assertTrue(ordered[0]);
+    }
+}
@@ -0,0 +1,203 @@
+package com.ultracast.demo.playback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResumeStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(folder.getRoot(), "resume.log");
+    }
+
+    @Test
+    public void restoresEntries() {
+        ResumeStore store = new ResumeStore(mFile);
+        store.put(new ResumeStore.Entry("a", 1000, 60000, 2, 3000000, 45.5f, -10f, true, false, 1));
+        store.put(new ResumeStore.Entry("b", 2000, 0, 0, 0, 0, 0, false, true, 2));
+        store.flush();
+
+        ResumeStore reloaded = new ResumeStore(mFile);
+        ResumeStore.Entry a = reloaded.get("a");
+        assertEquals(1000, a.getPosition());
+        assertEquals(60000, a.getDuration());
+        assertEquals(2, a.getQuality());
+        assertEquals(3000000, a.getBitrate());
+        assertEquals(45.5f, a.getYaw(), 0);
+        assertEquals(-10f, a.getPitch(), 0);
+        assertTrue(a.isVrEnabled());
+        assertEquals(false, a.isMotionEnabled());
+        assertEquals(1, a.getSavedAt());
+        assertTrue(reloaded.get("b").isMotionEnabled());
+        assertNull(reloaded.get("c"));
+    }
+
+    @Test
+    public void cutsOffATornTail() throws IOException {
+        ResumeStore store = new ResumeStore(mFile);
+        store.put(entry("a", 1000));
+        store.flush();
+        long length = mFile.length();
+        store.put(entry("b", 2000));
+        store.flush();
+        // the second append stopped halfway
+        truncate(length + (mFile.length() - length) / 2);
+
+        ResumeStore reloaded = new ResumeStore(mFile);
+        assertEquals(1000, reloaded.get("a").getPosition());
+        assertNull(reloaded.get("b"));
+        assertEquals(length, mFile.length());
+        // and later appends follow the last complete record
+        reloaded.put(entry("c", 3000));
+        reloaded.flush();
+        assertEquals(3000, new ResumeStore(mFile).get("c").getPosition());
+    }
+
+    @Test
+    public void rejectsRecordsFailingTheirChecksum() throws IOException {
+        ResumeStore store = new ResumeStore(mFile);
+        store.put(entry("a", 1000));
+        store.flush();
+        long length = mFile.length();
+        store.put(entry("b", 2000));
+        store.put(entry("c", 3000));
+        store.flush();
+        // a flipped bit in the position of b
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            long offset = length + 4 + 1 + 2 + 1 + 7;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 1);
+        } finally {
+            file.close();
+        }
+
+        ResumeStore reloaded = new ResumeStore(mFile);
+        assertEquals(1000, reloaded.get("a").getPosition());
+        // nothing after a bad record is trusted
+        assertNull(reloaded.get("b"));
+        assertNull(reloaded.get("c"));
+        assertEquals(length, mFile.length());
+    }
+
+    @Test
+    public void replaysRemovals() {
+        ResumeStore store = new ResumeStore(mFile);
+        store.put(entry("a", 1000));
+        store.put(entry("b", 2000));
+        store.flush();
+        store.remove("a");
+        store.flush();
+
+        ResumeStore reloaded = new ResumeStore(mFile);
+        assertNull(reloaded.get("a"));
+        assertEquals(2000, reloaded.get("b").getPosition());
+    }
+
+    @Test
+    public void compactsTheLog() {
+        ResumeStore store = new ResumeStore(mFile);
+        store.put(entry("a", 0));
+        store.flush();
+        long oneRecord = mFile.length();
+        long maxLength = 0;
+        for (int i = 1; i <= 200; i++) {
+            store.put(entry("a", i));
+            store.flush();
+            maxLength = Math.max(maxLength, mFile.length());
+        }
+        // never more than the allowance of stale records
+        assertTrue(maxLength <= (4 + 64 + 1) * oneRecord);
+        assertTrue(mFile.length() < maxLength);
+        assertEquals(200, new ResumeStore(mFile).get("a").getPosition());
+        assertTrue(!new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void dropsTheLeastRecentlySaved() {
+        ResumeStore store = new ResumeStore(mFile);
+        for (int i = 0; i < ResumeStore.MAX_ENTRIES; i++) {
+            store.put(entry("u" + i, i));
+        }
+        // reading does not count, saving again does
+        store.get("u1");
+        store.put(entry("u0", 10000));
+        store.put(entry("new", 1));
+        assertNotNull(store.get("u0"));
+        assertNull(store.get("u1"));
+        assertNotNull(store.get("u2"));
+        store.flush();
+
+        ResumeStore reloaded = new ResumeStore(mFile);
+        assertEquals(10000, reloaded.get("u0").getPosition());
+        assertNull(reloaded.get("u1"));
+        assertNotNull(reloaded.get("new"));
+    }
+
+    @Test
+    public void keepsEntriesPutWhileLoading() {
+        ResumeStore store = new ResumeStore(mFile);
+        for (int i = 0; i < ResumeStore.MAX_ENTRIES; i++) {
+            store.put(entry("u" + i, i));
+        }
+        store.flush();
+
+        // put before the log is loaded, as from onPause right after a restart
+        ResumeStore reloaded = new ResumeStore(mFile);
+        reloaded.put(entry("u5", 5000));
+        reloaded.put(entry("new", 1));
+        reloaded.put(entry("other", 1));
+        reloaded.remove("u7");
+        assertEquals(5000, reloaded.get("u5").getPosition());
+        assertNull(reloaded.get("u7"));
+        assertNotNull(reloaded.get("new"));
+        // one more than fits, the loaded entries are older and the eldest of them makes room
+        assertNull(reloaded.get("u0"));
+        assertNotNull(reloaded.get("u1"));
+        reloaded.flush();
+
+        ResumeStore again = new ResumeStore(mFile);
+        assertNull(again.get("u0"));
+        assertNull(again.get("u7"));
+        assertEquals(5000, again.get("u5").getPosition());
+        assertNotNull(again.get("new"));
+        // the newer entries are the last to go
+        for (int i = 0; i < ResumeStore.MAX_ENTRIES; i++) {
+            again.put(entry("more" + i, i));
+        }
+        assertNull(again.get("u5"));
+        assertNotNull(again.get("more0"));
+    }
+
+    private void truncate(long length) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.getChannel().truncate(length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ResumeStore.Entry entry(String url, long position) {
+        return new ResumeStore.Entry(url, position, 0, 0, 0, 0, 0, false, false, position);
+    }
+}
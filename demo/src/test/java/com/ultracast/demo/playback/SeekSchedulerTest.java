@@ -0,0 +1,127 @@
+package com.ultracast.demo.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeekSchedulerTest {
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final List<Long> mStarted = new ArrayList<>();
+    private final List<Long> mLatencies = new ArrayList<>();
+    private int mCancelled;
+    private FakePlayer mPlayer;
+    private SeekScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mPlayer = FakePlayer.fromScript("startup=0 seek=200 buffer=10000", mClock);
+        mScheduler = new SeekScheduler(mPlayer, mClock);
+        mScheduler.setListener(new SeekScheduler.Listener() {
+            @Override
+            public void onSeekStarted(long msec) {
+                mStarted.add(msec);
+            }
+
+            @Override
+            public void onSeekCompleted(long latencyMs) {
+                mLatencies.add(latencyMs);
+            }
+
+            @Override
+            public void onSeekCancelled() {
+                mCancelled++;
+            }
+        });
+        mPlayer.addOnPlayerEventListener(new PlayerEventHub.Adapter() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                mScheduler.onPlayerStateChanged(playbackState);
+            }
+        });
+        mPlayer.openUrl(null, true, false);
+        mClock.advance(0);
+    }
+
+    @Test
+    public void completesWhenThePlayerIsReadyAgain() {
+        mScheduler.seekTo(60000);
+        assertTrue(mScheduler.isSeeking());
+        mClock.advance(200);
+        assertFalse(mScheduler.isSeeking());
+        assertEquals(Arrays.asList(200L), mLatencies);
+    }
+
+    @Test
+    public void completesSeeksWithinTheBufferAfterTheTimeout() {
+        mScheduler.seekTo(5000);
+        mClock.advance(249);
+        assertTrue(mScheduler.isSeeking());
+        mClock.advance(1);
+        assertEquals(Arrays.asList(250L), mLatencies);
+    }
+
+    @Test
+    public void issuesOnlyTheLatestTargetWhileInFlight() {
+        mScheduler.seekTo(60000);
+        mScheduler.seekTo(70000);
+        mScheduler.seekTo(80000);
+        mClock.advance(200);
+        assertEquals(Arrays.asList(60000L, 80000L), mStarted);
+        assertEquals(1, mScheduler.getCoalescedCount());
+        mClock.advance(200);
+        assertEquals(2, mPlayer.getSeekCount());
+        assertEquals(80000, mPlayer.getCurrentTime());
+    }
+
+    @Test
+    public void exactSeeksDropThePendingTarget() {
+        mScheduler.seekTo(60000);
+        mScheduler.seekTo(70000);
+        mScheduler.seekExact(90000);
+        mClock.advance(1000);
+        assertEquals(Arrays.asList(60000L, 90000L), mStarted);
+        assertEquals(90000 + 1000 - 200, mPlayer.getCurrentTime());
+    }
+
+    @Test
+    public void cancelForgetsEverything() {
+        mScheduler.seekTo(60000);
+        mScheduler.seekTo(70000);
+        mScheduler.cancel();
+        assertFalse(mScheduler.isSeeking());
+        mClock.advance(1000);
+        assertEquals(1, mPlayer.getSeekCount());
+        assertTrue(mLatencies.isEmpty());
+        assertEquals(1, mCancelled);
+    }
+
+    @Test
+    public void cancellingAnInFlightSeekEndsIt() {
+        // beyond the buffer, so it waits for the player
+        mScheduler.seekTo(60000);
+        mClock.advance(100);
+        mScheduler.cancel();
+        assertFalse(mScheduler.isSeeking());
+        assertEquals(1, mCancelled);
+        mClock.advance(1000);
+        assertTrue(mLatencies.isEmpty());
+
+        // nothing in flight, nothing to report
+        mScheduler.cancel();
+        assertEquals(1, mCancelled);
+
+        // and the next seek is issued right away
+        mScheduler.seekTo(80000);
+        assertEquals(Arrays.asList(60000L, 80000L), mStarted);
+        mClock.advance(200);
+        assertEquals(Arrays.asList(200L), mLatencies);
+    }
+}
@@ -0,0 +1,139 @@
+package com.ultracast.demo.playback;
+
+import android.view.Choreographer;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Deterministic time source and scheduler for the {@link FakePlayer} and the playback classes.
+ * <p>
+ * Time only moves with {@link #advanceTo(long)}, which runs the tasks that became due in time
+ * order, tasks due at the same time in the order they were scheduled. Display frames come every
+ * {@link #FRAME_MS}. The number of tasks and frames run is counted, i.e. the wakeups a real
+ * scheduler would have needed. Plain Java, not thread safe.
+ */
+class VirtualClock implements MainThreadClock {
+
+    static final long FRAME_MS = 16;
+
+    private static class Task {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+        final Choreographer.FrameCallback frameCallback;
+
+        Task(long time, long sequence, Runnable runnable, Choreographer.FrameCallback frameCallback) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+            this.frameCallback = frameCallback;
+        }
+    }
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>(16, new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            if (a.time != b.time) {
+                return a.time < b.time ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+        }
+    });
+    private long mNow;
+    private long mSequence;
+    private long mWakeups;
+    private long mFrames;
+
+    public long now() {
+        return mNow;
+    }
+
+    public void schedule(Runnable runnable, long delayMs) {
+        mTasks.add(new Task(mNow + Math.max(0, delayMs), mSequence++, runnable, null));
+    }
+
+    /**
+     * Removes every pending run of the runnable.
+     */
+    public void cancel(Runnable runnable) {
+        Iterator<Task> iterator = mTasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().runnable == runnable) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void advance(long ms) {
+        advanceTo(mNow + ms);
+    }
+
+    /**
+     * Moves time forward, running the tasks due on the way with the clock set to their time.
+     */
+    public void advanceTo(long time) {
+        while (!mTasks.isEmpty() && mTasks.peek().time <= time) {
+            Task task = mTasks.poll();
+            mNow = Math.max(mNow, task.time);
+            mWakeups++;
+            if (task.frameCallback != null) {
+                mFrames++;
+                task.frameCallback.doFrame(task.time * 1000000);
+            } else {
+                task.runnable.run();
+            }
+        }
+        mNow = Math.max(mNow, time);
+    }
+
+    public int getPendingCount() {
+        return mTasks.size();
+    }
+
+    public long getWakeups() {
+        return mWakeups;
+    }
+
+    /**
+     * @return frame callbacks run, also counted as wakeups
+     */
+    public long getFrames() {
+        return mFrames;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mNow;
+    }
+
+    /**
+     * Runs the callback with the next frame, the first one after now.
+     */
+    @Override
+    public void postFrameCallback(Choreographer.FrameCallback callback) {
+        long frame = (mNow / FRAME_MS + 1) * FRAME_MS;
+        mTasks.add(new Task(frame, mSequence++, null, callback));
+    }
+
+    @Override
+    public void removeFrameCallback(Choreographer.FrameCallback callback) {
+        Iterator<Task> iterator = mTasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().frameCallback == callback) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        schedule(task, delayMs);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        cancel(task);
+    }
+}
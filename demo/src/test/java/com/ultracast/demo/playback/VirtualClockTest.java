@@ -0,0 +1,88 @@
+package com.ultracast.demo.playback;
+
+import android.view.Choreographer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class VirtualClockTest {
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final List<String> mRuns = new ArrayList<>();
+
+    @Test
+    public void runsTasksInTimeOrder() {
+        mClock.schedule(record("b"), 200);
+        mClock.schedule(record("a"), 100);
+        mClock.schedule(record("c"), 200);
+        mClock.advanceTo(150);
+        assertEquals(Arrays.asList("a@100"), mRuns);
+        assertEquals(150, mClock.now());
+        mClock.advance(50);
+        assertEquals(Arrays.asList("a@100", "b@200", "c@200"), mRuns);
+        assertEquals(3, mClock.getWakeups());
+    }
+
+    @Test
+    public void cancelsEveryPendingRun() {
+        Runnable task = record("a");
+        mClock.schedule(task, 10);
+        mClock.postDelayed(task, 20);
+        mClock.schedule(record("b"), 30);
+        mClock.removeCallbacks(task);
+        mClock.advance(100);
+        assertEquals(Arrays.asList("b@30"), mRuns);
+        assertEquals(0, mClock.getPendingCount());
+    }
+
+    @Test
+    public void tasksScheduledWhileRunningRunOnTheWay() {
+        mClock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mClock.schedule(record("later"), 50);
+            }
+        }, 10);
+        mClock.advanceTo(100);
+        assertEquals(Arrays.asList("later@60"), mRuns);
+        assertEquals(2, mClock.getWakeups());
+    }
+
+    @Test
+    public void deliversFramesOnFrameBoundaries() {
+        final List<Long> frames = new ArrayList<>();
+        Choreographer.FrameCallback callback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                frames.add(frameTimeNanos / 1000000);
+                if (frames.size() < 3) {
+                    mClock.postFrameCallback(this);
+                }
+            }
+        };
+        mClock.advanceTo(5);
+        mClock.postFrameCallback(callback);
+        mClock.advance(1000);
+        assertEquals(Arrays.asList(16L, 32L, 48L), frames);
+        assertEquals(3, mClock.getFrames());
+
+        mClock.postFrameCallback(callback);
+        mClock.removeFrameCallback(callback);
+        mClock.advance(1000);
+        assertEquals(3, frames.size());
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mRuns.add(name + "@" + mClock.now());
+            }
+        };
+    }
+}
@@ -0,0 +1,40 @@
+package com.ultracast.demo.thumbnail;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThumbnailTrackTest {
+
+    @Test
+    public void replacesThePlaceholder() {
+        ThumbnailTrack track = new ThumbnailTrack("http://host/thumbs/sprite_%d.jpg", 5, 4, 2000);
+        assertEquals("http://host/thumbs/sprite_0.jpg", track.getSheetUrl(0));
+        assertEquals("http://host/thumbs/sprite_12.jpg", track.getSheetUrl(12));
+    }
+
+    @Test
+    public void keepsEscapesInTheUrl() {
+        ThumbnailTrack track = new ThumbnailTrack("http://host/my%20video/sprite_%d.jpg?sig=a%2Fb", 5, 4, 2000);
+        assertEquals("http://host/my%20video/sprite_3.jpg?sig=a%2Fb", track.getSheetUrl(3));
+    }
+
+    @Test
+    public void keepsUrlsWithoutPlaceholder() {
+        ThumbnailTrack track = new ThumbnailTrack("http://host/sprite.jpg", 5, 4, 2000);
+        assertEquals("http://host/sprite.jpg", track.getSheetUrl(1));
+    }
+
+    @Test
+    public void mapsTimesToSheetsAndTiles() {
+        // 20 thumbnails of 2 s per sheet, 40 s per sheet
+        ThumbnailTrack track = new ThumbnailTrack("sprite_%d.jpg", 5, 4, 2000);
+        assertEquals(0, track.getSheetIndex(0));
+        assertEquals(0, track.getTileIndex(0));
+        assertEquals(0, track.getSheetIndex(39999));
+        assertEquals(19, track.getTileIndex(39999));
+        assertEquals(1, track.getSheetIndex(40000));
+        assertEquals(0, track.getTileIndex(40000));
+        assertEquals(0, track.getSheetIndex(-1000));
+    }
+}
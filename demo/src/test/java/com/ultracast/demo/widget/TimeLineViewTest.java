@@ -0,0 +1,124 @@
+package com.ultracast.demo.widget;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class TimeLineViewTest {
+
+    // a minute of frames at 60 fps, more than enough to show one allocation per frame
+    private static final int FRAMES = 3600;
+
+    @Test
+    public void formatsMinutesAndSeconds() {
+        assertEquals("00:00", format(0));
+        assertEquals("00:00", format(999));
+        assertEquals("00:01", format(1000));
+        assertEquals("01:05", format(65 * 1000));
+        assertEquals("59:59", format(3599 * 1000));
+    }
+
+    @Test
+    public void formatsHours() {
+        assertEquals("1:00:00", format(3600 * 1000));
+        assertEquals("2:03:04", format((2 * 3600 + 3 * 60 + 4) * 1000));
+        assertEquals("100:00:00", format(100 * 3600 * 1000));
+    }
+
+    @Test
+    public void clampsNegativeTimes() {
+        assertEquals("00:00", format(-5000));
+    }
+
+    @Test
+    public void writesAfterTheStartIndex() {
+        // the live label keeps its "-" prefix
+        char[] label = new char[16];
+        label[0] = '-';
+        int length = TimeLineView.formatTime(75 * 1000, label, 1);
+        assertEquals("-01:15", new String(label, 0, length));
+    }
+
+    @Test
+    public void overwritesLongerLabels() {
+        char[] label = new char[16];
+        TimeLineView.formatTime(3600 * 1000, label, 0);
+        int length = TimeLineView.formatTime(1000, label, 0);
+        assertEquals("00:01", new String(label, 0, length));
+    }
+
+    @Test
+    public void placesTimesAlongTheBar() {
+        assertEquals(100, TimeLineView.positionOf(0, 60000, 100, 600));
+        assertEquals(400, TimeLineView.positionOf(30000, 60000, 100, 600));
+        assertEquals(700, TimeLineView.positionOf(60000, 60000, 100, 600));
+        // no duration, e.g. live, keeps the slider at the start
+        assertEquals(100, TimeLineView.positionOf(30000, 0, 100, 600));
+        assertEquals(100, TimeLineView.positionOf(-1000, 60000, 100, 600));
+    }
+
+    @Test
+    public void placesLongDurationsWithoutOverflow() {
+        int hundredHours = 100 * 3600 * 1000;
+        assertEquals(100 + 2000, TimeLineView.positionOf(hundredHours / 2, hundredHours, 100, 4000));
+        assertEquals(hundredHours / 2, TimeLineView.timeAt(100 + 2000, hundredHours, 100, 4000));
+    }
+
+    @Test
+    public void timesRoundTripWithinAPixel() {
+        int duration = 2 * 3600 * 1000;
+        int width = 1080;
+        for (int time = 0; time <= duration; time += 12345) {
+            int x = TimeLineView.positionOf(time, duration, 40, width);
+            int back = TimeLineView.timeAt(x, duration, 40, width);
+            assertTrue(back <= time && time - back < duration / width + 1);
+            // both round down
+            assertTrue(x - TimeLineView.positionOf(back, duration, 40, width) <= 1);
+        }
+    }
+
+    @Test
+    public void formattingFramesDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        char[] current = new char[16];
+        char[] duration = new char[16];
+        // steady state: warm up, then compare against the cost of measuring an empty loop
+        runFrames(current, duration, 0);
+        long threadId = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(threadId);
+        runFrames(current, duration, -1);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+        start = threads.getThreadAllocatedBytes(threadId);
+        runFrames(current, duration, 2 * 3600 * 1000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+        assertEquals("bytes allocated per frame", 0, allocated / FRAMES);
+    }
+
+    /**
+     * Formats the labels of one frame after the other the way setTime does, nothing if the start
+     * time is negative.
+     */
+    private static void runFrames(char[] current, char[] duration, int startTime) {
+        if (startTime < 0) {
+            return;
+        }
+        for (int i = 0; i < FRAMES; i++) {
+            TimeLineView.formatTime(startTime + i * 16, current, 0);
+            TimeLineView.formatTime(3 * 3600 * 1000, duration, 0);
+        }
+    }
+
+    private static String format(int msec) {
+        char[] label = new char[16];
+        return new String(label, 0, TimeLineView.formatTime(msec, label, 0));
+    }
+}
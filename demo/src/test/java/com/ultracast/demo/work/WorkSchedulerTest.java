@@ -0,0 +1,178 @@
+package com.ultracast.demo.work;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final WorkScheduler mScheduler = new WorkScheduler();
+    // lets the blocking tasks finish, so no test leaves busy threads behind
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+    }
+
+    @Test
+    public void playbackCriticalWorkNeverWaitsBehindSpeculativeWork() throws InterruptedException {
+        // housekeeping stuck, with a full queue
+        CountDownLatch housekeepingRunning = new CountDownLatch(1);
+        mScheduler.submit(WorkScheduler.LANE_HOUSEKEEPING, this, block(housekeepingRunning));
+        assertTrue(housekeepingRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            mScheduler.submit(WorkScheduler.LANE_HOUSEKEEPING, this, block(null));
+        }
+        CountDownLatch prefetchDone = new CountDownLatch(1);
+        mScheduler.submit(WorkScheduler.LANE_PREFETCH, this, countDown(prefetchDone));
+        assertTrue(prefetchDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // every prefetch thread stuck as well, with a full queue
+        CountDownLatch prefetchRunning = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            mScheduler.submit(WorkScheduler.LANE_PREFETCH, this, block(prefetchRunning));
+        }
+        // running before the queue fills up, or one of them could be dropped
+        assertTrue(prefetchRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 40; i++) {
+            mScheduler.submit(WorkScheduler.LANE_PREFETCH, this, block(null));
+        }
+        CountDownLatch userVisibleDone = new CountDownLatch(1);
+        mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, this, countDown(userVisibleDone));
+        assertTrue(userVisibleDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void dropsTheOldestQueuedTaskWhenFull() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        mScheduler.submit(WorkScheduler.LANE_HOUSEKEEPING, this, block(running));
+        assertTrue(running.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // one thread busy, 16 queued and 2 more
+        final AtomicInteger ran = new AtomicInteger();
+        final List<Integer> order = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 18; i++) {
+            final int index = i;
+            futures.add(mScheduler.submit(WorkScheduler.LANE_HOUSEKEEPING, this, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (order) {
+                        order.add(index);
+                    }
+                    ran.incrementAndGet();
+                }
+            }));
+        }
+        assertTrue(futures.get(0).isCancelled());
+        assertTrue(futures.get(1).isCancelled());
+        assertFalse(futures.get(2).isCancelled());
+        assertFalse(futures.get(17).isCancelled());
+
+        mRelease.countDown();
+        futures.get(17).get();
+        assertEquals(16, ran.get());
+        synchronized (order) {
+            assertEquals(2, (int) order.get(0));
+        }
+        // a drop is not a cancellation as well
+        assertEquals(2, count("housekeeping", "dropped"));
+        assertEquals(0, count("housekeeping", "cancelled"));
+    }
+
+    @Test
+    public void cancelsEverythingOfAnOwner() throws Exception {
+        Object gone = new Object();
+        Object staying = new Object();
+        // the three user visible threads busy, two of them for the owner going away
+        final CountDownLatch running = new CountDownLatch(3);
+        final CountDownLatch interrupted = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, gone, new Runnable() {
+                @Override
+                public void run() {
+                    running.countDown();
+                    try {
+                        mRelease.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+            });
+        }
+        mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, staying, block(running));
+        assertTrue(running.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        final AtomicInteger ranGone = new AtomicInteger();
+        List<Future<?>> queuedGone = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            queuedGone.add(mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, gone, new Runnable() {
+                @Override
+                public void run() {
+                    ranGone.incrementAndGet();
+                }
+            }));
+        }
+        CountDownLatch stayingDone = new CountDownLatch(1);
+        mScheduler.submit(WorkScheduler.LANE_USER_VISIBLE, staying, countDown(stayingDone));
+
+        mScheduler.cancelAll(gone);
+        assertTrue(interrupted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (Future<?> future : queuedGone) {
+            assertTrue(future.isCancelled());
+        }
+        // the freed threads go on with the work of others
+        assertTrue(stayingDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, ranGone.get());
+        assertEquals(7, count("user-visible", "cancelled"));
+        assertEquals(0, count("user-visible", "dropped"));
+    }
+
+    /**
+     * @param started counted down once running, or null
+     */
+    private Runnable block(final CountDownLatch started) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (started != null) {
+                    started.countDown();
+                }
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private int count(String lane, String name) {
+        String stats = mScheduler.getStats();
+        int start = stats.indexOf(lane + ": ");
+        start = stats.indexOf(name + " ", start) + name.length() + 1;
+        int end = stats.indexOf(',', start);
+        return Integer.parseInt(stats.substring(start, end));
+    }
+}
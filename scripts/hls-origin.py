@@ -0,0 +1,473 @@
+#!/usr/bin/env python3
+#
+# Local HLS origin with injected failures and network shaping, for the offline downloads, the live
+# mode and the playback benchmark of the demo app (see demo/.../download/DownloadManager.java,
+# demo/.../playback/LiveEdgeController.java and scripts/playback-benchmark.py).
+#
+# Generates DIR/master.m3u8 with three VOD variants of SEGMENTS segments each: plain segment
+# files for the lowest and highest, and for the middle one, which the downloader picks, an
+# EXT-X-MAP initialization section and byte range segments of one media file. Serves DIR on
+# PORT with range requests, makes it reachable from the connected device as
+# http://127.0.0.1:PORT/ with adb reverse, and fails media requests at random:
+#
+#   --fail-rate P   answers 503
+#   --cut-rate P    sends the headers and part of the body, then closes the connection
+#
+# Playlists are never failed. Add http://127.0.0.1:8000/master.m3u8 to the catalog, long press it
+# to download, and kill the app mid-download to check it continues from the partial files.
+#
+# With --live every variant is served as a live playlist instead: a WINDOW segment sliding window
+# which gains a segment every segment duration, looping over the segments with a discontinuity.
+# The generated segments are filler, for a stream the player can decode pass --source, a VOD media
+# playlist with its segments next to it, e.g. made with
+#
+#   ffmpeg -i in.mp4 -c copy -f hls -hls_time 2 -hls_playlist_type vod source/index.m3u8
+#
+# which is then looped as the only variant. --stall-every S --stall-ms M holds every request for the
+# last M ms of every S seconds, transfers under way pause as well, the player rebuffers and falls
+# behind the live edge. Play it with
+#
+#   adb shell am start -n com.ultracast.demo/.DemoActivity \
+#       --es autoplay_url http://127.0.0.1:8000/master.m3u8 --el live_latency_ms 6000
+#
+# and compare the "Live" line PlayerActivity logs when it stops with the target.
+#
+# The link to the device can be shaped: --bandwidth KBPS is shared by all connections, --latency MS
+# delays every response, give or take up to --jitter MS. --profile NAME sets the shaping, stalls
+# and failures of a network from PROFILES below, options given explicitly override it. The random
+# failures and jitter are reproducible with --seed.
+#
+# With --catalog URLS_JSON the entries of the app's catalog, demo/src/main/assets/urls.json, are
+# mirrored into DIR/catalog/N/ once, playlists rewritten to point at the local copies, and served
+# as well, so they play the same under any profile. DIR/catalog.json lists their local paths.
+#
+# On exit, ctrl-c or SIGTERM, prints the requests served, range requests, failures injected and
+# bytes sent, to compare with the "Downloaded" line DownloadManager logs.
+#
+# usage: scripts/hls-origin.py [--dir DIR] [--port PORT] [--segments N] [--segment-size BYTES]
+#                              [--fail-rate P] [--cut-rate P] [--seed N] [--no-adb]
+#                              [--live] [--window N] [--source PLAYLIST]
+#                              [--stall-every S] [--stall-ms M]
+#                              [--profile NAME] [--bandwidth KBPS] [--latency MS] [--jitter MS]
+#                              [--catalog URLS_JSON]
+
+import argparse
+import hashlib
+import http.server
+import json
+import os
+import random
+import re
+import signal
+import subprocess
+import sys
+import threading
+import time
+import urllib.parse
+import urllib.request
+
+VARIANTS = [("low", 1000000, False), ("mid", 3000000, True), ("high", 6000000, False)]
+SEGMENT_DURATION = 4
+INIT_SIZE = 1024
+RANGE = re.compile(r"bytes=(\d+)-(\d*)$")
+URI_ATTRIBUTE = re.compile(r'URI="([^"]+)"')
+CHUNK_SIZE = 16 * 1024
+
+# kbps, ms, ms, s, ms, P, P: rough figures of the networks the app is watched on
+PROFILES = {
+    "unshaped": {},
+    "3g": {"bandwidth": 750, "latency": 150, "jitter": 50, "stall_every": 30, "stall_ms": 1500,
+           "fail_rate": 0.01},
+    "lte-congested": {"bandwidth": 3000, "latency": 80, "jitter": 80, "stall_every": 20, "stall_ms": 1000,
+                      "fail_rate": 0.02, "cut_rate": 0.01},
+    "venue-wifi": {"bandwidth": 1500, "latency": 30, "jitter": 150, "stall_every": 12, "stall_ms": 3000,
+                   "fail_rate": 0.03, "cut_rate": 0.03},
+}
+
+
+def generate(directory, segments, segment_size):
+    master = ["#EXTM3U"]
+    for name, bitrate, packed in VARIANTS:
+        os.makedirs(os.path.join(directory, name), exist_ok=True)
+        size = int(segment_size * bitrate / VARIANTS[0][1])
+        playlist = ["#EXTM3U", "#EXT-X-VERSION:7", "#EXT-X-TARGETDURATION:%d" % SEGMENT_DURATION,
+                    "#EXT-X-PLAYLIST-TYPE:VOD"]
+        if packed:
+            write_filler(os.path.join(directory, name, "init.mp4"), INIT_SIZE)
+            write_filler(os.path.join(directory, name, "media.m4s"), size * segments)
+            playlist.append('#EXT-X-MAP:URI="init.mp4"')
+        for segment in range(segments):
+            playlist.append("#EXTINF:%d.0," % SEGMENT_DURATION)
+            if packed:
+                playlist.append("#EXT-X-BYTERANGE:%d@%d" % (size, size * segment))
+                playlist.append("media.m4s")
+            else:
+                write_filler(os.path.join(directory, name, "%d.ts" % segment), size)
+                playlist.append("%d.ts" % segment)
+        playlist.append("#EXT-X-ENDLIST")
+        with open(os.path.join(directory, name, "index.m3u8"), "w") as out:
+            out.write("\n".join(playlist) + "\n")
+        master.append("#EXT-X-STREAM-INF:BANDWIDTH=%d" % bitrate)
+        master.append(name + "/index.m3u8")
+    with open(os.path.join(directory, "master.m3u8"), "w") as out:
+        out.write("\n".join(master) + "\n")
+
+
+class LivePlaylist:
+    """Serves a VOD media playlist as a live one, looping its segments."""
+
+    def __init__(self, path, window, start):
+        self.window = window
+        self.start = start
+        self.header = []
+        self.entries = []
+        self.durations = []
+        entry = []
+        with open(path) as source:
+            for line in source.read().splitlines():
+                line = line.strip()
+                if not line or line.startswith("#EXT-X-PLAYLIST-TYPE") or line.startswith("#EXT-X-ENDLIST") \
+                        or line.startswith("#EXT-X-MEDIA-SEQUENCE"):
+                    continue
+                if line.startswith("#EXTINF:"):
+                    self.durations.append(float(line[len("#EXTINF:"):].split(",")[0]))
+                if not self.entries and not entry and not line.startswith("#EXTINF:"):
+                    self.header.append(line)
+                    continue
+                entry.append(line)
+                if not line.startswith("#"):
+                    self.entries.append(entry)
+                    entry = []
+        self.loop_duration = sum(self.durations)
+
+    def available(self, now):
+        """Segments published so far, the first WINDOW are there from the start."""
+        elapsed = now - self.start
+        loops = int(elapsed // self.loop_duration)
+        remainder = elapsed - loops * self.loop_duration
+        count = 0
+        while count < len(self.durations) and remainder >= self.durations[count]:
+            remainder -= self.durations[count]
+            count += 1
+        return self.window + loops * len(self.entries) + count
+
+    def render(self, now):
+        end = self.available(now)
+        first = max(0, end - self.window)
+        count = len(self.entries)
+        lines = list(self.header)
+        lines.append("#EXT-X-MEDIA-SEQUENCE:%d" % first)
+        # a discontinuity precedes every loop but the first
+        lines.append("#EXT-X-DISCONTINUITY-SEQUENCE:%d" % ((first - 1) // count if first > 0 else 0))
+        for sequence in range(first, end):
+            if sequence > 0 and sequence % count == 0:
+                lines.append("#EXT-X-DISCONTINUITY")
+            lines.extend(self.entries[sequence % count])
+        return "\n".join(lines) + "\n"
+
+
+def mirror_catalog(directory, catalog):
+    """Mirrors the catalog entries, returns the catalog with their paths relative to DIR."""
+    with open(catalog) as source:
+        entries = json.load(source)
+    local = []
+    for index, entry in enumerate(entries):
+        name = os.path.basename(urllib.parse.urlparse(entry["url"]).path) or "index"
+        path = os.path.join("catalog", str(index), name)
+        print("mirroring %s" % entry["url"])
+        mirror(entry["url"], os.path.join(directory, path), set())
+        local.append({"title": entry["title"], "url": path})
+    with open(os.path.join(directory, "catalog.json"), "w") as out:
+        json.dump(local, out, indent=2)
+    return local
+
+
+def mirror(url, path, done):
+    """Downloads url to path unless there already, and for a playlist everything it refers to."""
+    if path in done:
+        return
+    done.add(path)
+    if not os.path.exists(path):
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        with urllib.request.urlopen(url) as response, open(path + ".part", "wb") as out:
+            while True:
+                chunk = response.read(64 * 1024)
+                if not chunk:
+                    break
+                out.write(chunk)
+        os.rename(path + ".part", path)
+    if not path.endswith(".m3u8"):
+        return
+    with open(path) as source:
+        lines = source.read().splitlines()
+    base = urllib.parse.urljoin(url, ".")
+    children = []
+
+    def local(uri):
+        absolute = urllib.parse.urljoin(url, uri)
+        if absolute.startswith(base) and "?" not in absolute and "/../" not in absolute:
+            relative = absolute[len(base):]
+        else:
+            # elsewhere on the CDN, kept in a directory of its own per remote directory
+            remote = urllib.parse.urljoin(absolute, ".")
+            relative = "ext/%s/%s" % (hashlib.sha1(remote.encode("utf-8")).hexdigest()[:12],
+                                      os.path.basename(urllib.parse.urlparse(absolute).path))
+        children.append((absolute, relative))
+        return relative
+
+    rewritten = []
+    for line in lines:
+        stripped = line.strip()
+        if stripped and not stripped.startswith("#"):
+            line = local(stripped)
+        elif stripped.startswith("#"):
+            line = URI_ATTRIBUTE.sub(lambda match: 'URI="%s"' % local(match.group(1)), line)
+        rewritten.append(line)
+    for absolute, relative in children:
+        mirror(absolute, os.path.join(os.path.dirname(path), relative), done)
+    # rewritten last, an interrupted mirror is resumed from the original uris
+    if rewritten != lines:
+        with open(path, "w") as out:
+            out.write("\n".join(rewritten) + "\n")
+
+
+class Link:
+    """A link of a fixed bandwidth shared by all connections, sends queue up behind each other."""
+
+    def __init__(self, kbps):
+        self.bytes_per_second = kbps * 1000 / 8.0
+        self.lock = threading.Lock()
+        self.free = 0.0
+
+    def wait(self, size):
+        """Returns the seconds until size bytes queued now have gone through."""
+        with self.lock:
+            now = time.time()
+            self.free = max(now, self.free) + size / self.bytes_per_second
+            return self.free - now
+
+
+def write_filler(path, size):
+    if os.path.exists(path) and os.path.getsize(path) == size:
+        return
+    with open(path, "wb") as out:
+        out.write(os.urandom(size))
+
+
+class FlakyHandler(http.server.BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"
+    directory = "."
+    fail_rate = 0.0
+    cut_rate = 0.0
+    random = random.Random()
+    lock = threading.Lock()
+    stats = {}
+    # url path -> LivePlaylist, in live mode
+    live = {}
+    live_master = None
+    stall_every = 0.0
+    stall_ms = 0
+    start = 0.0
+    link = None
+    latency_ms = 0
+    jitter_ms = 0
+
+    def do_GET(self):
+        if self.stall_left() > 0:
+            self.count("stalled")
+            self.stall()
+        self.delay()
+        request_path = self.path.split("?")[0]
+        if request_path in self.live:
+            self.count("requests")
+            self.count("playlists")
+            self.send_body(self.live[request_path].render(time.time()).encode("utf-8"),
+                           "application/vnd.apple.mpegurl")
+            return
+        if request_path == "/master.m3u8" and self.live_master is not None:
+            self.count("requests")
+            self.send_body(self.live_master.encode("utf-8"), "application/vnd.apple.mpegurl")
+            return
+        path = os.path.normpath(os.path.join(self.directory, request_path.lstrip("/")))
+        if not path.startswith(os.path.abspath(self.directory)) or not os.path.isfile(path):
+            self.send_error(404)
+            return
+        size = os.path.getsize(path)
+        start, end = 0, size - 1
+        status = 200
+        header = self.headers.get("Range")
+        if header:
+            match = RANGE.match(header.strip())
+            if not match or int(match.group(1)) >= size:
+                self.count("unsatisfiable")
+                self.send_response(416)
+                self.send_header("Content-Range", "bytes */%d" % size)
+                self.send_header("Content-Length", "0")
+                self.end_headers()
+                return
+            start = int(match.group(1))
+            end = min(int(match.group(2)), size - 1) if match.group(2) else size - 1
+            status = 206
+            self.count("ranges")
+        media = not path.endswith(".m3u8")
+        with FlakyHandler.lock:
+            roll = FlakyHandler.random.random()
+        self.count("requests")
+        if media and roll < self.fail_rate:
+            self.count("failed")
+            self.send_error(503)
+            return
+        cut = media and roll < self.fail_rate + self.cut_rate
+        length = end - start + 1
+        self.send_response(status)
+        self.send_header("Content-Length", str(length))
+        self.send_header("Accept-Ranges", "bytes")
+        if status == 206:
+            self.send_header("Content-Range", "bytes %d-%d/%d" % (start, end, size))
+        self.end_headers()
+        if cut:
+            self.count("cut")
+            length = FlakyHandler.random.randrange(length)
+            self.close_connection = True
+        with open(path, "rb") as source:
+            source.seek(start)
+            while length > 0:
+                chunk = source.read(min(CHUNK_SIZE, length))
+                if not chunk:
+                    break
+                self.write(chunk)
+                length -= len(chunk)
+
+    def handle(self):
+        try:
+            super().handle()
+        except ConnectionError:
+            # the client gave up, e.g. on a stalled request
+            self.close_connection = True
+
+    def stall_left(self):
+        """Returns the seconds left of the stall under way, 0 if there is none."""
+        if self.stall_every <= 0:
+            return 0
+        left = self.stall_every - (time.time() - self.start) % self.stall_every
+        return left if left * 1000 <= self.stall_ms else 0
+
+    def stall(self):
+        """Holds the request or transfer until the stall it is in is over."""
+        time.sleep(self.stall_left())
+
+    def delay(self):
+        """Waits the latency of the link, give or take the jitter, before responding."""
+        if self.latency_ms <= 0 and self.jitter_ms <= 0:
+            return
+        with FlakyHandler.lock:
+            jitter = FlakyHandler.random.uniform(-self.jitter_ms, self.jitter_ms)
+        time.sleep(max(0, self.latency_ms + jitter) / 1000.0)
+
+    def write(self, data):
+        """Sends data in chunks at the bandwidth of the link, pausing during stalls."""
+        for offset in range(0, len(data), CHUNK_SIZE):
+            chunk = data[offset:offset + CHUNK_SIZE]
+            self.stall()
+            if self.link is not None:
+                wait = self.link.wait(len(chunk))
+                self.count("throttled_ms", int(wait * 1000))
+                time.sleep(wait)
+            self.wfile.write(chunk)
+            self.count("bytes", len(chunk))
+
+    def send_body(self, body, content_type):
+        self.send_response(200)
+        self.send_header("Content-Type", content_type)
+        self.send_header("Content-Length", str(len(body)))
+        self.send_header("Cache-Control", "no-cache")
+        self.end_headers()
+        self.write(body)
+
+    def count(self, key, amount=1):
+        with FlakyHandler.lock:
+            FlakyHandler.stats[key] = FlakyHandler.stats.get(key, 0) + amount
+
+    def log_message(self, format, *args):
+        pass
+
+
+def interrupt(signum, frame):
+    raise KeyboardInterrupt
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Serves an HLS fixture with injected failures.")
+    parser.add_argument("--dir", default="hls-fixture")
+    parser.add_argument("--port", type=int, default=8000)
+    parser.add_argument("--segments", type=int, default=30)
+    parser.add_argument("--segment-size", type=int, default=500000, help="bytes per segment of the lowest variant")
+    parser.add_argument("--fail-rate", type=float)
+    parser.add_argument("--cut-rate", type=float)
+    parser.add_argument("--seed", type=int, help="seed of the failures, random by default")
+    parser.add_argument("--no-adb", action="store_true", help="do not set up adb reverse")
+    parser.add_argument("--live", action="store_true", help="serve the variants as live playlists")
+    parser.add_argument("--window", type=int, default=6, help="segments in a live playlist")
+    parser.add_argument("--source", help="VOD media playlist looped as the live stream")
+    parser.add_argument("--stall-every", type=float, help="seconds between stalls")
+    parser.add_argument("--stall-ms", type=int, help="length of a stall")
+    parser.add_argument("--profile", choices=sorted(PROFILES), default="unshaped",
+                        help="network to simulate, explicit options override it")
+    parser.add_argument("--bandwidth", type=int, help="kbps shared by all connections, 0 for unlimited")
+    parser.add_argument("--latency", type=int, help="ms before every response")
+    parser.add_argument("--jitter", type=int, help="ms the latency varies by either way")
+    parser.add_argument("--catalog", help="urls.json of the app, whose entries are mirrored and served")
+    args = parser.parse_args()
+    for key in ("fail_rate", "cut_rate", "stall_every", "stall_ms", "bandwidth", "latency", "jitter"):
+        if getattr(args, key) is None:
+            setattr(args, key, PROFILES[args.profile].get(key, 0))
+
+    generate(args.dir, args.segments, args.segment_size)
+    if args.catalog:
+        mirror_catalog(args.dir, args.catalog)
+    FlakyHandler.start = time.time()
+    if args.live:
+        if args.source:
+            # served from the source directory, the playlist is rendered as /source/index.m3u8
+            FlakyHandler.live["/source/index.m3u8"] = LivePlaylist(args.source, args.window, FlakyHandler.start)
+            source_dir = os.path.join(args.dir, "source")
+            if os.path.lexists(source_dir):
+                os.remove(source_dir)
+            os.symlink(os.path.dirname(os.path.abspath(args.source)), source_dir)
+            FlakyHandler.live_master = "#EXTM3U\n#EXT-X-STREAM-INF:BANDWIDTH=%d\nsource/index.m3u8\n" % VARIANTS[1][1]
+        else:
+            for name, bitrate, packed in VARIANTS:
+                FlakyHandler.live["/%s/index.m3u8" % name] = LivePlaylist(
+                    os.path.join(args.dir, name, "index.m3u8"), args.window, FlakyHandler.start)
+    FlakyHandler.stall_every = args.stall_every
+    FlakyHandler.stall_ms = args.stall_ms
+    FlakyHandler.link = Link(args.bandwidth) if args.bandwidth > 0 else None
+    FlakyHandler.latency_ms = args.latency
+    FlakyHandler.jitter_ms = args.jitter
+    FlakyHandler.directory = os.path.abspath(args.dir)
+    FlakyHandler.fail_rate = args.fail_rate
+    FlakyHandler.cut_rate = args.cut_rate
+    FlakyHandler.random = random.Random(args.seed)
+    if not args.no_adb:
+        subprocess.call(["adb", "reverse", "tcp:%d" % args.port, "tcp:%d" % args.port])
+    server = http.server.ThreadingHTTPServer(("127.0.0.1", args.port), FlakyHandler)
+    # stopped by a script with a plain kill, the summary is printed all the same
+    signal.signal(signal.SIGTERM, interrupt)
+    print("serving %s on http://127.0.0.1:%d/master.m3u8 as %s, ctrl-c to stop" % (args.dir, args.port, args.profile))
+    sys.stdout.flush()
+    try:
+        server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+    finally:
+        server.server_close()
+        if not args.no_adb:
+            subprocess.call(["adb", "reverse", "--remove", "tcp:%d" % args.port])
+    for key in ("requests", "playlists", "ranges", "unsatisfiable", "failed", "cut", "stalled", "bytes",
+                "throttled_ms"):
+        print("%-14s %12d" % (key, FlakyHandler.stats.get(key, 0)))
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
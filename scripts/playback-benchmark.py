@@ -0,0 +1,159 @@
+#!/usr/bin/env python3
+#
+# Playback benchmark of the demo app under simulated networks.
+#
+# Plays every entry of the catalog, demo/src/main/assets/urls.json, under every network profile of
+# scripts/hls-origin.py, RUNS times each, from local mirrors of the entries so the numbers do not
+# depend on the CDN. Every run starts cold: the app data is cleared, so no cached segments,
+# manifests or resume positions, and the origin is restarted, so its stalls and seeded failures
+# line up with the launch the same way every time. The app opens the entry through
+# UC360Player.openUrl by the debug autoplay_url extra, plays for PLAY seconds and is sent home,
+# which logs the QoE report of the session (see demo/.../metrics/QoeSession.java).
+#
+# Prints a table of time to first frame (p50), rebuffer ratio and average bitrate (means) per
+# entry and profile, and writes every run, QoE report and origin counters, to REPORT as JSON lines.
+#
+# Requires a debug build installed on the connected device, adb and python3. The first run mirrors
+# the catalog into DIR, later ones reuse it.
+#
+# usage: scripts/playback-benchmark.py [--catalog URLS_JSON] [--dir DIR] [--port PORT]
+#                                      [--profiles A,B] [--items N,M] [--runs RUNS] [--play S]
+#                                      [--seed N] [--output REPORT]
+
+import argparse
+import json
+import math
+import os
+import signal
+import subprocess
+import sys
+import time
+
+PACKAGE = "com.ultracast.demo"
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+ORIGIN = os.path.join(ROOT, "scripts", "hls-origin.py")
+QOE_PREFIX = "QoE "
+REPORT_TIMEOUT = 15
+
+
+def adb(*args):
+    return subprocess.run(["adb"] + list(args), stdout=subprocess.PIPE, stderr=subprocess.DEVNULL,
+                          universal_newlines=True).stdout
+
+
+def start_origin(args, profile):
+    origin = subprocess.Popen([sys.executable, ORIGIN, "--dir", args.dir, "--port", str(args.port),
+                               "--catalog", args.catalog, "--profile", profile, "--seed", str(args.seed),
+                               "--no-adb"], stdout=subprocess.PIPE, universal_newlines=True)
+    # mirroring the catalog the first time takes a while
+    for line in origin.stdout:
+        if line.startswith("serving"):
+            return origin
+    raise RuntimeError("origin exited with %s" % origin.wait())
+
+
+def stop_origin(origin):
+    """Stops the origin, returns the counters it prints on exit."""
+    origin.send_signal(signal.SIGTERM)
+    counters = {}
+    for line in origin.stdout:
+        fields = line.split()
+        if len(fields) == 2 and fields[1].isdigit():
+            counters[fields[0]] = int(fields[1])
+    origin.wait()
+    return counters
+
+
+def play(url, seconds):
+    """Plays url on the device, returns the QoE report of the session or None."""
+    adb("shell", "pm", "clear", PACKAGE)
+    adb("logcat", "-c")
+    adb("shell", "am", "start", "-W", "-n", PACKAGE + "/.DemoActivity", "--es", "autoplay_url", url)
+    time.sleep(seconds)
+    # stopping the activity ends the session
+    adb("shell", "input", "keyevent", "KEYCODE_HOME")
+    report = None
+    deadline = time.time() + REPORT_TIMEOUT
+    while report is None and time.time() < deadline:
+        for line in adb("logcat", "-d", "-s", "PlayerActivity:I").splitlines():
+            if QOE_PREFIX in line:
+                report = json.loads(line[line.index(QOE_PREFIX) + len(QOE_PREFIX):])
+        if report is None:
+            time.sleep(1)
+    adb("shell", "am", "force-stop", PACKAGE)
+    return report
+
+
+def percentile(values, p):
+    values = sorted(values)
+    return values[max(0, int(math.ceil(p / 100.0 * len(values))) - 1)]
+
+
+def summarize(runs, titles, profiles):
+    print("%-40s %-14s %5s %9s %9s %9s %7s" % ("entry", "profile", "ok", "ttff p50", "rebuffer",
+                                              "kbps", "errors"))
+    for item in sorted(titles):
+        for profile in profiles:
+            selected = [run for run in runs if run["item"] == item and run["profile"] == profile]
+            played = [run["qoe"] for run in selected if run["qoe"] and run["qoe"]["ttff_ms"] >= 0]
+            errors = sum(sum(run["qoe"]["errors"].values()) for run in selected if run["qoe"])
+            if played:
+                print("%-40s %-14s %2d/%-2d %7d ms %8.2f%% %9d %7d" % (
+                    titles[item][:40], profile, len(played), len(selected),
+                    percentile([qoe["ttff_ms"] for qoe in played], 50),
+                    100.0 * sum(qoe["rebuffer"]["ratio"] for qoe in played) / len(played),
+                    sum(qoe["format"]["avg_bitrate"] for qoe in played) / len(played) / 1000, errors))
+            else:
+                print("%-40s %-14s %2d/%-2d %9s %9s %9s %7d" % (
+                    titles[item][:40], profile, 0, len(selected), "-", "-", "-", errors))
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Plays the catalog under simulated networks.")
+    parser.add_argument("--catalog", default=os.path.join(ROOT, "demo", "src", "main", "assets", "urls.json"))
+    parser.add_argument("--dir", default="hls-fixture")
+    parser.add_argument("--port", type=int, default=8000)
+    parser.add_argument("--profiles", default="unshaped,3g,lte-congested,venue-wifi")
+    parser.add_argument("--items", help="catalog indexes to play, all by default")
+    parser.add_argument("--runs", type=int, default=3)
+    parser.add_argument("--play", type=int, default=60, help="seconds to play every entry")
+    parser.add_argument("--seed", type=int, default=1, help="seed of the origin's failures and jitter")
+    parser.add_argument("--output", default="playback_benchmark.jsonl")
+    args = parser.parse_args()
+
+    with open(args.catalog) as source:
+        catalog = json.load(source)
+    items = [int(item) for item in args.items.split(",")] if args.items else range(len(catalog))
+    profiles = args.profiles.split(",")
+    titles = {item: catalog[item]["title"] for item in items}
+
+    adb("reverse", "tcp:%d" % args.port, "tcp:%d" % args.port)
+    runs = []
+    try:
+        with open(args.output, "w") as out:
+            for profile in profiles:
+                for item in items:
+                    for run in range(args.runs):
+                        origin = start_origin(args, profile)
+                        try:
+                            with open(os.path.join(args.dir, "catalog.json")) as source:
+                                path = json.load(source)[item]["url"]
+                            qoe = play("http://127.0.0.1:%d/%s" % (args.port, path), args.play)
+                        finally:
+                            counters = stop_origin(origin)
+                        result = {"profile": profile, "item": item, "title": titles[item], "run": run,
+                                  "qoe": qoe, "origin": counters}
+                        runs.append(result)
+                        out.write(json.dumps(result) + "\n")
+                        out.flush()
+                        print("%s, entry %d, run %d/%d: %s" % (
+                            profile, item, run + 1, args.runs,
+                            "ttff %d ms" % qoe["ttff_ms"] if qoe else "no QoE report"))
+    finally:
+        adb("reverse", "--remove", "tcp:%d" % args.port)
+    summarize(runs, titles, profiles)
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,126 @@
+#!/bin/sh
+#
+# Cold start and time to first frame benchmark for the demo app.
+#
+# Launches the catalog from a stopped process RUNS times, plays MEDIA once the list is shown and
+# collects the StartupTrace reports (see demo/.../metrics/StartupTrace.java). Prints p50/p90/p99 of
+# every section and of launch_to_list_ms / tap_to_first_frame_ms, and exits with 1 if a p90 is over
+# its budget, so it can gate a release.
+#
+# Requires a debug build installed on the connected device, adb and python3.
+#
+# usage: scripts/startup-benchmark.sh [-n RUNS] [-f FIXTURE_DIR] [-m MEDIA] [-o REPORT]
+#   -f  serves FIXTURE_DIR on port 8000 and makes it reachable from the device as
+#       http://127.0.0.1:8000/, MEDIA is then relative to it
+#   -m  media url or fixture path to play, default "sample.m3u8"
+#
+# budgets (p90, ms), unset means no gate:
+#   LAUNCH_TO_LIST_BUDGET_MS, TAP_TO_FIRST_FRAME_BUDGET_MS
+
+set -e
+
+PACKAGE=com.ultracast.demo
+REPORT_FILE=files/startup_trace.jsonl
+PORT=8000
+RUNS=20
+FIXTURES=
+MEDIA=sample.m3u8
+OUTPUT=startup_trace.jsonl
+
+while getopts "n:f:m:o:" option; do
+    case $option in
+        n) RUNS=$OPTARG ;;
+        f) FIXTURES=$OPTARG ;;
+        m) MEDIA=$OPTARG ;;
+        o) OUTPUT=$OPTARG ;;
+        *) sed -n '3,19p' "$0"; exit 2 ;;
+    esac
+done
+
+SERVER_PID=
+cleanup() {
+    if [ -n "$SERVER_PID" ]; then
+        kill "$SERVER_PID" 2>/dev/null || true
+        adb reverse --remove tcp:$PORT 2>/dev/null || true
+    fi
+}
+trap cleanup EXIT INT TERM
+
+case $MEDIA in
+    http://*|https://*) URL=$MEDIA ;;
+    *)
+        if [ -z "$FIXTURES" ]; then
+            echo "MEDIA is a fixture path, pass the fixture dir with -f" >&2
+            exit 2
+        fi
+        URL=http://127.0.0.1:$PORT/$MEDIA
+        ;;
+esac
+
+if [ -n "$FIXTURES" ]; then
+    python3 -m http.server $PORT --bind 127.0.0.1 --directory "$FIXTURES" > /dev/null 2>&1 &
+    SERVER_PID=$!
+    adb reverse tcp:$PORT tcp:$PORT > /dev/null
+fi
+
+adb shell run-as $PACKAGE rm -f $REPORT_FILE
+
+run=0
+while [ $run -lt "$RUNS" ]; do
+    adb shell am force-stop $PACKAGE
+    adb shell am start -W -n $PACKAGE/.DemoActivity --es autoplay_url "$URL" > /dev/null
+    # wait for the first frame report of this run
+    waited=0
+    while [ "$(adb shell run-as $PACKAGE cat $REPORT_FILE 2>/dev/null | grep -c tap_to_first_frame_ms)" -le $run ]; do
+        waited=$((waited + 1))
+        if [ $waited -gt 60 ]; then
+            echo "run $((run + 1)): no first frame after 60 s" >&2
+            exit 1
+        fi
+        sleep 1
+    done
+    run=$((run + 1))
+    echo "run $run/$RUNS done"
+done
+adb shell am force-stop $PACKAGE
+
+adb shell run-as $PACKAGE cat $REPORT_FILE > "$OUTPUT"
+
+python3 - "$OUTPUT" <<'EOF'
+import json
+import math
+import os
+import sys
+
+runs = [json.loads(line) for line in open(sys.argv[1]) if line.strip()]
+runs = [run for run in runs if 'tap_to_first_frame_ms' in run]
+
+def percentile(values, p):
+    values = sorted(values)
+    return values[max(0, int(math.ceil(p / 100.0 * len(values))) - 1)]
+
+metrics = {}
+for run in runs:
+    for key in ('launch_to_list_ms', 'tap_to_first_frame_ms'):
+        if key in run:
+            metrics.setdefault(key, []).append(run[key])
+    for section in run['sections']:
+        if section['duration_ms'] >= 0:
+            metrics.setdefault(section['name'], []).append(section['duration_ms'])
+
+print('%-32s %6s %8s %8s %8s' % ('metric', 'n', 'p50', 'p90', 'p99'))
+for name in sorted(metrics):
+    values = metrics[name]
+    print('%-32s %6d %8d %8d %8d' % (name, len(values), percentile(values, 50),
+                                      percentile(values, 90), percentile(values, 99)))
+
+failed = False
+for key, budget in (('launch_to_list_ms', 'LAUNCH_TO_LIST_BUDGET_MS'),
+                    ('tap_to_first_frame_ms', 'TAP_TO_FIRST_FRAME_BUDGET_MS')):
+    if budget in os.environ and key in metrics:
+        p90 = percentile(metrics[key], 90)
+        if p90 > int(os.environ[budget]):
+            print('%s p90 %d ms is over the %s ms budget' % (key, p90, os.environ[budget]))
+            failed = True
+sys.exit(1 if failed else 0)
+EOF
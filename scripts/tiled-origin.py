@@ -0,0 +1,133 @@
+#!/usr/bin/env python3
+#
+# Local origin serving a tiled 360 fixture, for the tiled streaming mode of the demo app
+# (see demo/.../tiles/TiledStreamLoader.java).
+#
+# Generates DIR/video.tiles.json with COLUMNS x ROWS tiles, every tile of every quality as a file
+# of the size its bitrate implies, serves DIR on PORT and makes it reachable from the connected
+# device as http://127.0.0.1:PORT/ with adb reverse. The player plays the monolithic stream,
+# MEDIA, an equirectangular mp4; without it a filler file is served and only the tile fetching
+# can be observed. The tiles are only fetched with the tiled_loading extra of a debug build, play it with
+#
+#   adb shell am start -n com.ultracast.demo/.DemoActivity \
+#       --es autoplay_url http://127.0.0.1:8000/video.tiles.json --ez tiled_loading true
+#
+# On exit, ctrl-c or SIGTERM, prints the bytes served for tiles per quality and for the monolithic stream, the
+# origin side of the "Tiles" line PlayerActivity logs when it stops, whose total bytes are both.
+#
+# usage: scripts/tiled-origin.py [--dir DIR] [--port PORT] [--columns N] [--rows N]
+#                                [--segments N] [--segment-duration MS] [--media MEDIA] [--no-adb]
+
+import argparse
+import functools
+import http.server
+import json
+import os
+import signal
+import subprocess
+import sys
+import threading
+
+QUALITIES = [("low", 1000000), ("high", 8000000)]
+MONOLITHIC_BITRATE = 8000000
+
+
+def generate(directory, columns, rows, segments, segment_duration, media):
+    tiles = columns * rows
+    seconds = segment_duration / 1000.0
+    qualities = []
+    for name, bitrate in QUALITIES:
+        os.makedirs(os.path.join(directory, name), exist_ok=True)
+        size = int(bitrate / 8 * seconds / tiles)
+        for segment in range(segments):
+            for tile in range(tiles):
+                path = os.path.join(directory, name, "%d_%d_%d.mp4" % (tile // columns, tile % columns, segment))
+                write_filler(path, size)
+        qualities.append({"bitrate": bitrate, "url": name + "/{row}_{column}_{segment}.mp4"})
+    monolithic = os.path.join(directory, "full.mp4")
+    if os.path.lexists(monolithic):
+        os.remove(monolithic)
+    if media:
+        os.symlink(os.path.abspath(media), monolithic)
+    else:
+        write_filler(monolithic, int(MONOLITHIC_BITRATE / 8 * seconds * segments))
+    manifest = {
+        "columns": columns,
+        "rows": rows,
+        "segment_duration": segment_duration,
+        "segments": segments,
+        "qualities": qualities,
+        "monolithic": {"bitrate": MONOLITHIC_BITRATE, "url": "full.mp4"},
+    }
+    with open(os.path.join(directory, "video.tiles.json"), "w") as out:
+        json.dump(manifest, out, indent=1)
+
+
+def write_filler(path, size):
+    if os.path.exists(path) and os.path.getsize(path) == size:
+        return
+    with open(path, "wb") as out:
+        out.write(os.urandom(size))
+
+
+class CountingHandler(http.server.SimpleHTTPRequestHandler):
+    lock = threading.Lock()
+    served = {}
+
+    def copyfile(self, source, outputfile):
+        bucket = self.path.lstrip("/").split("/")[0]
+        if "/" not in self.path.lstrip("/"):
+            bucket = "monolithic" if self.path.endswith(".mp4") else "manifest"
+        count = 0
+        while True:
+            chunk = source.read(64 * 1024)
+            if not chunk:
+                break
+            outputfile.write(chunk)
+            count += len(chunk)
+        with CountingHandler.lock:
+            CountingHandler.served[bucket] = CountingHandler.served.get(bucket, 0) + count
+
+    def log_message(self, format, *args):
+        pass
+
+
+def interrupt(signum, frame):
+    raise KeyboardInterrupt
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Serves a tiled 360 fixture.")
+    parser.add_argument("--dir", default="tiled-fixture")
+    parser.add_argument("--port", type=int, default=8000)
+    parser.add_argument("--columns", type=int, default=8)
+    parser.add_argument("--rows", type=int, default=4)
+    parser.add_argument("--segments", type=int, default=15)
+    parser.add_argument("--segment-duration", type=int, default=2000)
+    parser.add_argument("--media", help="mp4 served as the monolithic stream")
+    parser.add_argument("--no-adb", action="store_true", help="do not set up adb reverse")
+    args = parser.parse_args()
+
+    generate(args.dir, args.columns, args.rows, args.segments, args.segment_duration, args.media)
+    if not args.no_adb:
+        subprocess.call(["adb", "reverse", "tcp:%d" % args.port, "tcp:%d" % args.port])
+    handler = functools.partial(CountingHandler, directory=args.dir)
+    server = http.server.ThreadingHTTPServer(("127.0.0.1", args.port), handler)
+    # stopped by a script with a plain kill, the summary is printed all the same
+    signal.signal(signal.SIGTERM, interrupt)
+    print("serving %s on http://127.0.0.1:%d/video.tiles.json, ctrl-c to stop" % (args.dir, args.port))
+    try:
+        server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+    finally:
+        server.server_close()
+        if not args.no_adb:
+            subprocess.call(["adb", "reverse", "--remove", "tcp:%d" % args.port])
+    for bucket, count in sorted(CountingHandler.served.items()):
+        print("%-10s %12d bytes" % (bucket, count))
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())